@@ -16,6 +16,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.FileOutputStream;
@@ -25,7 +26,9 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -35,11 +38,14 @@ import org.junit.Test;
 
 import com.dynamo.bob.archive.ArchiveEntry;
 import com.dynamo.bob.archive.ArchiveBuilder;
+import com.dynamo.bob.archive.ArchiveCache;
 import com.dynamo.bob.archive.ArchiveReader;
 import com.dynamo.bob.archive.ManifestBuilder;
 import com.dynamo.bob.pipeline.ResourceNode;
 import com.dynamo.liveupdate.proto.Manifest.HashAlgorithm;
+import com.dynamo.liveupdate.proto.Manifest.ManifestFile;
 import com.dynamo.liveupdate.proto.Manifest.ResourceEntryFlag;
+import com.google.protobuf.ByteString;
 
 public class ArchiveTest {
 
@@ -218,6 +224,233 @@ public class ArchiveTest {
     	}
     }
 
+    private byte[][] writeArchive(ArchiveCache cache, List<String> filepaths) throws IOException {
+        return writeArchive(cache, ArchiveBuilder.DEFAULT_BUFFER_SIZE, filepaths);
+    }
+
+    private byte[][] writeArchive(ArchiveCache cache, int bufferSize, List<String> filepaths) throws IOException {
+        return writeArchive(cache, bufferSize, 1, filepaths);
+    }
+
+    // Entries are compressed except .ogg files
+    private byte[][] writeArchive(ArchiveCache cache, int bufferSize, int threadCount, List<String> filepaths) throws IOException {
+        ArchiveBuilder ab = new ArchiveBuilder(FilenameUtils.separatorsToSystem(contentRoot), manifestBuilder);
+        ab.setCache(cache);
+        ab.setBufferSize(bufferSize);
+        ab.setThreadCount(threadCount);
+        for (String filepath : filepaths) {
+            ab.add(filepath, !filepath.endsWith(".ogg"));
+        }
+        RandomAccessFile outFileIndex = new RandomAccessFile(outputIndex, "rw");
+        RandomAccessFile outFileData = new RandomAccessFile(outputData, "rw");
+        outFileIndex.setLength(0);
+        outFileData.setLength(0);
+        ab.write(outFileIndex, outFileData, resourcePackDir, new ArrayList<String>());
+        outFileIndex.close();
+        outFileData.close();
+        return new byte[][] { Files.readAllBytes(outputIndex.toPath()), Files.readAllBytes(outputData.toPath()) };
+    }
+
+    @Test
+    public void testArchiveCache() throws IOException {
+        List<String> filepaths = new ArrayList<String>();
+        filepaths.add(FilenameUtils.separatorsToSystem(createDummyFile(contentRoot, "a.txt", "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA".getBytes())));
+        filepaths.add(FilenameUtils.separatorsToSystem(createDummyFile(contentRoot, "b.txt", "abc123".getBytes())));
+        filepaths.add(FilenameUtils.separatorsToSystem(createDummyFile(contentRoot, "c.luac", "BBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBBB".getBytes())));
+
+        byte[][] expected = writeArchive(null, filepaths);
+
+        File cacheDir = Files.createTempDirectory("tmp.defold.archive_cache_").toFile();
+        try {
+            ArchiveCache cache = new ArchiveCache(cacheDir);
+            byte[][] actual = writeArchive(cache, filepaths);
+            assertEquals(0, cache.getHits());
+            assertEquals(3, cache.getMisses());
+            assertArrayEquals(expected[0], actual[0]);
+            assertArrayEquals(expected[1], actual[1]);
+
+            // Both compressed and uncompressed entries are reused
+            cache = new ArchiveCache(cacheDir);
+            actual = writeArchive(cache, filepaths);
+            assertEquals(3, cache.getHits());
+            assertEquals(0, cache.getMisses());
+            assertArrayEquals(expected[0], actual[0]);
+            assertArrayEquals(expected[1], actual[1]);
+
+            // Entries are removed when the cache grows beyond its max size
+            cache = new ArchiveCache(cacheDir, 0);
+            cache.prune();
+            actual = writeArchive(cache, filepaths);
+            assertEquals(0, cache.getHits());
+
+            // A cache that can't be written to, e.g. on a full disk, doesn't fail the archive
+            File notADir = new File(cacheDir, "file");
+            FileUtils.writeStringToFile(notADir, "not a directory");
+            cache = new ArchiveCache(notADir);
+            actual = writeArchive(cache, filepaths);
+            assertEquals(3, cache.getMisses());
+            assertArrayEquals(expected[0], actual[0]);
+            assertArrayEquals(expected[1], actual[1]);
+        } finally {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+    }
+
+    @Test
+    public void testAddAll() throws IOException {
+        List<String> filepaths = new ArrayList<String>();
+        for (int i = 0; i < 1000; ++i) {
+            filepaths.add(FilenameUtils.separatorsToSystem(createDummyFile(contentRoot, "file" + i + ".txt", new byte[i])));
+        }
+        ArchiveBuilder ab = new ArchiveBuilder(FilenameUtils.separatorsToSystem(contentRoot), manifestBuilder);
+        ab.setThreadCount(4);
+        ab.add(filepaths.get(10), true);
+        ab.addAll(filepaths, true);
+        ab.addAll(filepaths.subList(0, 100), true);
+        ab.add(filepaths.get(20), true);
+
+        // Duplicates are skipped, entries keep the order they were first added in
+        assertEquals(1000, ab.getArchiveEntrySize());
+        assertEquals("/file10.txt", ab.getArchiveEntry(0).relName);
+        assertEquals("/file0.txt", ab.getArchiveEntry(1).relName);
+        assertEquals(0, ab.getArchiveEntry(1).size);
+        assertEquals("/file999.txt", ab.getArchiveEntry(999).relName);
+        assertEquals(999, ab.getArchiveEntry(999).size);
+
+        try {
+            ab.addAll(Arrays.asList(FilenameUtils.concat(contentRoot, "missing.txt")), true);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testStreamedEntries() throws IOException {
+        Random random = new Random(1);
+        byte[] noise = new byte[5000];
+        random.nextBytes(noise);
+        byte[] compressible = new byte[5000];
+        for (int i = 0; i < compressible.length; ++i) {
+            compressible[i] = (byte) ('a' + (i / 100) % 26);
+        }
+        List<String> filepaths = new ArrayList<String>();
+        filepaths.add(FilenameUtils.separatorsToSystem(createDummyFile(contentRoot, "a.ogg", noise)));
+        filepaths.add(FilenameUtils.separatorsToSystem(createDummyFile(contentRoot, "b.ogg", "abc123".getBytes())));
+        filepaths.add(FilenameUtils.separatorsToSystem(createDummyFile(contentRoot, "c.texturec", compressible)));
+        filepaths.add(FilenameUtils.separatorsToSystem(createDummyFile(contentRoot, "d.texturec", noise)));
+        filepaths.add(FilenameUtils.separatorsToSystem(createDummyFile(contentRoot, "e.luac", compressible)));
+
+        byte[][] expected = writeArchive(null, filepaths);
+
+        // Entries larger than the buffers are streamed or get buffers of their own,
+        // the archive is the same regardless of buffer size
+        for (int bufferSize : new int[] { 64, 1000, 4096 }) {
+            byte[][] actual = writeArchive(null, bufferSize, filepaths);
+            assertArrayEquals(expected[0], actual[0]);
+            assertArrayEquals(expected[1], actual[1]);
+        }
+    }
+
+    /*
+     * Test that the archive and the manifest are the same regardless of the number of threads
+     * loading, compressing, encrypting and hashing the entries
+     */
+    @Test
+    public void testThreadCount() throws IOException {
+        Random random = new Random(2);
+        List<String> filepaths = new ArrayList<String>();
+        String[] extensions = { ".txt", ".ogg", ".luac", ".scriptc", ".texturec" };
+        for (int i = 0; i < 200; ++i) {
+            byte[] content = new byte[random.nextInt(i % 10 == 0 ? 20000 : 2000)];
+            if (i % 2 == 0) {
+                random.nextBytes(content);
+            } else {
+                Arrays.fill(content, (byte) ('a' + i % 26));
+            }
+            filepaths.add(FilenameUtils.separatorsToSystem(createDummyFile(contentRoot, "file" + i + extensions[i % extensions.length], content)));
+        }
+
+        byte[][] expected = null;
+        byte[] expectedManifest = null;
+        for (int threadCount : new int[] { 1, 4 }) {
+            manifestBuilder = new ManifestBuilder();
+            manifestBuilder.setResourceHashAlgorithm(HashAlgorithm.HASH_SHA1);
+            manifestBuilder.setProjectIdentifier("test");
+            byte[][] actual = writeArchive(null, 4096, threadCount, filepaths);
+            byte[] manifest = manifestBuilder.buildManifestData().toByteArray();
+            if (expected == null) {
+                expected = actual;
+                expectedManifest = manifest;
+            } else {
+                assertArrayEquals(expected[0], actual[0]);
+                assertArrayEquals(expected[1], actual[1]);
+                assertArrayEquals(expectedManifest, manifest);
+            }
+        }
+    }
+
+    @Test
+    public void testReadEntryContent() throws Exception {
+        byte[] compressible = "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA".getBytes();
+        String[][] files = {
+            { "a.txt", new String(compressible) },
+            { "b.txt", "abc123" },
+            { "c.luac", new String(compressible) + "c" },
+            { "d.scriptc", "function init(self) end" },
+        };
+
+        manifestBuilder.setProjectIdentifier("test");
+        ArchiveBuilder ab = new ArchiveBuilder(FilenameUtils.separatorsToSystem(contentRoot), manifestBuilder);
+        for (String[] file : files) {
+            ab.add(FilenameUtils.separatorsToSystem(createDummyFile(contentRoot, file[0], file[1].getBytes())), true);
+        }
+        RandomAccessFile outFileIndex = new RandomAccessFile(outputIndex, "rw");
+        RandomAccessFile outFileData = new RandomAccessFile(outputData, "rw");
+        outFileIndex.setLength(0);
+        outFileData.setLength(0);
+        ab.write(outFileIndex, outFileData, resourcePackDir, new ArrayList<String>());
+        outFileIndex.close();
+        outFileData.close();
+
+        File manifest = Files.createTempFile("tmp.defold", "dmanifest").toFile();
+        ManifestFile.Builder manifestFileBuilder = ManifestFile.newBuilder();
+        manifestFileBuilder.setData(manifestBuilder.buildManifestData().toByteString());
+        manifestFileBuilder.setSignature(ByteString.EMPTY);
+        manifestFileBuilder.setArchiveIdentifier(ByteString.EMPTY);
+        Files.write(manifest.toPath(), manifestFileBuilder.build().toByteArray());
+
+        try {
+            for (boolean memoryMapped : new boolean[] { false, true }) {
+                ArchiveReader ar = new ArchiveReader(outputIndex.getAbsolutePath(), outputData.getAbsolutePath(), manifest.getAbsolutePath(), memoryMapped);
+                ar.read();
+                assertEquals(files.length, ar.getEntries().size());
+                for (String[] file : files) {
+                    ArchiveEntry entry = null;
+                    for (ArchiveEntry e : ar.getEntries()) {
+                        if (e.fileName.equals("/" + file[0])) {
+                            entry = e;
+                        }
+                    }
+                    assertArrayEquals(file[1].getBytes(), ar.getEntryContent(entry));
+                    assertTrue(entry == ar.getEntry(entry.hash));
+                }
+                ArchiveEntry compressed = ar.getEntries().get(0);
+                for (ArchiveEntry e : ar.getEntries()) {
+                    if (e.fileName.equals("/a.txt")) {
+                        compressed = e;
+                    }
+                }
+                assertTrue(compressed.compressedSize != ArchiveEntry.FLAG_UNCOMPRESSED);
+                assertEquals(compressed.compressedSize, ar.getEntryData(compressed).remaining());
+                assertEquals(null, ar.getEntry(new byte[] { 1, 2, 3 }));
+                ar.close();
+            }
+        } finally {
+            FileUtils.deleteQuietly(manifest);
+        }
+    }
+
     @Test
     public void testLoadResourceData() throws Exception {
         byte[] content = "Hello, world".getBytes();
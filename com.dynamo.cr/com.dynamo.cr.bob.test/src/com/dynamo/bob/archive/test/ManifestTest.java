@@ -539,4 +539,76 @@ public class ManifestTest {
         assertEquals("/main/main.collectionc",          parents.get(0).get(0));
     }
 
+
+    // Synthetic tree of about 50k nodes: a main collection with proxies to levels,
+    // each level with game objects sharing scripts and textures
+    private ResourceNode createLargeDependencies(List<String> paths) {
+        ResourceNode root = new ResourceNode("<Anonymous Root>", "<Anonymous Root>");
+        ResourceNode main = new ResourceNode("/main/main.collectionc", "main.collectionc");
+        root.addChild(main);
+        paths.add(main.relativeFilepath);
+        for (int level = 0; level < 100; ++level) {
+            ResourceNode proxy = new ResourceNode("/level" + level + ".collectionproxyc", "");
+            ResourceNode collection = new ResourceNode("/level" + level + ".collectionc", "");
+            main.addChild(proxy);
+            proxy.addChild(collection);
+            paths.add(proxy.relativeFilepath);
+            paths.add(collection.relativeFilepath);
+            for (int go = 0; go < 50; ++go) {
+                ResourceNode gameObject = new ResourceNode("/level" + level + "/go" + go + ".goc", "");
+                collection.addChild(gameObject);
+                paths.add(gameObject.relativeFilepath);
+                for (int component = 0; component < 9; ++component) {
+                    // Every other component is shared with all levels
+                    String path = component % 2 == 0 ? "/shared/component" + component + ".spritec" : "/level" + level + "/go" + go + "_" + component + ".scriptc";
+                    gameObject.addChild(new ResourceNode(path, ""));
+                    if ((level == 0 && go == 0) || component % 2 != 0) {
+                        paths.add(path);
+                    }
+                }
+            }
+        }
+        return root;
+    }
+
+    @Test
+    public void testLargeDependencies() throws Exception {
+        List<String> paths = new ArrayList<String>();
+        ResourceNode root = createLargeDependencies(paths);
+        ManifestBuilder manifestBuilder = new ManifestBuilder();
+        manifestBuilder.setResourceHashAlgorithm(HashAlgorithm.HASH_SHA1);
+        manifestBuilder.setSignatureHashAlgorithm(HashAlgorithm.HASH_SHA1);
+        manifestBuilder.setSignatureSignAlgorithm(SignAlgorithm.SIGN_RSA);
+        manifestBuilder.setProjectIdentifier("large project");
+        manifestBuilder.setDependencies(root);
+        for (String path : paths) {
+            manifestBuilder.addResourceEntry(path, path.getBytes(), ResourceEntryFlag.BUNDLED.getNumber());
+        }
+
+        int parentCount = 0;
+        for (String path : paths) {
+            parentCount += manifestBuilder.getParentCollections(path).size();
+        }
+
+        ManifestData data = manifestBuilder.buildManifestData();
+
+        // Shared components occur once per game object in every level
+        List<ArrayList<String>> parents = manifestBuilder.getParentCollections("/shared/component2.spritec");
+        assertEquals(100 * 50, parents.size());
+        assertEquals("/level99.collectionc", parents.get(parents.size() - 1).get(0));
+        assertEquals("/level99.collectionproxyc", parents.get(parents.size() - 1).get(1));
+        assertEquals("/main/main.collectionc", parents.get(parents.size() - 1).get(2));
+        assertEquals(paths.size() + 5 * (100 * 50 - 1), parentCount);
+
+        assertEquals(paths.size(), data.getResourcesCount());
+        for (ResourceEntry entry : data.getResourcesList()) {
+            if (entry.getUrl().equals("/main/main.collectionc")) {
+                // Proxies are leaves
+                assertEquals(100, entry.getDependantsCount());
+            } else if (entry.getUrl().equals("/level0.collectionc")) {
+                assertEquals(50 * 10, entry.getDependantsCount());
+            }
+        }
+    }
+
 }
@@ -0,0 +1,296 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.archive.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.bio.SocketConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.dynamo.bob.archive.publisher.AWSPublisher;
+import com.dynamo.bob.archive.publisher.PublisherSettings;
+import com.dynamo.bob.archive.publisher.ZipPublisher;
+
+public class PublisherTest {
+
+    private static final String BUCKET = "test-bucket";
+
+    private File tempDir;
+    private Server httpServer;
+    private S3Handler s3Handler;
+    private String endpoint;
+
+    /**
+     * Minimal S3 compatible service, the requests made by AWSPublisher with path style access
+     */
+    private static class S3Handler extends AbstractHandler {
+        SortedMap<String, byte[]> objects = new TreeMap<String, byte[]>();
+        List<String> putKeys = new ArrayList<String>();
+
+        @Override
+        public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
+            baseRequest.setHandled(true);
+            String path = target.substring(1);
+            int slash = path.indexOf('/');
+            String bucket = slash < 0 ? path : path.substring(0, slash);
+            String key = slash < 0 ? null : path.substring(slash + 1);
+            if (!BUCKET.equals(bucket)) {
+                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+            String method = request.getMethod();
+            if (key == null || key.isEmpty()) {
+                if (method.equals("HEAD")) {
+                    response.setStatus(HttpServletResponse.SC_OK);
+                } else if (request.getParameter("acl") != null) {
+                    writeXml(response, "<AccessControlPolicy><Owner><ID>owner</ID></Owner><AccessControlList>"
+                            + "<Grant><Grantee xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:type=\"CanonicalUser\"><ID>owner</ID></Grantee>"
+                            + "<Permission>FULL_CONTROL</Permission></Grant></AccessControlList></AccessControlPolicy>");
+                } else {
+                    writeXml(response, listObjects(request.getParameter("prefix"), request.getParameter("marker")));
+                }
+            } else if (method.equals("PUT")) {
+                byte[] content = IOUtils.toByteArray(request.getInputStream());
+                synchronized (this) {
+                    objects.put(key, content);
+                    putKeys.add(key);
+                }
+                response.setHeader("ETag", "\"" + md5(content) + "\"");
+                response.setStatus(HttpServletResponse.SC_OK);
+            } else {
+                response.setStatus(HttpServletResponse.SC_NOT_IMPLEMENTED);
+            }
+        }
+
+        // At most two objects per listing, so the publisher has to page
+        private synchronized String listObjects(String prefix, String marker) {
+            StringBuilder xml = new StringBuilder("<ListBucketResult><Name>" + BUCKET + "</Name>");
+            int count = 0;
+            boolean truncated = false;
+            for (Map.Entry<String, byte[]> entry : objects.entrySet()) {
+                String key = entry.getKey();
+                if ((prefix != null && !key.startsWith(prefix)) || (marker != null && key.compareTo(marker) <= 0)) {
+                    continue;
+                }
+                if (count == 2) {
+                    truncated = true;
+                    break;
+                }
+                xml.append("<Contents><Key>" + key + "</Key><LastModified>2020-01-01T00:00:00.000Z</LastModified>"
+                        + "<ETag>&quot;" + md5(entry.getValue()) + "&quot;</ETag><Size>" + entry.getValue().length + "</Size>"
+                        + "<StorageClass>STANDARD</StorageClass></Contents>");
+                ++count;
+            }
+            xml.append("<IsTruncated>" + truncated + "</IsTruncated></ListBucketResult>");
+            return xml.toString();
+        }
+
+        private static void writeXml(HttpServletResponse response, String xml) throws IOException {
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType("application/xml");
+            response.getOutputStream().write(("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + xml).getBytes("UTF-8"));
+        }
+    }
+
+    /**
+     * Publisher with fixed credentials. The client is configured from the settings, i.e. the
+     * endpoint of the local service with path style access.
+     */
+    private class TestAWSPublisher extends AWSPublisher {
+        public TestAWSPublisher(PublisherSettings settings) {
+            super(settings);
+        }
+
+        @Override
+        protected AWSCredentialsProvider createCredentials() {
+            return new AWSStaticCredentialsProvider(new BasicAWSCredentials("access", "secret"));
+        }
+
+        @Override
+        protected ClientConfiguration createClientConfiguration() {
+            // Signature version 2 sends the content as is, the local service doesn't decode chunked payloads
+            ClientConfiguration configuration = super.createClientConfiguration();
+            configuration.setSignerOverride("S3SignerType");
+            return configuration;
+        }
+    }
+
+    private static String md5(byte[] content) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("MD5").digest(content)) {
+                hex.append(String.format("%02x", b & 0xff));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDirectory("defold_publisher_").toFile();
+
+        s3Handler = new S3Handler();
+        httpServer = new Server();
+        SocketConnector connector = new SocketConnector();
+        connector.setPort(0);
+        httpServer.addConnector(connector);
+        httpServer.setHandler(s3Handler);
+        httpServer.start();
+        endpoint = "http://localhost:" + connector.getLocalPort();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        httpServer.stop();
+        FileUtils.deleteDirectory(tempDir);
+    }
+
+    private File createEntry(String name, byte[] content) throws IOException {
+        File file = new File(tempDir, name);
+        FileUtils.writeByteArrayToFile(file, content);
+        return file;
+    }
+
+    private static byte[] randomContent(Random random) {
+        byte[] content = new byte[1 + random.nextInt(100000)];
+        random.nextBytes(content);
+        return content;
+    }
+
+    private PublisherSettings createAmazonSettings() {
+        PublisherSettings settings = new PublisherSettings();
+        settings.setMode(PublisherSettings.PublishMode.Amazon);
+        settings.setAmazonBucket(BUCKET);
+        settings.setAmazonPrefix("game");
+        settings.setAmazonCredentialProfile("default");
+        settings.setAmazonEndpoint(endpoint);
+        return settings;
+    }
+
+    @Test
+    public void testAWSPublishChanged() throws Exception {
+        Random random = new Random(1);
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < 20; ++i) {
+            names.add(String.format("%040x", i));
+        }
+
+        AWSPublisher publisher = new TestAWSPublisher(createAmazonSettings());
+        publisher.setThreadCount(4);
+        for (String name : names) {
+            publisher.AddEntry(name, createEntry(name, randomContent(random)));
+        }
+        publisher.AddEntry("liveupdate.game.dmanifest", createEntry("liveupdate.game.dmanifest", randomContent(random)));
+        publisher.Publish();
+        assertEquals(21, publisher.getUploadCount());
+        assertEquals(0, publisher.getSkipCount());
+        assertEquals(21, s3Handler.objects.size());
+        // The manifest is uploaded after all resources
+        assertEquals(21, s3Handler.putKeys.size());
+        assertEquals("game/liveupdate.game.dmanifest", s3Handler.putKeys.get(20));
+        for (String name : names) {
+            byte[] expected = FileUtils.readFileToByteArray(new File(tempDir, name));
+            assertArrayEquals(expected, s3Handler.objects.get("game/" + name));
+        }
+
+        // Publish again with two changed resources and a new manifest
+        publisher = new TestAWSPublisher(createAmazonSettings());
+        publisher.setThreadCount(4);
+        for (int i = 0; i < names.size(); ++i) {
+            String name = names.get(i);
+            File file = new File(tempDir, name);
+            if (i == 3 || i == 7) {
+                file = createEntry(name, randomContent(random));
+            }
+            publisher.AddEntry(name, file);
+        }
+        byte[] manifest = randomContent(random);
+        publisher.AddEntry("liveupdate.game.dmanifest", createEntry("liveupdate.game.dmanifest", manifest));
+        publisher.Publish();
+        assertEquals(3, publisher.getUploadCount());
+        assertEquals(18, publisher.getSkipCount());
+        assertEquals(24, s3Handler.putKeys.size());
+        assertEquals("game/liveupdate.game.dmanifest", s3Handler.putKeys.get(23));
+        assertArrayEquals(FileUtils.readFileToByteArray(new File(tempDir, names.get(3))), s3Handler.objects.get("game/" + names.get(3)));
+        assertArrayEquals(manifest, s3Handler.objects.get("game/liveupdate.game.dmanifest"));
+    }
+
+    @Test
+    public void testZipPublishStored() throws Exception {
+        Random random = new Random(2);
+        File zipDir = new File(tempDir, "zip");
+        zipDir.mkdirs();
+        PublisherSettings settings = new PublisherSettings();
+        settings.setMode(PublisherSettings.PublishMode.Zip);
+        settings.setZipFilepath(zipDir.getAbsolutePath());
+        ZipPublisher publisher = new ZipPublisher(settings);
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < 10; ++i) {
+            String name = String.format("%040x", i);
+            names.add(name);
+            publisher.AddEntry(name, createEntry(name, randomContent(random)));
+        }
+        publisher.Publish();
+
+        File[] zips = zipDir.listFiles();
+        assertEquals(1, zips.length);
+        ZipFile zipFile = new ZipFile(zips[0]);
+        try {
+            int count = 0;
+            for (Enumeration<? extends ZipEntry> entries = zipFile.entries(); entries.hasMoreElements(); ++count) {
+                ZipEntry entry = entries.nextElement();
+                assertEquals(ZipEntry.STORED, entry.getMethod());
+                assertTrue(names.contains(entry.getName()));
+                byte[] expected = FileUtils.readFileToByteArray(new File(tempDir, entry.getName()));
+                assertArrayEquals(expected, IOUtils.toByteArray(zipFile.getInputStream(entry)));
+            }
+            assertEquals(names.size(), count);
+        } finally {
+            zipFile.close();
+        }
+    }
+}
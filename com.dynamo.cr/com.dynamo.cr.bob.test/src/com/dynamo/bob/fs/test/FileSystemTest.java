@@ -12,12 +12,20 @@
 
 package com.dynamo.bob.fs.test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.nio.file.Files;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.io.FilenameUtils;
 import org.junit.After;
@@ -60,6 +68,54 @@ public class FileSystemTest {
         assertTrue(results.contains("test_lib4.zip"));
     }
 
+    private static byte[] sha1(byte[] content) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA1");
+        return digest.digest(content);
+    }
+
+    @Test
+    public void testDigestCache() throws Exception {
+        File root = Files.createTempDirectory("defold_").toFile();
+        new File(root, "build").mkdirs();
+        new File(root, "main").mkdirs();
+        final int count = 100;
+        for (int i = 0; i < count; ++i) {
+            Files.write(new File(root, "main/file" + i).toPath(), ("content" + i).getBytes());
+        }
+
+        final DefaultFileSystem fs = new DefaultFileSystem();
+        fs.setRootDirectory(root.getAbsolutePath());
+        fs.setBuildDirectory("build");
+        fs.loadCache();
+
+        // Digests are requested concurrently by build threads
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<byte[]>> digests = new ArrayList<Future<byte[]>>();
+        for (int i = 0; i < count; ++i) {
+            final String path = "main/file" + i;
+            digests.add(executor.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    return fs.get(path).sha1();
+                }
+            }));
+        }
+        for (int i = 0; i < count; ++i) {
+            assertArrayEquals(sha1(("content" + i).getBytes()), digests.get(i).get());
+        }
+        executor.shutdown();
+        fs.saveCache();
+
+        // Changed files are detected when the cache is loaded again
+        Files.write(new File(root, "main/file1").toPath(), "changed content".getBytes());
+        DefaultFileSystem fs2 = new DefaultFileSystem();
+        fs2.setRootDirectory(root.getAbsolutePath());
+        fs2.setBuildDirectory("build");
+        fs2.loadCache();
+        assertArrayEquals(sha1("changed content".getBytes()), fs2.get("main/file1").sha1());
+        assertArrayEquals(sha1("content2".getBytes()), fs2.get("main/file2").sha1());
+    }
+
     private static class ZipWalker extends FileSystemWalker {
         @Override
         public void handleFile(String path, Collection<String> results) {
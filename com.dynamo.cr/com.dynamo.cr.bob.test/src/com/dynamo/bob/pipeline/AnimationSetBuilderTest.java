@@ -13,12 +13,15 @@
 package com.dynamo.bob.pipeline;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -27,6 +30,7 @@ import org.apache.commons.io.IOUtils;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.dynamo.bob.Builder;
 import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.util.MurmurHash;
 import com.dynamo.rig.proto.Rig.AnimationSet;
@@ -65,6 +69,22 @@ public class AnimationSetBuilderTest extends AbstractProtoBuilderTest {
         addFile(resourcFilePath, os.toByteArray());
     }
 
+    private byte[] signature(Builder<Void> builder) throws Exception {
+        builder.setProject(GetProject());
+        MessageDigest digest = MessageDigest.getInstance("SHA1");
+        builder.signature(digest);
+        return digest.digest();
+    }
+
+    @Test
+    public void testKeyframeToleranceSignature() throws Exception {
+        byte[] animationSet = signature(new AnimationSetBuilder());
+        byte[] model = signature(new ColladaModelBuilder());
+        GetProject().setOption("animation-keyframe-tolerance", "0.01");
+        assertFalse(Arrays.equals(animationSet, signature(new AnimationSetBuilder())));
+        assertFalse(Arrays.equals(model, signature(new ColladaModelBuilder())));
+    }
+
     @Test
     public void testAnimationSet() throws Exception {
         addTestFile("testanim.dae", "testanim.dae");
@@ -18,14 +18,22 @@ import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.nio.ByteOrder;
 import java.nio.ShortBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.StringTokenizer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import javax.vecmath.Point3d;
 import javax.vecmath.Point4i;
 import javax.vecmath.Quat4d;
 import javax.vecmath.Tuple3d;
@@ -35,10 +43,15 @@ import javax.vecmath.Tuple4i;
 import javax.vecmath.Vector3d;
 import javax.vecmath.Vector4f;
 
+import org.apache.commons.io.IOUtils;
+import org.jagatoo.loaders.models.collada.stax.NumberArrayScanner;
+import org.jagatoo.loaders.models.collada.stax.XMLFloatArray;
+import org.jagatoo.loaders.models.collada.stax.XMLIntArray;
 import org.junit.Test;
 
 import com.dynamo.bob.util.MathUtil;
 import com.dynamo.bob.util.MurmurHash;
+import com.dynamo.bob.util.RigUtil;
 
 import com.dynamo.proto.DdfMath.Point3;
 import com.dynamo.proto.DdfMath.Quat;
@@ -1052,6 +1065,331 @@ public class ColladaUtilTest {
         assertEquals(3, indices.get(5));
     }
 
+    private int[] getIndices(Rig.Mesh mesh) {
+        ShortBuffer buffer = mesh.getIndices().asReadOnlyByteBuffer().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+        int[] indices = new int[buffer.remaining()];
+        for (int i = 0; i < indices.length; ++i) {
+            indices[i] = buffer.get(i) & 0xffff;
+        }
+        return indices;
+    }
+
+    private List<String> getTriangles(Rig.Mesh mesh, int[] indices) {
+        List<String> triangles = new ArrayList<String>();
+        for (int i = 0; i < indices.length; i += 3) {
+            triangles.add(String.format("%s %s %s", mesh.getVertices(indices[i]), mesh.getVertices(indices[i+1]), mesh.getVertices(indices[i+2])));
+        }
+        Collections.sort(triangles);
+        return triangles;
+    }
+
+    /*
+     * Test that shared vertices are unique and that the index buffer refers to the vertex of each corner,
+     * and that reordering the triangles for the vertex cache keeps the same triangles.
+     */
+    @Test
+    public void testSharedVertices() throws Exception {
+        for (String path : new String[] {"maya_quad.dae", "bone_box5.dae", "chest_model_noskin.dae"}) {
+            Rig.MeshSet.Builder meshSet = Rig.MeshSet.newBuilder();
+            ColladaUtil.loadMesh(load(path), meshSet, true);
+            Rig.Mesh mesh = meshSet.getMeshAttachments(0);
+            int[] indices = getIndices(mesh);
+            assertEquals(mesh.getPositionIndicesCount(), indices.length);
+
+            HashMap<String, Integer> unique = new HashMap<String, Integer>();
+            for (int i = 0; i < indices.length; ++i) {
+                MeshVertexIndices vertex = mesh.getVertices(indices[i]);
+                assertEquals(mesh.getPositionIndices(i), vertex.getPosition());
+                assertEquals(mesh.getTexcoord0Indices(i), vertex.getTexcoord0());
+                assertEquals(mesh.getNormalsIndices(i), vertex.getNormal());
+                unique.put(vertex.toString(), indices[i]);
+            }
+            assertEquals(mesh.getVerticesCount(), unique.size());
+
+            meshSet = Rig.MeshSet.newBuilder();
+            ColladaUtil.loadMesh(load(path), meshSet, true, true);
+            Rig.Mesh optimizedMesh = meshSet.getMeshAttachments(0);
+            assertEquals(mesh.getVerticesList(), optimizedMesh.getVerticesList());
+            assertEquals(getTriangles(mesh, indices), getTriangles(optimizedMesh, getIndices(optimizedMesh)));
+        }
+    }
+
+    /*
+     * Test that reordering a grid of triangles in random order lowers the number of vertex cache misses.
+     */
+    @Test
+    public void testVertexCacheOptimizer() throws Exception {
+        int size = 64;
+        List<int[]> triangles = new ArrayList<int[]>();
+        for (int y = 0; y < size; ++y) {
+            for (int x = 0; x < size; ++x) {
+                int i = y * (size + 1) + x;
+                triangles.add(new int[] {i, i + 1, i + size + 1});
+                triangles.add(new int[] {i + 1, i + size + 2, i + size + 1});
+            }
+        }
+        Collections.shuffle(triangles, new java.util.Random(0));
+        int[] indices = new int[triangles.size() * 3];
+        for (int i = 0; i < triangles.size(); ++i) {
+            System.arraycopy(triangles.get(i), 0, indices, i * 3, 3);
+        }
+        int vertexCount = (size + 1) * (size + 1);
+        int[] optimized = VertexCacheOptimizer.optimize(indices, vertexCount);
+
+        List<String> expected = new ArrayList<String>();
+        List<String> actual = new ArrayList<String>();
+        for (int i = 0; i < indices.length; i += 3) {
+            expected.add(String.format("%d %d %d", indices[i], indices[i+1], indices[i+2]));
+            actual.add(String.format("%d %d %d", optimized[i], optimized[i+1], optimized[i+2]));
+        }
+        Collections.sort(expected);
+        Collections.sort(actual);
+        assertEquals(expected, actual);
+
+        float acmr = VertexCacheOptimizer.getACMR(indices, vertexCount, 16);
+        float optimizedAcmr = VertexCacheOptimizer.getACMR(optimized, vertexCount, 16);
+        assertTrue(String.format("ACMR %f optimized %f", acmr, optimizedAcmr), optimizedAcmr < 0.8f && optimizedAcmr < acmr);
+    }
+
+    private static RigUtil.AnimationTrack createRandomTrack(Random random, RigUtil.AnimationTrack.Property property) {
+        RigUtil.AnimationTrack track = new RigUtil.AnimationTrack();
+        track.property = property;
+        double t = random.nextDouble() * 0.2;
+        for (int k = 0; k < 20; ++k) {
+            RigUtil.AnimationKey key = new RigUtil.AnimationKey();
+            key.t = t;
+            key.value = new float[property == RigUtil.AnimationTrack.Property.ROTATION ? 4 : 3];
+            for (int c = 0; c < key.value.length; ++c) {
+                key.value[c] = random.nextFloat() * 2.0f - 1.0f;
+            }
+            key.stepped = random.nextInt(5) == 0;
+            if (random.nextInt(3) == 0) {
+                key.curve = new RigUtil.AnimationCurve();
+                key.curve.x0 = random.nextFloat();
+                key.curve.y0 = random.nextFloat();
+                key.curve.x1 = random.nextFloat();
+                key.curve.y1 = random.nextFloat();
+            }
+            track.keys.add(key);
+            t += 0.01 + random.nextDouble() * 0.1;
+        }
+        return track;
+    }
+
+    /*
+     * Test that sampling a track into a float buffer gives the same samples as sampling it with the property builders.
+     */
+    @Test
+    public void testSampleTrack() throws Exception {
+        Random random = new Random(0);
+        double sampleRate = 30.0;
+        double spf = 1.0 / sampleRate;
+        for (int i = 0; i < 100; ++i) {
+            double startTime = random.nextDouble() * 0.5;
+            double duration = random.nextDouble() * 2.0;
+            boolean interpolate = random.nextBoolean();
+            int sampleCount = (int)Math.ceil(duration * sampleRate) + 1;
+
+            Rig.AnimationTrack.Builder expected = Rig.AnimationTrack.newBuilder();
+            RigUtil.AnimationTrack posTrack = createRandomTrack(random, RigUtil.AnimationTrack.Property.POSITION);
+            RigUtil.sampleTrack(posTrack, new RigUtil.PositionBuilder(expected), new Point3d(0.0, 0.0, 0.0), startTime, duration, sampleRate, spf, interpolate);
+            RigUtil.AnimationTrack rotTrack = createRandomTrack(random, RigUtil.AnimationTrack.Property.ROTATION);
+            RigUtil.sampleTrack(rotTrack, new RigUtil.QuatRotationBuilder(expected), new Quat4d(0.0, 0.0, 0.0, 1.0), startTime, duration, sampleRate, spf, interpolate);
+            RigUtil.AnimationTrack scaleTrack = createRandomTrack(random, RigUtil.AnimationTrack.Property.SCALE);
+            RigUtil.sampleTrack(scaleTrack, new RigUtil.ScaleBuilder(expected), new Vector3d(1.0, 1.0, 1.0), startTime, duration, sampleRate, spf, interpolate);
+
+            float[] positions = RigUtil.sampleTrack(posTrack, new float[] {0.0f, 0.0f, 0.0f}, startTime, sampleCount, sampleRate, spf, interpolate);
+            float[] rotations = RigUtil.sampleTrack(rotTrack, new float[] {0.0f, 0.0f, 0.0f, 1.0f}, startTime, sampleCount, sampleRate, spf, interpolate);
+            float[] scale = RigUtil.sampleTrack(scaleTrack, new float[] {1.0f, 1.0f, 1.0f}, startTime, sampleCount, sampleRate, spf, interpolate);
+
+            assertEquals(expected.getPositionsList(), toList(RigUtil.reduceSamples(positions, 3, sampleCount, 1)));
+            assertEquals(expected.getRotationsList(), toList(RigUtil.reduceSamples(rotations, 4, sampleCount, 1)));
+            assertEquals(expected.getScaleList(), toList(RigUtil.reduceSamples(scale, 3, sampleCount, 1)));
+        }
+    }
+
+    private static List<Float> toList(float[] values) {
+        List<Float> list = new ArrayList<Float>(values.length);
+        for (float v : values) {
+            list.add(v);
+        }
+        return list;
+    }
+
+    private static void assertInterpolatedVec3(List<Float> expected, List<Float> reduced, int factor, double tolerance) {
+        int sampleCount = expected.size() / 3 - 1;
+        for (int i = 0; i < sampleCount; ++i) {
+            int j = i / factor;
+            double t = (i - j * factor) / (double)factor;
+            for (int c = 0; c < 3; ++c) {
+                double v = (1.0 - t) * reduced.get(j * 3 + c) + t * reduced.get((j + 1) * 3 + c);
+                assertEquals(expected.get(i * 3 + c), v, tolerance + 1.0e-6);
+            }
+        }
+    }
+
+    /*
+     * Test that dropping keyframes lowers the sample rate, and that interpolating the remaining keyframes gives the dropped ones.
+     */
+    @Test
+    public void testKeyframeReduction() throws Exception {
+        double tolerance = 0.001;
+        Rig.AnimationSet.Builder animSetBuilder = Rig.AnimationSet.newBuilder();
+        ColladaUtil.loadAnimations(load("bone_box5.dae"), animSetBuilder, "", new ArrayList<String>());
+        Rig.AnimationSet.Builder reducedAnimSetBuilder = Rig.AnimationSet.newBuilder();
+        ColladaUtil.loadAnimations(load("bone_box5.dae"), reducedAnimSetBuilder, "", new ArrayList<String>(), tolerance);
+
+        RigAnimation animation = animSetBuilder.getAnimations(0);
+        RigAnimation reducedAnimation = reducedAnimSetBuilder.getAnimations(0);
+        assertEquals(animation.getDuration(), reducedAnimation.getDuration(), 0.0f);
+        int factor = Math.round(animation.getSampleRate() / reducedAnimation.getSampleRate());
+        assertTrue(factor > 1 && factor <= ColladaUtil.MAX_SAMPLE_RATE_DIVISOR);
+        assertEquals(animation.getSampleRate(), reducedAnimation.getSampleRate() * factor, EPSILON);
+
+        assertEquals(animation.getTracksCount(), reducedAnimation.getTracksCount());
+        for (int i = 0; i < animation.getTracksCount(); ++i) {
+            Rig.AnimationTrack track = animation.getTracks(i);
+            Rig.AnimationTrack reducedTrack = reducedAnimation.getTracks(i);
+            assertEquals(track.getBoneIndex(), reducedTrack.getBoneIndex());
+            // The last sample is duplicated in both
+            int fullSampleCount = Math.max(track.getPositionsCount() / 3, Math.max(track.getScaleCount() / 3, track.getRotationsCount() / 4)) - 1;
+            int sampleCount = (fullSampleCount - 1 + factor - 1) / factor + 2;
+            if (track.getPositionsCount() > 0) {
+                assertEquals(sampleCount * 3, reducedTrack.getPositionsCount());
+                assertInterpolatedVec3(track.getPositionsList(), reducedTrack.getPositionsList(), factor, tolerance);
+            }
+            if (track.getScaleCount() > 0) {
+                assertEquals(sampleCount * 3, reducedTrack.getScaleCount());
+                assertInterpolatedVec3(track.getScaleList(), reducedTrack.getScaleList(), factor, tolerance);
+            }
+            if (track.getRotationsCount() > 0) {
+                assertEquals(sampleCount * 4, reducedTrack.getRotationsCount());
+                for (int s = 0; s < track.getRotationsCount() / 4 - 1; ++s) {
+                    int j = s / factor;
+                    Quat4d a = new Quat4d(reducedTrack.getRotations(j * 4), reducedTrack.getRotations(j * 4 + 1), reducedTrack.getRotations(j * 4 + 2), reducedTrack.getRotations(j * 4 + 3));
+                    Quat4d b = new Quat4d(reducedTrack.getRotations(j * 4 + 4), reducedTrack.getRotations(j * 4 + 5), reducedTrack.getRotations(j * 4 + 6), reducedTrack.getRotations(j * 4 + 7));
+                    Quat4d q = new Quat4d();
+                    q.interpolate(a, b, (s - j * factor) / (double)factor);
+                    Quat4d expected = new Quat4d(track.getRotations(s * 4), track.getRotations(s * 4 + 1), track.getRotations(s * 4 + 2), track.getRotations(s * 4 + 3));
+                    assertTrue(q.epsilonEquals(expected, tolerance + 1.0e-5));
+                }
+            }
+        }
+    }
+
+    private static float[] tokenizeFloats(String text) {
+        StringTokenizer tokenizer = new StringTokenizer(text);
+        float[] floats = new float[tokenizer.countTokens()];
+        for (int i = 0; i < floats.length; ++i) {
+            try {
+                floats[i] = Float.parseFloat(tokenizer.nextToken());
+            } catch (NumberFormatException e) {
+                floats[i] = 0.0f;
+            }
+        }
+        return floats;
+    }
+
+    /*
+     * Test that the number scanner gives the same values as Float.parseFloat and Integer.parseInt,
+     * when the text is split in chunks at any position.
+     */
+    @Test
+    public void testNumberArrayScanner() throws Exception {
+        Random random = new Random(0);
+        StringBuilder text = new StringBuilder(" \n");
+        for (int i = 0; i < 20000; ++i) {
+            float f = Float.intBitsToFloat(random.nextInt());
+            if (Float.isNaN(f) || Float.isInfinite(f)) {
+                f = random.nextFloat();
+            }
+            switch (i % 8) {
+                case 0: text.append(Float.toString(f)); break;
+                case 1: text.append(String.format(Locale.US, "%f", random.nextFloat() * 1000.0f - 500.0f)); break;
+                case 2: text.append(String.format(Locale.US, "%.9g", f)); break;
+                case 3: text.append(String.format(Locale.US, "%.6e", random.nextFloat())); break;
+                case 4: text.append(Double.toString(random.nextDouble())); break;
+                case 5: text.append(random.nextInt(2000) - 1000); break;
+                case 6: text.append(String.format(Locale.US, "%.17f", random.nextDouble() * 1e-3)); break;
+                case 7: text.append(new String[] {"-1.#IND00", "0", "-0", ".5", "5.", "+1e5", "1E-45", "3.4028236e38", "NaN", "-Infinity"}[random.nextInt(10)]); break;
+            }
+            text.append(random.nextBoolean() ? " " : "\r\n\t");
+        }
+        String s = text.toString();
+        float[] expected = tokenizeFloats(s);
+
+        char[] chars = s.toCharArray();
+        NumberArrayScanner.Floats scanner = new NumberArrayScanner.Floats(100);
+        for (int i = 0; i < chars.length;) {
+            int n = Math.min(chars.length - i, random.nextInt(40));
+            scanner.append(chars, i, n);
+            i += n;
+        }
+        float[] actual = scanner.toArray();
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; ++i) {
+            assertEquals(Float.floatToIntBits(expected[i]), Float.floatToIntBits(actual[i]));
+        }
+
+        StringBuilder intText = new StringBuilder();
+        for (int i = 0; i < 10000; ++i) {
+            intText.append(i % 3 == 0 ? random.nextInt() : random.nextInt(100000)).append(' ');
+        }
+        StringTokenizer tokenizer = new StringTokenizer(intText.toString());
+        int[] ints = XMLIntArray.toArray(intText.toString());
+        assertEquals(tokenizer.countTokens(), ints.length);
+        for (int i = 0; i < ints.length; ++i) {
+            assertEquals(Integer.parseInt(tokenizer.nextToken()), ints[i]);
+        }
+        try {
+            XMLIntArray.toArray("1 2 x");
+            fail("Expected NumberFormatException");
+        } catch (NumberFormatException e) {
+        }
+    }
+
+    /*
+     * Test loading a mesh scaled up from one of the test files, and that parsing the float arrays
+     * of the file with the scanner gives the same floats as tokenizing them.
+     */
+    @Test
+    public void testLargeMesh() throws Exception {
+        final int scale = 32;
+        String dae = IOUtils.toString(load("chest_model_noskin.dae"), "UTF-8");
+        StringBuilder floatText = new StringBuilder();
+        Matcher floatArrays = Pattern.compile("(<float_array[^>]*count=\")(\\d+)(\"[^>]*>)([^<]*)(</float_array>)").matcher(dae);
+        StringBuffer scaled = new StringBuffer();
+        while (floatArrays.find()) {
+            int count = Integer.parseInt(floatArrays.group(2));
+            StringBuilder repeated = new StringBuilder();
+            for (int i = 0; i < scale; ++i) {
+                repeated.append(floatArrays.group(4)).append('\n');
+            }
+            floatText.append(repeated);
+            floatArrays.appendReplacement(scaled, Matcher.quoteReplacement(floatArrays.group(1) + count * scale + floatArrays.group(3) + repeated + floatArrays.group(5)));
+        }
+        floatArrays.appendTail(scaled);
+        // Repeat the triangles, all referring to the vertices of the first copy of the arrays
+        Matcher triangles = Pattern.compile("(<triangles count=\")(\\d+)(\"[^>]*>.*?<p>)([^<]*)(</p>)", Pattern.DOTALL).matcher(scaled.toString());
+        assertTrue(triangles.find());
+        int triangleCount = Integer.parseInt(triangles.group(2));
+        StringBuilder p = new StringBuilder();
+        for (int i = 0; i < scale; ++i) {
+            p.append(triangles.group(4)).append('\n');
+        }
+        byte[] content = (scaled.substring(0, triangles.start()) + triangles.group(1) + triangleCount * scale + triangles.group(3) + p + triangles.group(5) + scaled.substring(triangles.end())).getBytes("UTF-8");
+
+        String floats = floatText.toString();
+        float[] expected = tokenizeFloats(floats);
+        float[] actual = XMLFloatArray.toArray(floats);
+        assertTrue(Arrays.equals(expected, actual));
+
+        Rig.MeshSet.Builder meshSet = Rig.MeshSet.newBuilder();
+        ColladaUtil.loadMesh(new ByteArrayInputStream(content), meshSet, true);
+        Rig.Mesh mesh = meshSet.getMeshAttachments(0);
+        assertEquals(triangleCount * scale * 3, mesh.getPositionIndicesCount());
+    }
+
     /*
      * TODO
      * Future tests:
@@ -28,6 +28,7 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import com.dynamo.bob.CompileExceptionError;
+import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.test.util.PropertiesTestUtil;
 import com.dynamo.bob.util.MurmurHash;
 import com.dynamo.gameobject.proto.GameObject.CollectionDesc;
@@ -411,6 +412,52 @@ public class CollectionBuilderTest extends AbstractProtoBuilderTest {
         Assert.assertTrue(instance.getComponentProperties(0).getProperties(0).getValue().equals("2"));
     }
 
+    /**
+     * Test that sub collections are parsed once, and parsed again when their content changes.
+     * @throws Exception
+     */
+    @Test
+    public void testMessageCache() throws Exception {
+        addFile("/test.go", "");
+        addFile("/sub.collection", "name: \"sub\"\ninstances { id: \"go\" prototype: \"/test.go\" }\n");
+
+        StringBuilder src = new StringBuilder();
+        src.append("name: \"main\"\n");
+        for (int i = 0; i < 4; ++i) {
+            src.append("collection_instances {\n");
+            src.append("  id: \"sub" + i + "\"\n");
+            src.append("  collection: \"/sub.collection\"\n");
+            src.append("}\n");
+        }
+
+        CollectionDesc collection = (CollectionDesc)build("/test.collection", src.toString()).get(0);
+        Assert.assertEquals(4, collection.getInstancesCount());
+        Assert.assertEquals("/sub0/go", collection.getInstances(0).getId());
+        // test.collection and sub.collection
+        Map<String, Long> statistics = GetProject().getStatistics();
+        Assert.assertEquals(2, (long) statistics.get("message_cache_misses"));
+        Assert.assertTrue(statistics.get("message_cache_hits") > 0);
+
+        // The cache is cleared when the build is done
+        MessageCache cache = GetProject().getMessageCache();
+        Assert.assertEquals(0, cache.getMisses());
+
+        IResource sub = GetProject().getResource("/sub.collection");
+        CollectionDesc cached = cache.get(sub, CollectionDesc.getDefaultInstance());
+        Assert.assertSame(cached, cache.get(sub, CollectionDesc.getDefaultInstance()));
+        // The cache is cleared at the start of each build
+        addFile("/sub.collection", "name: \"sub\"\ninstances { id: \"go2\" prototype: \"/test.go\" }\n");
+        sub = GetProject().getResource("/sub.collection");
+        cache.clear();
+        Assert.assertEquals("go2", cache.get(sub, CollectionDesc.getDefaultInstance()).getInstances(0).getId());
+        Assert.assertEquals(1, cache.getMisses());
+
+        // Missing required fields are reported by the builder, not by the cache
+        addFile("/noname.collection", "instances { id: \"go\" prototype: \"/test.go\" }\n");
+        CollectionDesc partial = cache.get(GetProject().getResource("/noname.collection"), CollectionDesc.getDefaultInstance());
+        Assert.assertFalse(partial.isInitialized());
+    }
+
     /**
      * Test that embedded instances are properly extracted.
      * Structure:
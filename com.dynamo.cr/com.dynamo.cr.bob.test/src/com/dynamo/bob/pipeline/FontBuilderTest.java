@@ -15,10 +15,19 @@ package com.dynamo.bob.pipeline;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.awt.geom.Path2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
 import org.junit.Before;
 import org.junit.Test;
 
+import com.dynamo.bob.font.DistanceFieldGenerator;
+import com.dynamo.bob.font.Fontc;
+import com.dynamo.render.proto.Font.FontDesc;
 import com.dynamo.render.proto.Font.FontMap;
+import com.dynamo.render.proto.Font.FontTextureFormat;
 
 public class FontBuilderTest extends AbstractProtoBuilderTest {
 
@@ -74,4 +83,115 @@ public class FontBuilderTest extends AbstractProtoBuilderTest {
         assertEquals(fontMap.getMaterial(), "/test.materialc");
 
     }
+
+    private static double bruteDistSqr(List<double[]> lines, double x, double y) {
+        double distMin = 10000000;
+        for (double[] l : lines) {
+            double dx = l[2] - l[0], dy = l[3] - l[1];
+            double t = Math.max(0, Math.min(1, ((x - l[0]) * dx + (y - l[1]) * dy) / (dx * dx + dy * dy)));
+            double px = l[0] + t * dx - x, py = l[1] + t * dy - y;
+            distMin = Math.min(distMin, px * px + py * py);
+        }
+        return distMin;
+    }
+
+    /*
+     * Test the distance field generator with more segments than fit in the grid-less version, against
+     * testing every segment, and the inside test against Path2D.
+     */
+    @Test
+    public void testDistanceFieldGenerator() throws Exception {
+        Random random = new Random(0);
+        List<double[]> lines = new ArrayList<double[]>();
+        Path2D.Double path = new Path2D.Double(Path2D.WIND_NON_ZERO);
+        // Two concentric polygons with many segments, the inner one clockwise to make a ring
+        int segments = 10000;
+        for (int ring = 0; ring < 2; ++ring) {
+            double radius = ring == 0 ? 100 : 50;
+            double dir = ring == 0 ? 1 : -1;
+            for (int i = 0; i < segments; ++i) {
+                double a0 = dir * 2 * Math.PI * i / segments;
+                double a1 = dir * 2 * Math.PI * (i + 1) / segments;
+                double r0 = radius + (i % 7);
+                double r1 = radius + ((i + 1) % segments % 7);
+                lines.add(new double[] {r0 * Math.cos(a0), r0 * Math.sin(a0), r1 * Math.cos(a1), r1 * Math.sin(a1)});
+                if (i == 0) {
+                    path.moveTo(r0 * Math.cos(a0), r0 * Math.sin(a0));
+                }
+                path.lineTo(r1 * Math.cos(a1), r1 * Math.sin(a1));
+            }
+            path.closePath();
+        }
+        DistanceFieldGenerator df = new DistanceFieldGenerator();
+        for (double[] l : lines) {
+            df.addLine(l[0], l[1], l[2], l[3]);
+        }
+
+        for (int i = 0; i < 2000; ++i) {
+            double x = random.nextDouble() * 300 - 150;
+            double y = random.nextDouble() * 300 - 150;
+            assertEquals(bruteDistSqr(lines, x, y), df.distSqr(x, y), 1e-9);
+        }
+
+        df.setMaxDistance(5);
+        for (int i = 0; i < 2000; ++i) {
+            double x = random.nextDouble() * 300 - 150;
+            double y = random.nextDouble() * 300 - 150;
+            assertEquals(Math.min(25, bruteDistSqr(lines, x, y)), df.distSqr(x, y), 1e-9);
+        }
+
+        int width = 256;
+        boolean[] inside = new boolean[width];
+        for (int v = 0; v < 64; ++v) {
+            double y = -128 + v * 4 + 0.5;
+            df.insideRow(inside, -128, 128, y, width, false);
+            for (int u = 0; u < width; ++u) {
+                double x = -128 + u * 256.0 / width;
+                if (bruteDistSqr(lines, x, y) > 0.01) {
+                    assertEquals(path.contains(x, y), inside[u]);
+                }
+            }
+        }
+    }
+
+    /*
+     * Test that the glyph data is the same regardless of the number of threads generating it, i.e.
+     * that the compressed glyphs are written to the glyph data in glyph order.
+     */
+    @Test
+    public void testGlyphThreads() throws Exception {
+        StringBuilder extra = new StringBuilder();
+        for (int c = 0x4e00; c < 0x5200; ++c) {
+            extra.appendCodePoint(c);
+        }
+        FontDesc fontDesc = FontDesc.newBuilder()
+                .setFont("/DroidSansJapanese.ttf")
+                .setMaterial("/test.material")
+                .setSize(24)
+                .setExtraCharacters(extra.toString())
+                .setOutputFormat(FontTextureFormat.TYPE_DISTANCE_FIELD)
+                .setOutlineWidth(2)
+                .setShadowBlur(2)
+                .setShadowAlpha(1)
+                .build();
+
+        List<FontMap> fontMaps = new ArrayList<FontMap>();
+        for (int threads : new int[] {1, 4}) {
+            Fontc fontc = new Fontc();
+            fontc.setThreadCount(threads);
+            fontc.compile(getClass().getResourceAsStream("/com/dynamo/bob/test/util/DroidSansJapanese.ttf"), fontDesc, false, null);
+            fontMaps.add(fontc.getFontMap());
+        }
+        FontMap serial = fontMaps.get(0);
+        FontMap parallel = fontMaps.get(1);
+        assertTrue(serial.getGlyphsCount() > 200);
+        assertTrue(serial.getGlyphData().size() > 0);
+        assertEquals(serial.getGlyphData(), parallel.getGlyphData());
+        assertEquals(serial.getGlyphsCount(), parallel.getGlyphsCount());
+        for (int i = 0; i < serial.getGlyphsCount(); ++i) {
+            assertEquals(serial.getGlyphs(i).getGlyphDataOffset(), parallel.getGlyphs(i).getGlyphDataOffset());
+            assertEquals(serial.getGlyphs(i).getGlyphDataSize(), parallel.getGlyphs(i).getGlyphDataSize());
+        }
+        assertEquals(serial, parallel);
+    }
 }
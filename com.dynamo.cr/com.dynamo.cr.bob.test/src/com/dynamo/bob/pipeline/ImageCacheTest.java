@@ -0,0 +1,135 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.pipeline;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dynamo.bob.fs.IResource;
+import com.dynamo.bob.test.util.MockFileSystem;
+
+public class ImageCacheTest {
+
+    private MockFileSystem fileSystem;
+
+    @Before
+    public void setUp() {
+        System.setProperty("java.awt.headless", "true");
+        fileSystem = new MockFileSystem();
+    }
+
+    private static byte[] createPng(Random random, int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    private IResource addImage(String path, byte[] content) {
+        fileSystem.addFile(path, content);
+        return fileSystem.get(path);
+    }
+
+    private static int[] getPixels(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    @Test
+    public void testSameContent() throws Exception {
+        byte[] png = createPng(new Random(1), 16, 8);
+        IResource a = addImage("/a.png", png);
+        IResource b = addImage("/sub/b.png", png);
+
+        ImageCache cache = new ImageCache();
+        BufferedImage image = cache.get(a);
+        assertEquals(BufferedImage.TYPE_4BYTE_ABGR, image.getType());
+        assertEquals(16, image.getWidth());
+        assertEquals(8, image.getHeight());
+        // Same content at a different path is decoded once
+        assertSame(image, cache.get(b));
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        assertEquals(16 * 8 * 4, cache.getSize());
+
+        cache.clear();
+        assertEquals(0, cache.getSize());
+        assertTrue(image != cache.get(b));
+    }
+
+    @Test
+    public void testGetImages() throws Exception {
+        Random random = new Random(2);
+        List<byte[]> pngs = new ArrayList<byte[]>();
+        for (int i = 0; i < 8; ++i) {
+            pngs.add(createPng(random, 1 + random.nextInt(64), 1 + random.nextInt(64)));
+        }
+        List<IResource> resources = new ArrayList<IResource>();
+        for (int i = 0; i < 40; ++i) {
+            resources.add(addImage(String.format("/image%d.png", i), pngs.get(random.nextInt(pngs.size()))));
+        }
+        resources.add(addImage("/not_an_image.png", "not an image".getBytes()));
+
+        ImageCache cache = new ImageCache();
+        cache.setThreadCount(4);
+        List<BufferedImage> images = cache.getImages(resources);
+        assertEquals(resources.size(), images.size());
+        for (int i = 0; i < resources.size() - 1; ++i) {
+            BufferedImage expected = ImageIO.read(new java.io.ByteArrayInputStream(resources.get(i).getContent()));
+            assertArrayEquals(getPixels(expected), getPixels(images.get(i)));
+        }
+        assertNull(images.get(resources.size() - 1));
+        assertEquals(resources.size(), cache.getHits() + cache.getMisses());
+    }
+
+    @Test
+    public void testMaxSize() throws Exception {
+        Random random = new Random(3);
+        ImageCache cache = new ImageCache();
+        // Room for two 32x32 images
+        cache.setMaxSize(2 * 32 * 32 * 4);
+        List<IResource> resources = new ArrayList<IResource>();
+        for (int i = 0; i < 4; ++i) {
+            resources.add(addImage(String.format("/image%d.png", i), createPng(random, 32, 32)));
+        }
+        for (IResource resource : resources) {
+            cache.get(resource);
+            assertTrue(cache.getSize() <= 2 * 32 * 32 * 4);
+        }
+        // The last two are cached, the first two were evicted
+        cache.get(resources.get(3));
+        cache.get(resources.get(2));
+        assertEquals(2, cache.getHits());
+        cache.get(resources.get(0));
+        assertEquals(5, cache.getMisses());
+    }
+}
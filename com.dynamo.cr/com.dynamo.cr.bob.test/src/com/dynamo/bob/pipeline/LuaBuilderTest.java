@@ -78,6 +78,34 @@ public class LuaBuilderTest extends AbstractProtoBuilderTest {
         assertSubElementsV4(properties.getQuatEntries(0));
     }
 
+    @Test
+    public void testCompileServerBytecode() throws Exception {
+        String src = "local M = {}\nfunction M.f(a)\n    return a + 1\nend\nreturn M\n";
+        LuaModule server = (LuaModule)build("/test.script", src).get(0);
+        // Remove the output to build the script again
+        GetProject().getResource("/test.script").changeExt(".scriptc").output().remove();
+        GetProject().setOption("use-lua-process-per-script", "true");
+        LuaModule process = (LuaModule)build("/test.script", src).get(0);
+        // The compile server produces the same bytecode as a luajit process per script
+        assertTrue(server.getSource().getBytecode().size() > 0);
+        assertEquals(process.getSource().getBytecode(), server.getSource().getBytecode());
+        assertEquals(process.getSource().getBytecode64(), server.getSource().getBytecode64());
+    }
+
+    @Test
+    public void testCompileError() throws Exception {
+        String src = "function init(self)\nend\n\nfunction update(self\nend\n";
+        for (String processPerScript : new String[] { "false", "true" }) {
+            GetProject().setOption("use-lua-process-per-script", processPerScript);
+            try {
+                build("/test.script", src);
+                assertTrue(false);
+            } catch (CompileExceptionError e) {
+                assertEquals(5, e.getLineNumber());
+            }
+        }
+    }
+
     @Test
     public void testPropUnsupportedType() throws Exception {
         StringBuilder src = new StringBuilder();
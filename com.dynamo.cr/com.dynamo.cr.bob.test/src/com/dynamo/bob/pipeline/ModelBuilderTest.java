@@ -13,11 +13,16 @@
 package com.dynamo.bob.pipeline;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
 import java.util.List;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import com.dynamo.bob.Builder;
 import com.dynamo.model.proto.ModelProto.Model;
 import com.dynamo.rig.proto.Rig.RigScene;
 import com.google.protobuf.Message;
@@ -54,4 +59,18 @@ public class ModelBuilderTest extends AbstractProtoBuilderTest {
         assertEquals("/test_skeleton.skeletonc", rigScene.getSkeleton());
         assertEquals("/test_animationset_generated_0.animationsetc", rigScene.getAnimationSet());
     }
+
+    private byte[] signature(Builder<Void> builder) throws Exception {
+        builder.setProject(GetProject());
+        MessageDigest digest = MessageDigest.getInstance("SHA1");
+        builder.signature(digest);
+        return digest.digest();
+    }
+
+    @Test
+    public void testOptimizeVertexCacheSignature() throws Exception {
+        byte[] signature = signature(new ColladaModelBuilder());
+        GetProject().setOption("optimize-mesh-vertex-cache", "true");
+        assertFalse(Arrays.equals(signature, signature(new ColladaModelBuilder())));
+    }
 }
@@ -13,13 +13,23 @@
 package com.dynamo.bob.pipeline;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import com.dynamo.bob.CompileExceptionError;
 import com.dynamo.bob.Platform;
+import com.dynamo.bob.pipeline.ShaderUtil.ES2ToES3Converter;
 import com.dynamo.graphics.proto.Graphics.ShaderDesc;
 import com.google.protobuf.Message;
 
@@ -138,4 +148,64 @@ public class ShaderProgramBuilderTest extends AbstractProtoBuilderTest {
         GetProject().getProjectProperties().putBooleanValue("shader", "output_spirv", true);
         doTest(true);
     }
+
+    private String shaderSource(int i) {
+        if (i % 3 == 0) {
+            return "#version 310 es\n" + fp.replace("gl_FragColor = fragColor;", String.format("gl_FragColor = fragColor * %d.0;", i));
+        }
+        return vp.replace("fragColor = color;", String.format("fragColor = color * %d.0;", i));
+    }
+
+    private ES2ToES3Converter.ShaderType shaderType(int i) {
+        return i % 3 == 0 ? ES2ToES3Converter.ShaderType.FRAGMENT_SHADER : ES2ToES3Converter.ShaderType.VERTEX_SHADER;
+    }
+
+    // Shaders compiled concurrently are batched, the result must be the same as when compiled one by one
+    @Test
+    public void testConcurrentSpirv() throws Exception {
+        final int count = 48;
+        final String invalid = "void main(){ gl_Position = undefined; }\n";
+        List<byte[]> expected = new ArrayList<byte[]>();
+        for (int i = 0; i < count; ++i) {
+            expected.add(ShaderProgramBuilder.compileGLSLToSPIRV(shaderSource(i), shaderType(i), "test" + i, "", false, false).source);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>();
+            for (int i = 0; i < count; ++i) {
+                final int index = i;
+                futures.add(executor.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws Exception {
+                        return ShaderProgramBuilder.compileGLSLToSPIRV(shaderSource(index), shaderType(index), "test" + index, "", false, false).source;
+                    }
+                }));
+                if (i % 8 == 0) {
+                    futures.add(executor.submit(new Callable<byte[]>() {
+                        @Override
+                        public byte[] call() throws Exception {
+                            try {
+                                ShaderProgramBuilder.compileGLSLToSPIRV(invalid, ES2ToES3Converter.ShaderType.VERTEX_SHADER, "invalid", "", false, false);
+                            } catch (CompileExceptionError e) {
+                                assertTrue(e.getMessage().contains("undefined"));
+                                return null;
+                            }
+                            throw new AssertionError("Expected compile error");
+                        }
+                    }));
+                }
+            }
+            int index = 0;
+            for (Future<byte[]> future : futures) {
+                byte[] spirv = future.get();
+                if (spirv != null) {
+                    assertArrayEquals(expected.get(index++), spirv);
+                }
+            }
+            assertEquals(count, index);
+        } finally {
+            executor.shutdown();
+        }
+    }
 }
@@ -0,0 +1,216 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dynamo.bob.ExtractionCache;
+
+public class ExtractionCacheTest {
+
+    private File root;
+    private File folder;
+    private byte[] toolContent;
+    private URL tool;
+    private URL zip;
+
+    private static byte[] randomContent(Random random, int size) {
+        byte[] content = new byte[size];
+        random.nextBytes(content);
+        return content;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("defoldtest").toFile();
+        folder = new File(root, "cache");
+        Random random = new Random(0);
+
+        toolContent = randomContent(random, 200000);
+        File toolFile = new File(root, "tool");
+        FileUtils.writeByteArrayToFile(toolFile, toolContent);
+        tool = toolFile.toURI().toURL();
+
+        File zipFile = new File(root, "files.zip");
+        ZipOutputStream zipStream = new ZipOutputStream(new FileOutputStream(zipFile));
+        zipStream.putNextEntry(new ZipEntry("a.txt"));
+        zipStream.write("a".getBytes());
+        zipStream.putNextEntry(new ZipEntry("sub/"));
+        zipStream.putNextEntry(new ZipEntry("sub/b.bin"));
+        zipStream.write(randomContent(random, 100000));
+        zipStream.close();
+        zip = zipFile.toURI().toURL();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(root);
+    }
+
+    /*
+     * Test that a file is extracted once, and again if the extracted file doesn't have the size of the resource
+     */
+    @Test
+    public void testExtractFile() throws IOException {
+        ExtractionCache cache = new ExtractionCache(folder, ExtractionCache.Mode.SHARED);
+        File file = cache.extractFile(tool, "x86_64-linux/tool", true);
+        assertEquals(new File(folder, "x86_64-linux/tool"), file);
+        assertArrayEquals(toolContent, FileUtils.readFileToByteArray(file));
+        assertTrue(file.canExecute());
+        assertEquals(1, cache.getExtractCount());
+
+        // Another bob process using the same folder
+        ExtractionCache otherCache = new ExtractionCache(folder, ExtractionCache.Mode.SHARED);
+        assertEquals(file, otherCache.extractFile(tool, "x86_64-linux/tool", true));
+        assertEquals(0, otherCache.getExtractCount());
+
+        // Truncated, e.g. on a full disk
+        FileUtils.writeByteArrayToFile(file, new byte[10]);
+        otherCache.extractFile(tool, "x86_64-linux/tool", true);
+        assertEquals(1, otherCache.getExtractCount());
+        assertArrayEquals(toolContent, FileUtils.readFileToByteArray(file));
+    }
+
+    /*
+     * Test that a zip is extracted once, and again if any of its files is missing
+     */
+    @Test
+    public void testExtractZip() throws IOException {
+        ExtractionCache cache = new ExtractionCache(folder, ExtractionCache.Mode.SHARED);
+        cache.extractZip(zip, "share");
+        assertEquals("a", FileUtils.readFileToString(new File(folder, "share/a.txt")));
+        assertEquals(100000, new File(folder, "share/sub/b.bin").length());
+        assertEquals(1, cache.getExtractCount());
+
+        cache.extractZip(zip, "share");
+        assertEquals(1, cache.getExtractCount());
+
+        assertTrue(new File(folder, "share/sub/b.bin").delete());
+        cache.extractZip(zip, "share");
+        assertEquals(2, cache.getExtractCount());
+        assertEquals(100000, new File(folder, "share/sub/b.bin").length());
+
+        // No temporary files are left
+        assertEquals(1, new File(folder, "share/sub").list().length);
+    }
+
+    /*
+     * Test that files in a folder set by the user are kept as they are
+     */
+    @Test
+    public void testUserFolder() throws IOException {
+        File userTool = new File(folder, "tool");
+        FileUtils.writeByteArrayToFile(userTool, new byte[10]);
+        userTool.setExecutable(true);
+        File userFile = new File(folder, "a.txt");
+        FileUtils.writeStringToFile(userFile, "user");
+
+        ExtractionCache cache = new ExtractionCache(folder, ExtractionCache.Mode.USER);
+        assertEquals(userTool, cache.extractFile(tool, "tool", true));
+        assertEquals(10, userTool.length());
+        cache.extractZip(zip, "");
+        assertEquals("user", FileUtils.readFileToString(userFile));
+        assertEquals(100000, new File(folder, "sub/b.bin").length());
+        assertEquals(1, cache.getExtractCount());
+
+        // Another bob process using the same folder
+        ExtractionCache otherCache = new ExtractionCache(folder, ExtractionCache.Mode.USER);
+        otherCache.extractZip(zip, "");
+        assertEquals(0, otherCache.getExtractCount());
+    }
+
+    /*
+     * Test that threads extracting the same resources at the same time extract them once
+     */
+    @Test
+    public void testConcurrentExtraction() throws Exception {
+        final ExtractionCache cache = new ExtractionCache(folder, ExtractionCache.Mode.SHARED);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<File>> futures = new ArrayList<Future<File>>();
+            for (int i = 0; i < 16; ++i) {
+                futures.add(executor.submit(new Callable<File>() {
+                    @Override
+                    public File call() throws IOException {
+                        cache.extractZip(zip, "");
+                        return cache.extractFile(tool, "tool", true);
+                    }
+                }));
+            }
+            for (Future<File> future : futures) {
+                assertArrayEquals(toolContent, FileUtils.readFileToByteArray(future.get()));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(2, cache.getExtractCount());
+        assertEquals("a", FileUtils.readFileToString(new File(folder, "a.txt")));
+    }
+
+    /*
+     * Test that builds of bob get separate shared folders, and that shared folders unused for a long time are removed
+     */
+    @Test
+    public void testSharedFolder() throws IOException {
+        File jar = new File(root, "bob.jar");
+        FileUtils.writeByteArrayToFile(jar, new byte[100]);
+
+        File shared = ExtractionCache.getSharedFolder(root, "0123abcd", jar);
+        assertNotNull(shared);
+        assertTrue(shared.isDirectory());
+        assertTrue(shared.getName().startsWith("0123abcd-"));
+
+        // A rebuilt jar of the same sha1
+        FileUtils.writeByteArrayToFile(jar, new byte[200]);
+        File rebuilt = ExtractionCache.getSharedFolder(root, "0123abcd", jar);
+        assertFalse(shared.equals(rebuilt));
+
+        // Used recently, kept
+        ExtractionCache.getSharedFolder(root, "4567cdef", jar);
+        assertTrue(shared.isDirectory());
+
+        // Unused for long, removed
+        new ExtractionCache(shared, ExtractionCache.Mode.SHARED).extractFile(tool, "tool", true);
+        assertTrue(shared.setLastModified(System.currentTimeMillis() - 365L * 24 * 60 * 60 * 1000));
+        ExtractionCache.getSharedFolder(root, "4567cdef", jar);
+        assertFalse(shared.exists());
+        assertTrue(rebuilt.isDirectory());
+
+        assertNull(ExtractionCache.getSharedFolder(root, "", jar));
+    }
+}
@@ -13,22 +13,29 @@
 package com.dynamo.bob.test;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.matchers.JUnitMatchers.hasItem;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
 import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.junit.After;
@@ -36,6 +43,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import com.dynamo.bob.Builder;
+import com.dynamo.bob.BuilderIndex;
 import com.dynamo.bob.BuilderParams;
 import com.dynamo.bob.CommandBuilder;
 import com.dynamo.bob.CompileExceptionError;
@@ -235,6 +243,75 @@ public class JBobTest {
         assertThat(classes, hasItem("com.dynamo.bob.test.JBobTest"));
     }
 
+    @Test
+    public void testBuilderIndex() throws Exception {
+        Map<String, String> index = BuilderIndex.create(new ClassLoaderScanner(), "com.dynamo.bob.test", getClass().getClassLoader());
+        assertEquals(InCopyBuilder.class.getName(), index.get(".in"));
+        assertEquals(ArcBuilder.class.getName(), index.get(".proj"));
+
+        File folder = Files.createTempDirectory("defoldtest").toFile();
+        try {
+            BuilderIndex.write(folder, "com.dynamo.bob.test", index);
+            URLClassLoader classLoader = new URLClassLoader(new URL[] { folder.toURI().toURL() }, null);
+            assertEquals(index, BuilderIndex.load(classLoader, "com.dynamo.bob.test"));
+            assertNull(BuilderIndex.load(classLoader, "com.dynamo.bob"));
+            classLoader.close();
+        } finally {
+            FileUtils.deleteDirectory(folder);
+        }
+
+        // Builder classes are loaded when first used, a missing class is never loaded here
+        index.put(".missing", "com.dynamo.bob.test.MissingBuilder");
+        Project indexProject = new Project(fileSystem);
+        indexProject.registerBuilders(index);
+        fileSystem.addFile("test.proj", "".getBytes());
+        fileSystem.addFile("test.in", "test data".getBytes());
+        indexProject.setInputs(Arrays.asList("test.in", "test.proj"));
+        List<TaskResult> result = indexProject.build(new NullProgress(), "build");
+        indexProject.dispose();
+        assertThat(result.size(), is(2));
+        IResource arcOut = fileSystem.get("test.arc").output();
+        assertThat(new String(arcOut.getContent()), is("test data"));
+    }
+
+    /*
+     * Test that builders of other class path entries than the index, e.g. plugin jars, are scanned
+     */
+    @Test
+    public void testBuilderIndexWithPlugin() throws Exception {
+        Map<String, String> index = new HashMap<String, String>();
+        index.put(".in", InCopyBuilder.class.getName());
+
+        File folder = Files.createTempDirectory("defoldtest").toFile();
+        try {
+            BuilderIndex.write(folder, "com.dynamo.bob.test", index);
+            URLClassLoader classLoader = new URLClassLoader(new URL[] { folder.toURI().toURL() }, getClass().getClassLoader());
+            Set<String> classNames = new HashSet<String>(Arrays.asList(InCopyBuilder.class.getName(), ArcBuilder.class.getName()));
+            assertEquals(classNames, BuilderIndex.getUnindexedLocationClasses(classLoader, "com.dynamo.bob.test", classNames));
+
+            Project pluginProject = new Project(fileSystem);
+            pluginProject.scan(new ClassLoaderScanner(), "com.dynamo.bob.test", classLoader);
+            classLoader.close();
+            fileSystem.addFile("test.proj", "".getBytes());
+            fileSystem.addFile("test.in", "test data".getBytes());
+            pluginProject.setInputs(Arrays.asList("test.in", "test.proj"));
+            List<TaskResult> result = pluginProject.build(new NullProgress(), "build");
+            pluginProject.dispose();
+            assertThat(result.size(), is(2));
+            IResource arcOut = fileSystem.get("test.arc").output();
+            assertThat(new String(arcOut.getContent()), is("test data"));
+
+            // Classes next to the index are not scanned, the class file is only looked up
+            FileUtils.writeByteArrayToFile(new File(folder, "com/dynamo/bob/test/IndexedClass.class"), new byte[0]);
+            URLClassLoader indexClassLoader = new URLClassLoader(new URL[] { folder.toURI().toURL() }, getClass().getClassLoader());
+            classNames.add("com.dynamo.bob.test.IndexedClass");
+            assertEquals(2, BuilderIndex.getUnindexedLocationClasses(indexClassLoader, "com.dynamo.bob.test", classNames).size());
+            indexClassLoader.close();
+        } finally {
+            FileUtils.deleteDirectory(folder);
+        }
+    }
+
     @Test
     public void testCopy() throws Exception {
         fileSystem.addFile("test.in", "test data".getBytes());
@@ -280,6 +357,53 @@ public class JBobTest {
         assertThat(result.get(0).isOk(), is(false));
     }
 
+    @Test
+    public void testTaskOutputAsInputParallel() throws Exception {
+        project.setOption("max-cpu-threads", "4");
+        fileSystem.addFile("test.proj", "".getBytes());
+        List<String> inputs = new ArrayList<String>();
+        inputs.add("test.proj");
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 32; ++i) {
+            String name = String.format("test%02d.in", i);
+            fileSystem.addFile(name, Integer.toString(i).getBytes());
+            inputs.add(name);
+            expected.append(i);
+        }
+        project.setInputs(inputs);
+        List<TaskResult> result = build();
+        assertThat(result.size(), is(33));
+        for (TaskResult r : result) {
+            assertTrue(r.isOk());
+        }
+        IResource arcOut = fileSystem.get("test.arc").output();
+        assertThat(new String(arcOut.getContent()), is(expected.toString()));
+
+        // rebuild with same input
+        result = build();
+        assertThat(result.size(), is(0));
+    }
+
+    @Test
+    public void testTaskOutputAsInputFailingParallel() throws Exception {
+        project.setOption("max-cpu-threads", "4");
+        fileSystem.addFile("test.proj", "".getBytes());
+        fileSystem.addFile("test1.in_err", "A".getBytes());
+        fileSystem.addFile("test2.in", "B".getBytes());
+        project.setInputs(Arrays.asList("test.proj", "test1.in_err", "test2.in"));
+        List<TaskResult> result = build();
+        // The archive task depends on the failing task and is never run
+        assertThat(result.size(), is(2));
+        int failed = 0;
+        for (TaskResult r : result) {
+            if (!r.isOk()) {
+                ++failed;
+            }
+        }
+        assertThat(failed, is(1));
+        assertFalse(fileSystem.get("test.arc").output().exists());
+    }
+
     @Test
     public void testAbsPath() throws Exception {
         fileSystem.addFile("/root/test.in", "test data".getBytes());
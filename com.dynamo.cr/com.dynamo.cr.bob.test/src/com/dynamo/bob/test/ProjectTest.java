@@ -12,6 +12,7 @@
 
 package com.dynamo.bob.test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -23,6 +24,7 @@ import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.ZipFile;
 
@@ -68,6 +70,7 @@ public class ProjectTest {
     private ArrayList<URL> libraryUrls = new ArrayList<URL>();
 
     private AtomicInteger _304Count = new AtomicInteger();
+    private AtomicInteger _200Count = new AtomicInteger();
 
     @Rule
     public TestLibrariesRule testLibs = new TestLibrariesRule();
@@ -103,14 +106,19 @@ public class ProjectTest {
         libraryUrls.add(new URL("http://" + BASIC_AUTH + "@localhost:8081/test_lib5.zip"));
 
         fileSystem = new MockFileSystem();
-        project = new Project(fileSystem, Files.createTempDirectory("defold_").toString(), "build/default");
+        project = createProject(fileSystem);
+
+        initHttpServer(testLibs.getServerLocation());
+        System.out.printf("setUp end");
+    }
+
+    private Project createProject(MockFileSystem fileSystem) throws IOException {
+        Project project = new Project(fileSystem, Files.createTempDirectory("defold_").toString(), "build/default");
         project.setOption("email", EMAIL);
         project.setOption("auth", AUTH);
         project.scan(new ClassLoaderScanner(), "com.dynamo.bob.test");
         project.setLibUrls(libraryUrls);
-
-        initHttpServer(testLibs.getServerLocation());
-        System.out.printf("setUp end");
+        return project;
     }
 
     @After
@@ -152,10 +160,70 @@ System.out.printf("testResolve start");
             assertTrue(libExists(filename));
         }
         assertEquals(filenames.size(), _304Count.get());
+        assertEquals(filenames.size(), _200Count.get());
+
+        // The ETags are read from the index, not from the zips
+        Map<String, String> eTags = LibraryUtil.readETags(lib);
+        assertEquals(filenames.size(), eTags.size());
+        for (String filename : filenames) {
+            ZipFile zip = new ZipFile(new File(lib, filename));
+            assertEquals(zip.getComment(), eTags.get(filename));
+            zip.close();
+        }
 
         System.out.printf("testResolve end");
     }
 
+    @Test
+    public void testResolveMissingLibrary() throws Exception {
+        project.resolveLibUrls(new NullProgress());
+        assertEquals(libraryUrls.size(), _200Count.get());
+
+        // A removed library is downloaded again without a shared library cache, even if its ETag is in the index
+        String filename = LibraryUtil.libUrlToFilename(libraryUrls.get(0));
+        new File(project.getLibPath(), filename).delete();
+        project.resolveLibUrls(new NullProgress());
+        assertTrue(libExists(filename));
+        assertEquals(libraryUrls.size() + 1, _200Count.get());
+        assertEquals(libraryUrls.size() - 1, _304Count.get());
+    }
+
+    @Test
+    public void testResolveLibraryCache() throws Exception {
+        File cacheDir = Files.createTempDirectory("defold_library_cache_").toFile();
+        try {
+            project.setOption("library-cache", cacheDir.getAbsolutePath());
+            project.resolveLibUrls(new NullProgress());
+            assertEquals(libraryUrls.size(), _200Count.get());
+            assertEquals(0, _304Count.get());
+
+            // Another project on the same machine gets the unchanged libraries from the cache
+            Project other = createProject(new MockFileSystem());
+            other.setOption("library-cache", cacheDir.getAbsolutePath());
+            other.resolveLibUrls(new NullProgress());
+            assertEquals(libraryUrls.size(), _200Count.get());
+            assertEquals(libraryUrls.size(), _304Count.get());
+            for (URL url : libraryUrls) {
+                String filename = LibraryUtil.libUrlToFilename(url);
+                File expected = new File(project.getLibPath(), filename);
+                File actual = new File(other.getLibPath(), filename);
+                assertArrayEquals(FileUtils.readFileToByteArray(expected), FileUtils.readFileToByteArray(actual));
+            }
+            other.dispose();
+
+            // Libraries missing from the cache are downloaded
+            FileUtils.deleteDirectory(cacheDir);
+            Project third = createProject(new MockFileSystem());
+            third.setOption("library-cache", cacheDir.getAbsolutePath());
+            third.resolveLibUrls(new NullProgress());
+            assertEquals(2 * libraryUrls.size(), _200Count.get());
+            assertEquals(libraryUrls.size(), _304Count.get());
+            third.dispose();
+        } finally {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+    }
+
     @Test
     public void testMountPoints() throws Exception {
         System.out.printf("testMountPoints start");
@@ -275,6 +343,7 @@ System.out.printf("testResolve start");
                     response.setStatus(304);
                     baseRequest.setHandled(true);
                 } else {
+                    _200Count.incrementAndGet();
                     super.handle(target, baseRequest, request, response);
                 }
 
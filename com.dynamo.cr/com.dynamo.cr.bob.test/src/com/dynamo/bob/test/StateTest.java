@@ -0,0 +1,127 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dynamo.bob.State;
+import com.dynamo.bob.fs.IResource;
+import com.dynamo.bob.test.util.MockFileSystem;
+
+public class StateTest {
+
+    private MockFileSystem fileSystem;
+    private IResource stateResource;
+
+    @Before
+    public void setUp() throws Exception {
+        fileSystem = new MockFileSystem();
+        fileSystem.setBuildDirectory("build");
+        stateResource = fileSystem.get("build/state");
+    }
+
+    private static byte[] signature(int value) {
+        byte[] signature = new byte[20];
+        signature[0] = (byte) value;
+        return signature;
+    }
+
+    @Test
+    public void testSaveLoad() throws Exception {
+        State state = State.load(stateResource);
+        assertNull(state.getSignature("/a"));
+        state.putSignature("/a", signature(1));
+        state.putSignature("/b", new byte[0]);
+        state.save(stateResource);
+
+        state = State.load(stateResource);
+        assertArrayEquals(signature(1), state.getSignature("/a"));
+        assertArrayEquals(new byte[0], state.getSignature("/b"));
+    }
+
+    @Test
+    public void testAppendChanged() throws Exception {
+        State state = State.load(stateResource);
+        for (int i = 0; i < 100; ++i) {
+            state.putSignature("/" + i, signature(i));
+        }
+        state.save(stateResource);
+        int size = stateResource.getContent().length;
+
+        // Unchanged signatures are not written again
+        state = State.load(stateResource);
+        state.putSignature("/1", signature(1));
+        state.save(stateResource);
+        assertEquals(size, stateResource.getContent().length);
+
+        state = State.load(stateResource);
+        state.putSignature("/1", signature(2));
+        state.putSignature("/new", signature(3));
+        state.save(stateResource);
+
+        state = State.load(stateResource);
+        assertArrayEquals(signature(2), state.getSignature("/1"));
+        assertArrayEquals(signature(3), state.getSignature("/new"));
+        assertArrayEquals(signature(99), state.getSignature("/99"));
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        for (int n = 0; n < 20; ++n) {
+            State state = State.load(stateResource);
+            for (int i = 0; i < 100; ++i) {
+                state.putSignature("/" + i, signature(n));
+            }
+            state.save(stateResource);
+        }
+        // Log is rewritten instead of growing with each save, 20 appended
+        // signature records per path would be at least 20 * 25 bytes
+        assertTrue(stateResource.getContent().length < 100 * 20 * 25 / 2);
+        State state = State.load(stateResource);
+        assertArrayEquals(signature(19), state.getSignature("/50"));
+    }
+
+    @Test
+    public void testMigrateSerializedState() throws Exception {
+        State old = new State();
+        old.putSignature("/a", signature(1));
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream os = new ObjectOutputStream(bos);
+        os.writeObject(old);
+        os.close();
+        stateResource.setContent(bos.toByteArray());
+
+        State state = State.load(stateResource);
+        assertArrayEquals(signature(1), state.getSignature("/a"));
+        state.save(stateResource);
+
+        state = State.load(stateResource);
+        assertArrayEquals(signature(1), state.getSignature("/a"));
+    }
+
+    @Test
+    public void testCorruptState() throws Exception {
+        stateResource.setContent("garbage".getBytes());
+        State state = State.load(stateResource);
+        assertNull(state.getSignature("/a"));
+    }
+}
@@ -0,0 +1,105 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.test.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dynamo.bob.CompileExceptionError;
+import com.dynamo.bob.util.FutureUtil;
+
+public class FutureUtilTest {
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private Future<String> submitThrowing(final Exception exception) {
+        return executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                throw exception;
+            }
+        });
+    }
+
+    @Test
+    public void testResult() throws Exception {
+        Future<String> future = executor.submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return "done";
+            }
+        });
+        assertEquals("done", FutureUtil.get(future));
+        assertEquals("done", FutureUtil.get(future, IOException.class));
+        assertEquals("done", FutureUtil.get(future, IOException.class, CompileExceptionError.class));
+    }
+
+    @Test
+    public void testRethrow() throws Exception {
+        IOException ioException = new IOException("io");
+        try {
+            FutureUtil.get(submitThrowing(ioException), IOException.class);
+            fail();
+        } catch (IOException e) {
+            assertSame(ioException, e);
+        }
+
+        CompileExceptionError compileError = new CompileExceptionError(null, 0, "compile");
+        try {
+            FutureUtil.get(submitThrowing(compileError), IOException.class, CompileExceptionError.class);
+            fail();
+        } catch (CompileExceptionError e) {
+            assertSame(compileError, e);
+        }
+
+        IllegalStateException runtimeException = new IllegalStateException("runtime");
+        try {
+            FutureUtil.get(submitThrowing(runtimeException));
+            fail();
+        } catch (IllegalStateException e) {
+            assertSame(runtimeException, e);
+        }
+    }
+
+    @Test
+    public void testUndeclaredException() throws Exception {
+        IOException ioException = new IOException("io");
+        try {
+            FutureUtil.get(submitThrowing(ioException));
+            fail();
+        } catch (RuntimeException e) {
+            assertSame(ioException, e.getCause());
+        }
+    }
+}
@@ -54,7 +54,7 @@ public class MockFileSystem extends AbstractFileSystem<MockFileSystem, MockResou
     }
 
     @Override
-    public IResource get(String path) {
+    public synchronized IResource get(String path) {
         path = FilenameUtils.normalize(path, true);
         // Paths are always root relative.
         if (path.startsWith("/"))
@@ -71,6 +71,9 @@ public class MockFileSystem extends AbstractFileSystem<MockFileSystem, MockResou
         return r;
     }
 
+    @Override
+    public void setThreadCount(int threadCount) {}
+
     @Override
     public void loadCache() {}
 
@@ -14,6 +14,8 @@ package com.dynamo.bob.test.util;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 
@@ -23,6 +25,8 @@ import java.io.IOException;
 import java.io.ByteArrayInputStream;
 import java.net.URL;
 import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.Map;
 import java.security.CodeSource;
 
 import javax.vecmath.Point2d;
@@ -34,10 +38,14 @@ import javax.vecmath.Vector2d;
 import javax.vecmath.Vector3d;
 
 import org.apache.commons.io.IOUtils;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.node.ObjectNode;
 import org.junit.Test;
 
 import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.fs.ZipMountPoint;
+import com.dynamo.bob.pipeline.SpineSceneCache;
 import com.dynamo.bob.textureset.TextureSetGenerator.UVTransform;
 import com.dynamo.bob.util.RigUtil;
 import com.dynamo.bob.util.RigUtil.BaseSlot;
@@ -686,4 +694,82 @@ public class SpineSceneTest {
             }
         }
     }
+
+    private static void assertSameAnimations(SpineSceneUtil expected, SpineSceneUtil actual) {
+        assertEquals(expected.animations.keySet(), actual.animations.keySet());
+        for (String name : expected.animations.keySet()) {
+            Animation expectedAnim = expected.getAnimation(name);
+            Animation actualAnim = actual.getAnimation(name);
+            assertEquals(expectedAnim.duration, actualAnim.duration, EPSILON);
+            assertEquals(expectedAnim.tracks.size(), actualAnim.tracks.size());
+            for (int i = 0; i < expectedAnim.tracks.size(); ++i) {
+                AnimationTrack expectedTrack = expectedAnim.tracks.get(i);
+                AnimationTrack actualTrack = actualAnim.tracks.get(i);
+                assertEquals(expectedTrack.bone.name, actualTrack.bone.name);
+                assertEquals(expectedTrack.property, actualTrack.property);
+                assertEquals(expectedTrack.keys.size(), actualTrack.keys.size());
+                for (int k = 0; k < expectedTrack.keys.size(); ++k) {
+                    assertEquals(expectedTrack.keys.get(k).t, actualTrack.keys.get(k).t, EPSILON);
+                    assertFloatArrays(expectedTrack.keys.get(k).value, actualTrack.keys.get(k).value);
+                }
+            }
+            assertEquals(expectedAnim.slotTracks.size(), actualAnim.slotTracks.size());
+            assertEquals(expectedAnim.eventTracks.size(), actualAnim.eventTracks.size());
+        }
+    }
+
+    @Test
+    public void testAnimationsBeforeSections() throws Exception {
+        // The animations are loaded as the parser reaches them, which needs the bones, slots and skins
+        // loaded first. Scenes where they come after the animations are loaded from the whole tree.
+        InputStream input = null;
+        try {
+            input = getClass().getResourceAsStream("sample8.json");
+            byte[] content = IOUtils.toByteArray(input);
+            ObjectMapper mapper = new ObjectMapper();
+            JsonNode node = mapper.readTree(content);
+            ObjectNode reordered = mapper.createObjectNode();
+            reordered.put("animations", node.get("animations"));
+            Iterator<Map.Entry<String, JsonNode>> fields = node.getFields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                if (!field.getKey().equals("animations")) {
+                    reordered.put(field.getKey(), field.getValue());
+                }
+            }
+
+            SpineSceneUtil expected = SpineSceneUtil.loadJson(content, new TestUVTProvider());
+            SpineSceneUtil actual = SpineSceneUtil.loadJson(mapper.writeValueAsBytes(reordered), new TestUVTProvider());
+            assertTrue(0 < expected.animations.size());
+            assertEquals(expected.bones.size(), actual.bones.size());
+            assertEquals(expected.attachments.size(), actual.attachments.size());
+            assertSameAnimations(expected, actual);
+        } finally {
+            IOUtils.closeQuietly(input);
+        }
+    }
+
+    @Test
+    public void testSpineSceneCache() throws Exception {
+        InputStream input = null;
+        try {
+            input = getClass().getResourceAsStream("sample8.json");
+            byte[] content = IOUtils.toByteArray(input);
+            MockFileSystem fileSystem = new MockFileSystem();
+            fileSystem.addFile("/a.json", content);
+            fileSystem.addFile("/b/a.json", content);
+
+            SpineSceneCache cache = new SpineSceneCache();
+            SpineSceneUtil scene = cache.get(fileSystem.get("/a.json"), "test", new TestUVTProvider());
+            // Same content at another path
+            assertSame(scene, cache.get(fileSystem.get("/b/a.json"), "test", new TestUVTProvider()));
+            // Other uv transforms
+            assertNotSame(scene, cache.get(fileSystem.get("/a.json"), "identity", new TestUVTProvider()));
+            assertEquals(1, cache.getHits());
+            assertEquals(2, cache.getMisses());
+            assertSameAnimations(SpineSceneUtil.loadJson(content, new TestUVTProvider()), scene);
+        } finally {
+            IOUtils.closeQuietly(input);
+        }
+    }
 }
@@ -19,6 +19,7 @@ import java.awt.image.BufferedImage;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.Random;
 
 import javax.imageio.ImageIO;
 
@@ -66,6 +67,40 @@ public class TextureUtilTest {
         }
     }
 
+    @Test
+    public void testExtrudeBordersImageTypes() {
+        // Images stored as interleaved bytes are extruded by copying the bytes, compare with the pixels
+        Random random = new Random(5);
+        int[] types = new int[] { BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_INT_ARGB };
+        for (int type : types) {
+            for (int i = 0; i < 10; ++i) {
+                int width = 1 + random.nextInt(20);
+                int height = 1 + random.nextInt(20);
+                int border = 1 + random.nextInt(4);
+                BufferedImage src = new BufferedImage(width + 2, height + 2, type);
+                for (int y = 0; y < src.getHeight(); ++y) {
+                    for (int x = 0; x < src.getWidth(); ++x) {
+                        src.setRGB(x, y, random.nextInt());
+                    }
+                }
+                // Both the image and a sub image, which isn't stored as a single array of pixels
+                for (BufferedImage image : new BufferedImage[] { src, src.getSubimage(1, 1, width, height) }) {
+                    BufferedImage tgt = TextureUtil.extrudeBorders(image, border);
+                    assertEquals(type, tgt.getType());
+                    assertEquals(image.getWidth() + border * 2, tgt.getWidth());
+                    assertEquals(image.getHeight() + border * 2, tgt.getHeight());
+                    for (int y = 0; y < tgt.getHeight(); ++y) {
+                        for (int x = 0; x < tgt.getWidth(); ++x) {
+                            int sx = Math.min(Math.max(x - border, 0), image.getWidth() - 1);
+                            int sy = Math.min(Math.max(y - border, 0), image.getHeight() - 1);
+                            assertEquals(image.getRGB(sx, sy), tgt.getRGB(x, y));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
     @Test
     public void testDepalettiseImage() throws FileNotFoundException, IOException {
         final String palettisedFile = "test/def_854_with_palette.png";
@@ -15,12 +15,14 @@ package com.dynamo.bob.textureset.test;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertEquals;
 
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 import org.junit.Test;
 
@@ -29,6 +31,7 @@ import com.dynamo.bob.textureset.TextureSetGenerator.AnimDesc;
 import com.dynamo.bob.textureset.TextureSetGenerator.AnimIterator;
 import com.dynamo.bob.textureset.TextureSetGenerator.TextureSetResult;
 import com.dynamo.bob.textureset.TextureSetGenerator.UVTransform;
+import com.dynamo.textureset.proto.TextureSetProto.SpriteGeometry;
 import com.dynamo.textureset.proto.TextureSetProto.TextureSet;
 import com.dynamo.textureset.proto.TextureSetProto.TextureSetAnimation;
 import com.dynamo.tile.proto.Tile.Playback;
@@ -227,6 +230,56 @@ public class TextureSetGeneratorTest {
         assertUVTransform(0.5f, 1.0f, 0.5f, -0.5f, getUvTransforms(result.uvTransforms, textureSet, "anim1", 2));
     }
 
+    // Image with an opaque ellipse and some opaque pixels around it, like a sprite to trim
+    private BufferedImage newSpriteImage(Random random, int w, int h) {
+        BufferedImage image = newImage(w, h);
+        double rx = w / 4.0 + random.nextInt(w / 4);
+        double ry = h / 4.0 + random.nextInt(h / 4);
+        for (int y = 0; y < h; ++y) {
+            for (int x = 0; x < w; ++x) {
+                double dx = (x - w / 2.0) / rx;
+                double dy = (y - h / 2.0) / ry;
+                if (dx * dx + dy * dy < 1.0 || random.nextInt(500) == 0) {
+                    image.setRGB(x, y, 0xff808080);
+                }
+            }
+        }
+        return image;
+    }
+
+    /*
+     * Test generating a large atlas with sprite trimming (SPRITE_TRIM_MODE_8) on all images,
+     * and check that the hulls don't depend on the number of threads building them.
+     */
+    @Test
+    public void testTrimmedAtlas() throws Exception {
+        final int imageCount = 256;
+        Random random = new Random(4711);
+        List<BufferedImage> images = new ArrayList<BufferedImage>();
+        List<String> ids = new ArrayList<String>();
+        List<Integer> hullSizes = new ArrayList<Integer>();
+        for (int i = 0; i < imageCount; ++i) {
+            images.add(newSpriteImage(random, 64 + random.nextInt(192), 64 + random.nextInt(192)));
+            ids.add(Integer.toString(i));
+            hullSizes.add(8);
+        }
+
+        List<SpriteGeometry> serial = TextureSetGenerator.buildConvexHulls(images, hullSizes, 1);
+        List<SpriteGeometry> parallel = TextureSetGenerator.buildConvexHulls(images, hullSizes, 4);
+        assertEquals(serial, parallel);
+        for (SpriteGeometry geometry : serial) {
+            assertTrue(geometry.getVerticesCount() / 2 <= 8);
+        }
+
+        List<MappedAnimDesc> animations = new ArrayList<MappedAnimDesc>();
+        animations.add(newAnim("anim1", ids));
+        MappedAnimIterator iterator = new MappedAnimIterator(animations, ids);
+
+        TextureSetResult result = TextureSetGenerator.generate(new ArrayList<BufferedImage>(images), hullSizes, ids, iterator, 0, 0, 0, true, false, null, 4);
+        TextureSet textureSet = result.builder.setTexture("").build();
+        assertThat(textureSet.getGeometriesCount(), is(imageCount));
+    }
+
     private static int getFrameIndex(TextureSet textureSet, String id, int frame) {
         return textureSet.getFrameIndices(getAnim(textureSet, id).getStart() + frame);
     }
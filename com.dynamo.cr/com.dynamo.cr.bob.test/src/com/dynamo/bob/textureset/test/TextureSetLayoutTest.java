@@ -16,14 +16,17 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 
 import org.junit.Test;
 
+import com.dynamo.bob.textureset.MaxRectsLayoutStrategy;
 import com.dynamo.bob.textureset.TextureSetLayout;
 import com.dynamo.bob.textureset.TextureSetLayout.Layout;
 import com.dynamo.bob.textureset.TextureSetLayout.Rect;
@@ -304,4 +307,75 @@ public class TextureSetLayoutTest {
         assertEquals(layout.getWidth(), 2048);
         assertEquals(layout.getHeight(), 1024);
     }
+    private static List<Layout> maxRectsLayout(List<Rect> rectangles, int paddingX, int paddingY, boolean rotation, int maxPageSize, int threadCount) {
+        MaxRectsLayoutStrategy.Settings settings = new MaxRectsLayoutStrategy.Settings();
+        settings.maxPageWidth = maxPageSize;
+        settings.maxPageHeight = maxPageSize;
+        settings.minPageWidth = 16;
+        settings.minPageHeight = 16;
+        settings.paddingX = paddingX;
+        settings.paddingY = paddingY;
+        settings.rotation = rotation;
+        MaxRectsLayoutStrategy strategy = new MaxRectsLayoutStrategy(settings);
+        strategy.setThreadCount(threadCount);
+        return strategy.createLayout(rectangles);
+    }
+
+    private static String layoutString(List<Layout> layouts) {
+        StringBuilder sb = new StringBuilder();
+        for (Layout layout : layouts) {
+            sb.append(layout.getWidth()).append("x").append(layout.getHeight()).append(":");
+            for (Rect r : layout.getRectangles()) {
+                sb.append(String.format("%s %d %d %d %d %b,", r.id, r.x, r.y, r.width, r.height, r.rotated));
+            }
+        }
+        return sb.toString();
+    }
+
+    private List<Rect> randomRects(Random random, int count, int maxSize) {
+        List<Rect> rectangles = new ArrayList<Rect>();
+        for (int i = 0; i < count; ++i) {
+            rectangles.add(rect(Integer.toString(i), i, 1 + random.nextInt(maxSize), 1 + random.nextInt(maxSize)));
+        }
+        return rectangles;
+    }
+
+    @Test
+    public void testMaxRectsThreadCount() {
+        // The layout must not depend on the number of threads packing the heuristics
+        Random random = new Random(123);
+        for (int i = 0; i < 20; ++i) {
+            List<Rect> rectangles = randomRects(random, 32 + random.nextInt(200), 8 + random.nextInt(120));
+            int paddingX = random.nextInt(3);
+            int paddingY = random.nextInt(3);
+            boolean rotation = random.nextBoolean();
+            // Small max page size to get multiple pages at times
+            int maxPageSize = random.nextBoolean() ? 512 : 2048;
+            String expected = layoutString(maxRectsLayout(rectangles, paddingX, paddingY, rotation, maxPageSize, 1));
+            String actual = layoutString(maxRectsLayout(rectangles, paddingX, paddingY, rotation, maxPageSize, 4));
+            assertEquals(expected, actual);
+        }
+    }
+
+    /*
+     * Test packing an atlas of a few thousand images on multiple threads
+     */
+    @Test
+    public void testLargeThreadedLayout() {
+        Random random = new Random(2000);
+        List<Rect> rectangles = randomRects(random, 2000, 200);
+
+        Layout layout = TextureSetLayout.packedLayout(2, rectangles, true, 4);
+
+        assertEquals(rectangles.size(), layout.getRectangles().size());
+        List<Rect> outputRectangles = layout.getRectangles();
+        for (int i = 0; i < outputRectangles.size(); ++i) {
+            Rect r = outputRectangles.get(i);
+            assertTrue(r.x >= 0 && r.y >= 0 && r.x + r.width <= layout.getWidth() && r.y + r.height <= layout.getHeight());
+            for (int j = i + 1; j < outputRectangles.size(); ++j) {
+                assertFalse(isOverlapping(r, outputRectangles.get(j)));
+            }
+        }
+    }
+
 }
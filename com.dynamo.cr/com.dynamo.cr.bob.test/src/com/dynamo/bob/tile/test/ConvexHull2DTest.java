@@ -25,6 +25,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Random;
 
 import javax.imageio.ImageIO;
 
@@ -247,4 +248,70 @@ public class ConvexHull2DTest {
         assertTrue(simpleCross(sub(points[2], points[0]), sub(points[3], points[0])) < 0);
     }
 
+    // Random mask of a few blobs, some pixels set at random and some rows left empty
+    private static int[] randomMask(Random random, int width, int height) {
+        int[] mask = new int[width * height];
+        for (int blob = 0; blob < 3; ++blob) {
+            int cx = random.nextInt(width);
+            int cy = random.nextInt(height);
+            int r = 1 + random.nextInt(Math.max(width, height) / 2);
+            for (int y = 0; y < height; ++y) {
+                for (int x = 0; x < width; ++x) {
+                    if ((x - cx) * (x - cx) + (y - cy) * (y - cy) < r * r || random.nextInt(200) == 0) {
+                        mask[x + y * width] = 255;
+                    }
+                }
+            }
+        }
+        for (int y = 0; y < height; y += 1 + random.nextInt(8)) {
+            Arrays.fill(mask, y * width, (y + 1) * width, 0);
+        }
+        return mask;
+    }
+
+    @Test
+    public void testMaskHull() throws Exception {
+        // The max of a linear function over the hull points must be the same as over the whole mask
+        Random random = new Random(17);
+        for (int i = 0; i < 200; ++i) {
+            int width = 1 + random.nextInt(96);
+            int height = 1 + random.nextInt(96);
+            int[] mask = randomMask(random, width, height);
+            int[] centers = ConvexHull2D.maskHull(mask, width, height, false);
+            int[] corners = ConvexHull2D.maskHull(mask, width, height, true);
+            assertTrue(centers.length <= 2 * 2 * (width + height));
+
+            for (int d = 0; d < 16; ++d) {
+                double angle = random.nextDouble() * 2.0 * Math.PI;
+                double dx = Math.cos(angle);
+                double dy = Math.sin(angle);
+
+                double expectedCenter = -Double.MAX_VALUE;
+                double expectedCorner = -Double.MAX_VALUE;
+                for (int y = 0; y < height; ++y) {
+                    for (int x = 0; x < width; ++x) {
+                        if (mask[x + (height - y - 1) * width] != 0) {
+                            expectedCenter = Math.max(expectedCenter, x * dx + y * dy);
+                            for (int c = 0; c < 4; ++c) {
+                                expectedCorner = Math.max(expectedCorner, (x + (c & 1)) * dx + (y + (c >> 1)) * dy);
+                            }
+                        }
+                    }
+                }
+
+                double actualCenter = -Double.MAX_VALUE;
+                for (int j = 0; j < centers.length; j += 2) {
+                    assertTrue(mask[centers[j] + (height - centers[j + 1] - 1) * width] != 0);
+                    actualCenter = Math.max(actualCenter, centers[j] * dx + centers[j + 1] * dy);
+                }
+                double actualCorner = -Double.MAX_VALUE;
+                for (int j = 0; j < corners.length; j += 2) {
+                    actualCorner = Math.max(actualCorner, corners[j] * dx + corners[j + 1] * dy);
+                }
+                assertEquals(expectedCenter, actualCenter, 0.000001);
+                assertEquals(expectedCorner, actualCorner, 0.000001);
+            }
+        }
+    }
+
 }
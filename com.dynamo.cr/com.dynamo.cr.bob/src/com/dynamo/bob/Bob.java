@@ -12,29 +12,20 @@
 
 package com.dynamo.bob;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.nio.file.AccessDeniedException;
-import java.nio.file.FileAlreadyExistsException;
-import java.nio.file.FileSystemException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
-import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Set;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -45,7 +36,6 @@ import org.apache.commons.cli.ParseException;
 import org.apache.commons.cli.PosixParser;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
-import org.apache.commons.io.IOUtils;
 
 import com.dynamo.bob.archive.EngineVersion;
 import com.dynamo.bob.fs.DefaultFileSystem;
@@ -61,6 +51,7 @@ public class Bob {
 
     private static boolean verbose = false;
     private static File rootFolder = null;
+    private static ExtractionCache extractionCache = null;
 
     public Bob() {
     }
@@ -94,6 +85,25 @@ public class Bob {
         }));
       }
 
+    // Folder of the shared caches, one for each build of bob, see ExtractionCache.getSharedFolder
+    private static File getSharedCacheRoot() {
+        String envCacheFolder = System.getenv("DM_BOB_CACHE_FOLDER");
+        if (envCacheFolder != null) {
+            return envCacheFolder.isEmpty() ? null : new File(envCacheFolder);
+        }
+        return new File(System.getProperty("user.home"), ".defold/bob-cache");
+    }
+
+    // The jar bob runs from, or null if it doesn't run from a jar
+    private static File getJar() {
+        try {
+            File jar = new File(Bob.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            return jar.isFile() ? jar : null;
+        } catch (URISyntaxException | SecurityException | IllegalArgumentException | NullPointerException e) {
+            return null;
+        }
+    }
+
     private static void init() {
         if (rootFolder != null) {
             return;
@@ -110,8 +120,22 @@ public class Bob {
                     throw new IOException(String.format("Error when specifying DM_BOB_ROOTFOLDER: %s is not a directory!", rootFolder.getAbsolutePath()));
                 }
                 System.out.println("env DM_BOB_ROOTFOLDER=" + rootFolder);
+                extractionCache = new ExtractionCache(rootFolder, ExtractionCache.Mode.USER);
+                return;
+            }
+
+            // Extract to the shared cache of this build of bob, so that later runs don't have to
+            File cacheRoot = getSharedCacheRoot();
+            File jar = getJar();
+            if (cacheRoot != null && jar != null) {
+                rootFolder = ExtractionCache.getSharedFolder(cacheRoot, EngineVersion.sha1, jar);
+            }
+            if (rootFolder != null) {
+                verbose("Using shared cache '%s'", rootFolder);
+                extractionCache = new ExtractionCache(rootFolder, ExtractionCache.Mode.SHARED);
             } else {
                 rootFolder = Files.createTempDirectory(null).toFile();
+                extractionCache = new ExtractionCache(rootFolder, ExtractionCache.Mode.TEMPORARY);
                 // Make sure we remove the temp folder on exit
                 registerShutdownHook();
             }
@@ -123,7 +147,7 @@ public class Bob {
     public static void initLua() {
         init();
         try {
-            extract(Bob.class.getResource("/lib/luajit-share.zip"), new File(rootFolder, "share"));
+            extractionCache.extractZip(Bob.class.getResource("/lib/luajit-share.zip"), "share");
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -137,22 +161,19 @@ public class Bob {
             String libc_filename = Platform.getHostPlatform().getLibPrefix() + "c++" + Platform.getHostPlatform().getLibSuffix();
             URL libc_url = Bob.class.getResource("/lib/" + Platform.getHostPlatform().getPair() + "/" + libc_filename);
             if (libc_url != null) {
-                File f = new File(rootFolder, Platform.getHostPlatform().getPair() + "/lib/" + libc_filename);
-                atomicCopy(libc_url, f, false);
+                extractionCache.extractFile(libc_url, Platform.getHostPlatform().getPair() + "/lib/" + libc_filename, false);
             }
 
-            extract(Bob.class.getResource("/lib/android-res.zip"), rootFolder);
+            extractionCache.extractZip(Bob.class.getResource("/lib/android-res.zip"), "");
 
             // NOTE: android.jar and classes.dex aren't are only available in "full bob", i.e. from CI
             URL android_jar = Bob.class.getResource("/lib/android.jar");
             if (android_jar != null) {
-                File f = new File(rootFolder, "lib/android.jar");
-                atomicCopy(android_jar, f, false);
+                extractionCache.extractFile(android_jar, "lib/android.jar", false);
             }
             URL classes_dex = Bob.class.getResource("/lib/classes.dex");
             if (classes_dex != null) {
-                File f = new File(rootFolder, "lib/classes.dex");
-                atomicCopy(classes_dex, f, false);
+                extractionCache.extractFile(classes_dex, "lib/classes.dex", false);
             }
 
         } catch (Exception e) {
@@ -160,46 +181,6 @@ public class Bob {
         }
     }
 
-    private static void extract(final URL url, File toFolder) throws IOException {
-
-        ZipInputStream zipStream = new ZipInputStream(new BufferedInputStream(url.openStream()));
-
-        try{
-            ZipEntry entry = zipStream.getNextEntry();
-            while (entry != null)
-            {
-                if (!entry.isDirectory()) {
-
-                    File dstFile = new File(toFolder, entry.getName());
-                    dstFile.deleteOnExit();
-                    dstFile.getParentFile().mkdirs();
-
-                    OutputStream fileStream = null;
-
-                    try {
-                        final byte[] buf;
-                        int i;
-
-                        fileStream = new FileOutputStream(dstFile);
-                        buf = new byte[1024];
-                        i = 0;
-
-                        while((i = zipStream.read(buf)) != -1) {
-                            fileStream.write(buf, 0, i);
-                        }
-                    } finally {
-                        IOUtils.closeQuietly(fileStream);
-                    }
-                    verbose("Extracted '%s' from '%s' to '%s'", entry.getName(), url, dstFile.getAbsolutePath());
-                }
-
-                entry = zipStream.getNextEntry();
-            }
-        } finally {
-            IOUtils.closeQuietly(zipStream);
-        }
-    }
-
     public static String getPath(String path) {
         init();
         File f = new File(rootFolder, path);
@@ -226,74 +207,24 @@ public class Bob {
         return exes.get(0);
     }
 
-    // https://stackoverflow.com/a/30755071/468516
-    private static final String ENOTEMPTY = "Directory not empty";
-    private static void move(final File source, final File target) throws FileAlreadyExistsException, IOException {
-        try {
-            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
-
-        } catch (AccessDeniedException e) {
-            // directory move collision on Windows
-            throw new FileAlreadyExistsException(source.toString(), target.toString(), e.getMessage());
-
-        } catch (FileSystemException e) {
-            if (ENOTEMPTY.equals(e.getReason())) {
-                // directory move collision on Unix
-                throw new FileAlreadyExistsException(source.toString(), target.toString(), e.getMessage());
-            } else {
-                // other problem
-                throw e;
-            }
-        }
-    }
-
-    private static void atomicCopy(URL source, File target, boolean executable) throws IOException {
-        if (target.exists()) {
-            return;
-        }
-
-        long t = System.nanoTime();
-        File tmp = new File(target.getParent(), String.format("%s_%d", target.getName(), t));
-        FileUtils.copyURLToFile(source, tmp);
-        tmp.setExecutable(executable);
-
-        try {
-            move(tmp, target);
-        } catch (FileAlreadyExistsException e) {
-            // pass
-            tmp.delete();
-        }
-    }
-
     public static String getExeWithExtension(Platform platform, String name, String extension) throws IOException {
         init();
 
         String exeName = platform.getPair() + "/" + platform.getExePrefix() + name + extension;
-        File f = new File(rootFolder, exeName);
-        if (!f.exists()) {
-            URL url = Bob.class.getResource("/libexec/" + exeName);
-            if (url == null) {
-                throw new RuntimeException(String.format("/libexec/%s could not be found locally, create an application manifest to build the engine remotely.", exeName));
-            }
-
-            atomicCopy(url, f, true);
+        URL url = Bob.class.getResource("/libexec/" + exeName);
+        if (url == null) {
+            throw new RuntimeException(String.format("/libexec/%s could not be found locally, create an application manifest to build the engine remotely.", exeName));
         }
-
-        return f.getAbsolutePath();
+        return extractionCache.extractFile(url, exeName, true).getAbsolutePath();
     }
 
     public static String getLibExecPath(String filename) throws IOException {
         init();
-        File f = new File(rootFolder, filename);
-        if (!f.exists()) {
-            URL url = Bob.class.getResource("/libexec/" + filename);
-            if (url == null) {
-                throw new RuntimeException(String.format("/libexec/%s not found", filename));
-            }
-
-            atomicCopy(url, f, false);
+        URL url = Bob.class.getResource("/libexec/" + filename);
+        if (url == null) {
+            throw new RuntimeException(String.format("/libexec/%s not found", filename));
         }
-        return f.getAbsolutePath();
+        return extractionCache.extractFile(url, filename, false).getAbsolutePath();
     }
 
    public static String getDefaultDmengineExeName(String variant) {
@@ -343,16 +274,11 @@ public class Bob {
         init();
 
         String libName = platform.getPair() + "/" + platform.getLibPrefix() + name + platform.getLibSuffix();
-        File f = new File(rootFolder, libName);
-        if (!f.exists()) {
-            URL url = Bob.class.getResource("/lib/" + libName);
-            if (url == null) {
-                throw new RuntimeException(String.format("/lib/%s not found", libName));
-            }
-
-            atomicCopy(url, f, true);
+        URL url = Bob.class.getResource("/lib/" + libName);
+        if (url == null) {
+            throw new RuntimeException(String.format("/lib/%s not found", libName));
         }
-        return f.getAbsolutePath();
+        return extractionCache.extractFile(url, libName, true).getAbsolutePath();
     }
 
     private static CommandLine parse(String[] args) {
@@ -397,6 +323,9 @@ public class Bob {
         options.addOption(null, "binary-output", true, "Location where built engine binary will be placed. Default is \"<build-output>/<platform>/\"");
 
         options.addOption(null, "use-vanilla-lua", false, "Only ships vanilla source code (i.e. no byte code)");
+        options.addOption(null, "use-lua-process-per-script", false, "Compile each Lua script in a separate luajit process instead of a pool of long running luajit processes");
+        options.addOption(null, "optimize-mesh-vertex-cache", false, "Reorder the triangles of Collada meshes to make better use of the GPU vertex cache");
+        options.addOption(null, "animation-keyframe-tolerance", true, "Drop the keyframes of Collada animations that interpolation reproduces within this tolerance, by lowering the sample rate of the animations. Default is 0, which keeps every keyframe");
 
         options.addOption("l", "liveupdate", true, "yes if liveupdate content should be published");
 
@@ -406,6 +335,10 @@ public class Bob {
 
         options.addOption(null, "version", false, "Prints the version number to the output");
 
+        options.addOption(null, "max-cpu-threads", true, "Max number of threads used to run build tasks. A value less than 1 uses all available processors. Default is 1");
+        options.addOption(null, "library-cache", true, "Folder of a library cache shared by projects on this machine, e.g. by CI jobs. Libraries the server reports as unchanged are copied from it instead of downloaded");
+        options.addOption(null, "archive-memory-budget", true, "Max number of megabytes of resource data being compressed and encrypted at the same time when writing the archive. Default is 256");
+
         // debug options
         options.addOption(null, "debug-ne-upload", false, "Outputs the files sent to build server as upload.zip");
 
@@ -0,0 +1,179 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Index of the builder classes of a package, mapping input extension to builder class name.
+ *
+ * Finding the builders of a package with a class scanner loads every class of the package just
+ * to read its {@link BuilderParams}. The index is generated when bob is built, see main(), and
+ * stored as a resource in the package, so {@link Project#scan(IClassScanner, String)} can register
+ * the builders by name and load a builder class the first time it is used. Packages without an
+ * index, and the classes of other class path entries than the index, e.g. plugin jars, are scanned.
+ *
+ * The index is a text file with one "extension class-name" line per input extension.
+ */
+public class BuilderIndex {
+
+    public static final String NAME = "builders.index";
+
+    /**
+     * Get path of the index resource of a package
+     * @param pkg package name
+     * @return resource path
+     */
+    public static String getPath(String pkg) {
+        return pkg.replace('.', '/') + "/" + NAME;
+    }
+
+    /**
+     * Load the index of a package
+     * @param classLoader class loader to find the index resource with
+     * @param pkg package name
+     * @return map of input extension to builder class name, or null if the package has no index
+     * @throws IOException
+     */
+    public static Map<String, String> load(ClassLoader classLoader, String pkg) throws IOException {
+        URL url = classLoader.getResource(getPath(pkg));
+        if (url == null) {
+            return null;
+        }
+        InputStream input = url.openStream();
+        try {
+            return parse(input);
+        } finally {
+            IOUtils.closeQuietly(input);
+        }
+    }
+
+    /**
+     * Get the classes that aren't located next to the index of a package, e.g. the classes of
+     * plugin jars, as opposed to the classes of bob's own jar. The classes are not loaded.
+     * @param classLoader class loader to find the index and class resources with
+     * @param pkg package name
+     * @param classNames class names of the package, e.g. found by a class scanner
+     * @return class names from other class path entries than the index, all class names if the package has no index
+     */
+    public static Set<String> getUnindexedLocationClasses(ClassLoader classLoader, String pkg, Set<String> classNames) {
+        URL url = classLoader.getResource(getPath(pkg));
+        if (url == null) {
+            return classNames;
+        }
+        String indexUrl = url.toString();
+        String root = indexUrl.substring(0, indexUrl.length() - getPath(pkg).length());
+        Set<String> result = new HashSet<String>();
+        for (String className : classNames) {
+            URL classUrl = classLoader.getResource(className.replace('.', '/') + ".class");
+            if (classUrl == null || !classUrl.toString().startsWith(root)) {
+                result.add(className);
+            }
+        }
+        return result;
+    }
+
+    private static Map<String, String> parse(InputStream input) throws IOException {
+        Map<String, String> index = new TreeMap<String, String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] parts = line.split("\\s+");
+            if (parts.length != 2) {
+                throw new IOException(String.format("Invalid line in builder index: '%s'", line));
+            }
+            index.put(parts[0], parts[1]);
+        }
+        return index;
+    }
+
+    /**
+     * Create the index of a package. Classes are loaded without being initialized.
+     * @param scanner class scanner to find the classes of the package with
+     * @param pkg package name
+     * @param classLoader class loader to load the classes with
+     * @return map of input extension to builder class name
+     */
+    public static Map<String, String> create(IClassScanner scanner, String pkg, ClassLoader classLoader) {
+        Map<String, String> index = new TreeMap<String, String>();
+        for (String className : scanner.scan(pkg)) {
+            try {
+                Class<?> klass = Class.forName(className, false, classLoader);
+                BuilderParams params = klass.getAnnotation(BuilderParams.class);
+                if (params != null) {
+                    for (String inExt : params.inExts()) {
+                        index.put(inExt, className);
+                    }
+                }
+            } catch (ClassNotFoundException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Write the index of a package
+     * @param folder root folder of the classes of the package
+     * @param pkg package name
+     * @param index map of input extension to builder class name
+     * @return the index file
+     * @throws IOException
+     */
+    public static File write(File folder, String pkg, Map<String, String> index) throws IOException {
+        StringBuilder content = new StringBuilder();
+        content.append("# Generated by ").append(BuilderIndex.class.getName()).append(", do not edit\n");
+        for (Map.Entry<String, String> entry : new TreeMap<String, String>(index).entrySet()) {
+            content.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+        File file = new File(folder, getPath(pkg));
+        FileUtils.writeStringToFile(file, content.toString(), StandardCharsets.UTF_8);
+        return file;
+    }
+
+    /**
+     * Generate the index of packages, run when bob is built
+     * @param args folder of the compiled classes, followed by the package names
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BuilderIndex <classes-folder> <package>...");
+            System.exit(1);
+        }
+        File folder = new File(args[0]);
+        ClassLoaderScanner scanner = new ClassLoaderScanner();
+        for (int i = 1; i < args.length; ++i) {
+            Map<String, String> index = create(scanner, args[i], BuilderIndex.class.getClassLoader());
+            File file = write(folder, args[i], index);
+            System.out.println(String.format("Wrote %d builders to %s", index.size(), file.getPath()));
+        }
+    }
+}
@@ -0,0 +1,361 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Folder that resources of the bob jar, e.g. the tools in /libexec and the zips in /lib, are
+ * extracted to before they are used.
+ *
+ * How the folder is used depends on its {@link Mode}. A shared folder is shared by all bob
+ * processes of the same build of bob, see getSharedFolder, so a resource is only extracted the
+ * first time any of them uses it:
+ * <ul>
+ * <li>Files are written to a temporary name and moved in place, so a file is never seen half written.</li>
+ * <li>The folder is locked while it is populated, against other threads and other bob processes,
+ * so concurrent bob processes don't extract the same resource at the same time.</li>
+ * <li>An extracted file must have the size of the resource. A zip is only extracted once all of its
+ * files are, and a list of them is written when done. A file missing or with the wrong size, e.g.
+ * after a crash or a full disk, is extracted again.</li>
+ * </ul>
+ */
+public class ExtractionCache {
+
+    public enum Mode {
+        /**
+         * Folder shared by the bob processes of a build of bob, see getSharedFolder
+         */
+        SHARED,
+        /**
+         * Folder set by the user, e.g. with DM_BOB_ROOTFOLDER. Files are extracted like in a shared
+         * folder, but files that already exist are kept as they are, since they might have been put
+         * there on purpose, and nothing is ever deleted.
+         */
+        USER,
+        /**
+         * Temporary folder of this bob process, the extracted files are deleted when the JVM exits
+         */
+        TEMPORARY
+    }
+
+    // Version of the layout of the shared folders, bump when it changes
+    static final int VERSION = 1;
+
+    // Shared folders of other builds of bob are removed when they haven't been used for this long
+    static final long MAX_UNUSED_TIME = 30L * 24 * 60 * 60 * 1000;
+
+    private static final String LOCK_FILE = ".lock";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File folder;
+    private final Mode mode;
+    // File locks are held by the JVM, threads of the same JVM have to be locked out separately
+    private static final Object lock = new Object();
+    private final AtomicInteger extractCount = new AtomicInteger();
+
+    /**
+     * @param folder folder to extract to
+     * @param mode how the folder is used
+     */
+    public ExtractionCache(File folder, Mode mode) {
+        this.folder = folder;
+        this.mode = mode;
+    }
+
+    public File getFolder() {
+        return folder;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Get the number of files extracted, the files of a zip count as one
+     */
+    public int getExtractCount() {
+        return extractCount.get();
+    }
+
+    /**
+     * Get the shared folder of a build of bob, and mark it as used. Shared folders of other builds that
+     * haven't been used for MAX_UNUSED_TIME are removed.
+     * @param cacheRoot folder of all the shared folders
+     * @param sha1 sha1 of bob
+     * @param jar the jar bob runs from. Builds of bob made from the same sha1, e.g. during development,
+     * have different jars.
+     * @return the folder, or null if it can't be created or written to
+     */
+    public static File getSharedFolder(File cacheRoot, String sha1, File jar) {
+        if (sha1 == null || sha1.isEmpty() || !jar.isFile()) {
+            return null;
+        }
+        File versionRoot = new File(cacheRoot, "v" + VERSION);
+        File folder = new File(versionRoot, String.format("%s-%x-%x", sha1, jar.length(), jar.lastModified()));
+        folder.mkdirs();
+        if (!folder.isDirectory() || !Files.isWritable(folder.toPath())) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        folder.setLastModified(now);
+
+        File[] others = versionRoot.listFiles();
+        if (others != null) {
+            for (File other : others) {
+                if (other.isDirectory() && !other.equals(folder) && now - other.lastModified() > MAX_UNUSED_TIME) {
+                    deleteUnlessLocked(other);
+                }
+            }
+        }
+        return folder;
+    }
+
+    // Delete a shared folder unless a bob process is populating it
+    private static void deleteUnlessLocked(File folder) {
+        try (FileChannel channel = FileChannel.open(new File(folder, LOCK_FILE).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock fileLock = channel.tryLock();
+            if (fileLock == null) {
+                return;
+            }
+            try {
+                File[] files = folder.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        if (!file.getName().equals(LOCK_FILE)) {
+                            FileUtils.deleteQuietly(file);
+                        }
+                    }
+                }
+            } finally {
+                fileLock.release();
+            }
+        } catch (IOException | OverlappingFileLockException e) {
+            return;
+        }
+        FileUtils.deleteQuietly(folder);
+    }
+
+    private interface Extraction {
+        void run() throws IOException;
+    }
+
+    // Run an extraction with the folder locked, against other threads and, unless the folder is
+    // temporary, other processes
+    private void locked(Extraction extraction) throws IOException {
+        synchronized (lock) {
+            if (mode == Mode.TEMPORARY) {
+                extraction.run();
+                return;
+            }
+            folder.mkdirs();
+            try (FileChannel channel = FileChannel.open(new File(folder, LOCK_FILE).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock fileLock = channel.lock()) {
+                extraction.run();
+            }
+        }
+    }
+
+    private static long getContentLength(URL url) {
+        try {
+            URLConnection connection = url.openConnection();
+            return connection.getContentLengthLong();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private boolean isExtracted(URL url, File file, boolean executable) {
+        if (mode == Mode.USER) {
+            return file.exists();
+        }
+        if (!file.isFile() || (executable && !file.canExecute())) {
+            return false;
+        }
+        long length = getContentLength(url);
+        return length < 0 || length == file.length();
+    }
+
+    /**
+     * Extract a resource, unless it already is
+     * @param url the resource
+     * @param path path relative to the folder to extract to
+     * @param executable whether the extracted file should be executable
+     * @return the extracted file
+     * @throws IOException
+     */
+    public File extractFile(final URL url, String path, final boolean executable) throws IOException {
+        final File file = new File(folder, path);
+        if (isExtracted(url, file, executable)) {
+            return file;
+        }
+        locked(new Extraction() {
+            @Override
+            public void run() throws IOException {
+                if (!isExtracted(url, file, executable)) {
+                    InputStream input = url.openStream();
+                    try {
+                        write(input, file, executable);
+                    } finally {
+                        IOUtils.closeQuietly(input);
+                    }
+                    extractCount.incrementAndGet();
+                }
+            }
+        });
+        return file;
+    }
+
+    // The list of extracted files of a zip, first the size of the zip and then the size and path of each file
+    private File getZipListFile(URL url, File toFolder) {
+        String name = url.getPath().substring(url.getPath().lastIndexOf('/') + 1);
+        return new File(toFolder, "." + name + ".files");
+    }
+
+    private boolean isZipExtracted(URL url, File toFolder) throws IOException {
+        File listFile = getZipListFile(url, toFolder);
+        if (!listFile.isFile()) {
+            return false;
+        }
+        List<String> lines = Files.readAllLines(listFile.toPath(), StandardCharsets.UTF_8);
+        if (mode == Mode.USER) {
+            return true;
+        }
+        if (lines.isEmpty() || !lines.get(0).equals(Long.toString(getContentLength(url)))) {
+            return false;
+        }
+        for (int i = 1; i < lines.size(); ++i) {
+            String line = lines.get(i);
+            int separator = line.indexOf(' ');
+            if (separator < 0) {
+                return false;
+            }
+            File file = new File(toFolder, line.substring(separator + 1));
+            if (!file.isFile() || file.length() != Long.parseLong(line.substring(0, separator))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Extract the files of a zip resource, unless they already are
+     * @param url the zip resource
+     * @param path path relative to the folder to extract the files to, "" for the folder
+     * @throws IOException
+     */
+    public void extractZip(final URL url, String path) throws IOException {
+        final File toFolder = path.isEmpty() ? folder : new File(folder, path);
+        if (isZipExtracted(url, toFolder)) {
+            return;
+        }
+        locked(new Extraction() {
+            @Override
+            public void run() throws IOException {
+                if (isZipExtracted(url, toFolder)) {
+                    return;
+                }
+                StringBuilder list = new StringBuilder();
+                list.append(getContentLength(url)).append('\n');
+                ZipInputStream zipStream = new ZipInputStream(new BufferedInputStream(url.openStream(), BUFFER_SIZE));
+                try {
+                    ZipEntry entry = zipStream.getNextEntry();
+                    while (entry != null) {
+                        File dstFile = new File(toFolder, entry.getName());
+                        if (!entry.isDirectory() && !(mode == Mode.USER && dstFile.exists())) {
+                            write(zipStream, dstFile, false);
+                            list.append(dstFile.length()).append(' ').append(entry.getName()).append('\n');
+                            Bob.verbose("Extracted '%s' from '%s' to '%s'", entry.getName(), url, dstFile.getAbsolutePath());
+                        }
+                        entry = zipStream.getNextEntry();
+                    }
+                } finally {
+                    IOUtils.closeQuietly(zipStream);
+                }
+                write(IOUtils.toInputStream(list.toString(), StandardCharsets.UTF_8), getZipListFile(url, toFolder), false);
+                extractCount.incrementAndGet();
+            }
+        });
+    }
+
+    // https://stackoverflow.com/a/30755071/468516
+    private static final String ENOTEMPTY = "Directory not empty";
+    private static void move(final File source, final File target) throws FileAlreadyExistsException, IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+        } catch (AccessDeniedException e) {
+            // directory move collision on Windows
+            throw new FileAlreadyExistsException(source.toString(), target.toString(), e.getMessage());
+
+        } catch (FileSystemException e) {
+            if (ENOTEMPTY.equals(e.getReason())) {
+                // directory move collision on Unix
+                throw new FileAlreadyExistsException(source.toString(), target.toString(), e.getMessage());
+            } else {
+                // other problem
+                throw e;
+            }
+        }
+    }
+
+    // Write to a temporary file and move it in place, replacing the file if it exists
+    private void write(InputStream input, File target, boolean executable) throws IOException {
+        target.getParentFile().mkdirs();
+        File tmp = new File(target.getParent(), String.format("%s_%d", target.getName(), System.nanoTime()));
+        OutputStream output = new FileOutputStream(tmp);
+        try {
+            IOUtils.copyLarge(input, output, new byte[BUFFER_SIZE]);
+        } catch (IOException e) {
+            IOUtils.closeQuietly(output);
+            tmp.delete();
+            throw e;
+        }
+        output.close();
+        tmp.setExecutable(executable);
+
+        try {
+            move(tmp, target);
+        } catch (FileAlreadyExistsException e) {
+            // The file is in use, e.g. a loaded library on Windows
+            tmp.delete();
+        }
+        if (mode == Mode.TEMPORARY) {
+            target.deleteOnExit();
+        }
+    }
+}
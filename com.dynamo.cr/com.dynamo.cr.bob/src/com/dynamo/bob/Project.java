@@ -26,6 +26,7 @@ import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.net.ConnectException;
 import java.net.HttpURLConnection;
 import java.net.URISyntaxException;
@@ -41,9 +42,19 @@ import java.util.Enumeration;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
@@ -82,7 +93,14 @@ import com.dynamo.bob.fs.IFileSystem;
 import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.fs.ZipMountPoint;
 import com.dynamo.bob.pipeline.ExtenderUtil;
+import com.dynamo.bob.pipeline.GLSLCompiler;
+import com.dynamo.bob.pipeline.ImageCache;
+import com.dynamo.bob.pipeline.LuaCompilerPool;
+import com.dynamo.bob.pipeline.MessageCache;
+import com.dynamo.bob.pipeline.SpineSceneCache;
 import com.dynamo.bob.util.BobProjectProperties;
+import com.dynamo.bob.util.FutureUtil;
+import com.dynamo.bob.util.LibraryCache;
 import com.dynamo.bob.util.LibraryUtil;
 import com.dynamo.bob.util.ReportGenerator;
 import com.dynamo.graphics.proto.Graphics.TextureProfiles;
@@ -97,6 +115,9 @@ public class Project {
     public final static String LIB_DIR = ".internal/lib";
     public final static String CACHE_DIR = ".internal/cache";
 
+    // Max number of libraries resolved at the same time
+    private final static int MAX_LIBRARY_THREADS = 8;
+
     public enum OutputFlags {
         NONE,
         UNCOMPRESSED
@@ -104,6 +125,8 @@ public class Project {
 
     private IFileSystem fileSystem;
     private Map<String, Class<? extends Builder<?>>> extToBuilder = new HashMap<String, Class<? extends Builder<?>>>();
+    // Builders registered from a builder index, loaded when first used
+    private Map<String, String> extToBuilderName = new HashMap<String, String>();
     private List<String> inputs = new ArrayList<String>();
     private HashMap<String, EnumSet<OutputFlags>> outputs = new HashMap<String, EnumSet<OutputFlags>>();
     private ArrayList<Task<?>> newTasks;
@@ -111,6 +134,11 @@ public class Project {
     private String rootDirectory = ".";
     private String buildDirectory = "build";
     private Map<String, String> options = new HashMap<String, String>();
+    private Map<String, Long> statistics = new TreeMap<String, Long>();
+    private MessageCache messageCache = new MessageCache();
+    private ImageCache imageCache = new ImageCache();
+    private SpineSceneCache spineSceneCache = new SpineSceneCache();
+    private Map<String, byte[]> outputContent = new ConcurrentHashMap<String, byte[]>();
     private List<URL> libUrls = new ArrayList<URL>();
     private final List<String> excludedCollectionProxies = new ArrayList<String>();
     private List<String> propertyFiles = new ArrayList<String>();
@@ -173,15 +201,50 @@ public class Project {
     }
 
     /**
-     * Scan package for builder classes
+     * Scan package for builder classes. If the package has a builder index, see {@link BuilderIndex},
+     * the builders are registered from the index, and only the classes of other class path entries,
+     * e.g. plugin jars, are loaded to find builders.
      * @param scanner class scanner
      * @param pkg package name to be scanned
      */
     public void scan(IClassScanner scanner, String pkg) {
+        scan(scanner, pkg, Project.class.getClassLoader());
+    }
+
+    /**
+     * Scan package for builder classes, see {@link #scan(IClassScanner, String)}
+     * @param scanner class scanner
+     * @param pkg package name to be scanned
+     * @param classLoader class loader to find the builder index with
+     */
+    public void scan(IClassScanner scanner, String pkg, ClassLoader classLoader) {
+        Map<String, String> index;
+        try {
+            index = BuilderIndex.load(classLoader, pkg);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
         Set<String> classNames = scanner.scan(pkg);
+        if (index != null) {
+            registerBuilders(index);
+            classNames = BuilderIndex.getUnindexedLocationClasses(classLoader, pkg, classNames);
+            classNames.removeAll(index.values());
+        }
         doScan(classNames);
     }
 
+    /**
+     * Register builder classes by name. A builder class is loaded the first time a resource of
+     * one of its input extensions is built.
+     * @param builderNames map of input extension to builder class name
+     */
+    public synchronized void registerBuilders(Map<String, String> builderNames) {
+        for (Map.Entry<String, String> entry : builderNames.entrySet()) {
+            extToBuilder.remove(entry.getKey());
+            extToBuilderName.put(entry.getKey(), entry.getValue());
+        }
+    }
+
     private static String getManifestInfo(String attribute) {
         Enumeration resEnum;
         try {
@@ -210,7 +273,7 @@ public class Project {
     }
 
     @SuppressWarnings("unchecked")
-    private void doScan(Set<String> classNames) {
+    private synchronized void doScan(Set<String> classNames) {
         boolean is_bob_light = getManifestInfo("is-bob-light") != null;
 
         for (String className : classNames) {
@@ -228,6 +291,7 @@ public class Project {
                     if (params != null) {
                         for (String inExt : params.inExts()) {
                             extToBuilder.put(inExt, (Class<? extends Builder<?>>) klass);
+                            extToBuilderName.remove(inExt);
                         }
                     }
                 } catch (Exception e) {
@@ -265,10 +329,31 @@ public class Project {
 
     private Class<? extends Builder<?>> getBuilderFromExtension(String input) {
         String ext = "." + FilenameUtils.getExtension(input);
+        return getBuilder(ext);
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized Class<? extends Builder<?>> getBuilder(String ext) {
         Class<? extends Builder<?>> builderClass = extToBuilder.get(ext);
+        if (builderClass == null) {
+            String className = extToBuilderName.get(ext);
+            if (className != null) {
+                try {
+                    builderClass = (Class<? extends Builder<?>>) Class.forName(className);
+                } catch (ClassNotFoundException e) {
+                    throw new RuntimeException(e);
+                }
+                extToBuilder.put(ext, builderClass);
+                extToBuilderName.remove(ext);
+            }
+        }
         return builderClass;
     }
 
+    private synchronized boolean hasBuilder(String ext) {
+        return extToBuilder.containsKey(ext) || extToBuilderName.containsKey(ext);
+    }
+
     /**
      * Create task from resource. Typically called from builder
      * that create intermediate output/input-files
@@ -285,7 +370,7 @@ public class Project {
 
         Task<?> task = doCreateTask(input.getPath(), builderClass);
         if (task != null) {
-            newTasks.add(task);
+            addNewTask(task);
         }
         return task;
     }
@@ -300,7 +385,7 @@ public class Project {
     public Task<?> buildResource(IResource input, Class<? extends Builder<?>> builderClass) throws CompileExceptionError {
         Task<?> task = doCreateTask(input.getPath(), builderClass);
         if (task != null) {
-            newTasks.add(task);
+            addNewTask(task);
         }
         return task;
     }
@@ -767,9 +852,11 @@ public class Project {
     }
 
     private List<TaskResult> doBuild(IProgress monitor, String... commands) throws IOException, CompileExceptionError, MultipleCompileException {
+        fileSystem.setThreadCount(getMaxCpuThreads());
         fileSystem.loadCache();
         IResource stateResource = fileSystem.get(FilenameUtils.concat(buildDirectory, "state"));
         state = State.load(stateResource);
+        clearBuildCaches();
         createTasks();
         validateBuildResourceMapping();
         List<TaskResult> result = new ArrayList<TaskResult>();
@@ -804,7 +891,23 @@ public class Project {
                     IProgress m = monitor.subProgress(99);
                     BundleHelper.throwIfCanceled(monitor);
                     m.beginTask("Building...", newTasks.size());
-                    result = runTasks(m);
+                    imageCache.setThreadCount(getMaxCpuThreads());
+                    GLSLCompiler.setMaxProcesses(getMaxCpuThreads());
+                    try {
+                        result = runTasks(m);
+                        setStatistic("message_cache_hits", messageCache.getHits());
+                        setStatistic("message_cache_misses", messageCache.getMisses());
+                        setStatistic("image_cache_hits", imageCache.getHits());
+                        setStatistic("image_cache_misses", imageCache.getMisses());
+                        setStatistic("spine_scene_cache_hits", spineSceneCache.getHits());
+                        setStatistic("spine_scene_cache_misses", spineSceneCache.getMisses());
+                    } finally {
+                        // Don't keep idle luajit processes between builds, e.g. in the editor
+                        LuaCompilerPool.shutdownAll();
+                        // Don't hold on to the cached resources and outputs until the next build,
+                        // also when the build failed or was canceled
+                        clearBuildCaches();
+                    }
                     m.done();
                     if (anyFailing(result)) {
                         break loop;
@@ -902,159 +1005,227 @@ public class Project {
         return result;
     }
 
-    @SuppressWarnings({ "rawtypes", "unchecked" })
-    private List<TaskResult> runTasks(IProgress monitor) throws IOException {
+    /**
+     * Clear the caches of resources shared by the builders of a build, e.g. the message, image
+     * and spine scene caches. The cached objects are shared between builders running
+     * concurrently and must not be modified.
+     */
+    private void clearBuildCaches() {
+        messageCache.clear();
+        imageCache.clear();
+        spineSceneCache.clear();
+        outputContent.clear();
+    }
 
-        // set of all completed tasks. The set includes both task run
-        // in this session and task already completed (output already exists with correct signatures, see below)
-        // the set also contains failed tasks
-        Set<Task> completedTasks = new HashSet<>();
+    /**
+     * Get the max number of threads used when running build tasks. Set with the
+     * "max-cpu-threads" option, where values below 1 mean all available processors.
+     * @return number of threads, at least 1
+     * @throws CompileExceptionError if the option isn't a valid integer
+     */
+    public int getMaxCpuThreads() throws CompileExceptionError {
+        String value = option("max-cpu-threads", "1");
+        int threads;
+        try {
+            threads = Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new CompileExceptionError(null, -1, String.format("Invalid value '%s' for max-cpu-threads", value));
+        }
+        if (threads < 1) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        return threads;
+    }
 
-        // the set of all output files generated
-        // in this or previous session
-        Set<IResource> completedOutputs = new HashSet<>();
+    private void addNewTask(Task<?> task) {
+        synchronized (newTasks) {
+            newTasks.add(task);
+        }
+    }
 
-        List<TaskResult> result = new ArrayList<>();
+    private List<Task<?>> takeNewTasks() {
+        synchronized (newTasks) {
+            List<Task<?>> tasks = new ArrayList<>(newTasks);
+            newTasks.clear();
+            return tasks;
+        }
+    }
 
-        List<Task<?>> tasks = new ArrayList<>(newTasks);
-        // set of *all* possible output files
-        Set<IResource> allOutputs = new HashSet<>();
-        for (Task<?> task : newTasks) {
-            allOutputs.addAll(task.getOutputs());
+    /**
+     * Outcome of running a single task on a worker thread
+     */
+    private static class TaskRun {
+        final Task<?> task;
+        byte[] signature;
+        // null when the task was already up to date
+        TaskResult result;
+        boolean abort = false;
+
+        TaskRun(Task<?> task) {
+            this.task = task;
         }
-        newTasks.clear();
+    }
 
-        // Keep track of the paths for all outputs
-        outputs = new HashMap<>(allOutputs.size());
-        for (IResource res : allOutputs) {
-            outputs.put(res.getAbsPath(), EnumSet.noneOf(OutputFlags.class));
-        }
-
-        // This flag is set to true as soon as one task has failed. This will
-        // break out of the outer loop after the remaining tasks has been tried once.
-        // NOTE The underlying problem is that if a task fails and has dependent
-        // tasks, the dependent tasks will be tried forever. It should be solved
-        // by marking all dependent tasks as failed instead of this flag.
-        boolean taskFailed = false;
-run:
-        while (completedTasks.size() < tasks.size()) {
-            for (Task<?> task : tasks) {
-                BundleHelper.throwIfCanceled(monitor);
-                // deps are the task input files generated by another task not yet completed,
-                // i.e. "solve" the dependency graph
-                Set<IResource> deps = new HashSet<>(task.getInputs());
-                deps.retainAll(allOutputs);
-                deps.removeAll(completedOutputs);
-                if (deps.size() > 0) {
-                    // postpone task. dependent input not yet generated
-                    continue;
-                }
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private TaskRun runTask(Task<?> task) throws IOException {
+        TaskRun run = new TaskRun(task);
+        byte[] taskSignature = task.calculateSignature(this);
+        run.signature = taskSignature;
+
+        // do all output files exist?
+        boolean allOutputExists = true;
+        for (IResource r : task.getOutputs()) {
+            if (!r.exists()) {
+                allOutputExists = false;
+                break;
+            }
+        }
 
-                monitor.worked(1);
+        // compare all task signature. current task signature between previous
+        // signature from state on disk
+        boolean allSigsEquals = true;
+        for (IResource r : task.getOutputs()) {
+            byte[] s = state.getSignature(r.getAbsPath());
+            if (!Arrays.equals(s, taskSignature)) {
+                allSigsEquals = false;
+                break;
+            }
+        }
 
-                byte[] taskSignature = task.calculateSignature(this);
+        if (allOutputExists && allSigsEquals) {
+            // Task is successfully completed in a previous build
+            return run;
+        }
 
-                // do all output files exist?
-                boolean allOutputExists = true;
-                for (IResource r : task.getOutputs()) {
-                    if (!r.exists()) {
-                        allOutputExists = false;
-                        break;
-                    }
-                }
+        TaskResult taskResult = new TaskResult(task);
+        run.result = taskResult;
+        Builder builder = task.getBuilder();
+        boolean ok = true;
+        int lineNumber = 0;
+        String message = null;
+        Throwable exception = null;
+        try {
+            builder.build(task);
 
-                // compare all task signature. current task signature between previous
-                // signature from state on disk
-                List<byte[]> outputSigs = new ArrayList<byte[]>();
-                for (IResource r : task.getOutputs()) {
-                    byte[] s = state.getSignature(r.getAbsPath());
-                    outputSigs.add(s);
-                }
-                boolean allSigsEquals = true;
-                for (byte[] sig : outputSigs) {
-                    if (!Arrays.equals(sig, taskSignature)) {
-                        allSigsEquals = false;
-                        break;
-                    }
+            for (IResource r : task.getOutputs()) {
+                if (!r.exists()) {
+                    message = String.format("Output '%s' not found", r.getAbsPath());
+                    ok = false;
+                    break;
                 }
+            }
+        } catch (CompileExceptionError e) {
+            ok = false;
+            lineNumber = e.getLineNumber();
+            message = e.getMessage();
+        } catch (Throwable e) {
+            ok = false;
+            message = e.getMessage();
+            exception = e;
+            run.abort = true;
 
-                boolean shouldRun = (!allOutputExists || !allSigsEquals) && !completedTasks.contains(task);
+            // to fix the issue it's easier to see the actual callstack
+            exception.printStackTrace(new java.io.PrintStream(System.out));
+        }
+        if (!ok) {
+            taskResult.setOk(ok);
+            taskResult.setLineNumber(lineNumber);
+            taskResult.setMessage(message);
+            taskResult.setException(exception);
+        }
+        return run;
+    }
 
-                if (!shouldRun) {
-                    if (allOutputExists && allSigsEquals)
-                    {
-                        // Task is successfully completed now or in a previous build.
-                        // Only if the conditions in the if-statements are true add the task to the completed set and the
-                        // output files to the completed output set
-                        completedTasks.add(task);
-                        completedOutputs.addAll(task.getOutputs());
-                    }
-                    continue;
-                }
+    private List<TaskResult> runTasks(IProgress monitor) throws IOException, CompileExceptionError {
+        List<TaskResult> result = new ArrayList<>();
 
-                completedTasks.add(task);
+        List<Task<?>> tasks = takeNewTasks();
 
-                TaskResult taskResult = new TaskResult(task);
-                result.add(taskResult);
-                Builder builder = task.getBuilder();
-                boolean ok = true;
-                int lineNumber = 0;
-                String message = null;
-                Throwable exception = null;
-                boolean abort = false;
-                try {
-                    builder.build(task);
-                    for (IResource r : task.getOutputs()) {
-                        state.putSignature(r.getAbsPath(), taskSignature);
-                    }
-
-                    for (IResource r : task.getOutputs()) {
-                        if (!r.exists()) {
-                            message = String.format("Output '%s' not found", r.getAbsPath());
-                            ok = false;
-                            break;
-                        }
-                    }
-                    completedOutputs.addAll(task.getOutputs());
+        // Keep track of the paths for all outputs
+        outputs = new HashMap<>();
+        for (Task<?> task : tasks) {
+            for (IResource res : task.getOutputs()) {
+                outputs.put(res.getAbsPath(), EnumSet.noneOf(OutputFlags.class));
+            }
+        }
 
-                } catch (CompileExceptionError e) {
-                    ok = false;
-                    lineNumber = e.getLineNumber();
-                    message = e.getMessage();
-                } catch (Throwable e) {
-                    ok = false;
-                    message = e.getMessage();
-                    exception = e;
-                    abort = true;
+        // Tasks are run as soon as all inputs generated by other tasks are completed.
+        // When a task fails all tasks depending on it are marked as failed without being run.
+        TaskGraph graph = new TaskGraph();
+        graph.addTasks(tasks);
 
-                    // to fix the issue it's easier to see the actual callstack
-                    exception.printStackTrace(new java.io.PrintStream(System.out));
+        int maxThreads = getMaxCpuThreads();
+        ExecutorService executor = Executors.newFixedThreadPool(maxThreads);
+        CompletionService<TaskRun> completionService = new ExecutorCompletionService<>(executor);
+        int running = 0;
+        boolean abort = false;
+        try {
+            while (true) {
+                BundleHelper.throwIfCanceled(monitor);
+                while (!abort && running < maxThreads && graph.hasReady()) {
+                    final Task<?> task = graph.next();
+                    completionService.submit(new Callable<TaskRun>() {
+                        @Override
+                        public TaskRun call() throws IOException {
+                            return runTask(task);
+                        }
+                    });
+                    ++running;
+                }
+                if (running == 0) {
+                    break;
                 }
-                if (!ok) {
-                    taskFailed = true;
-                    taskResult.setOk(ok);
-                    taskResult.setLineNumber(lineNumber);
-                    taskResult.setMessage(message);
-                    taskResult.setException(exception);
-                    // Clear sigs for all outputs when a task fails
-                    for (IResource r : task.getOutputs()) {
-                        state.putSignature(r.getAbsPath(), new byte[0]);
+
+                TaskRun run;
+                try {
+                    run = completionService.take().get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CompileExceptionError("Build was interrupted", e);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
                     }
-                    if (abort) {
-                        break run;
+                    throw new CompileExceptionError(cause.getMessage(), cause);
+                }
+                --running;
+                monitor.worked(1);
+
+                Task<?> task = run.task;
+                TaskResult taskResult = run.result;
+                if (taskResult == null) {
+                    graph.complete(task);
+                } else {
+                    result.add(taskResult);
+                    if (taskResult.isOk()) {
+                        for (IResource r : task.getOutputs()) {
+                            state.putSignature(r.getAbsPath(), run.signature);
+                        }
+                        graph.complete(task);
+                    } else {
+                        // Clear sigs for all outputs when a task fails
+                        for (IResource r : task.getOutputs()) {
+                            state.putSignature(r.getAbsPath(), new byte[0]);
+                        }
+                        graph.fail(task);
+                        abort |= run.abort;
                     }
                 }
+
+                // Tasks created while building are added to the graph
+                graph.addTasks(takeNewTasks());
             }
-            if (taskFailed) {
-                break;
-            }
-            // set of *all* possible output files
-            for (Task<?> task : newTasks) {
-                allOutputs.addAll(task.getOutputs());
-            }
-            tasks.addAll(newTasks);
-            newTasks.clear();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (!abort && graph.getUnfinishedCount() > 0) {
+            logWarning("%d task(s) could not be run due to circular dependencies", graph.getUnfinishedCount());
         }
+
         return result;
     }
 
@@ -1095,7 +1266,10 @@ run:
     }
 
     /**
-     * Resolve (i.e. download from server) the stored lib URLs.
+     * Resolve (i.e. download from server) the stored lib URLs. The libraries are resolved
+     * concurrently, with conditional requests using the ETags of the library files that are
+     * already downloaded. If the "library-cache" option is set to a folder, the libraries are
+     * also stored in a library cache shared with other projects, see {@link LibraryCache}.
      * @throws IOException
      */
     public void resolveLibUrls(IProgress progress) throws IOException, LibraryException {
@@ -1105,97 +1279,38 @@ run:
             // Clean lib dir first
             //FileUtils.deleteQuietly(libDir);
             FileUtils.forceMkdir(libDir);
-            // Download libs
+            String libraryCachePath = option("library-cache", "");
+            LibraryCache libraryCache = libraryCachePath.isEmpty() ? null : new LibraryCache(new File(libraryCachePath));
+
+            // The same URL might be listed more than once, resolve each library file once
             List<File> libFiles = LibraryUtil.convertLibraryUrlsToFiles(libPath, libUrls);
-            int count = this.libUrls.size();
+            Map<File, URL> libs = new LinkedHashMap<File, URL>();
+            for (int i = 0; i < libFiles.size(); ++i) {
+                libs.put(libFiles.get(i), libUrls.get(i));
+            }
+
+            Map<String, String> eTags = LibraryUtil.readETags(libDir);
+            int count = libs.size();
             IProgress subProgress = progress.subProgress(count);
             subProgress.beginTask("Download archives", count);
-            for (int i = 0; i < count; ++i) {
-                BundleHelper.throwIfCanceled(progress);
-                File f = libFiles.get(i);
-                String sha1 = null;
-
-                if (f.exists()) {
-                    ZipFile zipFile = null;
-
-                    try {
-                        zipFile = new ZipFile(f);
-                        sha1 = zipFile.getComment();
-                    } finally {
-                        if (zipFile != null) {
-                            zipFile.close();
-                        }
-                    }
-                }
-
-                URL url = libUrls.get(i);
-                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-                if (sha1 != null) {
-                    connection.addRequestProperty("If-None-Match", sha1);
-                }
-
-                // Check if URL contains basic auth credentials
-                String basicAuthData = null;
-                try {
-                    URI uri = new URI(url.toString());
-                    basicAuthData = uri.getUserInfo();
-                } catch (URISyntaxException e1) {
-                    // Ignored, could not get URI and basic auth data from URL.
-                }
-
-                // Pass correct headers along to server depending on auth alternative.
-                if (basicAuthData != null) {
-                    String basicAuth = "Basic " + new String(new Base64().encode(basicAuthData.getBytes()));
-                    connection.setRequestProperty("Authorization", basicAuth);
-                } else {
-                    connection.addRequestProperty("X-Email", this.options.get("email"));
-                    connection.addRequestProperty("X-Auth", this.options.get("auth"));
+            ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(MAX_LIBRARY_THREADS, count)));
+            try {
+                Map<File, Future<String>> futures = new LinkedHashMap<File, Future<String>>();
+                for (Map.Entry<File, URL> lib : libs.entrySet()) {
+                    futures.put(lib.getKey(), submitResolveLibUrl(executor, progress, lib.getValue(), lib.getKey(), eTags.get(lib.getKey().getName()), libraryCache));
                 }
-
-                InputStream input = null;
-                try {
-                    connection.connect();
-                    int code = connection.getResponseCode();
-                    if (code == 304) {
-                        // Reusing cached library
+                for (Map.Entry<File, Future<String>> future : futures.entrySet()) {
+                    String eTag = FutureUtil.get(future.getValue(), IOException.class, LibraryException.class);
+                    if (eTag != null) {
+                        eTags.put(future.getKey().getName(), eTag);
                     } else {
-                        boolean serverSha1Match = false;
-                        if(code == 200) {
-                            // GitHub uses eTags and we can check we have the up to date version by comparing SHA1 and server eTag if we get a 200 OK response
-                            if (sha1 != null) {
-                                String serverETag = connection.getHeaderField("ETag");
-                                if (serverETag != null) {
-                                    if (sha1.equals(serverETag.replace("\"", ""))) {
-                                        // Reusing cached library
-                                        serverSha1Match = true;
-                                    }
-                                }
-                            }
-                        }
-                        if(!serverSha1Match) {
-                            input = new BufferedInputStream(connection.getInputStream());
-                            FileUtils.copyInputStreamToFile(input, f);
-
-                            try {
-                                ZipFile zip = new ZipFile(f);
-                                zip.close();
-                            } catch (ZipException e) {
-                                f.delete();
-                                throw new LibraryException(String.format("The file obtained from %s is not a valid zip file", url.toString()), e);
-                            }
-                        }
-                    }
-                    connection.disconnect();
-                } catch (ConnectException e) {
-                    throw new LibraryException(String.format("Connection refused by the server at %s", url.toString()), e);
-                } catch (FileNotFoundException e) {
-                    throw new LibraryException(String.format("The URL %s points to a resource which doesn't exist", url.toString()), e);
-                } finally {
-                    if(input != null) {
-                        IOUtils.closeQuietly(input);
+                        eTags.remove(future.getKey().getName());
                     }
                     subProgress.worked(1);
                 }
+            } finally {
+                executor.shutdownNow();
+                LibraryUtil.writeETags(libDir, eTags);
             }
         }
         catch(IOException ioe) {
@@ -1207,7 +1322,131 @@ run:
         catch(Exception e) {
             throw new LibraryException(e.getMessage(), e);
         }
-   }
+    }
+
+    private Future<String> submitResolveLibUrl(ExecutorService executor, final IProgress progress, final URL url, final File f, final String eTag, final LibraryCache libraryCache) {
+        return executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws IOException, LibraryException {
+                BundleHelper.throwIfCanceled(progress);
+                return resolveLibUrl(url, f, eTag, libraryCache);
+            }
+        });
+    }
+
+    private static String getZipComment(File f) throws IOException {
+        ZipFile zipFile = new ZipFile(f);
+        try {
+            return zipFile.getComment();
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    private static String stripQuotes(String eTag) {
+        return eTag.replace("\"", "");
+    }
+
+    /**
+     * Resolve a library
+     * @param url library URL
+     * @param f library file
+     * @param eTag ETag of the library file, or null if it isn't known
+     * @param libraryCache shared library cache, or null
+     * @return the ETag of the library file, or null if the server doesn't tag its libraries
+     */
+    private String resolveLibUrl(URL url, File f, String eTag, LibraryCache libraryCache) throws IOException, LibraryException {
+        if (f.exists()) {
+            if (eTag == null) {
+                // Resolved before the ETags were stored, the zip comment is the SHA1 of the library version
+                eTag = getZipComment(f);
+            }
+        } else {
+            eTag = libraryCache != null ? libraryCache.getETag(url) : null;
+        }
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        if (eTag != null) {
+            connection.addRequestProperty("If-None-Match", eTag);
+        }
+
+        // Check if URL contains basic auth credentials
+        String basicAuthData = null;
+        try {
+            URI uri = new URI(url.toString());
+            basicAuthData = uri.getUserInfo();
+        } catch (URISyntaxException e1) {
+            // Ignored, could not get URI and basic auth data from URL.
+        }
+
+        // Pass correct headers along to server depending on auth alternative.
+        if (basicAuthData != null) {
+            String basicAuth = "Basic " + new String(new Base64().encode(basicAuthData.getBytes()));
+            connection.setRequestProperty("Authorization", basicAuth);
+        } else {
+            connection.addRequestProperty("X-Email", this.options.get("email"));
+            connection.addRequestProperty("X-Auth", this.options.get("auth"));
+        }
+
+        InputStream input = null;
+        try {
+            connection.connect();
+            int code = connection.getResponseCode();
+            String serverETag = connection.getHeaderField("ETag");
+            boolean upToDate = code == 304;
+            if (code == 200 && eTag != null && serverETag != null) {
+                // GitHub uses eTags and we can check we have the up to date version by comparing SHA1 and server eTag if we get a 200 OK response
+                upToDate = stripQuotes(eTag).equals(stripQuotes(serverETag));
+            }
+            if (upToDate) {
+                if (f.exists()) {
+                    // Reusing cached library
+                    return eTag;
+                } else if (libraryCache != null && libraryCache.copy(url, eTag, f)) {
+                    // Reusing library of the shared library cache
+                    return eTag;
+                }
+                // The library file was removed, or removed from the shared library cache since it was looked up, download it
+                connection.disconnect();
+                return resolveLibUrl(url, f, null, null);
+            }
+
+            // Download next to the library file and move it in place once it's known to be a valid zip
+            File tmp = File.createTempFile(f.getName(), ".tmp", f.getParentFile());
+            try {
+                input = new BufferedInputStream(connection.getInputStream());
+                FileUtils.copyInputStreamToFile(input, tmp);
+                String comment;
+                try {
+                    comment = getZipComment(tmp);
+                } catch (ZipException e) {
+                    throw new LibraryException(String.format("The file obtained from %s is not a valid zip file", url.toString()), e);
+                }
+                Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                eTag = serverETag != null ? serverETag : comment;
+            } finally {
+                tmp.delete();
+            }
+
+            if (libraryCache != null && eTag != null) {
+                try {
+                    libraryCache.put(url, eTag, f);
+                } catch (IOException e) {
+                    logWarning("Unable to add %s to the library cache: %s", url.toString(), e.getMessage());
+                }
+            }
+            return eTag;
+        } catch (ConnectException e) {
+            throw new LibraryException(String.format("Connection refused by the server at %s", url.toString()), e);
+        } catch (FileNotFoundException e) {
+            throw new LibraryException(String.format("The URL %s points to a resource which doesn't exist", url.toString()), e);
+        } finally {
+            if(input != null) {
+                IOUtils.closeQuietly(input);
+            }
+            connection.disconnect();
+        }
+    }
 
     /**
      * Set option
@@ -1249,6 +1488,75 @@ run:
         return options;
     }
 
+    /**
+     * Set build statistic, included in the build report
+     * @param name name of the statistic
+     * @param value value
+     */
+    public void setStatistic(String name, long value) {
+        synchronized (statistics) {
+            statistics.put(name, value);
+        }
+    }
+
+    /**
+     * Get build statistics, sorted by name
+     * @return statistics
+     */
+    public Map<String, Long> getStatistics() {
+        synchronized (statistics) {
+            return new TreeMap<String, Long>(statistics);
+        }
+    }
+
+    /**
+     * Get cache of messages parsed from text format resources, cleared at the start of each build
+     * @return message cache
+     */
+    public MessageCache getMessageCache() {
+        return messageCache;
+    }
+
+    /**
+     * Get cache of images decoded from resources, cleared at the start and the end of each build
+     * @return image cache
+     */
+    public ImageCache getImageCache() {
+        return imageCache;
+    }
+
+    /**
+     * Get cache of scenes loaded from spine json resources, cleared at the start and the end of each build
+     * @return spine scene cache
+     */
+    public SpineSceneCache getSpineSceneCache() {
+        return spineSceneCache;
+    }
+
+    /**
+     * Keep the content of a built output in memory until all tasks of the build have run.
+     * Used for outputs that are read again by later tasks, see GameProjectBuilder.
+     * @param output output resource
+     * @param content content written to the output
+     */
+    public void putOutputContent(IResource output, byte[] content) {
+        outputContent.put(output.getAbsPath(), content);
+    }
+
+    /**
+     * Get the content of an output, from memory if it was built in this build
+     * @param output output resource
+     * @return content, or null if the output does not exist
+     * @throws IOException
+     */
+    public byte[] getOutputContent(IResource output) throws IOException {
+        byte[] content = outputContent.get(output.getAbsPath());
+        if (content != null) {
+            return content;
+        }
+        return output.getContent();
+    }
+
     class Walker extends FileSystemWalker {
 
         private Set<String> skipDirs;
@@ -1274,8 +1582,7 @@ run:
             }
             if (include) {
                 String ext = "." + FilenameUtils.getExtension(path);
-                Class<? extends Builder<?>> builderClass = extToBuilder.get(ext);
-                if (builderClass != null)
+                if (hasBuilder(ext))
                     results.add(path);
             }
         }
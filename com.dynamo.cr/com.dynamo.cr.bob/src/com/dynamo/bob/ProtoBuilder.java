@@ -33,6 +33,10 @@ public abstract class ProtoBuilder<B extends GeneratedMessage.Builder<B>> extend
         return messageBuilder;
     }
 
+    protected void merge(IResource resource, B messageBuilder) throws IOException, CompileExceptionError {
+        ProtoUtil.merge(resource, messageBuilder);
+    }
+
     @Override
     public Task<Void> create(IResource input) throws IOException, CompileExceptionError {
         return defaultTask(input);
@@ -51,14 +55,16 @@ public abstract class ProtoBuilder<B extends GeneratedMessage.Builder<B>> extend
             throw new RuntimeException(e);
         }
 
-        ProtoUtil.merge(task.input(0), builder);
+        merge(task.input(0), builder);
         builder = transform(task, task.input(0), builder);
 
         Message msg = builder.build();
         ByteArrayOutputStream out = new ByteArrayOutputStream(4 * 1024);
         msg.writeTo(out);
         out.close();
-        task.output(0).setContent(out.toByteArray());
+        byte[] content = out.toByteArray();
+        task.output(0).setContent(content);
+        project.putOutputContent(task.output(0), content);
     }
 
 }
@@ -1,10 +1,10 @@
 // Copyright 2020 The Defold Foundation
 // Licensed under the Defold License version 1.0 (the "License"); you may not use
 // this file except in compliance with the License.
-// 
+//
 // You may obtain a copy of the License, together with FAQs at
 // https://www.defold.com/license
-// 
+//
 // Unless required by applicable law or agreed to in writing, software distributed
 // under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
 // CONDITIONS OF ANY KIND, either express or implied. See the License for the
@@ -14,31 +14,71 @@ package com.dynamo.bob;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import com.dynamo.bob.fs.IResource;
 
 /**
- * Bob state abstraction for persistent sha1-checksums
+ * Bob state abstraction for persistent sha1-checksums. Signatures can be
+ * accessed concurrently from build threads.
+ *
+ * The state is stored as a binary log. Each path is written once and given an index,
+ * signatures are written as fixed-width records referring to the path index. When
+ * saving, only the signatures changed since the state was loaded are appended to
+ * the log. The log is rewritten when it has grown too large compared to the number
+ * of paths. The state is parsed on first access, and states saved with Java
+ * serialization by older versions are migrated on load.
  * @author Christian Murray
  *
  */
 public class State implements Serializable {
 
+    // Kept for reading state saved with Java serialization
     private static final long serialVersionUID = -275410118302470803L;
+
+    private static final int MAGIC = 0x424f4253; // BOBS
+    private static final int VERSION = 2;
+    private static final int SIGNATURE_SIZE = 20;
+
+    private static final byte RECORD_PATH = 1;
+    private static final byte RECORD_SIGNATURE = 2;
+    private static final byte RECORD_CLEAR = 3;
+    private static final byte RECORD_VAR_SIGNATURE = 4;
+
+    // Rewrite the log when it holds more than this many records per path
+    private static final int COMPACTION_RATIO = 4;
+
     private Map<String, byte[]> signatures = new HashMap<String, byte[]>();
 
+    private transient Map<String, Integer> pathIndices = new HashMap<String, Integer>();
+    private transient List<String> paths = new ArrayList<String>();
+    private transient Set<String> dirty = new LinkedHashSet<String>();
+    // Number of paths already written to the log
+    private transient int savedPathCount = 0;
+    private transient int recordCount = 0;
+    private transient boolean rewrite = true;
+    // Content not yet parsed, see ensureLoaded()
+    private transient byte[] content;
+
     /**
      * Get signature for path
      * @param path path to get sha1 for
      * @return signature or null of no mapping exists
      */
-    public byte[] getSignature(String path) {
+    public synchronized byte[] getSignature(String path) {
+        ensureLoaded();
         return signatures.get(path);
     }
 
@@ -47,44 +87,195 @@ public class State implements Serializable {
      * @param path path to set sha1 for
      * @param signature signature to set
      */
-    public void putSignature(String path, byte[] signature) {
-        signatures.put(path, signature);
+    public synchronized void putSignature(String path, byte[] signature) {
+        ensureLoaded();
+        byte[] prev = signatures.put(path, signature);
+        if (prev == null || !Arrays.equals(prev, signature)) {
+            dirty.add(path);
+        }
     }
 
     /**
-     * Load state from resource
+     * Load state from resource. The content is parsed on first access.
      * @param resource state resource
      * @return {@link State}
      * @throws IOException
      */
     public static State load(IResource resource) throws IOException {
+        State state = new State();
         byte[] content = resource.getContent();
+        if (content != null && content.length > 0) {
+            state.content = content;
+        }
+        return state;
+    }
+
+    private void ensureLoaded() {
         if (content == null) {
-            return new State();
-        } else {
-            try {
-                ObjectInputStream is = new ObjectInputStream(new ByteArrayInputStream(content));
-                State state = (State) is.readObject();
-                return state;
-            } catch (Throwable e) {
-                System.err.println("Unable to load state");
-                e.printStackTrace();
-                return new State();
+            return;
+        }
+        byte[] c = content;
+        content = null;
+        try {
+            DataInputStream is = new DataInputStream(new ByteArrayInputStream(c));
+            int magic = is.readInt();
+            if (magic == MAGIC) {
+                int version = is.readInt();
+                if (version != VERSION) {
+                    throw new IOException(String.format("Unsupported state version %d", version));
+                }
+                readRecords(is);
+            } else {
+                // State saved by older versions
+                migrate(c);
             }
+        } catch (Throwable e) {
+            System.err.println("Unable to load state");
+            e.printStackTrace();
+            clear();
+        }
+    }
+
+    private void readRecords(DataInputStream is) throws IOException {
+        rewrite = false;
+        try {
+            while (true) {
+                byte type;
+                try {
+                    type = is.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                switch (type) {
+                case RECORD_PATH:
+                    intern(is.readUTF());
+                    break;
+                case RECORD_SIGNATURE: {
+                    String path = paths.get(is.readInt());
+                    byte[] signature = new byte[SIGNATURE_SIZE];
+                    is.readFully(signature);
+                    signatures.put(path, signature);
+                    break;
+                }
+                case RECORD_VAR_SIGNATURE: {
+                    String path = paths.get(is.readInt());
+                    byte[] signature = new byte[is.readUnsignedShort()];
+                    is.readFully(signature);
+                    signatures.put(path, signature);
+                    break;
+                }
+                case RECORD_CLEAR:
+                    signatures.put(paths.get(is.readInt()), new byte[0]);
+                    break;
+                default:
+                    throw new IOException(String.format("Invalid state record type %d", type));
+                }
+                ++recordCount;
+            }
+        } catch (EOFException e) {
+            // Truncated record, i.e. an interrupted save. Keep what was read and
+            // write a complete log on next save.
+            rewrite = true;
+        }
+        savedPathCount = paths.size();
+    }
+
+    private void migrate(byte[] c) throws IOException, ClassNotFoundException {
+        ObjectInputStream is = new ObjectInputStream(new ByteArrayInputStream(c));
+        State old = (State) is.readObject();
+        signatures.putAll(old.signatures);
+        for (String path : signatures.keySet()) {
+            intern(path);
+        }
+        rewrite = true;
+    }
+
+    private void clear() {
+        signatures.clear();
+        pathIndices.clear();
+        paths.clear();
+        dirty.clear();
+        savedPathCount = 0;
+        recordCount = 0;
+        rewrite = true;
+    }
+
+    private int intern(String path) {
+        Integer index = pathIndices.get(path);
+        if (index == null) {
+            index = paths.size();
+            paths.add(path);
+            pathIndices.put(path, index);
+        }
+        return index;
+    }
+
+    private static void writeSignature(DataOutputStream os, int index, byte[] signature) throws IOException {
+        if (signature.length == 0) {
+            os.writeByte(RECORD_CLEAR);
+            os.writeInt(index);
+        } else if (signature.length == SIGNATURE_SIZE) {
+            os.writeByte(RECORD_SIGNATURE);
+            os.writeInt(index);
+            os.write(signature);
+        } else {
+            os.writeByte(RECORD_VAR_SIGNATURE);
+            os.writeInt(index);
+            os.writeShort(signature.length);
+            os.write(signature);
         }
     }
 
     /**
-     * Save state
+     * Save state. Only changed signatures are written unless the log needs to be rewritten.
      * @param resource state resource
      * @throws IOException
      */
-    public void save(IResource resource) throws IOException {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream(128 * 1024);
-        ObjectOutputStream os = new ObjectOutputStream(bos);
-        os.writeObject(this);
-        os.close();
-        resource.setContent(bos.toByteArray());
+    public synchronized void save(IResource resource) throws IOException {
+        ensureLoaded();
+        for (String path : dirty) {
+            intern(path);
+        }
+
+        boolean compact = recordCount > COMPACTION_RATIO * paths.size();
+        if (rewrite || compact || !resource.exists()) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(32 + paths.size() * 96);
+            DataOutputStream os = new DataOutputStream(bos);
+            os.writeInt(MAGIC);
+            os.writeInt(VERSION);
+            // Only paths with a signature are kept when rewriting
+            List<String> keep = new ArrayList<String>(signatures.keySet());
+            pathIndices.clear();
+            paths.clear();
+            for (String path : keep) {
+                os.writeByte(RECORD_PATH);
+                os.writeUTF(path);
+                intern(path);
+            }
+            for (String path : keep) {
+                writeSignature(os, pathIndices.get(path), signatures.get(path));
+            }
+            os.close();
+            resource.setContent(bos.toByteArray());
+            recordCount = paths.size() * 2;
+        } else if (!dirty.isEmpty()) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(dirty.size() * 96);
+            DataOutputStream os = new DataOutputStream(bos);
+            for (int i = savedPathCount; i < paths.size(); ++i) {
+                os.writeByte(RECORD_PATH);
+                os.writeUTF(paths.get(i));
+                ++recordCount;
+            }
+            for (String path : dirty) {
+                writeSignature(os, pathIndices.get(path), signatures.get(path));
+                ++recordCount;
+            }
+            os.close();
+            resource.appendContent(bos.toByteArray());
+        }
+        savedPathCount = paths.size();
+        dirty.clear();
+        rewrite = false;
     }
 
 }
@@ -0,0 +1,227 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import com.dynamo.bob.fs.IResource;
+
+/**
+ * Dependency graph of build tasks. Outputs are indexed to the tasks consuming them
+ * when tasks are added, so a task becomes ready as soon as the last of its generated
+ * inputs is completed. Tasks are handed out in the order they were added.
+ * Not thread-safe, the graph is only meant to be accessed from the scheduling thread.
+ */
+class TaskGraph {
+
+    private enum Status {
+        PENDING,
+        READY,
+        RUNNING,
+        COMPLETED,
+        FAILED
+    }
+
+    private static class Node {
+        final Task<?> task;
+        final int index;
+        final List<Node> consumers = new ArrayList<Node>();
+        int pendingInputs = 0;
+        Status status = Status.PENDING;
+
+        Node(Task<?> task, int index) {
+            this.task = task;
+            this.index = index;
+        }
+    }
+
+    private Map<Task<?>, Node> nodes = new HashMap<Task<?>, Node>();
+    private Map<IResource, Node> producers = new HashMap<IResource, Node>();
+    private Map<IResource, List<Node>> consumers = new HashMap<IResource, List<Node>>();
+    private PriorityQueue<Node> ready = new PriorityQueue<Node>(16, new Comparator<Node>() {
+        @Override
+        public int compare(Node n1, Node n2) {
+            return n1.index - n2.index;
+        }
+    });
+    private int unfinished = 0;
+
+    /**
+     * Add tasks to the graph. Tasks may consume outputs of tasks already in the graph
+     * and vice versa, the order of the added tasks is not important.
+     * @param tasks tasks to add
+     */
+    public void addTasks(Collection<Task<?>> tasks) {
+        List<Node> added = new ArrayList<Node>(tasks.size());
+        for (Task<?> task : tasks) {
+            if (nodes.containsKey(task)) {
+                continue;
+            }
+            Node node = new Node(task, nodes.size());
+            nodes.put(task, node);
+            added.add(node);
+            ++unfinished;
+            for (IResource input : task.getInputs()) {
+                List<Node> list = consumers.get(input);
+                if (list == null) {
+                    list = new ArrayList<Node>();
+                    consumers.put(input, list);
+                }
+                list.add(node);
+            }
+        }
+
+        List<Node> failedProducers = new ArrayList<Node>();
+        // Inputs generated by tasks already in the graph
+        for (Node node : added) {
+            for (IResource input : node.task.getInputs()) {
+                Node producer = producers.get(input);
+                if (producer == null) {
+                    continue;
+                }
+                if (producer.status == Status.FAILED) {
+                    failedProducers.add(producer);
+                    producer.consumers.add(node);
+                } else if (producer.status != Status.COMPLETED) {
+                    link(producer, node);
+                }
+            }
+        }
+
+        // Outputs of the new tasks consumed by any task in the graph
+        for (Node node : added) {
+            for (IResource output : node.task.getOutputs()) {
+                producers.put(output, node);
+                List<Node> list = consumers.get(output);
+                if (list != null) {
+                    for (Node consumer : list) {
+                        link(node, consumer);
+                    }
+                }
+            }
+        }
+
+        for (Node producer : failedProducers) {
+            failDependants(producer);
+        }
+
+        for (Node node : added) {
+            if (node.status == Status.PENDING && node.pendingInputs == 0) {
+                node.status = Status.READY;
+                ready.add(node);
+            }
+        }
+    }
+
+    private void link(Node producer, Node consumer) {
+        if (producer == consumer) {
+            return;
+        }
+        if (consumer.status == Status.READY) {
+            // A new task generates an input of a task not yet started
+            ready.remove(consumer);
+            consumer.status = Status.PENDING;
+        } else if (consumer.status != Status.PENDING) {
+            return;
+        }
+        consumer.pendingInputs++;
+        producer.consumers.add(consumer);
+    }
+
+    /**
+     * Check if there are tasks ready to run
+     * @return true if {@link #next()} will return a task
+     */
+    public boolean hasReady() {
+        return !ready.isEmpty();
+    }
+
+    /**
+     * Get the next task ready to run and mark it as running
+     * @return task or null if no task is ready
+     */
+    public Task<?> next() {
+        Node node = ready.poll();
+        if (node == null) {
+            return null;
+        }
+        node.status = Status.RUNNING;
+        return node.task;
+    }
+
+    /**
+     * Mark task as successfully completed, either built or already up to date.
+     * Consumers with no other pending inputs become ready.
+     * @param task completed task
+     */
+    public void complete(Task<?> task) {
+        Node node = nodes.get(task);
+        node.status = Status.COMPLETED;
+        --unfinished;
+        for (Node consumer : node.consumers) {
+            if (consumer.status == Status.PENDING && --consumer.pendingInputs == 0) {
+                consumer.status = Status.READY;
+                ready.add(consumer);
+            }
+        }
+    }
+
+    /**
+     * Mark task as failed. All tasks depending on the task, directly or indirectly, are
+     * marked as failed as well and will never be returned by {@link #next()}.
+     * @param task failed task
+     * @return number of dependent tasks marked as failed
+     */
+    public int fail(Task<?> task) {
+        Node node = nodes.get(task);
+        node.status = Status.FAILED;
+        --unfinished;
+        return failDependants(node);
+    }
+
+    private int failDependants(Node node) {
+        int count = 0;
+        Deque<Node> stack = new ArrayDeque<Node>(node.consumers);
+        while (!stack.isEmpty()) {
+            Node consumer = stack.pop();
+            if (consumer.status != Status.PENDING && consumer.status != Status.READY) {
+                continue;
+            }
+            if (consumer.status == Status.READY) {
+                ready.remove(consumer);
+            }
+            consumer.status = Status.FAILED;
+            --unfinished;
+            ++count;
+            stack.addAll(consumer.consumers);
+        }
+        return count;
+    }
+
+    /**
+     * Get the number of tasks that are neither completed nor failed
+     * @return number of unfinished tasks
+     */
+    public int getUnfinishedCount() {
+        return unfinished;
+    }
+
+}
@@ -17,24 +17,45 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
-import org.apache.commons.io.IOUtils;
 
 import com.dynamo.bob.pipeline.ResourceNode;
+import com.dynamo.bob.util.FutureUtil;
 import com.dynamo.crypt.Crypt;
 import com.dynamo.liveupdate.proto.Manifest.HashAlgorithm;
+import com.dynamo.liveupdate.proto.Manifest.HashDigest;
 import com.dynamo.liveupdate.proto.Manifest.SignAlgorithm;
 import com.dynamo.liveupdate.proto.Manifest.ResourceEntryFlag;
 
+import com.google.protobuf.ByteString;
+
 import net.jpountz.lz4.LZ4Compressor;
 import net.jpountz.lz4.LZ4Factory;
 
@@ -44,16 +65,30 @@ public class ArchiveBuilder {
     public static final int HASH_MAX_LENGTH = 64; // 512 bits
     public static final int HASH_LENGTH = 20;
     public static final int MD5_HASH_DIGEST_BYTE_LENGTH = 16; // 128 bits
+    public static final long DEFAULT_MAX_IN_FLIGHT_BYTES = 256 * 1024 * 1024;
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+    // Min number of files per thread when adding files in parallel
+    private static final int ADD_CHUNK_SIZE = 256;
 
-    private static final byte[] KEY = "aQj8CScgNP4VsfXK".getBytes();
+    static final byte[] KEY = "aQj8CScgNP4VsfXK".getBytes();
+    // Identifies the compressor and the threshold in shouldUseCompressedResourceData, part of the archive cache key
+    private static final String COMPRESSION_SETTINGS = "lz4hc;0.95";
 
     private static final List<String> ENCRYPTED_EXTS = Arrays.asList("luac", "scriptc", "gui_scriptc", "render_scriptc");
 
+    private static Logger logger = Logger.getLogger(ArchiveBuilder.class.getCanonicalName());
+
     private List<ArchiveEntry> entries = new ArrayList<ArchiveEntry>();
+    // Index of the entries for duplicate checks
+    private Set<ArchiveEntry> entrySet = new HashSet<ArchiveEntry>();
     private String root;
     private ManifestBuilder manifestBuilder = null;
     private LZ4Compressor lz4Compressor;
     private byte[] archiveIndexMD5 = new byte[MD5_HASH_DIGEST_BYTE_LENGTH];
+    private int threadCount = 1;
+    private long maxInFlightBytes = DEFAULT_MAX_IN_FLIGHT_BYTES;
+    private ArchiveCache cache = null;
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
 
     public ArchiveBuilder(String root, ManifestBuilder manifestBuilder) {
         this.root = new File(root).getAbsolutePath();
@@ -62,28 +97,65 @@ public class ArchiveBuilder {
     }
 
     private void add(String fileName, boolean doCompress, boolean isLiveUpdate) throws IOException {
-        ArchiveEntry e = new ArchiveEntry(root, fileName, doCompress, isLiveUpdate);
-        if (!contains(e)) {
-            entries.add(e);
-        }
+        add(new ArchiveEntry(root, fileName, doCompress, isLiveUpdate));
     }
 
     public void add(String fileName, boolean doCompress) throws IOException {
-        ArchiveEntry e = new ArchiveEntry(root, fileName, doCompress);
-        if (!contains(e)) {
-            entries.add(e);
-        }
+        add(new ArchiveEntry(root, fileName, doCompress));
     }
 
     public void add(String fileName) throws IOException {
-        ArchiveEntry e = new ArchiveEntry(root, fileName, false);
-        if (!contains(e)) {
+        add(new ArchiveEntry(root, fileName, false));
+    }
+
+    private void add(ArchiveEntry e) {
+        if (entrySet.add(e)) {
             entries.add(e);
         }
     }
 
-    private boolean contains(ArchiveEntry e) {
-        return entries.contains(e);
+    /**
+     * Add files to the archive. The files are looked up on a pool of threads and added
+     * in the given order, see {@link #setThreadCount(int)}.
+     * @param fileNames files to add
+     * @param doCompress compress the files
+     * @throws IOException if a file doesn't exist or isn't relative to the root directory
+     */
+    public void addAll(Collection<String> fileNames, final boolean doCompress) throws IOException {
+        final List<String> names = new ArrayList<String>(fileNames);
+        int chunkCount = Math.min(threadCount, (names.size() + ADD_CHUNK_SIZE - 1) / ADD_CHUNK_SIZE);
+        if (chunkCount <= 1) {
+            for (String fileName : names) {
+                add(fileName, doCompress);
+            }
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(chunkCount);
+        try {
+            List<Future<List<ArchiveEntry>>> chunks = new ArrayList<Future<List<ArchiveEntry>>>();
+            int chunkSize = (names.size() + chunkCount - 1) / chunkCount;
+            for (int start = 0; start < names.size(); start += chunkSize) {
+                final List<String> chunk = names.subList(start, Math.min(start + chunkSize, names.size()));
+                chunks.add(executor.submit(new Callable<List<ArchiveEntry>>() {
+                    @Override
+                    public List<ArchiveEntry> call() throws IOException {
+                        List<ArchiveEntry> result = new ArrayList<ArchiveEntry>(chunk.size());
+                        for (String fileName : chunk) {
+                            result.add(new ArchiveEntry(root, fileName, doCompress));
+                        }
+                        return result;
+                    }
+                }));
+            }
+            for (Future<List<ArchiveEntry>> chunk : chunks) {
+                for (ArchiveEntry e : FutureUtil.get(chunk, IOException.class)) {
+                    add(e);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
     }
 
     public ArchiveEntry getArchiveEntry(int index) {
@@ -111,7 +183,11 @@ public class ArchiveBuilder {
     }
 
     public boolean shouldUseCompressedResourceData(byte[] original, byte[] compressed) {
-        double ratio = (double) compressed.length / (double) original.length;
+        return shouldUseCompressedResourceData(original.length, compressed.length);
+    }
+
+    private boolean shouldUseCompressedResourceData(int originalSize, int compressedSize) {
+        double ratio = (double) compressedSize / (double) originalSize;
         return ratio <= 0.95;
     }
 
@@ -120,22 +196,40 @@ public class ArchiveBuilder {
     }
 
     public void writeResourcePack(String filename, String directory, byte[] buffer, byte flags, int size) throws IOException {
-        FileOutputStream outputStream = null;
-        try {
-            File fhandle = new File(directory, filename);
-            if (!fhandle.exists()) {
-                byte[] padding = new byte[11];
-                byte[] size_bytes = ByteBuffer.allocate(4).putInt(size).array();
-                Arrays.fill(padding, (byte)0xED);
-                outputStream = new FileOutputStream(fhandle);
-                outputStream.write(size_bytes); // 4 bytes
-                outputStream.write(flags); // 1 byte
-                outputStream.write(padding); // 11 bytes
-                outputStream.write(buffer);
+        writeResourcePack(filename, directory, ByteBuffer.wrap(buffer), flags, size);
+    }
 
+    /**
+     * Write a resource pack unless it already exists
+     * @param buffer content from position to limit. The position of the buffer is not changed.
+     */
+    public void writeResourcePack(String filename, String directory, ByteBuffer buffer, byte flags, int size) throws IOException {
+        File fhandle = new File(directory, filename);
+        if (!fhandle.exists()) {
+            FileChannel channel = FileChannel.open(fhandle.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            try {
+                writeFully(channel, resourcePackHeader(flags, size));
+                writeFully(channel, buffer.duplicate());
+            } finally {
+                channel.close();
             }
-        } finally {
-            IOUtils.closeQuietly(outputStream);
+        }
+    }
+
+    private static ByteBuffer resourcePackHeader(byte flags, int size) {
+        ByteBuffer header = ByteBuffer.allocate(16);
+        header.putInt(size); // 4 bytes
+        header.put(flags); // 1 byte
+        while (header.hasRemaining()) {
+            header.put((byte)0xED); // 11 bytes padding
+        }
+        header.flip();
+        return header;
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
         }
     }
 
@@ -165,6 +259,224 @@ public class ArchiveBuilder {
         return result;
     }
 
+    /**
+     * Set cache of compressed entries, consulted before compressing an entry
+     * @param cache cache or null to always compress
+     */
+    public void setCache(ArchiveCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Set the number of threads used to look up files in {@link #addAll(Collection, boolean)}, and to
+     * load, compress, encrypt and hash entries when writing the archive, 1 by default
+     * @param threadCount number of threads, at least 1
+     */
+    public void setThreadCount(int threadCount) {
+        this.threadCount = Math.max(1, threadCount);
+    }
+
+    /**
+     * Set the max number of bytes of entry data being processed at the same time when writing the archive.
+     * An entry larger than the budget is still processed, but only when no other entry is in flight.
+     * @param maxInFlightBytes max number of bytes
+     */
+    public void setMaxInFlightBytes(long maxInFlightBytes) {
+        this.maxInFlightBytes = maxInFlightBytes;
+    }
+
+    /**
+     * Set the size of the pooled buffers used when writing the archive. Uncompressed entries larger
+     * than the buffer size are streamed from disk into the archive one buffer at a time.
+     * @param bufferSize buffer size in bytes
+     */
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    // Payload of an entry, ready to be written to the archive or a resource pack
+    private static class EntryData {
+        ArchiveEntry entry;
+        // Null if the entry is streamed from disk when written, see isStreamed()
+        ByteBuffer buffer;
+        byte archiveEntryFlags;
+        HashDigest hashDigest;
+        String hexDigest;
+        long cost;
+    }
+
+    private static boolean isEncrypted(ArchiveEntry entry) {
+        String extension = FilenameUtils.getExtension(entry.fileName);
+        return ENCRYPTED_EXTS.indexOf(extension) != -1;
+    }
+
+    // Uncompressed entries that don't fit a pooled buffer are copied from disk by the writer
+    private boolean isStreamed(ArchiveEntry entry) {
+        return entry.compressedSize == ArchiveEntry.FLAG_UNCOMPRESSED && !isEncrypted(entry) && entry.size > bufferSize;
+    }
+
+    // Estimated memory used while processing the entry, the loaded and compressed data
+    private long entryCost(ArchiveEntry entry) {
+        if (isStreamed(entry)) {
+            return 0;
+        }
+        long cost = entry.size;
+        if (entry.compressedSize != ArchiveEntry.FLAG_UNCOMPRESSED) {
+            cost *= 2;
+        }
+        return cost;
+    }
+
+    private static ByteBuffer loadEntry(ArchiveEntry entry, BufferPool pool) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(entry.fileName), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(String.format("Resource too large for archive: %s", entry.fileName));
+            }
+            ByteBuffer buffer = pool.acquire((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            }
+            buffer.flip();
+            return buffer;
+        } finally {
+            channel.close();
+        }
+    }
+
+    // Compress the data, or reuse the result of an earlier bundle. Returns null if the data should be stored uncompressed.
+    private ByteBuffer compressEntry(ByteBuffer buffer, BufferPool pool) throws IOException {
+        String cacheKey = null;
+        if (this.cache != null) {
+            cacheKey = ArchiveCache.key(buffer, COMPRESSION_SETTINGS);
+            ArchiveCache.Entry cached = this.cache.get(cacheKey, pool);
+            if (cached != null) {
+                return cached.compressed;
+            }
+        }
+        int maximumCompressedSize = lz4Compressor.maxCompressedLength(buffer.remaining());
+        ByteBuffer compressed = pool.acquire(maximumCompressedSize);
+        int compressedSize = lz4Compressor.compress(buffer, buffer.position(), buffer.remaining(), compressed, 0, maximumCompressedSize);
+        compressed.limit(compressedSize);
+        if (!this.shouldUseCompressedResourceData(buffer.remaining(), compressedSize)) {
+            pool.release(compressed);
+            compressed = null;
+        }
+        if (this.cache != null) {
+            try {
+                this.cache.put(cacheKey, compressed);
+            } catch (IOException e) {
+                // The cache is an optimization, e.g. a full disk mustn't fail the bundle
+                logger.log(Level.WARNING, "Unable to add an entry to the archive cache: " + e.getMessage(), e);
+            }
+        }
+        return compressed;
+    }
+
+    private MessageDigest getMessageDigest() throws IOException {
+        try {
+            return ManifestBuilder.CryptographicOperations.getMessageDigest(manifestBuilder.getResourceHashAlgorithm());
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IOException("Unable to create a Resource Pack, the hashing algorithm is not supported!");
+        }
+    }
+
+    private static void setHash(EntryData data, byte[] hashDigest) {
+        data.entry.hash = new byte[HASH_MAX_LENGTH];
+        System.arraycopy(hashDigest, 0, data.entry.hash, 0, hashDigest.length);
+        data.hexDigest = ManifestBuilder.CryptographicOperations.hexdigest(hashDigest);
+        data.hashDigest = HashDigest.newBuilder().setData(ByteString.copyFrom(hashDigest)).build();
+    }
+
+    // Load, compress, encrypt and hash a single entry. Called concurrently for different entries.
+    // Streamed entries are left to the writer, see streamEntry().
+    private EntryData processEntry(ArchiveEntry entry, BufferPool pool) throws IOException {
+        EntryData data = new EntryData();
+        data.entry = entry;
+        data.cost = entryCost(entry);
+        data.archiveEntryFlags = (byte) entry.flags;
+        if (isStreamed(entry)) {
+            return data;
+        }
+
+        ByteBuffer buffer = loadEntry(entry, pool);
+        if (entry.compressedSize != ArchiveEntry.FLAG_UNCOMPRESSED) {
+            ByteBuffer compressed = compressEntry(buffer, pool);
+            if (compressed != null) {
+                data.archiveEntryFlags = (byte)(data.archiveEntryFlags | ArchiveEntry.FLAG_COMPRESSED);
+                pool.release(buffer);
+                buffer = compressed;
+                entry.compressedSize = compressed.remaining();
+            } else {
+                entry.compressedSize = ArchiveEntry.FLAG_UNCOMPRESSED;
+            }
+        }
+
+        // Encrypt data. Encrypted entries are scripts, which are small enough to be encrypted on the heap.
+        if (isEncrypted(entry)) {
+            data.archiveEntryFlags = (byte) (data.archiveEntryFlags | ArchiveEntry.FLAG_ENCRYPTED);
+            entry.flags = (entry.flags | ArchiveEntry.FLAG_ENCRYPTED);
+            byte[] content = new byte[buffer.remaining()];
+            buffer.duplicate().get(content);
+            pool.release(buffer);
+            buffer = ByteBuffer.wrap(this.encryptResourceData(content));
+        }
+
+        // Calculate hash digest values for resource
+        MessageDigest digest = getMessageDigest();
+        digest.update(buffer.duplicate());
+        setHash(data, digest.digest());
+
+        data.buffer = buffer;
+        return data;
+    }
+
+    // Copy a streamed entry from disk to the output one pooled buffer at a time, hashing the bytes on the way
+    private void streamEntry(EntryData data, WritableByteChannel output, BufferPool pool) throws IOException {
+        MessageDigest digest = getMessageDigest();
+        ByteBuffer buffer = pool.acquire(pool.getBufferSize());
+        FileChannel input = FileChannel.open(Paths.get(data.entry.fileName), StandardOpenOption.READ);
+        try {
+            while (true) {
+                buffer.clear();
+                if (input.read(buffer) < 0) {
+                    break;
+                }
+                buffer.flip();
+                digest.update(buffer.duplicate());
+                writeFully(output, buffer);
+            }
+        } finally {
+            input.close();
+            pool.release(buffer);
+        }
+        setHash(data, digest.digest());
+    }
+
+    // The name of a resource pack is the hash of its content, a streamed entry is written to a temporary file first
+    private void streamResourcePack(EntryData data, File directory, BufferPool pool) throws IOException {
+        File tmp = File.createTempFile("resourcepack", ".tmp", directory);
+        try {
+            FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE);
+            try {
+                writeFully(channel, resourcePackHeader(data.archiveEntryFlags, data.entry.size));
+                streamEntry(data, channel, pool);
+            } finally {
+                channel.close();
+            }
+            File fhandle = new File(directory, data.hexDigest);
+            if (!fhandle.exists()) {
+                try {
+                    Files.move(tmp.toPath(), fhandle.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmp.toPath(), fhandle.toPath());
+                }
+            }
+        } finally {
+            tmp.delete();
+        }
+    }
+
     public void write(RandomAccessFile archiveIndex, RandomAccessFile archiveData, Path resourcePackDirectory, List<String> excludedResources) throws IOException {
         // INDEX
         archiveIndex.writeInt(VERSION); // Version
@@ -180,57 +492,71 @@ public class ArchiveBuilder {
 
         Collections.sort(entries); // Since it has no hash, it sorts on path
 
-        for (int i = entries.size() - 1; i >= 0; --i) {
-            ArchiveEntry entry = entries.get(i);
-            byte[] buffer = this.loadResourceData(entry.fileName);
-            byte archiveEntryFlags = (byte) entry.flags;
-            int resourceEntryFlags = ResourceEntryFlag.BUNDLED.getNumber();
-            if (entry.compressedSize != ArchiveEntry.FLAG_UNCOMPRESSED) {
-                // Compress data
-                byte[] compressed = this.compressResourceData(buffer);
-                if (this.shouldUseCompressedResourceData(buffer, compressed)) {
-                    archiveEntryFlags = (byte)(archiveEntryFlags | ArchiveEntry.FLAG_COMPRESSED);
-                    buffer = compressed;
-                    entry.compressedSize = compressed.length;
-                } else {
-                    entry.compressedSize = ArchiveEntry.FLAG_UNCOMPRESSED;
+        // Entries are loaded, compressed, encrypted and hashed on a pool of threads,
+        // and written here in the same order as they were submitted. The entries
+        // in flight are bounded by the byte budget. Data is kept in pooled buffers
+        // and written through the channel of the data archive.
+        final BufferPool pool = new BufferPool(bufferSize, 2 * threadCount + 2);
+        FileChannel archiveDataChannel = archiveData.getChannel();
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            Deque<Future<EntryData>> inFlight = new ArrayDeque<Future<EntryData>>();
+            long inFlightBytes = 0;
+            int next = entries.size() - 1;
+            while (true) {
+                while (next >= 0) {
+                    final ArchiveEntry entry = entries.get(next);
+                    long cost = entryCost(entry);
+                    if (!inFlight.isEmpty() && inFlightBytes + cost > maxInFlightBytes) {
+                        break;
+                    }
+                    inFlight.add(executor.submit(new Callable<EntryData>() {
+                        @Override
+                        public EntryData call() throws IOException {
+                            return processEntry(entry, pool);
+                        }
+                    }));
+                    inFlightBytes += cost;
+                    --next;
+                }
+                if (inFlight.isEmpty()) {
+                    break;
                 }
-            }
-
-            // Encrypt data
-            String extension = FilenameUtils.getExtension(entry.fileName);
-            if (ENCRYPTED_EXTS.indexOf(extension) != -1) {
-                archiveEntryFlags = (byte) (archiveEntryFlags | ArchiveEntry.FLAG_ENCRYPTED);
-                entry.flags = (entry.flags | ArchiveEntry.FLAG_ENCRYPTED);
-                buffer = this.encryptResourceData(buffer);
-            }
-
-            // Add entry to manifest
-            String normalisedPath = FilenameUtils.separatorsToUnix(entry.relName);
 
-            // Calculate hash digest values for resource
-            String hexDigest = null;
-            try {
-                byte[] hashDigest = ManifestBuilder.CryptographicOperations.hash(buffer, manifestBuilder.getResourceHashAlgorithm());
-                entry.hash = new byte[HASH_MAX_LENGTH];
-                System.arraycopy(hashDigest, 0, entry.hash, 0, hashDigest.length);
-                hexDigest = ManifestBuilder.CryptographicOperations.hexdigest(hashDigest);
-            } catch (NoSuchAlgorithmException exception) {
-                throw new IOException("Unable to create a Resource Pack, the hashing algorithm is not supported!");
-            }
+                EntryData data = FutureUtil.get(inFlight.poll(), IOException.class);
+                inFlightBytes -= data.cost;
+                ArchiveEntry entry = data.entry;
+                int resourceEntryFlags = ResourceEntryFlag.BUNDLED.getNumber();
+
+                // Add entry to manifest
+                String normalisedPath = FilenameUtils.separatorsToUnix(entry.relName);
+
+                // Write resource to data archive
+                if (this.excludeResource(normalisedPath, excludedResources)) {
+                    resourceEntryFlags = ResourceEntryFlag.EXCLUDED.getNumber();
+                    if (data.buffer != null) {
+                        this.writeResourcePack(data.hexDigest, resourcePackDirectory.toString(), data.buffer, data.archiveEntryFlags, entry.size);
+                    } else {
+                        this.streamResourcePack(data, resourcePackDirectory.toFile(), pool);
+                    }
+                    // Entries are written last to first, the index of the entry is next + 1 + entries in flight
+                    entries.remove(next + 1 + inFlight.size());
+                    entrySet.remove(entry);
+                } else {
+                    alignBuffer(archiveData, 4);
+                    entry.resourceOffset = (int) archiveData.getFilePointer();
+                    if (data.buffer != null) {
+                        writeFully(archiveDataChannel, data.buffer.duplicate());
+                    } else {
+                        this.streamEntry(data, archiveDataChannel, pool);
+                    }
+                }
+                pool.release(data.buffer);
 
-            // Write resource to data archive
-            if (this.excludeResource(normalisedPath, excludedResources)) {
-                resourceEntryFlags = ResourceEntryFlag.EXCLUDED.getNumber();
-                this.writeResourcePack(hexDigest, resourcePackDirectory.toString(), buffer, archiveEntryFlags, entry.size);
-                entries.remove(i);
-            } else {
-                alignBuffer(archiveData, 4);
-                entry.resourceOffset = (int) archiveData.getFilePointer();
-                archiveData.write(buffer, 0, buffer.length);
+                manifestBuilder.addResourceEntry(normalisedPath, data.hashDigest, resourceEntryFlags);
             }
-
-            manifestBuilder.addResourceEntry(normalisedPath, buffer, resourceEntryFlags);
+        } finally {
+            executor.shutdownNow();
         }
 
         Collections.sort(entries); // Since it has a hash, it sorts on hash
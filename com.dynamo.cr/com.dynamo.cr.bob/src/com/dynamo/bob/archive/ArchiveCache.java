@@ -0,0 +1,273 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.archive;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent cache of compressed archive entries. Entries are keyed by the hash of the
+ * uncompressed content together with the compression settings, and hold the compressed
+ * content or the decision to store the content uncompressed. The cache can be accessed
+ * concurrently. Entries are touched when read and the least recently used entries are
+ * removed when the cache grows beyond its max size, see {@link #prune()}.
+ */
+public class ArchiveCache {
+
+    public static final long DEFAULT_MAX_SIZE = 1024L * 1024L * 1024L;
+
+    private static final byte FLAG_UNCOMPRESSED = 0;
+    private static final byte FLAG_COMPRESSED = 1;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Cached compression result
+     */
+    public static class Entry {
+        /**
+         * Compressed content, or null if the content should be stored uncompressed.
+         * The buffer is acquired from the pool passed to {@link ArchiveCache#get(String, BufferPool)}.
+         */
+        public final ByteBuffer compressed;
+
+        public Entry(ByteBuffer compressed) {
+            this.compressed = compressed;
+        }
+    }
+
+    private File directory;
+    private long maxSize;
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong misses = new AtomicLong();
+
+    public ArchiveCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    public ArchiveCache(File directory) {
+        this(directory, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Calculate the key of an entry
+     * @param data uncompressed content
+     * @param settings compression settings, any change in how the content is compressed must change the settings
+     * @return key
+     */
+    public static String key(byte[] data, String settings) {
+        return key(ByteBuffer.wrap(data), settings);
+    }
+
+    /**
+     * Calculate the key of an entry
+     * @param data uncompressed content, from position to limit. The position of the buffer is not changed.
+     * @param settings compression settings, any change in how the content is compressed must change the settings
+     * @return key
+     */
+    public static String key(ByteBuffer data, String settings) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        digest.update(settings.getBytes());
+        digest.update((byte) 0);
+        digest.update(data.duplicate());
+        byte[] hash = digest.digest();
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; ++i) {
+            hex[i * 2] = HEX[(hash[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX[hash[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    private File getFile(String key) {
+        return new File(new File(directory, key.substring(0, 2)), key);
+    }
+
+    /**
+     * Get cached entry
+     * @param key key of the entry, see {@link #key(ByteBuffer, String)}
+     * @param pool pool the buffer of the compressed content is acquired from
+     * @return entry or null if not cached
+     */
+    public Entry get(String key, BufferPool pool) {
+        File file = getFile(key);
+        ByteBuffer compressed = null;
+        byte flag = -1;
+        if (file.isFile()) {
+            FileChannel channel = null;
+            try {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                long size = channel.size();
+                if (size > 0 && size - 1 <= Integer.MAX_VALUE) {
+                    ByteBuffer header = ByteBuffer.allocate(1);
+                    readFully(channel, header, 0);
+                    flag = header.get(0);
+                    if (flag == FLAG_COMPRESSED) {
+                        compressed = pool.acquire((int) (size - 1));
+                        readFully(channel, compressed, 1);
+                        compressed.flip();
+                    }
+                }
+            } catch (IOException e) {
+                // Treated as a miss, the entry is written again
+                pool.release(compressed);
+                compressed = null;
+                flag = -1;
+            } finally {
+                closeQuietly(channel);
+            }
+        }
+        if (flag != FLAG_UNCOMPRESSED && flag != FLAG_COMPRESSED) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        file.setLastModified(System.currentTimeMillis());
+        return new Entry(compressed);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new IOException("Unexpected end of cache entry");
+            }
+            position += n;
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Nothing to do
+            }
+        }
+    }
+
+    /**
+     * Store entry. The entry is written to a temporary file first so that readers never
+     * see partially written entries.
+     * @param key key of the entry, see {@link #key(ByteBuffer, String)}
+     * @param compressed compressed content from position to limit, or null if the content should be stored uncompressed.
+     * The position of the buffer is not changed.
+     * @throws IOException
+     */
+    public void put(String key, ByteBuffer compressed) throws IOException {
+        File file = getFile(key);
+        File dir = file.getParentFile();
+        dir.mkdirs();
+        ByteBuffer header = ByteBuffer.allocate(1);
+        header.put(0, compressed != null ? FLAG_COMPRESSED : FLAG_UNCOMPRESSED);
+        File tmp = File.createTempFile(key, ".tmp", dir);
+        try {
+            FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE);
+            try {
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+                if (compressed != null) {
+                    ByteBuffer content = compressed.duplicate();
+                    while (content.hasRemaining()) {
+                        channel.write(content);
+                    }
+                }
+            } finally {
+                channel.close();
+            }
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Remove the least recently used entries until the cache is within its max size
+     */
+    public void prune() {
+        List<File> files = new ArrayList<File>();
+        long size = 0;
+        File[] dirs = directory.listFiles();
+        if (dirs == null) {
+            return;
+        }
+        for (File dir : dirs) {
+            File[] dirFiles = dir.listFiles();
+            if (dirFiles == null) {
+                continue;
+            }
+            for (File file : dirFiles) {
+                files.add(file);
+                size += file.length();
+            }
+        }
+        if (size <= maxSize) {
+            return;
+        }
+
+        final Map<File, Long> lastModified = new HashMap<File, Long>();
+        for (File file : files) {
+            lastModified.put(file, file.lastModified());
+        }
+        Collections.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                return Long.compare(lastModified.get(f1), lastModified.get(f2));
+            }
+        });
+        for (File file : files) {
+            if (size <= maxSize) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                size -= length;
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+}
@@ -14,6 +14,9 @@ package com.dynamo.bob.archive;
 
 import java.io.IOException;
 import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
 
 import org.apache.commons.io.FilenameUtils;
 
@@ -47,7 +50,11 @@ public class ArchiveEntry implements Comparable<ArchiveEntry> {
 
     public ArchiveEntry(String root, String fileName, boolean compress) throws IOException {
         File file = new File(fileName);
-        if (!file.exists()) {
+        // Single stat for both the existence check and the size
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
             throw new IOException(String.format("File %s doens't exists",
                     fileName));
         }
@@ -59,7 +66,7 @@ public class ArchiveEntry implements Comparable<ArchiveEntry> {
                     fileName, root));
         }
 
-        this.size = (int) file.length();
+        this.size = (int) attributes.size();
         if(compress) {
             // Will be set to real value after compression
             this.compressedSize = 0;
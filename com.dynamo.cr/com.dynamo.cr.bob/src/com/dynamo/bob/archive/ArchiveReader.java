@@ -17,14 +17,30 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import com.dynamo.crypt.Crypt;
 import com.dynamo.liveupdate.proto.Manifest.ManifestData;
 import com.dynamo.liveupdate.proto.Manifest.ManifestFile;
 import com.dynamo.liveupdate.proto.Manifest.ResourceEntry;
 
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+/**
+ * Reader for archives written by {@link ArchiveBuilder}. The archive index is read
+ * once and entries can be looked up by hash with a binary search over the sorted
+ * hash table. In memory mapped mode the archive data is mapped as well and entry
+ * data is returned as slices of the mapped data without copying.
+ */
 public class ArchiveReader {
     public static final int VERSION = 4;
     public static final int HASH_BUFFER_BYTESIZE = 64; // 512 bits
@@ -39,96 +55,121 @@ public class ArchiveReader {
     private final String archiveIndexFilepath;
     private final String archiveDataFilepath;
     private final String manifestFilepath;
-    private RandomAccessFile archiveIndexFile = null;
-    private RandomAccessFile archiveDataFile = null;
+    private final boolean memoryMapped;
+    private FileChannel archiveIndexChannel = null;
+    private FileChannel archiveDataChannel = null;
+    private ByteBuffer archiveIndex = null;
+    private ByteBuffer archiveData = null;
     private ManifestFile manifestFile = null;
+    private LZ4FastDecompressor lz4Decompressor = LZ4Factory.fastestInstance().fastDecompressor();
 
     public ArchiveReader(String archiveIndexFilepath, String archiveDataFilepath, String manifestFilepath) {
+        this(archiveIndexFilepath, archiveDataFilepath, manifestFilepath, false);
+    }
+
+    /**
+     * Create reader
+     * @param archiveIndexFilepath path to archive index (.arci)
+     * @param archiveDataFilepath path to archive data (.arcd)
+     * @param manifestFilepath path to manifest, used to find the url of each entry, or null
+     * @param memoryMapped map the archive into memory instead of reading entries from file
+     */
+    public ArchiveReader(String archiveIndexFilepath, String archiveDataFilepath, String manifestFilepath, boolean memoryMapped) {
         this.archiveIndexFilepath = archiveIndexFilepath;
         this.archiveDataFilepath = archiveDataFilepath;
         this.manifestFilepath = manifestFilepath;
+        this.memoryMapped = memoryMapped;
     }
 
     public void read() throws IOException {
-    	this.archiveIndexFile = new RandomAccessFile(this.archiveIndexFilepath, "r");
-        this.archiveDataFile = new RandomAccessFile(this.archiveDataFilepath, "r");
-        
-        this.archiveIndexFile.seek(0);
-        this.archiveDataFile.seek(0);
-        
+        this.archiveIndexChannel = FileChannel.open(Paths.get(this.archiveIndexFilepath), StandardOpenOption.READ);
+        this.archiveDataChannel = FileChannel.open(Paths.get(this.archiveDataFilepath), StandardOpenOption.READ);
+
+        if (this.memoryMapped) {
+            this.archiveIndex = this.archiveIndexChannel.map(FileChannel.MapMode.READ_ONLY, 0, this.archiveIndexChannel.size());
+            // Entry offsets are 32 bit signed integers
+            long dataSize = Math.min(this.archiveDataChannel.size(), Integer.MAX_VALUE);
+            this.archiveData = this.archiveDataChannel.map(FileChannel.MapMode.READ_ONLY, 0, dataSize);
+        } else {
+            // The index is small compared to the data and is always read into memory
+            this.archiveIndex = ByteBuffer.allocate((int) this.archiveIndexChannel.size());
+            while (this.archiveIndex.hasRemaining()) {
+                if (this.archiveIndexChannel.read(this.archiveIndex) < 0) {
+                    break;
+                }
+            }
+            this.archiveIndex.flip();
+        }
+
         if (this.manifestFilepath != null) {
-	        InputStream manifestInputStream = new FileInputStream(this.manifestFilepath);
-	        this.manifestFile = ManifestFile.parseFrom(manifestInputStream);
-	        manifestInputStream.close();
+            InputStream manifestInputStream = new FileInputStream(this.manifestFilepath);
+            this.manifestFile = ManifestFile.parseFrom(manifestInputStream);
+            manifestInputStream.close();
         }
 
         // Version
-        int indexVersion = this.archiveIndexFile.readInt();
+        int indexVersion = this.archiveIndex.getInt(0);
         if (indexVersion == ArchiveReader.VERSION) {
             readArchiveData();
         } else {
             throw new IOException("Unsupported archive index version: " + indexVersion);
         }
     }
-    
-    private boolean matchHash(byte[] a, byte[] b, int hlen) {
-    	if (a.length < hlen || b.length < hlen) {
-    		return false;
-    	}
-    	
-    	for (int i = 0; i < hlen; ++i) {
-    		if (a[i] != b[i]) {
-    			return false;
-    		}
-    	}
-    	
-    	return true;
+
+    private ByteBuffer hashKey(byte[] hash) {
+        return ByteBuffer.wrap(Arrays.copyOf(hash, this.hashLength));
     }
 
     private void readArchiveData() throws IOException {
         // INDEX
-        archiveIndexFile.readInt(); // Pad
-        archiveIndexFile.readLong(); // UserData, should be 0
-        entryCount = archiveIndexFile.readInt();
-        entryOffset = archiveIndexFile.readInt();
-        hashOffset = archiveIndexFile.readInt();
-        hashLength = archiveIndexFile.readInt();
+        ByteBuffer index = this.archiveIndex;
+        index.position(4);
+        index.getInt(); // Pad
+        index.getLong(); // UserData, should be 0
+        entryCount = index.getInt();
+        entryOffset = index.getInt();
+        hashOffset = index.getInt();
+        hashLength = index.getInt();
 
         entries = new ArrayList<ArchiveEntry>(entryCount);
 
+        // Map of resource hashes to urls, from a single parse of the manifest
+        Map<ByteBuffer, String> urls = new HashMap<ByteBuffer, String>();
+        if (this.manifestFile != null) {
+            ManifestData manifestData = ManifestData.parseFrom(this.manifestFile.getData());
+            for (ResourceEntry resource : manifestData.getResourcesList()) {
+                urls.put(hashKey(resource.getHash().getData().toByteArray()), resource.getUrl());
+            }
+        }
+
         // Hashes are stored linearly in memory instead of within each entry, so the hashes are read in a separate loop.
         // Once the hashes are read, the rest of the entries are read.
 
-        archiveIndexFile.seek(hashOffset);
         // Read entry hashes
         for (int i = 0; i < entryCount; ++i) {
-            archiveIndexFile.seek(hashOffset + i * HASH_BUFFER_BYTESIZE);
             ArchiveEntry e = new ArchiveEntry("");
             e.hash = new byte[HASH_BUFFER_BYTESIZE];
-            archiveIndexFile.read(e.hash, 0, hashLength);
-
-            if (this.manifestFile != null) {
-                ManifestData manifestData = ManifestData.parseFrom(this.manifestFile.getData());
-                for (ResourceEntry resource : manifestData.getResourcesList()) {
-	            	if (matchHash(e.hash, resource.getHash().getData().toByteArray(), this.hashLength)) {
-	            		e.fileName = resource.getUrl();
-	            		e.relName = resource.getUrl();
-	            	}
-	            }
+            index.position(hashOffset + i * HASH_BUFFER_BYTESIZE);
+            index.get(e.hash, 0, hashLength);
+
+            String url = urls.get(hashKey(e.hash));
+            if (url != null) {
+                e.fileName = url;
+                e.relName = url;
             }
-            
+
             entries.add(e);
         }
 
         // Read entries
-        archiveIndexFile.seek(entryOffset);
+        index.position(entryOffset);
         for (int i=0; i<entryCount; ++i) {
             ArchiveEntry e = entries.get(i);
 
-            e.resourceOffset = archiveIndexFile.readInt();
-            e.size = archiveIndexFile.readInt();
-            e.compressedSize = archiveIndexFile.readInt();
-            e.flags = archiveIndexFile.readInt();
+            e.resourceOffset = index.getInt();
+            e.size = index.getInt();
+            e.compressedSize = index.getInt();
+            e.flags = index.getInt();
         }
     }
 
@@ -136,12 +177,96 @@ public class ArchiveReader {
         return entries;
     }
 
+    private int compareHash(int entryIndex, byte[] hash) {
+        int offset = hashOffset + entryIndex * HASH_BUFFER_BYTESIZE;
+        for (int i = 0; i < hashLength; ++i) {
+            int a = archiveIndex.get(offset + i) & 0xff;
+            int b = i < hash.length ? hash[i] & 0xff : 0;
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Find entry by resource hash, using a binary search over the hash table of the archive index
+     * @param hash resource hash
+     * @return entry or null if the archive has no entry with the hash
+     */
+    public ArchiveEntry getEntry(byte[] hash) {
+        int low = 0;
+        int high = entryCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareHash(mid, hash);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return entries.get(mid);
+            }
+        }
+        return null;
+    }
+
+    private static int getStoredSize(ArchiveEntry entry) {
+        return entry.compressedSize != ArchiveEntry.FLAG_UNCOMPRESSED ? entry.compressedSize : entry.size;
+    }
+
+    /**
+     * Get entry data as stored in the archive, i.e. compressed and encrypted according to the entry.
+     * In memory mapped mode the buffer is a read only slice of the archive data.
+     * @param entry archive entry
+     * @return entry data
+     * @throws IOException
+     */
+    public ByteBuffer getEntryData(ArchiveEntry entry) throws IOException {
+        int size = getStoredSize(entry);
+        if (this.archiveData != null) {
+            ByteBuffer data = this.archiveData.duplicate();
+            data.position(entry.resourceOffset);
+            data.limit(entry.resourceOffset + size);
+            return data.slice().asReadOnlyBuffer();
+        }
+
+        ByteBuffer data = ByteBuffer.allocate(size);
+        long position = entry.resourceOffset;
+        while (data.hasRemaining()) {
+            int read = this.archiveDataChannel.read(data, position);
+            if (read < 0) {
+                throw new IOException(String.format("Unexpected end of archive data reading '%s'", entry.fileName));
+            }
+            position += read;
+        }
+        data.flip();
+        return data;
+    }
+
+    /**
+     * Get entry content, decrypted and decompressed
+     * @param entry archive entry
+     * @return entry content
+     * @throws IOException
+     */
     public byte[] getEntryContent(ArchiveEntry entry) throws IOException {
-        byte[] buf = new byte[entry.size];
-        archiveDataFile.seek(entry.resourceOffset);
-        archiveDataFile.read(buf, 0, entry.size);
+        ByteBuffer data = getEntryData(entry);
+        boolean compressed = entry.compressedSize != ArchiveEntry.FLAG_UNCOMPRESSED;
+        if ((entry.flags & ArchiveEntry.FLAG_ENCRYPTED) != 0) {
+            byte[] buf = new byte[data.remaining()];
+            data.get(buf);
+            buf = Crypt.decryptCTR(buf, ArchiveBuilder.KEY);
+            data = ByteBuffer.wrap(buf);
+        }
 
-        return buf;
+        byte[] content = new byte[entry.size];
+        if (compressed) {
+            lz4Decompressor.decompress(data, data.position(), ByteBuffer.wrap(content), 0, entry.size);
+        } else {
+            data.get(content);
+        }
+        return content;
     }
 
     public void extractAll(String path) throws IOException {
@@ -153,12 +278,9 @@ public class ArchiveReader {
             ArchiveEntry entry = entries.get(i);
             String outdir = path + entry.fileName;
             System.out.println("> " + entry.fileName);
-            int readSize = entry.compressedSize;
 
             // extract
-            byte[] buf = new byte[entry.size];
-            archiveDataFile.seek(entry.resourceOffset);
-            archiveDataFile.read(buf, 0, readSize);
+            byte[] buf = getEntryContent(entry);
 
             File fo = new File(outdir);
             fo.getParentFile().mkdirs();
@@ -169,14 +291,18 @@ public class ArchiveReader {
     }
 
     public void close() throws IOException {
-        if (archiveIndexFile != null) {
-            archiveIndexFile.close();
-            archiveIndexFile = null;
+        // Mapped buffers are released when garbage collected
+        archiveIndex = null;
+        archiveData = null;
+
+        if (archiveIndexChannel != null) {
+            archiveIndexChannel.close();
+            archiveIndexChannel = null;
         }
 
-        if (archiveDataFile != null) {
-            archiveDataFile.close();
-            archiveDataFile = null;
+        if (archiveDataChannel != null) {
+            archiveDataChannel.close();
+            archiveDataChannel = null;
         }
     }
 }
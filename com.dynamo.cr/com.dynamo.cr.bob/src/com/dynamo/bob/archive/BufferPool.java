@@ -0,0 +1,84 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.archive;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of direct byte buffers used when writing archives. Buffers of the pool buffer size
+ * are recycled, at most maxPooled buffers are kept. Requests larger than the buffer size
+ * get a direct buffer of their own that is left to the GC when released, and small requests
+ * are served from the heap where a short lived array is cheaper than holding a pooled buffer.
+ * The pool can be accessed concurrently.
+ */
+public class BufferPool {
+
+    // Requests up to buffer size / SMALL_RATIO are served from the heap
+    private static final int SMALL_RATIO = 16;
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Acquire a buffer
+     * @param capacity min capacity
+     * @return buffer with position 0 and limit capacity
+     */
+    public ByteBuffer acquire(int capacity) {
+        ByteBuffer buffer = null;
+        if (capacity <= bufferSize / SMALL_RATIO) {
+            return ByteBuffer.allocate(capacity);
+        } else if (capacity <= bufferSize) {
+            buffer = free.poll();
+            if (buffer == null) {
+                buffer = ByteBuffer.allocateDirect(bufferSize);
+            } else {
+                pooled.decrementAndGet();
+            }
+        } else {
+            buffer = ByteBuffer.allocateDirect(capacity);
+        }
+        buffer.clear();
+        buffer.limit(capacity);
+        return buffer;
+    }
+
+    /**
+     * Release a buffer acquired from the pool. Heap buffers and buffers larger than the pool buffer size are left to the GC.
+     * @param buffer buffer returned by {@link #acquire(int)}, may be null
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || buffer.capacity() != bufferSize) {
+            return;
+        }
+        if (pooled.incrementAndGet() <= maxPooled) {
+            free.add(buffer);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+}
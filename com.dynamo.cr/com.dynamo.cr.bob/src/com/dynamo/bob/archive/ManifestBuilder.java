@@ -29,12 +29,17 @@ import java.security.PublicKey;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -64,6 +69,12 @@ public class ManifestBuilder {
         }
 
         public static byte[] hash(byte[] data, HashAlgorithm algorithm) throws NoSuchAlgorithmException {
+            MessageDigest messageDigest = getMessageDigest(algorithm);
+            messageDigest.update(data);
+            return messageDigest.digest();
+        }
+
+        public static MessageDigest getMessageDigest(HashAlgorithm algorithm) throws NoSuchAlgorithmException {
             MessageDigest messageDigest = null;
             if (algorithm.equals(HashAlgorithm.HASH_MD5)) {
                 messageDigest = MessageDigest.getInstance("MD5");
@@ -76,9 +87,7 @@ public class ManifestBuilder {
             } else {
                 throw new NoSuchAlgorithmException("The algorithm specified is not supported!");
             }
-
-            messageDigest.update(data);
-            return messageDigest.digest();
+            return messageDigest;
         }
 
         public static String hexdigest(byte[] bytes) {
@@ -279,6 +288,7 @@ public class ManifestBuilder {
     private String publicKeyFilepath = null;
     private String projectIdentifier = null;
     private ResourceNode dependencies = null;
+    private DependencyIndex dependencyIndex = null;
     private boolean outputManifestHash = false;
     private byte[] manifestDataHash = null;
     private byte[] archiveIdentifier = new byte[ArchiveBuilder.MD5_HASH_DIGEST_BYTE_LENGTH];
@@ -339,8 +349,9 @@ public class ManifestBuilder {
         return this.signatureSignAlgorithm;
     }
 
-    public void setDependencies(ResourceNode dependencies) {
+    public synchronized void setDependencies(ResourceNode dependencies) {
         this.dependencies = dependencies;
+        this.dependencyIndex = null;
     }
 
     public void setPrivateKeyFilepath(String filepath) {
@@ -386,62 +397,125 @@ public class ManifestBuilder {
 
     public void addResourceEntry(String url, byte[] data, int flags) throws IOException {
         try {
-            ResourceEntry.Builder builder = ResourceEntry.newBuilder();
-            builder.setUrl(url);
-            builder.setUrlHash(MurmurHash.hash64(url)); // sort on this
             HashDigest hash = CryptographicOperations.createHashDigest(data, this.resourceHashAlgorithm);
-            builder.setHash(hash);
-            builder.setFlags(flags);
-            this.resourceEntries.add(builder.buildPartial());
+            addResourceEntry(url, hash, flags);
         } catch (NoSuchAlgorithmException exception) {
             throw new IOException("Unable to create Manifest, hashing algorithm is not supported!");
         }
     }
 
-    // Calculate all parent collection paths (to the root) for a resource
-    // Resource could occur multiple times in the tree (referenced from several collections) or several times within the same collection
-    public List<ArrayList<String>> getParentCollections(String filepath) {
-        List<ArrayList<String>> result = new ArrayList<ArrayList<String>>();
-        List<ResourceNode> candidates = new LinkedList<ResourceNode>();
-        List<ResourceNode> queue = new LinkedList<ResourceNode>();
-        queue.add(this.dependencies);
-        // Find occurences of resource in tree (may be referenced from several collections for example)
-        while (!queue.isEmpty()) {
-            ResourceNode current = queue.remove(0);
-
-            if (current != null) {
-                if (current.relativeFilepath.equals(filepath)) {
-                    if (!candidates.contains(current)) {
-                        candidates.add(current);
-                    }
-                } else {
-                    queue.addAll(current.getChildren());
+    // Add entry with a hash already calculated with the resource hash algorithm
+    public void addResourceEntry(String url, HashDigest hash, int flags) {
+        ResourceEntry.Builder builder = ResourceEntry.newBuilder();
+        builder.setUrl(url);
+        builder.setUrlHash(MurmurHash.hash64(url)); // sort on this
+        builder.setHash(hash);
+        builder.setFlags(flags);
+        this.resourceEntries.add(builder.buildPartial());
+    }
+
+    private static boolean isCollection(ResourceNode node) {
+        return node.relativeFilepath.endsWith("collectionproxyc") ||
+               node.relativeFilepath.endsWith("collectionc");
+    }
+
+    /*
+       Index of the dependency tree, built once on first use. Looking up a
+       resource by path used to be a breadth first search over the whole tree,
+       which made manifest generation and the live update exclusion quadratic
+       in the number of resources.
+    */
+    private static class DependencyIndex {
+        // Occurrences of a resource in breadth first order. Occurrences below
+        // another occurrence of the same resource are not included.
+        private final Map<String, List<ResourceNode>> nodes = new HashMap<String, List<ResourceNode>>();
+        // Closest collection or collection proxy above each node
+        private final Map<ResourceNode, ResourceNode> parentCollections = new IdentityHashMap<ResourceNode, ResourceNode>();
+
+        DependencyIndex(ResourceNode root) {
+            if (root == null) {
+                return;
+            }
+            Deque<ResourceNode> queue = new ArrayDeque<ResourceNode>();
+            queue.add(root);
+            while (!queue.isEmpty()) {
+                ResourceNode current = queue.poll();
+
+                ResourceNode parent = current.getParent();
+                ResourceNode parentCollection = null;
+                if (parent != null) {
+                    parentCollection = isCollection(parent) ? parent : getParentCollection(parent);
+                }
+                parentCollections.put(current, parentCollection);
+
+                List<ResourceNode> occurrences = nodes.get(current.relativeFilepath);
+                if (occurrences == null) {
+                    occurrences = new ArrayList<ResourceNode>();
+                    nodes.put(current.relativeFilepath, occurrences);
                 }
+                if (occurrences.isEmpty() || !hasAncestor(current, current.relativeFilepath)) {
+                    occurrences.add(current);
+                }
+                queue.addAll(current.getChildren());
             }
         }
 
-        int i = 0;
-        while (!candidates.isEmpty()) {
-            ResourceNode current = candidates.remove(0).getParent();
-            result.add(new ArrayList<String>());
+        private static boolean hasAncestor(ResourceNode node, String filepath) {
+            ResourceNode current = node.getParent();
             while (current != null) {
-                if (current.relativeFilepath.endsWith("collectionproxyc") ||
-                    current.relativeFilepath.endsWith("collectionc")) {
-                    result.get(i).add(current.relativeFilepath);
+                if (current.relativeFilepath.equals(filepath)) {
+                    return true;
                 }
+                current = current.getParent();
+            }
+            return false;
+        }
+
+        List<ResourceNode> getNodes(String filepath) {
+            List<ResourceNode> occurrences = nodes.get(filepath);
+            return occurrences != null ? occurrences : Collections.<ResourceNode>emptyList();
+        }
 
+        ResourceNode getParentCollection(ResourceNode node) {
+            if (parentCollections.containsKey(node)) {
+                return parentCollections.get(node);
+            }
+            // Node not reached from the root through its parent
+            ResourceNode current = node.getParent();
+            while (current != null && !isCollection(current)) {
                 current = current.getParent();
             }
-            ++i;
+            return current;
+        }
+    }
+
+    private synchronized DependencyIndex getDependencyIndex() {
+        if (this.dependencyIndex == null) {
+            this.dependencyIndex = new DependencyIndex(this.dependencies);
+        }
+        return this.dependencyIndex;
+    }
+
+    // Calculate all parent collection paths (to the root) for a resource
+    // Resource could occur multiple times in the tree (referenced from several collections) or several times within the same collection
+    public List<ArrayList<String>> getParentCollections(String filepath) {
+        DependencyIndex index = getDependencyIndex();
+        List<ArrayList<String>> result = new ArrayList<ArrayList<String>>();
+        for (ResourceNode candidate : index.getNodes(filepath)) {
+            ArrayList<String> parents = new ArrayList<String>();
+            ResourceNode current = index.getParentCollection(candidate);
+            while (current != null) {
+                parents.add(current.relativeFilepath);
+                current = index.getParentCollection(current);
+            }
+            result.add(parents);
         }
         return result;
     }
 
     public List<String> getDependants(String filepath) throws IOException {
-        /* This function first tries to find the correct resource in the
-           dependency tree. Since there is no index we have to iterate over
-           the structure and match the relative filepaths that identifies the
-           resource.
+        /* This function first finds the resource in the dependency tree, the
+           first occurrence in breadth first order.
 
            Once a candidate has been found the children, the children, and so
            on are added to the list of dependants. If a CollectionProxy is
@@ -454,26 +528,14 @@ public class ManifestBuilder {
            and thus create a partial archive that has to be updated (through
            LiveUpdate) before that CollectionProxy can be loaded.
         */
-        ResourceNode candidate = null;
-        List<ResourceNode> queue = new LinkedList<ResourceNode>();
-        queue.add(this.dependencies);
-        while (candidate == null && !queue.isEmpty()) {
-            ResourceNode current = queue.remove(0);
-            if (current.relativeFilepath.equals(filepath)) {
-                candidate = current;
-            } else {
-                for (ResourceNode child : current.getChildren()) {
-                    queue.add(child);
-                }
-            }
-        }
+        List<ResourceNode> candidates = getDependencyIndex().getNodes(filepath);
 
         List<String> dependants = new ArrayList<String>();
-        if (candidate != null) {
-            queue.clear();
-            queue.add(candidate);
+        if (!candidates.isEmpty()) {
+            Deque<ResourceNode> queue = new ArrayDeque<ResourceNode>();
+            queue.add(candidates.get(0));
             while (!queue.isEmpty()) {
-                ResourceNode current = queue.remove(0);
+                ResourceNode current = queue.poll();
                 for (ResourceNode child : current.getChildren()) {
                     dependants.add(child.relativeFilepath);
                     if (!child.relativeFilepath.endsWith("collectionproxyc")) {
@@ -511,18 +573,21 @@ public class ManifestBuilder {
         builder.setHeader(manifestHeader);
 
         builder.addAllEngineVersions(this.supportedEngineVersions);
+        Map<String, ResourceEntry> urlToEntry = new HashMap<String, ResourceEntry>();
+        for (ResourceEntry entry : this.resourceEntries) {
+            urlToEntry.put(entry.getUrl(), entry);
+        }
         for (ResourceEntry entry : this.resourceEntries) {
             ResourceEntry.Builder resourceEntryBuilder = entry.toBuilder();
 
             List<String> dependants = this.getDependants(entry.getUrl());
             for (String dependant : dependants) {
-                for (ResourceEntry dependantEntry : this.resourceEntries) {
-                    if (dependantEntry.getUrl().equals(dependant)) {
-                        if (dependantEntry.hasHash()) {
-                            resourceEntryBuilder.addDependants(dependantEntry.getHash());
-                        } else {
-                            throw new IOException("Unable to create ManifestData, an incomplete resource was found!");
-                        }
+                ResourceEntry dependantEntry = urlToEntry.get(dependant);
+                if (dependantEntry != null) {
+                    if (dependantEntry.hasHash()) {
+                        resourceEntryBuilder.addDependants(dependantEntry.getHash());
+                    } else {
+                        throw new IOException("Unable to create ManifestData, an incomplete resource was found!");
                     }
                 }
             }
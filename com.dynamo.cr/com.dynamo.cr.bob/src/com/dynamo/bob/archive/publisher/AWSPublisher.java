@@ -12,22 +12,84 @@
 
 package com.dynamo.bob.archive.publisher;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+
+import com.amazonaws.ClientConfiguration;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.auth.profile.ProfileCredentialsProvider;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.S3ClientOptions;
 import com.amazonaws.services.s3.model.AccessControlList;
 import com.amazonaws.services.s3.model.AmazonS3Exception;
 import com.amazonaws.services.s3.model.Grant;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
 import com.amazonaws.services.s3.model.Permission;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.dynamo.bob.CompileExceptionError;
+import com.dynamo.bob.util.FutureUtil;
 
+/**
+ * Publishes liveupdate resources to an Amazon S3 bucket, or an S3 compatible service if an
+ * endpoint is set in the settings.
+ *
+ * The bucket is listed once before uploading, and objects that are already present with the same
+ * content (the ETag of the object is the MD5 of the file) are skipped. Publishing a game where few
+ * resources changed only uploads the changed ones, and publishing again after a failed upload
+ * resumes where it stopped. The remaining objects are uploaded concurrently, and the manifest is
+ * uploaded last so it never refers to resources that aren't uploaded yet.
+ */
 public class AWSPublisher extends Publisher {
 
+    private static final int DEFAULT_THREAD_COUNT = 8;
+
+    private int threadCount = DEFAULT_THREAD_COUNT;
+    private AtomicInteger uploadCount = new AtomicInteger();
+    private AtomicInteger skipCount = new AtomicInteger();
+
     public AWSPublisher(PublisherSettings settings) {
         super(settings);
     }
 
+    /**
+     * Set the max number of concurrent uploads
+     * @param threadCount max number of concurrent uploads, 1 to upload one object at a time
+     */
+    public void setThreadCount(int threadCount) {
+        this.threadCount = Math.max(1, threadCount);
+    }
+
+    /**
+     * Get the number of objects uploaded by the last Publish()
+     */
+    public int getUploadCount() {
+        return uploadCount.get();
+    }
+
+    /**
+     * Get the number of objects skipped by the last Publish(), since they were already present
+     */
+    public int getSkipCount() {
+        return skipCount.get();
+    }
+
     private CompileExceptionError amazonException(String reason, Throwable exception) {
         String message = "Amazon S3: " + reason;
         return new CompileExceptionError(message, exception);
@@ -49,6 +111,133 @@ public class AWSPublisher extends Publisher {
         return false;
     }
 
+    /**
+     * Create the credentials used to publish, from the credential profile of the settings
+     */
+    protected AWSCredentialsProvider createCredentials() {
+        String credentialProfile = this.getPublisherSettings().getAmazonCredentialProfile();
+        return new ProfileCredentialsProvider(credentialProfile);
+    }
+
+    /**
+     * Create the configuration of the client used to publish
+     */
+    protected ClientConfiguration createClientConfiguration() {
+        ClientConfiguration configuration = new ClientConfiguration();
+        configuration.setMaxConnections(Math.max(configuration.getMaxConnections(), threadCount));
+        return configuration;
+    }
+
+    // The client is shared by the concurrent uploads
+    private AmazonS3 createClient() {
+        AmazonS3Client client = new AmazonS3Client(createCredentials(), createClientConfiguration());
+        String endpoint = this.getPublisherSettings().getAmazonEndpoint();
+        if (endpoint != null) {
+            client.setEndpoint(endpoint);
+            client.setS3ClientOptions(S3ClientOptions.builder().setPathStyleAccess(true).build());
+        }
+        return client;
+    }
+
+    private static String getKey(String prefix, String name) {
+        return (prefix + "/" + name).replaceAll("//+", "/");
+    }
+
+    // ETags of the objects in the bucket with the prefix
+    private static Map<String, String> listObjects(AmazonS3 client, String bucket, String prefix) {
+        Map<String, String> eTags = new HashMap<String, String>();
+        ListObjectsRequest request = new ListObjectsRequest().withBucketName(bucket).withPrefix(getKey(prefix, ""));
+        ObjectListing listing = client.listObjects(request);
+        while (true) {
+            for (S3ObjectSummary summary : listing.getObjectSummaries()) {
+                eTags.put(summary.getKey(), summary.getETag());
+            }
+            if (!listing.isTruncated()) {
+                break;
+            }
+            listing = client.listNextBatchOfObjects(listing);
+        }
+        return eTags;
+    }
+
+    private static String md5(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        InputStream input = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int length;
+            while ((length = input.read(buffer)) > 0) {
+                digest.update(buffer, 0, length);
+            }
+        } finally {
+            IOUtils.closeQuietly(input);
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b & 0xff));
+        }
+        return hex.toString();
+    }
+
+    private void upload(AmazonS3 client, String bucket, String key, File file, Map<String, String> eTags) throws IOException, CompileExceptionError {
+        String eTag = eTags.get(key);
+        if (eTag != null && eTag.replace("\"", "").equalsIgnoreCase(md5(file))) {
+            skipCount.incrementAndGet();
+            return;
+        }
+        try {
+            client.putObject(bucket, key, file);
+        } catch (AmazonS3Exception exception) {
+            throw amazonException("Unable to upload file, " + exception.getErrorMessage() + ": " + key, exception);
+        }
+        uploadCount.incrementAndGet();
+    }
+
+    private void uploadEntries(final AmazonS3 client, final String bucket, String prefix) throws IOException, CompileExceptionError {
+        final Map<String, String> eTags = listObjects(client, bucket, prefix);
+
+        // The manifest refers to the resources, upload it after them
+        List<String> names = new ArrayList<String>();
+        List<String> manifests = new ArrayList<String>();
+        for (String name : this.getEntries().keySet()) {
+            if (name.endsWith(".dmanifest")) {
+                manifests.add(name);
+            } else {
+                names.add(name);
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>(names.size());
+            for (String name : names) {
+                final String key = getKey(prefix, name);
+                final File file = this.getEntries().get(name);
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException, CompileExceptionError {
+                        upload(client, bucket, key, file, eTags);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                FutureUtil.get(future, IOException.class, CompileExceptionError.class);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (String name : manifests) {
+            upload(client, bucket, getKey(prefix, name), this.getEntries().get(name), eTags);
+        }
+    }
+
     @Override
     public void Publish() throws CompileExceptionError {
     	if (this.getPublisherSettings().getAmazonBucket() == null) {
@@ -59,23 +248,16 @@ public class AWSPublisher extends Publisher {
     		throw compileException("AWS Credential profile is not specified", null);
     	}
     	
+        uploadCount.set(0);
+        skipCount.set(0);
         try {
-        	String credentialProfile = this.getPublisherSettings().getAmazonCredentialProfile();
-    		AWSCredentialsProvider credentials = new ProfileCredentialsProvider(credentialProfile);
-    		AmazonS3Client client = new AmazonS3Client(credentials);
+            AmazonS3 client = createClient();
         	String bucket = this.getPublisherSettings().getAmazonBucket();
             
             if (client.doesBucketExist(bucket)) {
                 if (hasWritePermissions(client, bucket)) {
                 	String prefix = this.getPublisherSettings().getAmazonPrefix();
-                    for (String hexDigest : this.getEntries().keySet()) {
-                        String key = (prefix + "/" + hexDigest).replaceAll("//+", "/");
-                        try {
-                        	client.putObject(bucket, key, this.getEntries().get(hexDigest));
-                        } catch (AmazonS3Exception exception) {
-                        	throw amazonException("Unable to upload file, " + exception.getErrorMessage() + ": " + key, exception);
-                        }
-                    }
+                    uploadEntries(client, bucket, prefix);
                 } else {
                 	throw amazonException("The account does not have permission to upload resources", null);
                 }
@@ -84,6 +266,8 @@ public class AWSPublisher extends Publisher {
             }
         } catch (AmazonS3Exception exception) {
             throw amazonException(exception.getErrorMessage(), exception);
+        } catch (IOException exception) {
+            throw compileException("Failed to read resources to publish: " + exception.getMessage(), exception);
         } catch (Exception exception) {
         	if (exception instanceof CompileExceptionError) {
         		throw exception;
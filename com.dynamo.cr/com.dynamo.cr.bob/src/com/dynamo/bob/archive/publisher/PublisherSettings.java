@@ -129,6 +129,17 @@ public class PublisherSettings {
         return this.getValue("liveupdate", "amazon-prefix");
     }
 
+    public void setAmazonEndpoint(String value) {
+    	this.setValue("liveupdate", "amazon-endpoint", value);
+    }
+
+    /**
+     * Endpoint of an S3 compatible service to publish to instead of Amazon S3, e.g. http://localhost:9000
+     */
+    public String getAmazonEndpoint() {
+        return this.getValue("liveupdate", "amazon-endpoint");
+    }
+
     public void setZipFilepath(String value) {
     	this.setValue("liveupdate", "zip-filepath", value);
     }
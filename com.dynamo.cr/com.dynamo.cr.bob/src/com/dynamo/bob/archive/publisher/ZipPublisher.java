@@ -12,6 +12,7 @@
 
 package com.dynamo.bob.archive.publisher;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -23,6 +24,7 @@ import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -33,34 +35,59 @@ import com.dynamo.bob.fs.IResource;
 
 public class ZipPublisher extends Publisher {
 
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     private File resourcePackZip = null;
 
     public ZipPublisher(PublisherSettings settings) {
         super(settings);
     }
 
+    // Stored entries need the checksum before the data is written
+    private static long crc32(File fhandle, byte[] buffer) throws IOException {
+        CRC32 crc = new CRC32();
+        FileInputStream inputStream = new FileInputStream(fhandle);
+        try {
+            int length = 0;
+            while ((length = inputStream.read(buffer)) > 0) {
+                crc.update(buffer, 0, length);
+            }
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+        return crc.getValue();
+    }
+
     @Override
     public void Publish() throws CompileExceptionError {
         try {
             String tempFilePrefix = "defold.resourcepack_" + this.platform + "_";
             this.resourcePackZip = File.createTempFile(tempFilePrefix, ".zip");
             FileOutputStream resourcePackOutputStream = new FileOutputStream(this.resourcePackZip);
-            ZipOutputStream zipOutputStream = new ZipOutputStream(resourcePackOutputStream);
+            ZipOutputStream zipOutputStream = new ZipOutputStream(new BufferedOutputStream(resourcePackOutputStream, BUFFER_SIZE));
             try {
+                byte[] buffer = new byte[BUFFER_SIZE];
                 for (String hexDigest : this.getEntries().keySet()) {
                     File fhandle = this.getEntries().get(hexDigest);
+                    // The resources are already compressed, store them as is
                     ZipEntry currentEntry = new ZipEntry(fhandle.getName());
+                    currentEntry.setMethod(ZipEntry.STORED);
+                    currentEntry.setSize(fhandle.length());
+                    currentEntry.setCompressedSize(fhandle.length());
+                    currentEntry.setCrc(crc32(fhandle, buffer));
                     zipOutputStream.putNextEntry(currentEntry);
 
                     FileInputStream currentInputStream = new FileInputStream(fhandle);
-                    int currentLength = 0;
-                    byte[] currentBuffer = new byte[1024];
-                    while ((currentLength = currentInputStream.read(currentBuffer)) > 0) {
-                        zipOutputStream.write(currentBuffer, 0, currentLength);
+                    try {
+                        int currentLength = 0;
+                        while ((currentLength = currentInputStream.read(buffer)) > 0) {
+                            zipOutputStream.write(buffer, 0, currentLength);
+                        }
+                    } finally {
+                        IOUtils.closeQuietly(currentInputStream);
                     }
 
                     zipOutputStream.closeEntry();
-                    IOUtils.closeQuietly(currentInputStream);
                 }
             } catch (FileNotFoundException exception) {
                 throw new CompileExceptionError("Unable to find required file for liveupdate resources: " + exception.getMessage(), exception);
@@ -1,10 +1,10 @@
 // Copyright 2020 The Defold Foundation
 // Licensed under the Defold License version 1.0 (the "License"); you may not use
 // this file except in compliance with the License.
-// 
+//
 // You may obtain a copy of the License, together with FAQs at
 // https://www.defold.com/license
-// 
+//
 // Unless required by applicable law or agreed to in writing, software distributed
 // under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
 // CONDITIONS OF ANY KIND, either express or implied. See the License for the
@@ -12,71 +12,264 @@
 
 package com.dynamo.bob.font;
 
+import java.util.Arrays;
+
 public class DistanceFieldGenerator
 {
-    public double[] lineSegments = new double[32768];
+    public double[] lineSegments = new double[5 * 256];
     public int lineSegmentsEnd = 0;
 
+    // Uniform grid over the bounds of the line segments. Each cell lists the segments
+    // whose bounding box overlaps the cell, cellStart[i]..cellStart[i+1] in cellSegments.
+    private boolean gridValid = false;
+    private double gridX0, gridY0;
+    private double cellSize;
+    private int gridColumns, gridRows;
+    private int[] cellStart;
+    private int[] cellSegments;
+
+    private double maxDistSqr = 10000000;
+
+    // Below this number of segments it is faster to test all of them
+    private static final int GRID_MIN_SEGMENTS = 32;
+    private static final int SEGMENTS_PER_CELL = 4;
+
     public DistanceFieldGenerator()
     {
 
     }
 
+    // Set the max distance of interest, points further away from the segments than this
+    // get this distance instead. Lets the search for the closest segment stop earlier.
+    public void setMaxDistance(double maxDistance)
+    {
+        maxDistSqr = Math.min(10000000, maxDistance * maxDistance);
+    }
+
     public void addLine(double x0, double y0, double x1, double y1)
     {
+        if (lineSegmentsEnd + 5 > lineSegments.length)
+        {
+            lineSegments = Arrays.copyOf(lineSegments, lineSegments.length * 2);
+        }
         lineSegments[lineSegmentsEnd+0] = x0;
         lineSegments[lineSegmentsEnd+1] = y0;
         lineSegments[lineSegmentsEnd+2] = x1 - x0;
         lineSegments[lineSegmentsEnd+3] = y1 - y0;
         lineSegments[lineSegmentsEnd+4] = 1.0 / ((x1-x0)*(x1-x0) + (y1-y0)*(y1-y0));
         lineSegmentsEnd += 5;
+        gridValid = false;
     }
 
-    // Compute the minimal distance from [x, y] to any of the line segments
-    public double distSqr(double x, double y)
+    private int column(double x)
+    {
+        return Math.max(0, Math.min(gridColumns - 1, (int)Math.floor((x - gridX0) / cellSize)));
+    }
+
+    private int row(double y)
+    {
+        return Math.max(0, Math.min(gridRows - 1, (int)Math.floor((y - gridY0) / cellSize)));
+    }
+
+    private void buildGrid()
     {
-        double distMin = 10000000;
+        int segmentCount = lineSegmentsEnd / 5;
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
         for (int i=0;i<lineSegmentsEnd;i+=5)
         {
             double x0 = lineSegments[i];
             double y0 = lineSegments[i+1];
-            double dx = lineSegments[i+2];
-            double dy = lineSegments[i+3];
-            double k = lineSegments[i+4];
+            double x1 = x0 + lineSegments[i+2];
+            double y1 = y0 + lineSegments[i+3];
+            minX = Math.min(minX, Math.min(x0, x1));
+            minY = Math.min(minY, Math.min(y0, y1));
+            maxX = Math.max(maxX, Math.max(x0, x1));
+            maxY = Math.max(maxY, Math.max(y0, y1));
+        }
 
-            double dx0 = x - x0;
-            double dy0 = y - y0;
-            double t = k * (dx * dx0 + dy * dy0);
+        // Aim for a few segments per cell
+        double width = Math.max(maxX - minX, 1e-3);
+        double height = Math.max(maxY - minY, 1e-3);
+        cellSize = Math.max(Math.sqrt(width * height * SEGMENTS_PER_CELL / Math.max(1, segmentCount)), Math.max(width, height) / 256.0);
+        gridX0 = minX;
+        gridY0 = minY;
+        gridColumns = (int)(width / cellSize) + 1;
+        gridRows = (int)(height / cellSize) + 1;
 
-            if (t < 0)
+        // Count the segments of each cell, then fill them in
+        int cellCount = gridColumns * gridRows;
+        cellStart = new int[cellCount + 1];
+        for (int pass=0;pass<2;pass++)
+        {
+            int[] fill = pass == 0 ? null : Arrays.copyOf(cellStart, cellCount);
+            for (int i=0;i<lineSegmentsEnd;i+=5)
             {
-                // Closest point is t=0 of the line
-                double distSqr = dx0 * dx0 + dy0 * dy0;
-                if (distSqr < distMin)
-                    distMin = distSqr;
+                double x0 = lineSegments[i];
+                double y0 = lineSegments[i+1];
+                double x1 = x0 + lineSegments[i+2];
+                double y1 = y0 + lineSegments[i+3];
+                int c0 = column(Math.min(x0, x1)), c1 = column(Math.max(x0, x1));
+                int r0 = row(Math.min(y0, y1)), r1 = row(Math.max(y0, y1));
+                for (int r=r0;r<=r1;r++)
+                {
+                    for (int c=c0;c<=c1;c++)
+                    {
+                        int cell = r * gridColumns + c;
+                        if (pass == 0)
+                            cellStart[cell + 1]++;
+                        else
+                            cellSegments[fill[cell]++] = i;
+                    }
+                }
             }
-            else if (t > 1)
+            if (pass == 0)
             {
-                // Closest point is t=1 of the line
-                double xx = x - (x0 + dx);
-                double yy = y - (y0 + dy);
-                double distSqr = xx*xx + yy*yy;
-                if (distSqr < distMin)
-                    distMin = distSqr;
+                for (int cell=0;cell<cellCount;cell++)
+                    cellStart[cell + 1] += cellStart[cell];
+                cellSegments = new int[cellStart[cellCount]];
             }
-            else
+        }
+        gridValid = true;
+    }
+
+    private double segmentDistSqr(int i, double x, double y)
+    {
+        double x0 = lineSegments[i];
+        double y0 = lineSegments[i+1];
+        double dx = lineSegments[i+2];
+        double dy = lineSegments[i+3];
+        double k = lineSegments[i+4];
+
+        double dx0 = x - x0;
+        double dy0 = y - y0;
+        double t = k * (dx * dx0 + dy * dy0);
+
+        if (t < 0)
+        {
+            // Closest point is t=0 of the line
+            return dx0 * dx0 + dy0 * dy0;
+        }
+        else if (t > 1)
+        {
+            // Closest point is t=1 of the line
+            double xx = x - (x0 + dx);
+            double yy = y - (y0 + dy);
+            return xx*xx + yy*yy;
+        }
+        else
+        {
+            // Case when the closest point is along the line, and t will be [0,1]
+            double px = x0 + t * dx - x;
+            double py = y0 + t * dy - y;
+            return px*px + py*py;
+        }
+    }
+
+    // Compute the minimal distance from [x, y] to any of the line segments
+    public double distSqr(double x, double y)
+    {
+        double distMin = maxDistSqr;
+        if (lineSegmentsEnd < GRID_MIN_SEGMENTS * 5)
+        {
+            for (int i=0;i<lineSegmentsEnd;i+=5)
             {
-                // Case when the closest point is along the line, and t will be [0,1]
-                double px = x0 + t * dx - x;
-                double py = y0 + t * dy - y;
-                double distSqr = px*px + py*py;
+                double distSqr = segmentDistSqr(i, x, y);
                 if (distSqr < distMin)
                     distMin = distSqr;
             }
+            return distMin;
+        }
+        if (!gridValid)
+            buildGrid();
+
+        // Visit the cells in rings around the cell of the point, until the ring is further away
+        // than the closest segment found. Cells of ring r are at least (r-1) cells away from the point.
+        int cx = column(x);
+        int cy = row(y);
+        int maxRing = Math.max(Math.max(cx, gridColumns - 1 - cx), Math.max(cy, gridRows - 1 - cy));
+        for (int r=0;r<=maxRing;r++)
+        {
+            double ringDist = (r - 1) * cellSize;
+            if (ringDist > 0 && ringDist * ringDist > distMin)
+                break;
+            int r0 = Math.max(0, cy - r), r1 = Math.min(gridRows - 1, cy + r);
+            int c0 = Math.max(0, cx - r), c1 = Math.min(gridColumns - 1, cx + r);
+            for (int row=r0;row<=r1;row++)
+            {
+                // Only the first and last row of the ring are whole, the rest only have the end cells
+                boolean edgeRow = row == cy - r || row == cy + r;
+                int step = edgeRow ? 1 : Math.max(1, 2 * r);
+                for (int col=edgeRow ? c0 : cx - r;col<=c1;col+=step)
+                {
+                    if (col < c0)
+                        continue;
+                    // Skip the cell if it is further away than the closest segment found
+                    double cellX0 = gridX0 + col * cellSize;
+                    double cellY0 = gridY0 + row * cellSize;
+                    double ddx = Math.max(0, Math.max(cellX0 - x, x - (cellX0 + cellSize)));
+                    double ddy = Math.max(0, Math.max(cellY0 - y, y - (cellY0 + cellSize)));
+                    if (ddx * ddx + ddy * ddy > distMin)
+                        continue;
+                    int cell = row * gridColumns + col;
+                    for (int j=cellStart[cell];j<cellStart[cell+1];j++)
+                    {
+                        double distSqr = segmentDistSqr(cellSegments[j], x, y);
+                        if (distSqr < distMin)
+                            distMin = distSqr;
+                    }
+                }
+            }
         }
         return distMin;
     }
 
+    // Compute if the points [x0 + u * (x1 - x0) / width, y] are inside the outline formed by the line
+    // segments, from the crossings of the segments with the row.
+    public void insideRow(boolean[] output, double x0, double x1, double y, int width, boolean evenOdd)
+    {
+        double[] crossings = new double[16];
+        int[] directions = new int[16];
+        int count = 0;
+        for (int i=0;i<lineSegmentsEnd;i+=5)
+        {
+            double ax = lineSegments[i];
+            double ay = lineSegments[i+1];
+            double by = ay + lineSegments[i+3];
+            if ((ay <= y) == (by <= y))
+                continue;
+            double x = ax + (y - ay) * lineSegments[i+2] / lineSegments[i+3];
+            if (count == crossings.length)
+            {
+                crossings = Arrays.copyOf(crossings, count * 2);
+                directions = Arrays.copyOf(directions, count * 2);
+            }
+            // Keep the crossings sorted on x
+            int j = count++;
+            for (;j>0 && crossings[j-1]>x;j--)
+            {
+                crossings[j] = crossings[j-1];
+                directions[j] = directions[j-1];
+            }
+            crossings[j] = x;
+            directions[j] = by > ay ? 1 : -1;
+        }
+
+        // Winding number of the crossings to the right of the point
+        int winding = 0;
+        for (int j=0;j<count;j++)
+            winding += directions[j];
+        int next = 0;
+        double widthInverse = 1 / (double)width;
+        for (int u=0;u<width;u++)
+        {
+            double x = x0 + widthInverse * u * (x1 - x0);
+            for (;next<count && crossings[next]<=x;next++)
+                winding -= directions[next];
+            output[u] = evenOdd ? (winding & 1) != 0 : winding != 0;
+        }
+    }
+
     public void render(double[] output, double x0, double y0, double x1, double y1, int width, int height)
     {
         int ofs = 0;
@@ -50,6 +50,11 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.imageio.ImageIO;
 
@@ -62,6 +67,7 @@ import com.dynamo.bob.TexcLibrary.CompressionLevel;
 import com.dynamo.bob.TexcLibrary.CompressionType;
 
 import com.dynamo.bob.pipeline.TextureGeneratorException;
+import com.dynamo.bob.util.FutureUtil;
 
 import com.dynamo.bob.font.BMFont.BMFontFormatException;
 import com.dynamo.bob.font.BMFont.Char;
@@ -151,6 +157,7 @@ public class Fontc {
 
     private Font font;
     private BMFont bmfont;
+    private int threadCount = 1;
 
     public interface FontResourceResolver {
         public InputStream getResource(String resourceName) throws FileNotFoundException;
@@ -160,6 +167,14 @@ public class Fontc {
 
     }
 
+    /**
+     * Set the number of threads generating glyphs, 1 by default
+     * @param threadCount number of threads, at least 1
+     */
+    public void setThreadCount(int threadCount) {
+        this.threadCount = Math.max(1, threadCount);
+    }
+
     public InputFontFormat getInputFormat() {
         return inputFormat;
     }
@@ -380,8 +395,8 @@ public class Fontc {
             padding = Math.min(4, fontDesc.getShadowBlur()) + (int)(fontDesc.getOutlineWidth());
         }
 
-        Color faceColor = new Color(fontDesc.getAlpha(), 0.0f, 0.0f);
-        Color outlineColor = new Color(0.0f, fontDesc.getOutlineAlpha(), 0.0f);
+        final Color faceColor = new Color(fontDesc.getAlpha(), 0.0f, 0.0f);
+        final Color outlineColor = new Color(0.0f, fontDesc.getOutlineAlpha(), 0.0f);
         ConvolveOp shadowConvolve = null;
         Composite blendComposite = new BlendComposite();
         if (fontDesc.getShadowAlpha() > 0.0f) {
@@ -533,110 +548,57 @@ public class Fontc {
         if (preview) {
             include_glyph_count = Math.min(glyphs.size(), cache_rows * cache_columns);
         }
-        for (int i = 0; i < include_glyph_count; i++) {
+        // Glyphs are rendered and compressed in parallel, and added to the glyph data bank in glyph
+        // order so that the output is the same regardless of the number of threads.
+        final int glyphPadding = padding;
+        final int glyphCellPadding = cell_padding;
+        final float glyphSdfSpread = sdf_spread;
+        final float glyphSdfShadowSpread = sdf_shadow_spread;
+        final Composite glyphBlendComposite = blendComposite;
+        final ConvolveOp glyphShadowConvolve = shadowConvolve;
+        final BufferedImage glyphImageBMFont = imageBMFont;
+        final boolean glyphPreview = preview;
+        List<Future<byte[]>> glyphDataFutures = new ArrayList<Future<byte[]>>(include_glyph_count);
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            for (int i = 0; i < include_glyph_count; i++) {
 
-            Glyph glyph = glyphs.get(i);
-            if (glyph.width <= 0 || glyph.ascent + glyph.descent <= 0) {
-                continue;
-            }
+                final Glyph glyph = glyphs.get(i);
+                if (glyph.width <= 0 || glyph.ascent + glyph.descent <= 0) {
+                    glyphDataFutures.add(null);
+                    continue;
+                }
 
-            // Generate bitmap for each glyph depending on format
-            BufferedImage glyphImage = null;
-            if (fontDesc.getOutputFormat() == FontTextureFormat.TYPE_BITMAP &&
-                inputFormat == InputFontFormat.FORMAT_TRUETYPE) {
-                glyphImage = drawGlyph(glyph, padding, font, blendComposite, faceColor, outlineColor, shadowConvolve);
-            } else if (fontDesc.getOutputFormat() == FontTextureFormat.TYPE_BITMAP &&
-                       inputFormat == InputFontFormat.FORMAT_BMFONT) {
-                glyphImage = drawBMFontGlyph(glyph, imageBMFont);
-            } else if (fontDesc.getOutputFormat() == FontTextureFormat.TYPE_DISTANCE_FIELD &&
-                       inputFormat == InputFontFormat.FORMAT_TRUETYPE) {
-                glyphImage = makeDistanceField(glyph, padding, sdf_spread, sdf_shadow_spread, font, sdf_edge, shadowConvolve);
-            } else {
-                throw new FontFormatException("Invalid font format combination!");
+                glyphDataFutures.add(executor.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws FontFormatException, TextureGeneratorException {
+                        // Generate bitmap for each glyph depending on format
+                        BufferedImage glyphImage = renderGlyph(glyph, glyphPadding, glyphSdfSpread, glyphSdfShadowSpread, glyphBlendComposite, faceColor, outlineColor, glyphShadowConvolve, glyphImageBMFont);
+                        if (glyphPreview) {
+                            glyph.image = glyphImage;
+                            return null;
+                        }
+                        return compressGlyph(glyphImage, glyphCellPadding);
+                    }
+                }));
             }
 
-            if (preview) {
-
-                glyph.image = glyphImage;
-
-            } else {
-                BufferedImage paddedGlyphImage = new BufferedImage(glyphImage.getWidth() + cell_padding * 2,
-                                                                    glyphImage.getHeight() + cell_padding * 2, BufferedImage.TYPE_4BYTE_ABGR);
-
-                int clearData = 0;
-                int mask = 0xFFFFFFFF;
-                if (channelCount==1)
-                    mask = 0xFF;
-                else if (channelCount==2)
-                    mask = 0xFFFF;
-                else if (channelCount==3)
-                    mask = 0xFFFFFF;
-
-                int py = 0;
-                // Get raster data from rendered glyph and store in glyph data bank
-                for (int x = 0; x < paddedGlyphImage.getWidth(); ++x)
-                    paddedGlyphImage.setRGB(x, py, clearData);
-                py++;
-                for (int y = 0; y < glyphImage.getHeight(); y++, py++) {
-                    int px = 0;
-                    paddedGlyphImage.setRGB(px++, py, clearData);
-                    for (int x = 0; x < glyphImage.getWidth(); x++, px++) {
-                        int color = glyphImage.getRGB(x, y);
-                        int blue  = (color) & 0xff;
-                        int green = (color >> 8) & 0xff;
-                        int red   = (color >> 16) & 0xff;
-                        int alpha = (color >> 24) & 0xff;
-                        blue = (blue * alpha) / 255;
-                        green = (green * alpha) / 255;
-                        red = (red * alpha) / 255;
-                        color = ((alpha << 24) |
-                                (blue << 16) |
-                                (green << 8) |
-                                (red << 0)) & mask;
-
-                        paddedGlyphImage.setRGB(px, py, color);
-                    }
-                    paddedGlyphImage.setRGB(px++, py, clearData);
+            for (int i = 0; i < include_glyph_count; i++) {
+                Future<byte[]> future = glyphDataFutures.get(i);
+                if (future == null) {
+                    continue;
                 }
-                for (int x = 0; x < paddedGlyphImage.getWidth(); ++x)
-                    paddedGlyphImage.setRGB(x, 0, clearData);
-
-                Pointer compressedTexture = null;
-                try {
-                    int width = paddedGlyphImage.getWidth();
-                    int height = paddedGlyphImage.getHeight();
-                    int compressionLevel = TexcLibrary.CompressionLevel.CL_BEST;
-                    int compressionType = TexcLibrary.CompressionType.CT_WEBP;
-
-                    int pixelFormat = PixelFormat.L8;
-                    if (channelCount > 3)
-                        pixelFormat = PixelFormat.R8G8B8A8;
-                    else if (channelCount > 1)
-                        pixelFormat = PixelFormat.R8G8B8;
-
-                    ByteBuffer paddedBuffer = toByteArray(paddedGlyphImage, width, height, 4, channelCount);
-
-                    compressedTexture = TexcLibrary.TEXC_CompressWebPBuffer(width, height, channelCount*8, paddedBuffer, width*height*channelCount, pixelFormat, compressionLevel, compressionType);
-
-                    int bufferSize = TexcLibrary.TEXC_GetTotalBufferDataSize(compressedTexture);
-                    ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
-                    TexcLibrary.TEXC_GetBufferData(compressedTexture, buffer, bufferSize);
-
+                byte[] data = FutureUtil.get(future, FontFormatException.class, TextureGeneratorException.class);
+                if (data != null) {
+                    Glyph glyph = glyphs.get(i);
                     glyph.cache_entry_offset = dataOffset;
-                    dataOffset += bufferSize;
-
-                    byte[] arr = new byte[buffer.limit()];
-                    buffer.get(arr);
-                    glyphDataBank.write(arr);
-
-                    glyph.cache_entry_size = bufferSize;
-
-                } catch(IOException e) {
-                    throw new TextureGeneratorException(String.format("Failed to generate font texture: %s", e.getMessage()));
-                } finally {
-                    TexcLibrary.TEXC_DestroyBuffer(compressedTexture);
+                    dataOffset += data.length;
+                    glyphDataBank.write(data, 0, data.length);
+                    glyph.cache_entry_size = data.length;
                 }
             }
+        } finally {
+            executor.shutdownNow();
         }
 
         // Sanity check;
@@ -691,6 +653,96 @@ public class Fontc {
 
     }
 
+    private BufferedImage renderGlyph(Glyph glyph, int padding, float sdf_spread, float sdf_shadow_spread, Composite blendComposite, Color faceColor, Color outlineColor, ConvolveOp shadowConvolve, BufferedImage imageBMFont) throws FontFormatException {
+        if (fontDesc.getOutputFormat() == FontTextureFormat.TYPE_BITMAP &&
+            inputFormat == InputFontFormat.FORMAT_TRUETYPE) {
+            return drawGlyph(glyph, padding, font, blendComposite, faceColor, outlineColor, shadowConvolve);
+        } else if (fontDesc.getOutputFormat() == FontTextureFormat.TYPE_BITMAP &&
+                   inputFormat == InputFontFormat.FORMAT_BMFONT) {
+            return drawBMFontGlyph(glyph, imageBMFont);
+        } else if (fontDesc.getOutputFormat() == FontTextureFormat.TYPE_DISTANCE_FIELD &&
+                   inputFormat == InputFontFormat.FORMAT_TRUETYPE) {
+            return makeDistanceField(glyph, padding, sdf_spread, sdf_shadow_spread, font, sdf_edge, shadowConvolve);
+        } else {
+            throw new FontFormatException("Invalid font format combination!");
+        }
+    }
+
+    // Pad the glyph image with the cell padding and compress it, returns the data to store in the glyph data bank
+    private byte[] compressGlyph(BufferedImage glyphImage, int cell_padding) throws TextureGeneratorException {
+        BufferedImage paddedGlyphImage = new BufferedImage(glyphImage.getWidth() + cell_padding * 2,
+                                                            glyphImage.getHeight() + cell_padding * 2, BufferedImage.TYPE_4BYTE_ABGR);
+
+        int clearData = 0;
+        int mask = 0xFFFFFFFF;
+        if (channelCount==1)
+            mask = 0xFF;
+        else if (channelCount==2)
+            mask = 0xFFFF;
+        else if (channelCount==3)
+            mask = 0xFFFFFF;
+
+        int py = 0;
+        // Get raster data from rendered glyph and store in glyph data bank
+        for (int x = 0; x < paddedGlyphImage.getWidth(); ++x)
+            paddedGlyphImage.setRGB(x, py, clearData);
+        py++;
+        for (int y = 0; y < glyphImage.getHeight(); y++, py++) {
+            int px = 0;
+            paddedGlyphImage.setRGB(px++, py, clearData);
+            for (int x = 0; x < glyphImage.getWidth(); x++, px++) {
+                int color = glyphImage.getRGB(x, y);
+                int blue  = (color) & 0xff;
+                int green = (color >> 8) & 0xff;
+                int red   = (color >> 16) & 0xff;
+                int alpha = (color >> 24) & 0xff;
+                blue = (blue * alpha) / 255;
+                green = (green * alpha) / 255;
+                red = (red * alpha) / 255;
+                color = ((alpha << 24) |
+                        (blue << 16) |
+                        (green << 8) |
+                        (red << 0)) & mask;
+
+                paddedGlyphImage.setRGB(px, py, color);
+            }
+            paddedGlyphImage.setRGB(px++, py, clearData);
+        }
+        for (int x = 0; x < paddedGlyphImage.getWidth(); ++x)
+            paddedGlyphImage.setRGB(x, 0, clearData);
+
+        Pointer compressedTexture = null;
+        try {
+            int width = paddedGlyphImage.getWidth();
+            int height = paddedGlyphImage.getHeight();
+            int compressionLevel = TexcLibrary.CompressionLevel.CL_BEST;
+            int compressionType = TexcLibrary.CompressionType.CT_WEBP;
+
+            int pixelFormat = PixelFormat.L8;
+            if (channelCount > 3)
+                pixelFormat = PixelFormat.R8G8B8A8;
+            else if (channelCount > 1)
+                pixelFormat = PixelFormat.R8G8B8;
+
+            ByteBuffer paddedBuffer = toByteArray(paddedGlyphImage, width, height, 4, channelCount);
+
+            compressedTexture = TexcLibrary.TEXC_CompressWebPBuffer(width, height, channelCount*8, paddedBuffer, width*height*channelCount, pixelFormat, compressionLevel, compressionType);
+
+            int bufferSize = TexcLibrary.TEXC_GetTotalBufferDataSize(compressedTexture);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+            TexcLibrary.TEXC_GetBufferData(compressedTexture, buffer, bufferSize);
+
+            byte[] arr = new byte[buffer.limit()];
+            buffer.get(arr);
+            return arr;
+
+        } catch(IOException e) {
+            throw new TextureGeneratorException(String.format("Failed to generate font texture: %s", e.getMessage()));
+        } finally {
+            TexcLibrary.TEXC_DestroyBuffer(compressedTexture);
+        }
+    }
+
     private BufferedImage drawBMFontGlyph(Glyph glyph, BufferedImage imageBMFontInput) {
         return imageBMFontInput.getSubimage(glyph.x, glyph.y, glyph.width, glyph.ascent + glyph.descent);
     }
@@ -706,8 +758,8 @@ public class Fontc {
         double _x = 0, _y = 0;
         double _lastmx = 0, _lastmy = 0;
         DistanceFieldGenerator df = new DistanceFieldGenerator();
+        double [] c = new double[6];
         while (!pi.isDone()) {
-            double [] c = new double[100];
             int res = pi.currentSegment(c);
             switch (res) {
               case PathIterator.SEG_MOVETO:
@@ -741,6 +793,11 @@ public class Fontc {
         double u1 = u0 + width;
         double v1 = v0 + height;
 
+        // Beyond spread * edge / (1 - edge) outside of the edge, or of the outline for the shadow, the
+        // distance maps to 0 and further away points all get the same values.
+        double saturation = sdf_edge / (1.0 - sdf_edge);
+        df.setMaxDistance(Math.max(sdf_spread * saturation, fontDesc.getOutlineWidth() + sdf_shadow_spread * saturation) + 1.0);
+
         double[] distance_data = new double[width*height];
 
         df.render(distance_data, u0, v0, u1, v1, width, height);
@@ -750,16 +807,23 @@ public class Fontc {
 
         BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
 
+        boolean evenOdd = pi.getWindingRule() == PathIterator.WIND_EVEN_ODD;
+        boolean[] inside_row = new boolean[width];
+
         // TODO: Split this work into a pre-pass and subsequent face/outline & shadow passes
         for (int v=0;v<height;v++) {
             int ofs = v * width;
+            double gy = v0 + heightInverse * v * (v1 - v0);
+            df.insideRow(inside_row, u0, u1, gy, width, evenOdd);
             for (int u=0;u<width;u++) {
                 double gx = u0 + widthInverse * u * (u1 - u0);
-                double gy = v0 + heightInverse * v * (v1 - v0);
                 double distance_to_edge   = distance_data[ofs + u];
                 double distance_to_border = -(distance_to_edge - fontDesc.getOutlineWidth());
 
-                if (!sh.contains(gx, gy)) {
+                // The flattened outline is within the flatness of the glyph outline, so points further
+                // away than that are on the same side of both. Test points close to the edge on the glyph outline.
+                boolean inside = distance_to_edge > 0.5 ? inside_row[u] : sh.contains(gx, gy);
+                if (!inside) {
                     distance_to_edge = -distance_to_edge;
                 }
 
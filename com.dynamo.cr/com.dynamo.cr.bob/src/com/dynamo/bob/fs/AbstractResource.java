@@ -17,6 +17,7 @@ import static org.apache.commons.io.FilenameUtils.concat;
 import java.io.IOException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 
 import org.apache.commons.io.FilenameUtils;
 
@@ -43,6 +44,18 @@ public abstract class AbstractResource<F extends IFileSystem> implements IResour
         return newResource.output();
     }
 
+    @Override
+    public void appendContent(byte[] content) throws IOException {
+        byte[] prev = getContent();
+        if (prev == null) {
+            setContent(content);
+        } else {
+            byte[] newContent = Arrays.copyOf(prev, prev.length + content.length);
+            System.arraycopy(content, 0, newContent, prev.length, content.length);
+            setContent(newContent);
+        }
+    }
+
     @Override
     public byte[] sha1() throws IOException {
         byte[] content = getContent();
@@ -14,31 +14,91 @@ package com.dynamo.bob.fs;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
 
+import com.dynamo.bob.util.FutureUtil;
+
 
 public class DefaultFileSystem extends AbstractFileSystem<DefaultFileSystem, DefaultResource> {
 
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+    // Directories in the project root never containing build inputs or outputs
+    private static final Set<String> SKIP_DIRS = new HashSet<String>(Arrays.asList(".git", ".internal"));
+
     static class CacheEntry implements Serializable {
-        private static final long serialVersionUID = 1L;
+        private static final long serialVersionUID = 2L;
         long mTime;
+        long size;
+        // Inode (or similar) of the file, null if not supported by the file system
+        String fileKey;
         byte[] sha1;
+
+        CacheEntry(BasicFileAttributes attrs, byte[] sha1) {
+            this.mTime = attrs.lastModifiedTime().toMillis();
+            this.size = attrs.size();
+            this.fileKey = attrs.fileKey() != null ? attrs.fileKey().toString() : null;
+            this.sha1 = sha1;
+        }
+
+        boolean matches(BasicFileAttributes attrs) {
+            if (mTime != attrs.lastModifiedTime().toMillis() || size != attrs.size()) {
+                return false;
+            }
+            Object key = attrs.fileKey();
+            if (key == null) {
+                return fileKey == null;
+            }
+            return key.toString().equals(fileKey);
+        }
     }
 
-    private Map<String, CacheEntry> cache = new HashMap<String, DefaultFileSystem.CacheEntry>();
+    // One direct buffer per thread hashing files
+    private static final ThreadLocal<ByteBuffer> hashBuffer = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(HASH_BUFFER_SIZE);
+        }
+    };
+
+    // Keyed by root relative path. Accessed concurrently by build threads.
+    private Map<String, CacheEntry> cache = new ConcurrentHashMap<String, DefaultFileSystem.CacheEntry>();
+    private int threadCount = 1;
 
     @Override
     public IResource get(String path) {
@@ -52,51 +112,172 @@ public class DefaultFileSystem extends AbstractFileSystem<DefaultFileSystem, Def
         return new DefaultResource(this, path);
     }
 
-    private byte[] calcSha1(DefaultResource resource) throws IOException {
-        byte[] content = resource.getContent();
-        if (content == null) {
-            throw new IllegalArgumentException(String.format("Resource '%s' is not created", resource.getPath()));
-        }
+    private static byte[] calcSha1(Path path) throws IOException {
         MessageDigest sha1;
         try {
             sha1 = MessageDigest.getInstance("SHA1");
         } catch (NoSuchAlgorithmException e) {
             throw new RuntimeException(e);
         }
-        sha1.update(content);
+        ByteBuffer buffer = hashBuffer.get();
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            buffer.clear();
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                sha1.update(buffer);
+                buffer.clear();
+            }
+        } finally {
+            channel.close();
+        }
         return sha1.digest();
     }
 
+    private byte[] updateEntry(String relativePath, Path path, BasicFileAttributes attrs) throws IOException {
+        // The attributes are read before hashing, if the file is modified while hashing
+        // the entry won't match next time and the file is hashed again.
+        byte[] sha1 = calcSha1(path);
+        cache.put(relativePath, new CacheEntry(attrs, sha1));
+        return sha1;
+    }
+
     byte[] sha1(DefaultResource resource) throws IOException {
-        String absPath = resource.getAbsPath();
-        File file = new File(absPath);
+        Path path = Paths.get(resource.getAbsPath());
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            throw new IllegalArgumentException(String.format("Resource '%s' is not created", resource.getPath()));
+        }
         CacheEntry e = cache.get(resource.getPath());
-        if (e != null && file.lastModified() == e.mTime) {
-            return e.sha1;
-        } else {
-            e = new CacheEntry();
-            e.mTime = file.lastModified();
-            e.sha1 = calcSha1(resource);
-            cache.put(resource.getPath(), e);
+        if (e != null && e.matches(attrs)) {
             return e.sha1;
         }
+        return updateEntry(resource.getPath(), path, attrs);
+    }
+
+    private String relativePath(Path root, Path path) {
+        return FilenameUtils.separatorsToUnix(root.relativize(path).toString());
+    }
+
+    /**
+     * Stat all files under the root directory and hash the files previously
+     * hashed that have changed since. Files no longer existing are removed from
+     * the cache. Directories are walked and files hashed on a pool of threads.
+     * Files not found in the cache are hashed when first requested.
+     */
+    private void updateCache() {
+        if (cache.isEmpty() || rootDirectory == null) {
+            return;
+        }
+        final Path root = Paths.get(rootDirectory).toAbsolutePath().normalize();
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+
+        final Set<String> found = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final Map<Path, BasicFileAttributes> changed = new ConcurrentHashMap<Path, BasicFileAttributes>();
+        final SimpleFileVisitor<Path> visitor = new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (!attrs.isRegularFile()) {
+                    return FileVisitResult.CONTINUE;
+                }
+                String relativePath = relativePath(root, file);
+                CacheEntry e = cache.get(relativePath);
+                if (e != null) {
+                    found.add(relativePath);
+                    if (!e.matches(attrs)) {
+                        changed.put(file, attrs);
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            // Walk each top level directory in parallel
+            List<Future<?>> walks = new ArrayList<Future<?>>();
+            DirectoryStream<Path> stream = Files.newDirectoryStream(root);
+            try {
+                for (final Path child : stream) {
+                    BasicFileAttributes attrs = Files.readAttributes(child, BasicFileAttributes.class);
+                    if (attrs.isDirectory()) {
+                        if (SKIP_DIRS.contains(child.getFileName().toString())) {
+                            continue;
+                        }
+                        walks.add(executor.submit(new Callable<Void>() {
+                            @Override
+                            public Void call() throws IOException {
+                                Files.walkFileTree(child, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, visitor);
+                                return null;
+                            }
+                        }));
+                    } else {
+                        visitor.visitFile(child, attrs);
+                    }
+                }
+            } finally {
+                stream.close();
+            }
+            waitFor(walks);
+
+            List<Future<?>> hashes = new ArrayList<Future<?>>();
+            for (Map.Entry<Path, BasicFileAttributes> entry : changed.entrySet()) {
+                final Path file = entry.getKey();
+                final BasicFileAttributes attrs = entry.getValue();
+                hashes.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        updateEntry(relativePath(root, file), file, attrs);
+                        return null;
+                    }
+                }));
+            }
+            waitFor(hashes);
+
+            cache.keySet().retainAll(found);
+        } catch (IOException e) {
+            // Changed files are hashed when requested instead
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void waitFor(List<Future<?>> futures) throws IOException {
+        for (Future<?> future : futures) {
+            FutureUtil.get(future, IOException.class);
+        }
+    }
+
+    @Override
+    public void setThreadCount(int threadCount) {
+        this.threadCount = Math.max(1, threadCount);
     }
 
     @SuppressWarnings("unchecked")
     @Override
     public void loadCache() {
-        cache = new HashMap<String, DefaultFileSystem.CacheEntry>();
+        cache = new ConcurrentHashMap<String, DefaultFileSystem.CacheEntry>();
         String fileName = FilenameUtils.concat(FilenameUtils.concat(this.rootDirectory, this.buildDirectory), "digest_cache");
         ObjectInputStream is = null;
         try {
             is = new ObjectInputStream(new BufferedInputStream(new FileInputStream(fileName)));
-            cache = (Map<String, CacheEntry>) is.readObject();
+            cache = new ConcurrentHashMap<String, DefaultFileSystem.CacheEntry>((Map<String, CacheEntry>) is.readObject());
             is.close();
         } catch (IOException e) {
         } catch (ClassNotFoundException e) {
         } finally {
             IOUtils.closeQuietly(is);
         }
+        updateCache();
     }
 
     @Override
@@ -64,6 +64,22 @@ public class DefaultResource extends AbstractResource<DefaultFileSystem> {
         }
     }
 
+    @Override
+    public void appendContent(byte[] content) throws IOException {
+        File f = new File(getAbsPath());
+        if (!f.exists()) {
+            setContent(content);
+            return;
+        }
+
+        BufferedOutputStream os = new BufferedOutputStream(new FileOutputStream(f, true));
+        try {
+            os.write(content);
+        } finally {
+            os.close();
+        }
+    }
+
     @Override
     public void setContent(InputStream stream) throws IOException {
         File f = new File(getAbsPath());
@@ -76,6 +76,12 @@ public interface IFileSystem {
      */
     public String getRootDirectory();
 
+    /**
+     * Set the max number of threads used to update the cache of file signatures in loadCache
+     * @param threadCount max number of threads, at least 1
+     */
+    public void setThreadCount(int threadCount);
+
     /**
      * Load cache of file signatures (optionally)
      * @note This method can only be invoked after setBuildDirectory is invoked
@@ -46,6 +46,14 @@ public interface IResource {
      */
     void setContent(byte[] content) throws IOException;
 
+    /**
+     * Append content to resource. The resource is created if it doesn't exist.
+     * @note only valid operation for output-resources, see {@link IResource#output()}
+     * @param content content to append
+     * @throws IOException
+     */
+    void appendContent(byte[] content) throws IOException;
+
     /**
      * Get sha1 checksum for resource
      * @return sha1 checksum
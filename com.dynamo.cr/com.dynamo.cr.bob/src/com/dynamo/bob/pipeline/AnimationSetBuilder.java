@@ -16,6 +16,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -40,6 +41,24 @@ public class AnimationSetBuilder extends Builder<Void>  {
 
     ArrayList<String> animFiles;
 
+    /**
+     * Get the max error of the keyframes dropped from Collada animations, see ColladaUtil.loadAnimations
+     * @param project project with the animation-keyframe-tolerance option
+     * @param owner resource to report an invalid value for
+     * @return tolerance, 0 to keep every keyframe
+     */
+    public static double getKeyframeTolerance(Project project, IResource owner) throws CompileExceptionError {
+        String tolerance = project.option("animation-keyframe-tolerance", null);
+        if (tolerance == null) {
+            return 0.0;
+        }
+        try {
+            return Math.max(0.0, Double.parseDouble(tolerance.trim()));
+        } catch (NumberFormatException e) {
+            throw new CompileExceptionError(owner, -1, String.format("Invalid value '%s' for animation-keyframe-tolerance", tolerance));
+        }
+    }
+
     public static void collectAnimations(Task.TaskBuilder<Void> taskBuilder, Project project, IResource owner, AnimationSetDesc.Builder animSetDescBuilder) throws IOException, CompileExceptionError  {
         for(AnimationInstanceDesc instance : animSetDescBuilder.getAnimationsList()) {
             IResource animFile = BuilderUtil.checkResource(project, owner, "animationset", instance.getAnimation());
@@ -75,6 +94,12 @@ public class AnimationSetBuilder extends Builder<Void>  {
         return taskBuilder.build();
     }
 
+    @Override
+    public void signature(MessageDigest digest) {
+        // The tolerance changes the built animations, rebuild when it changes
+        digest.update(project.option("animation-keyframe-tolerance", "").getBytes());
+    }
+
     private void validateFile(Task<Void> task, String path) throws CompileExceptionError {
         if(animFiles.contains(path)) {
             throw new CompileExceptionError(task.input(0), -1, "Animation file referenced more than once: " + path);
@@ -109,7 +134,7 @@ public class AnimationSetBuilder extends Builder<Void>  {
             AnimationSet.Builder animBuilder = AnimationSet.newBuilder();
             ArrayList<String> animationIds = new ArrayList<String>();
             try {
-                ColladaUtil.loadAnimations(animFileIS, animBuilder, animId, animationIds);
+                ColladaUtil.loadAnimations(animFileIS, animBuilder, animId, animationIds, getKeyframeTolerance(this.project, task.input(0)));
             } catch (XMLStreamException e) {
                 throw new CompileExceptionError(animFile, e.getLocation().getLineNumber(), "Failed to load animation: " + e.getLocalizedMessage(), e);
             } catch (LoaderException e) {
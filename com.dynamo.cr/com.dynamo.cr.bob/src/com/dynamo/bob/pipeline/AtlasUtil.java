@@ -13,7 +13,6 @@
 package com.dynamo.bob.pipeline;
 
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -22,7 +21,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
 
-import javax.imageio.ImageIO;
 
 import org.apache.commons.io.FilenameUtils;
 
@@ -150,14 +148,24 @@ public class AtlasUtil {
     }
 
     public static List<BufferedImage> loadImages(List<IResource> resources) throws IOException, CompileExceptionError {
-        List<BufferedImage> images = new ArrayList<BufferedImage>(resources.size());
+        return loadImages(new ImageCache(), resources);
+    }
 
-        for (IResource resource : resources) {
-            BufferedImage image = ImageIO.read(new ByteArrayInputStream(resource.getContent()));
-            if (image == null) {
+    /**
+     * Load images, decoded concurrently. The images are shared through the cache and must not be modified.
+     * @param cache cache of decoded images
+     * @param resources image resources
+     * @return images in the same order as the resources
+     * @throws IOException
+     * @throws CompileExceptionError if an image can't be loaded
+     */
+    public static List<BufferedImage> loadImages(ImageCache cache, List<IResource> resources) throws IOException, CompileExceptionError {
+        List<BufferedImage> images = cache.getImages(resources);
+        for (int i = 0; i < images.size(); ++i) {
+            if (images.get(i) == null) {
+                IResource resource = resources.get(i);
                 throw new CompileExceptionError(resource, -1, "Unable to load image " + resource.getPath());
             }
-            images.add(image);
         }
         return images;
     }
@@ -210,7 +218,7 @@ public class AtlasUtil {
             imageHullSizes.add(spriteTrimModeToInt(image.getSpriteTrimMode()));
         }
         List<IResource> imageResources = toResources(atlasResource, imagePaths);
-        List<BufferedImage> images = AtlasUtil.loadImages(imageResources);
+        List<BufferedImage> images = AtlasUtil.loadImages(project.getImageCache(), imageResources);
         PathTransformer transformer = new PathTransformer() {
             @Override
             public String transform(String path) {
@@ -226,6 +234,6 @@ public class AtlasUtil {
         return TextureSetGenerator.generate(images, imageHullSizes, imagePaths, iterator,
                 Math.max(0, atlas.getMargin()),
                 Math.max(0, atlas.getInnerPadding()),
-                Math.max(0, atlas.getExtrudeBorders()), true, false, null);
+                Math.max(0, atlas.getExtrudeBorders()), true, false, null, project.getMaxCpuThreads());
     }
 }
@@ -15,6 +15,7 @@ package com.dynamo.bob.pipeline;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 
 import javax.xml.stream.XMLStreamException;
@@ -46,6 +47,13 @@ public class ColladaModelBuilder extends Builder<Void>  {
         return taskBuilder.build();
     }
 
+    @Override
+    public void signature(MessageDigest digest) {
+        // The options change the built mesh and animations, rebuild when they change
+        digest.update(project.option("optimize-mesh-vertex-cache", "false").getBytes());
+        digest.update(project.option("animation-keyframe-tolerance", "").getBytes());
+    }
+
     @Override
     public void build(Task<Void> task) throws CompileExceptionError, IOException {
         ByteArrayInputStream collada_is = new ByteArrayInputStream(task.input(0).getContent());
@@ -54,7 +62,8 @@ public class ColladaModelBuilder extends Builder<Void>  {
         ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
         MeshSet.Builder meshSetBuilder = MeshSet.newBuilder();
         try {
-            ColladaUtil.loadMesh(collada_is, meshSetBuilder, true);
+            boolean optimizeVertexCache = project.option("optimize-mesh-vertex-cache", "false").equals("true");
+            ColladaUtil.loadMesh(collada_is, meshSetBuilder, true, optimizeVertexCache);
         } catch (XMLStreamException e) {
             throw new CompileExceptionError(task.input(0), e.getLocation().getLineNumber(), "Failed to compile mesh: " + e.getLocalizedMessage(), e);
         } catch (LoaderException e) {
@@ -84,7 +93,8 @@ public class ColladaModelBuilder extends Builder<Void>  {
         collada_is.reset();
         AnimationSet.Builder animationSetBuilder = AnimationSet.newBuilder();
         try {
-            ColladaUtil.loadAnimations(collada_is, animationSetBuilder, FilenameUtils.getBaseName(task.input(0).getPath()), new ArrayList<String>());
+            double keyframeTolerance = AnimationSetBuilder.getKeyframeTolerance(project, task.input(0));
+            ColladaUtil.loadAnimations(collada_is, animationSetBuilder, FilenameUtils.getBaseName(task.input(0).getPath()), new ArrayList<String>(), keyframeTolerance);
         } catch (XMLStreamException e) {
             throw new CompileExceptionError(task.input(0), e.getLocation().getLineNumber(), "Failed to compile animation: " + e.getLocalizedMessage(), e);
         } catch (LoaderException e) {
@@ -21,12 +21,10 @@ import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Vector;
 import java.util.Map.Entry;
 
 import org.apache.commons.io.FilenameUtils;
@@ -72,7 +70,6 @@ import com.dynamo.bob.util.RigUtil;
 
 import com.dynamo.bob.util.MurmurHash;
 import com.dynamo.bob.util.RigUtil.AnimationKey;
-import com.dynamo.bob.util.RigUtil.Weight;
 import com.dynamo.proto.DdfMath.Point3;
 import com.dynamo.proto.DdfMath.Quat;
 import com.dynamo.proto.DdfMath.Vector3;
@@ -282,37 +279,72 @@ public class ColladaUtil {
         return new Matrix4d(MathUtil.vecmath2ToVecmath1(bone.bindMatrix));
     }
 
-    private static void samplePosTrack(Rig.RigAnimation.Builder animBuilder, int boneIndex, RigUtil.AnimationTrack track, double duration, double startTime, double sampleRate, double spf, boolean interpolate) {
-        if (!track.keys.isEmpty()) {
-            Rig.AnimationTrack.Builder animTrackBuilder = Rig.AnimationTrack.newBuilder();
-            animTrackBuilder.setBoneIndex(boneIndex);
-            RigUtil.PositionBuilder positionBuilder = new RigUtil.PositionBuilder(animTrackBuilder);
-            RigUtil.sampleTrack(track, positionBuilder, new Point3d(0.0, 0.0, 0.0), startTime, duration, sampleRate, spf, true);
-            animBuilder.addTracks(animTrackBuilder.build());
+    // Max factor the sample rate of an animation is divided by when its keyframes are reduced
+    static final int MAX_SAMPLE_RATE_DIVISOR = 8;
+
+    private static final float[] DEFAULT_POSITION = new float[] {0.0f, 0.0f, 0.0f};
+    private static final float[] DEFAULT_ROTATION = new float[] {0.0f, 0.0f, 0.0f, 1.0f};
+    private static final float[] DEFAULT_SCALE = new float[] {1.0f, 1.0f, 1.0f};
+
+    static private class SampledTrack
+    {
+        public int boneIndex;
+        public RigUtil.AnimationTrack.Property property;
+        public float[] samples;
+    }
+
+    private static void sampleTrack(ArrayList<SampledTrack> sampledTracks, int boneIndex, RigUtil.AnimationTrack track, float[] defaultValue, int sampleCount, double startTime, double sampleRate, double spf, boolean interpolate) {
+        float[] samples = RigUtil.sampleTrack(track, defaultValue, startTime, sampleCount, sampleRate, spf, true);
+        if (samples != null) {
+            SampledTrack sampledTrack = new SampledTrack();
+            sampledTrack.boneIndex = boneIndex;
+            sampledTrack.property = track.property;
+            sampledTrack.samples = samples;
+            sampledTracks.add(sampledTrack);
         }
     }
 
-    private static void sampleRotTrack(Rig.RigAnimation.Builder animBuilder, int boneIndex, RigUtil.AnimationTrack track, double duration, double startTime, double sampleRate, double spf, boolean interpolate) {
-        if (!track.keys.isEmpty()) {
-            Rig.AnimationTrack.Builder animTrackBuilder = Rig.AnimationTrack.newBuilder();
-            animTrackBuilder.setBoneIndex(boneIndex);
-            RigUtil.QuatRotationBuilder rotationBuilder = new RigUtil.QuatRotationBuilder(animTrackBuilder);
-            RigUtil.sampleTrack(track, rotationBuilder, new Quat4d(0.0, 0.0, 0.0, 1.0), startTime, duration, sampleRate, spf, true);
-            animBuilder.addTracks(animTrackBuilder.build());
+    // Largest factor the sample rate can be divided by while every track stays within the tolerance
+    private static int getSampleRateDivisor(ArrayList<SampledTrack> sampledTracks, int sampleCount, double keyframeTolerance) {
+        for (int factor = MAX_SAMPLE_RATE_DIVISOR; factor > 1; --factor) {
+            boolean withinTolerance = true;
+            for (SampledTrack sampledTrack : sampledTracks) {
+                if (RigUtil.getReductionError(sampledTrack.property, sampledTrack.samples, sampleCount, factor) > keyframeTolerance) {
+                    withinTolerance = false;
+                    break;
+                }
+            }
+            if (withinTolerance) {
+                return factor;
+            }
         }
+        return 1;
     }
 
-    private static void sampleScaleTrack(Rig.RigAnimation.Builder animBuilder, int boneIndex, RigUtil.AnimationTrack track, double duration, double startTime, double sampleRate, double spf, boolean interpolate) {
-        if (!track.keys.isEmpty()) {
-            Rig.AnimationTrack.Builder animTrackBuilder = Rig.AnimationTrack.newBuilder();
-            animTrackBuilder.setBoneIndex(boneIndex);
-            RigUtil.ScaleBuilder scaleBuilder = new RigUtil.ScaleBuilder(animTrackBuilder);
-            RigUtil.sampleTrack(track, scaleBuilder, new Vector3d(1.0, 1.0, 1.0), startTime, duration, sampleRate, spf, true);
-            animBuilder.addTracks(animTrackBuilder.build());
+    private static void sampledTrackToDDF(Rig.RigAnimation.Builder animBuilder, SampledTrack sampledTrack, int sampleCount, int factor) {
+        Rig.AnimationTrack.Builder animTrackBuilder = Rig.AnimationTrack.newBuilder();
+        animTrackBuilder.setBoneIndex(sampledTrack.boneIndex);
+        switch (sampledTrack.property) {
+        case POSITION:
+            for (float v : RigUtil.reduceSamples(sampledTrack.samples, 3, sampleCount, factor)) {
+                animTrackBuilder.addPositions(v);
+            }
+            break;
+        case ROTATION:
+            for (float v : RigUtil.reduceSamples(sampledTrack.samples, 4, sampleCount, factor)) {
+                animTrackBuilder.addRotations(v);
+            }
+            break;
+        case SCALE:
+            for (float v : RigUtil.reduceSamples(sampledTrack.samples, 3, sampleCount, factor)) {
+                animTrackBuilder.addScale(v);
+            }
+            break;
         }
+        animBuilder.addTracks(animTrackBuilder.build());
     }
 
-    private static void boneAnimToDDF(XMLCOLLADA collada, Rig.RigAnimation.Builder animBuilder, ArrayList<Bone> boneList, HashMap<Long, Integer> boneRefMap, HashMap<String, ArrayList<XMLAnimation>> boneToAnimations, double duration) throws LoaderException {
+    private static void boneAnimToDDF(XMLCOLLADA collada, Rig.RigAnimation.Builder animBuilder, ArrayList<Bone> boneList, HashMap<Long, Integer> boneRefMap, HashMap<String, ArrayList<XMLAnimation>> boneToAnimations, double duration, double keyframeTolerance) throws LoaderException {
 
         // Get scene framerate, start and end times if available
         double sceneStartTime = 0.0;
@@ -352,6 +384,12 @@ public class ColladaUtil {
             return;
         }
 
+        // We add one extra frame (+1) to have a keyframe when t == duration, see RigUtil.sampleTrack.
+        // When reducing the keyframes, samples past the end are needed to interpolate the last ones.
+        int sampleCount = (int)Math.ceil(duration * sceneFrameRate) + 1;
+        int takenSampleCount = keyframeTolerance > 0.0 ? sampleCount + MAX_SAMPLE_RATE_DIVISOR : sampleCount;
+        ArrayList<SampledTrack> sampledTracks = new ArrayList<SampledTrack>();
+
         // loop through each bone
         double spf = 1.0 / sceneFrameRate;
         for (int bi = 0; bi < boneList.size(); ++bi)
@@ -391,12 +429,24 @@ public class ColladaUtil {
 
                     ExtractKeys(bone, localToParent, assetSpace, animation, posTrack, rotTrack, scaleTrack);
 
-                    samplePosTrack(animBuilder, refIndex, posTrack, duration, sceneStartTime, sceneFrameRate, spf, true);
-                    sampleRotTrack(animBuilder, refIndex, rotTrack, duration, sceneStartTime, sceneFrameRate, spf, true);
-                    sampleScaleTrack(animBuilder, refIndex, scaleTrack, duration, sceneStartTime, sceneFrameRate, spf, true);
+                    sampleTrack(sampledTracks, refIndex, posTrack, DEFAULT_POSITION, takenSampleCount, sceneStartTime, sceneFrameRate, spf, true);
+                    sampleTrack(sampledTracks, refIndex, rotTrack, DEFAULT_ROTATION, takenSampleCount, sceneStartTime, sceneFrameRate, spf, true);
+                    sampleTrack(sampledTracks, refIndex, scaleTrack, DEFAULT_SCALE, takenSampleCount, sceneStartTime, sceneFrameRate, spf, true);
                 }
             }
         }
+
+        // Drop the samples that interpolation between the remaining ones reproduces within the tolerance.
+        // The runtime looks the samples up from the time, so the same samples have to be dropped from all
+        // tracks, every factor:th sample is kept and the animation is played at a lower sample rate.
+        int factor = 1;
+        if (keyframeTolerance > 0.0) {
+            factor = getSampleRateDivisor(sampledTracks, sampleCount, keyframeTolerance);
+            animBuilder.setSampleRate((float)(sceneFrameRate / factor));
+        }
+        for (SampledTrack sampledTrack : sampledTracks) {
+            sampledTrackToDDF(animBuilder, sampledTrack, sampleCount, factor);
+        }
     }
 
     public interface ColladaResourceResolver {
@@ -446,11 +496,29 @@ public class ColladaUtil {
     }
 
     public static void loadAnimations(InputStream is, Rig.AnimationSet.Builder animationSetBuilder, String parentAnimationId, ArrayList<String> animationIds) throws IOException, XMLStreamException, LoaderException {
+        loadAnimations(is, animationSetBuilder, parentAnimationId, animationIds, 0.0);
+    }
+
+    public static void loadAnimations(InputStream is, Rig.AnimationSet.Builder animationSetBuilder, String parentAnimationId, ArrayList<String> animationIds, double keyframeTolerance) throws IOException, XMLStreamException, LoaderException {
         XMLCOLLADA collada = loadDAE(is);
-        loadAnimations(collada, animationSetBuilder, parentAnimationId, animationIds);
+        loadAnimations(collada, animationSetBuilder, parentAnimationId, animationIds, keyframeTolerance);
     }
 
     public static void loadAnimations(XMLCOLLADA collada, Rig.AnimationSet.Builder animationSetBuilder, String parentAnimationId, ArrayList<String> animationIds) throws IOException, XMLStreamException, LoaderException {
+        loadAnimations(collada, animationSetBuilder, parentAnimationId, animationIds, 0.0);
+    }
+
+    /**
+     * Load the animations of a Collada file
+     * @param collada Collada file
+     * @param animationSetBuilder animation set to add the animations to
+     * @param parentAnimationId id of the animation
+     * @param animationIds list to add the ids of the animations to
+     * @param keyframeTolerance max error of the keyframes dropped from the animations, see RigUtil.getReductionError.
+     * The sample rate of an animation is divided by up to MAX_SAMPLE_RATE_DIVISOR while the error stays within the
+     * tolerance. 0 to keep every keyframe.
+     */
+    public static void loadAnimations(XMLCOLLADA collada, Rig.AnimationSet.Builder animationSetBuilder, String parentAnimationId, ArrayList<String> animationIds, double keyframeTolerance) throws IOException, XMLStreamException, LoaderException {
         if (collada.libraryAnimations.size() != 1) {
             return;
         }
@@ -501,7 +569,7 @@ public class ColladaUtil {
 
             // If no clips are provided, add a "Default" clip that is the whole animation as one clip
             Rig.RigAnimation.Builder animBuilder = Rig.RigAnimation.newBuilder();
-            boneAnimToDDF(collada, animBuilder, boneList, boneRefMap, boneToAnimations, totalAnimationLength);
+            boneAnimToDDF(collada, animBuilder, boneList, boneRefMap, boneToAnimations, totalAnimationLength, keyframeTolerance);
             animBuilder.setId(MurmurHash.hash64(parentAnimationId));
             animationIds.add(parentAnimationId);
             animationSetBuilder.addAnimations(animBuilder.build());
@@ -513,8 +581,12 @@ public class ColladaUtil {
     }
 
     public static void loadMesh(InputStream is, Rig.MeshSet.Builder meshSetBuilder, boolean optimize) throws IOException, XMLStreamException, LoaderException {
+        loadMesh(is, meshSetBuilder, optimize, false);
+    }
+
+    public static void loadMesh(InputStream is, Rig.MeshSet.Builder meshSetBuilder, boolean optimize, boolean optimizeVertexCache) throws IOException, XMLStreamException, LoaderException {
         XMLCOLLADA collada = loadDAE(is);
-        loadMesh(collada, meshSetBuilder, optimize);
+        loadMesh(collada, meshSetBuilder, optimize, optimizeVertexCache);
     }
 
     private static XMLNode getFirstNodeWithGeoemtry(Collection<XMLVisualScene> scenes) {
@@ -530,6 +602,17 @@ public class ColladaUtil {
     }
 
     public static void loadMesh(XMLCOLLADA collada, Rig.MeshSet.Builder meshSetBuilder, boolean optimize) throws IOException, XMLStreamException, LoaderException {
+        loadMesh(collada, meshSetBuilder, optimize, false);
+    }
+
+    /**
+     * Load the mesh of a collada file
+     * @param collada collada file
+     * @param meshSetBuilder mesh set to add the mesh to
+     * @param optimize share vertices with the same position, texture coordinate and normal
+     * @param optimizeVertexCache reorder the triangles for the post transform vertex cache, see {@link VertexCacheOptimizer}
+     */
+    public static void loadMesh(XMLCOLLADA collada, Rig.MeshSet.Builder meshSetBuilder, boolean optimize, boolean optimizeVertexCache) throws IOException, XMLStreamException, LoaderException {
         if (collada.libraryGeometries.size() != 1) {
             if (collada.libraryGeometries.isEmpty()) {
                 return;
@@ -635,13 +718,15 @@ public class ColladaUtil {
         assetSpaceMtx.mul(assetSpace.rotation, assetScaleMtx);
         bindShapeMatrix.mul(assetSpaceMtx, bindShapeMatrix);
 
-        List<Float> position_list = new ArrayList<Float>(positions.floatArray.count);
-        for (int i = 0; i < positions.floatArray.count / 3; ++i) {
-            Point3f p = new Point3f(positions.floatArray.floats[i*3], positions.floatArray.floats[i*3+1], positions.floatArray.floats[i*3+2]);
+        int position_count = positions.floatArray.count / 3;
+        float[] position_list = new float[position_count * 3];
+        Point3f p = new Point3f();
+        for (int i = 0; i < position_count; ++i) {
+            p.set(positions.floatArray.floats[i*3], positions.floatArray.floats[i*3+1], positions.floatArray.floats[i*3+2]);
             bindShapeMatrix.transform(p);
-            position_list.add(p.getX());
-            position_list.add(p.getY());
-            position_list.add(p.getZ());
+            position_list[i*3] = p.getX();
+            position_list[i*3+1] = p.getY();
+            position_list[i*3+2] = p.getZ();
         }
 
         // Create a normal matrix which is the transposed inverse of
@@ -650,35 +735,35 @@ public class ColladaUtil {
         normalMatrix.invert();
         normalMatrix.transpose();
 
-        List<Float> normal_list = null;
+        float[] normal_list = null;
         if(normals != null) {
-            normal_list = new ArrayList<Float>(normals.floatArray.count);
-            for (int i = 0; i < normals.floatArray.count / 3; ++i) {
-                Vector3f n = new Vector3f(normals.floatArray.floats[i*3], normals.floatArray.floats[i*3+1], normals.floatArray.floats[i*3+2]);
+            int normal_count = normals.floatArray.count / 3;
+            normal_list = new float[normal_count * 3];
+            Vector3f n = new Vector3f();
+            for (int i = 0; i < normal_count; ++i) {
+                n.set(normals.floatArray.floats[i*3], normals.floatArray.floats[i*3+1], normals.floatArray.floats[i*3+2]);
                 normalMatrix.transform(n);
                 if (n.lengthSquared() > 0.0) {
                     n.normalize();
                 }
-                normal_list.add(n.getX());
-                normal_list.add(n.getY());
-                normal_list.add(n.getZ());
+                normal_list[i*3] = n.getX();
+                normal_list[i*3+1] = n.getY();
+                normal_list[i*3+2] = n.getZ();
             }
         }
 
-        List<Float> texcoord_list;
+        float[] texcoord_list;
         if(texcoords == null) {
-            texcoord_list = new ArrayList<Float>(Arrays.asList(0f, 0f));
+            texcoord_list = new float[] {0f, 0f};
         } else {
-            texcoord_list = new ArrayList<Float>(texcoords.floatArray.count);
-            for (int i = 0; i < texcoords.floatArray.count; i += 2 ) {
-                texcoord_list.add(texcoords.floatArray.floats[i]);
-                texcoord_list.add(texcoords.floatArray.floats[i+1]);
-            }
+            texcoord_list = new float[(texcoords.floatArray.count + 1) / 2 * 2];
+            System.arraycopy(texcoords.floatArray.floats, 0, texcoord_list, 0, texcoord_list.length);
         }
 
-        List<Integer> position_indices_list = new ArrayList<Integer>(mesh.triangles.count*3);
-        List<Integer> normal_indices_list = new ArrayList<Integer>(mesh.triangles.count*3);
-        List<Integer> texcoord_indices_list = new ArrayList<Integer>(mesh.triangles.count*3);
+        int corner_count = mesh.triangles.count*3;
+        int[] position_indices_list = new int[corner_count];
+        int[] normal_indices_list = new int[normals != null ? corner_count : 0];
+        int[] texcoord_indices_list = new int[corner_count];
 
         // Sometimes the <p> values can be -1 from Maya exports, we clamp it below to 0 instead.
         // Similar solution as AssImp; https://github.com/assimp/assimp/blob/master/code/ColladaParser.cpp#L2336
@@ -687,91 +772,100 @@ public class ColladaUtil {
             for (int j = 0; j < 3; ++j) {
                 int idx = i * stride * 3 + vertex_input.offset;
                 int vert_idx = Math.max(0, mesh.triangles.p[idx + stride * j]);
-                position_indices_list.add(vert_idx);
+                position_indices_list[i*3+j] = vert_idx;
 
                 if (normals != null) {
                     idx = i * stride * 3 + normalOffset;
                     vert_idx = Math.max(0, mesh.triangles.p[idx + stride * j]);
-                    normal_indices_list.add(vert_idx);
+                    normal_indices_list[i*3+j] = vert_idx;
                 }
 
                 if (texcoords == null) {
-                    texcoord_indices_list.add(0);
+                    texcoord_indices_list[i*3+j] = 0;
                 } else {
                     idx = i * stride * 3 + texcoord_input.offset;
                     vert_idx = Math.max(0, mesh.triangles.p[idx + stride * j]);
-                    texcoord_indices_list.add(vert_idx);
+                    texcoord_indices_list[i*3+j] = vert_idx;
                 }
 
             }
 
         }
 
-        class MeshVertexIndex {
-            public int position, texcoord0, normal;
-            public boolean equals(Object o) {
-                MeshVertexIndex m = (MeshVertexIndex) o;
-                return (this.position == m.position && this.texcoord0 == m.texcoord0 && this.normal == m.normal);
-            }
-        }
-
         // Build an optimized list of triangles from indices and instance (make unique) any vertices common attributes (position, normal etc.).
         // We can then use this to quickly build am optimized indexed vertex buffer of any selected vertex elements in run-time without any sorting.
-        boolean mesh_has_normals = normal_indices_list.size() > 0;
-        List<MeshVertexIndex> shared_vertex_indices = new ArrayList<MeshVertexIndex>(mesh.triangles.count*3);
-        List<Integer> mesh_index_list = new ArrayList<Integer>(mesh.triangles.count*3);
-        for (int i = 0; i < mesh.triangles.count*3; ++i) {
-            MeshVertexIndex ci = new MeshVertexIndex();
-            ci.position = position_indices_list.get(i);
-            ci.texcoord0 = texcoord_indices_list.get(i);
-            ci.normal = mesh_has_normals ? normal_indices_list.get(i) : 0;
-            int index = optimize ? shared_vertex_indices.indexOf(ci) : -1;
+        boolean mesh_has_normals = normal_indices_list.length > 0;
+        int[] shared_vertex_indices = new int[corner_count*3];
+        int shared_vertex_count = 0;
+        int[] mesh_index_list = new int[corner_count];
+        // Open addressing hash table of shared vertex index + 1 (0 is an empty slot), sized to at most half full
+        int table_size = Integer.highestOneBit(Math.max(corner_count, 1)) << 2;
+        int[] shared_vertex_table = optimize ? new int[table_size] : null;
+        for (int i = 0; i < corner_count; ++i) {
+            int position = position_indices_list[i];
+            int texcoord0 = texcoord_indices_list[i];
+            int normal = mesh_has_normals ? normal_indices_list[i] : 0;
+            int index = -1;
+            int slot = 0;
+            if (optimize) {
+                slot = (position * 73856093 ^ texcoord0 * 19349663 ^ normal * 83492791) & (table_size - 1);
+                while (shared_vertex_table[slot] != 0) {
+                    int candidate = shared_vertex_table[slot] - 1;
+                    if (shared_vertex_indices[candidate*3] == position && shared_vertex_indices[candidate*3+1] == texcoord0 && shared_vertex_indices[candidate*3+2] == normal) {
+                        index = candidate;
+                        break;
+                    }
+                    slot = (slot + 1) & (table_size - 1);
+                }
+            }
             if(index == -1) {
                 // create new vertex as this is not equal to any existing in generated list
-                mesh_index_list.add(shared_vertex_indices.size());
-                shared_vertex_indices.add(ci);
-            } else {
-                // shared vertex, add index to existing vertex in generating list instead of adding new
-                mesh_index_list.add(index);
+                index = shared_vertex_count++;
+                shared_vertex_indices[index*3] = position;
+                shared_vertex_indices[index*3+1] = texcoord0;
+                shared_vertex_indices[index*3+2] = normal;
+                if (optimize) {
+                    shared_vertex_table[slot] = index + 1;
+                }
             }
+            // shared vertices add the index to the existing vertex in the generated list
+            mesh_index_list[i] = index;
+        }
+        if (optimizeVertexCache) {
+            mesh_index_list = VertexCacheOptimizer.optimize(mesh_index_list, shared_vertex_count);
         }
-        List<Rig.MeshVertexIndices> mesh_vertex_indices = new ArrayList<Rig.MeshVertexIndices>(mesh.triangles.count*3);
-        for (int i = 0; i < shared_vertex_indices.size() ; ++i) {
+        List<Rig.MeshVertexIndices> mesh_vertex_indices = new ArrayList<Rig.MeshVertexIndices>(shared_vertex_count);
+        for (int i = 0; i < shared_vertex_count; ++i) {
             Rig.MeshVertexIndices.Builder b = Rig.MeshVertexIndices.newBuilder();
-            MeshVertexIndex ci = shared_vertex_indices.get(i);
-            b.setPosition(ci.position);
-            b.setTexcoord0(ci.texcoord0);
-            b.setNormal(ci.normal);
+            b.setPosition(shared_vertex_indices[i*3]);
+            b.setTexcoord0(shared_vertex_indices[i*3+1]);
+            b.setNormal(shared_vertex_indices[i*3+2]);
             mesh_vertex_indices.add(b.build());
         }
 
         Rig.IndexBufferFormat indices_format;
         ByteBuffer indices_bytes;
-        if(shared_vertex_indices.size() <= 65536)
+        if(shared_vertex_count <= 65536)
         {
             // if we only need 16-bit indices, use this primarily. Less data to upload to GPU and ES2.0 core functionality.
             indices_format = Rig.IndexBufferFormat.INDEXBUFFER_FORMAT_16;
-            indices_bytes = ByteBuffer.allocateDirect(mesh_index_list.size() * 2);
+            indices_bytes = ByteBuffer.allocateDirect(mesh_index_list.length * 2);
             indices_bytes.order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
-            for (int i = 0; i < mesh_index_list.size();) {
-                indices_bytes.putShort(mesh_index_list.get(i++).shortValue());
+            for (int i = 0; i < mesh_index_list.length;) {
+                indices_bytes.putShort((short) mesh_index_list[i++]);
             }
         }
         else
         {
             indices_format = Rig.IndexBufferFormat.INDEXBUFFER_FORMAT_32;
-            indices_bytes = ByteBuffer.allocateDirect(mesh_index_list.size() * 4);
+            indices_bytes = ByteBuffer.allocateDirect(mesh_index_list.length * 4);
             indices_bytes.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
-            for (int i = 0; i < mesh_index_list.size();) {
-                indices_bytes.putInt(mesh_index_list.get(i++));
+            for (int i = 0; i < mesh_index_list.length;) {
+                indices_bytes.putInt(mesh_index_list[i++]);
             }
         }
         indices_bytes.rewind();
 
-        List<Integer> bone_indices_list = new ArrayList<Integer>(position_list.size()*4);
-        List<Float> bone_weights_list = new ArrayList<Float>(position_list.size()*4);
-        int max_bone_count = loadVertexWeights(collada, bone_weights_list, bone_indices_list);
-
         // We currently only support one mesh per collada file
         // This result in one dmRigDDF::Mesh, one dmRigDDF::MeshEntry with only one MeshSlot.
         // The MeshSlot will only contain one "mesh attachment" pointing to the Mesh (index: 0),
@@ -782,15 +876,26 @@ public class ColladaUtil {
         meshBuilder.setIndices(ByteString.copyFrom(indices_bytes));
         meshBuilder.setIndicesFormat(indices_format);
         if(normals != null) {
-            meshBuilder.addAllNormals(normal_list);
-            meshBuilder.addAllNormalsIndices(normal_indices_list);
+            for (float v : normal_list) {
+                meshBuilder.addNormals(v);
+            }
+            for (int v : normal_indices_list) {
+                meshBuilder.addNormalsIndices(v);
+            }
+        }
+        for (float v : position_list) {
+            meshBuilder.addPositions(v);
+        }
+        for (float v : texcoord_list) {
+            meshBuilder.addTexcoord0(v);
+        }
+        for (int v : position_indices_list) {
+            meshBuilder.addPositionIndices(v);
+        }
+        for (int v : texcoord_indices_list) {
+            meshBuilder.addTexcoord0Indices(v);
         }
-        meshBuilder.addAllPositions(position_list);
-        meshBuilder.addAllTexcoord0(texcoord_list);
-        meshBuilder.addAllPositionIndices(position_indices_list);
-        meshBuilder.addAllTexcoord0Indices(texcoord_indices_list);
-        meshBuilder.addAllWeights(bone_weights_list);
-        meshBuilder.addAllBoneIndices(bone_indices_list);
+        int max_bone_count = loadVertexWeights(collada, meshBuilder);
 
         MeshSlot.Builder meshSlotBuilder = MeshSlot.newBuilder();
         meshSlotBuilder.addMeshAttachments(0);
@@ -1149,7 +1254,11 @@ public class ColladaUtil {
         return null;
     }
 
-    private static int loadVertexWeights(XMLCOLLADA collada, List<Float> boneWeightsList, List<Integer> boneIndicesList) throws IOException, XMLStreamException, LoaderException {
+    private static int compareWeights(float a, float b) {
+        return (int)(Integer.MAX_VALUE * b) - (int)(Integer.MAX_VALUE * a);
+    }
+
+    private static int loadVertexWeights(XMLCOLLADA collada, Rig.Mesh.Builder meshBuilder) throws IOException, XMLStreamException, LoaderException {
 
         XMLSkin skin = null;
         if (!collada.libraryControllers.isEmpty()) {
@@ -1164,15 +1273,20 @@ public class ColladaUtil {
 
         XMLInput weights_input = findInput(skin.vertexWeights.inputs, "WEIGHT", true);
         XMLSource weightsSource = sourcesMap.get(weights_input.source);
-        Vector<Weight> weights = new Vector<Weight>(10);
+        // Influences of the current vertex, reused for all vertices
+        int[] boneIndices = new int[16];
+        float[] boneWeights = new float[16];
         int maxBoneCount = 0;
 
         int vIndex = 0;
         for ( int i = 0; i < skin.vertexWeights.vcount.ints.length; i++ )
         {
             int influenceCount = skin.vertexWeights.vcount.ints[ i ];
+            if (influenceCount > boneIndices.length) {
+                boneIndices = new int[influenceCount];
+                boneWeights = new float[influenceCount];
+            }
             int j = 0;
-            weights.setSize(0);
             for (; j < influenceCount; j++ ) {
                 float bw = 0f;
                 int bi = 0;
@@ -1180,7 +1294,8 @@ public class ColladaUtil {
                 if (bi != -1) {
                     final int weightIndex = skin.vertexWeights.v.ints[ vIndex + j * 2 + 1 ];
                     bw = weightsSource.floatArray.floats[ weightIndex ];
-                    weights.add(new Weight(bi, bw));
+                    boneIndices[j] = bi;
+                    boneWeights[j] = bw;
                 } else {
                     throw new LoaderException("Invalid bone index when loading vertex weights.");
                 }
@@ -1190,18 +1305,28 @@ public class ColladaUtil {
 
             // Skinning in engine expect each vertex to have exactly 4 bone influences.
             for (; j < 4; j++ ) {
-                weights.add(new Weight(0, 0.0f));
+                boneIndices[j] = 0;
+                boneWeights[j] = 0.0f;
             }
 
             // Sort and take only the 4 influences with highest weight.
-            Collections.sort(weights);
-            weights.setSize(Math.min(4, weights.size()));
-            influenceCount = weights.size();
-
-            for (Weight w : weights) {
-                boneIndicesList.add(w.boneIndex);
-                maxBoneCount = Math.max(maxBoneCount, w.boneIndex + 1);
-                boneWeightsList.add(w.weight);
+            // Stable sort in the same order as RigUtil.Weight.compareTo
+            for (int k = 1; k < j; k++) {
+                int bi = boneIndices[k];
+                float bw = boneWeights[k];
+                int l = k;
+                for (; l > 0 && compareWeights(boneWeights[l - 1], bw) > 0; l--) {
+                    boneIndices[l] = boneIndices[l - 1];
+                    boneWeights[l] = boneWeights[l - 1];
+                }
+                boneIndices[l] = bi;
+                boneWeights[l] = bw;
+            }
+
+            for (int k = 0; k < 4; k++) {
+                meshBuilder.addBoneIndices(boneIndices[k]);
+                maxBoneCount = Math.max(maxBoneCount, boneIndices[k] + 1);
+                meshBuilder.addWeights(boneWeights[k]);
             }
         }
         return maxBoneCount;
@@ -36,6 +36,7 @@ import com.dynamo.bob.fs.IResource;
 import com.dynamo.bob.util.MathUtil;
 import com.dynamo.bob.util.PropertiesUtil;
 import com.dynamo.gameobject.proto.GameObject.CollectionDesc;
+import com.dynamo.gameobject.proto.GameObject.CollectionDescOrBuilder;
 import com.dynamo.gameobject.proto.GameObject.CollectionInstanceDesc;
 import com.dynamo.gameobject.proto.GameObject.ComponentPropertyDesc;
 import com.dynamo.gameobject.proto.GameObject.EmbeddedInstanceDesc;
@@ -48,28 +49,34 @@ import com.dynamo.properties.proto.PropertiesProto.PropertyDeclarations;
 @BuilderParams(name="Collection", inExts=".collection", outExt=".collectionc")
 public class CollectionBuilder extends ProtoBuilder<CollectionDesc.Builder> {
 
-    private void collectSubCollections(CollectionDesc.Builder collection, Set<IResource> subCollections) throws CompileExceptionError, IOException {
+    // Sub collections are loaded once per nesting level and by every collection including them, parse them once per build
+    private CollectionDesc loadCollection(IResource resource) throws IOException, CompileExceptionError {
+        return project.getMessageCache().get(resource, CollectionDesc.getDefaultInstance());
+    }
+
+    @Override
+    protected void merge(IResource resource, CollectionDesc.Builder messageBuilder) throws IOException, CompileExceptionError {
+        messageBuilder.mergeFrom(loadCollection(resource));
+    }
+
+    private void collectSubCollections(CollectionDescOrBuilder collection, Set<IResource> subCollections) throws CompileExceptionError, IOException {
         for (CollectionInstanceDesc sub : collection.getCollectionInstancesList()) {
             IResource subResource = project.getResource(sub.getCollection());
             subCollections.add(subResource);
-            CollectionDesc.Builder builder = CollectionDesc.newBuilder();
-            ProtoUtil.merge(subResource, builder);
-            collectSubCollections(builder, subCollections);
+            collectSubCollections(loadCollection(subResource), subCollections);
         }
     }
 
-    private int countEmbeddedOutputs(CollectionDesc.Builder builder) throws IOException, CompileExceptionError {
+    private int countEmbeddedOutputs(CollectionDescOrBuilder builder) throws IOException, CompileExceptionError {
         int count = 0;
         count += builder.getEmbeddedInstancesCount();
         for (CollectionInstanceDesc c : builder.getCollectionInstancesList()) {
-            CollectionDesc.Builder b = CollectionDesc.newBuilder();
-            ProtoUtil.merge(project.getResource(c.getCollection()), b);
-            count += countEmbeddedOutputs(b);
+            count += countEmbeddedOutputs(loadCollection(project.getResource(c.getCollection())));
         }
         return count;
     }
 
-    private int buildEmbedded(IResource input, CollectionDesc.Builder builder, Task<Void> task, int embedIndex) throws IOException, CompileExceptionError {
+    private int buildEmbedded(IResource input, CollectionDescOrBuilder builder, Task<Void> task, int embedIndex) throws IOException, CompileExceptionError {
         for (EmbeddedInstanceDesc desc : builder.getEmbeddedInstancesList()) {
             IResource genResource = task.getOutputs().get(embedIndex+1);
             // TODO: This is a hack!
@@ -91,9 +98,7 @@ public class CollectionBuilder extends ProtoBuilder<CollectionDesc.Builder> {
 
         for (CollectionInstanceDesc c : builder.getCollectionInstancesList()) {
             IResource collResource = this.project.getResource(c.getCollection());
-            CollectionDesc.Builder subCollBuilder = CollectionDesc.newBuilder();
-            ProtoUtil.merge(collResource, subCollBuilder);
-            embedIndex = buildEmbedded(input, subCollBuilder, task, embedIndex);
+            embedIndex = buildEmbedded(input, loadCollection(collResource), task, embedIndex);
         }
 
         return embedIndex;
@@ -105,8 +110,7 @@ public class CollectionBuilder extends ProtoBuilder<CollectionDesc.Builder> {
                 .setName(params.name())
                 .addInput(input)
                 .addOutput(input.changeExt(params.outExt()));
-        CollectionDesc.Builder builder = CollectionDesc.newBuilder();
-        ProtoUtil.merge(input, builder);
+        CollectionDesc builder = loadCollection(input);
         Set<IResource> subCollections = new HashSet<IResource>();
         collectSubCollections(builder, subCollections);
         for (IResource subCollection : subCollections) {
@@ -171,8 +175,7 @@ public class CollectionBuilder extends ProtoBuilder<CollectionDesc.Builder> {
         Map<String, List<ComponentPropertyDesc>> properties = new HashMap<String, List<ComponentPropertyDesc>>();
         for (CollectionInstanceDesc collInst : collectionBuilder.getCollectionInstancesList()) {
             IResource collResource = this.project.getResource(collInst.getCollection());
-            CollectionDesc.Builder subCollBuilder = CollectionDesc.newBuilder();
-            ProtoUtil.merge(collResource, subCollBuilder);
+            CollectionDesc.Builder subCollBuilder = loadCollection(collResource).toBuilder();
             mergeSubCollections(owner, subCollBuilder);
             // Collect child ids
             childIds.clear();
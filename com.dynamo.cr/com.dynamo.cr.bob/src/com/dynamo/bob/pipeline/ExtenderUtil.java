@@ -186,6 +186,10 @@ public class ExtenderUtil {
 		public void setContent(byte[] content) throws IOException {
 		}
 
+		@Override
+		public void appendContent(byte[] content) throws IOException {
+		}
+
 		@Override
 		public byte[] sha1() throws IOException {
             byte[] content = getContent();
@@ -58,6 +58,7 @@ public class FontBuilder extends Builder<Void>  {
         BuilderUtil.checkResource(this.project, task.input(0), "material", fontDesc.getMaterial());
 
         Fontc fontc = new Fontc();
+        fontc.setThreadCount(this.project.getMaxCpuThreads());
         BufferedInputStream fontStream = new BufferedInputStream(new ByteArrayInputStream(inputFontFile.getContent()));
         try {
 
@@ -0,0 +1,222 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.pipeline;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+import com.dynamo.bob.Bob;
+import com.dynamo.bob.Platform;
+import com.dynamo.bob.util.Exec;
+import com.dynamo.bob.util.Exec.Result;
+
+/**
+ * Compiles GLSL to SPIR-V with glslc. Shaders compiled at the same time from different
+ * threads are batched into a single glslc invocation. At most maxProcesses glslc processes
+ * run at the same time, and a thread that had to wait for a process compiles the shaders
+ * queued meanwhile together with its own. A shader compiled without contention, e.g. when
+ * building on a single thread, is compiled by itself.
+ *
+ * If a batch fails, each shader of the batch is compiled by itself to report the error of
+ * the failing shader the same way as if it had not been batched.
+ */
+public class GLSLCompiler {
+
+    private static final int MAX_BATCH_SIZE = 64;
+
+    private static final Object lock = new Object();
+    private static ArrayDeque<Request> queue = new ArrayDeque<Request>();
+    private static int running = 0;
+    private static int maxProcesses = 1;
+
+    /**
+     * Compiled shader
+     */
+    public static class Request {
+        private final String source;
+        private final String stage;
+        private final String std;
+        private boolean taken = false;
+        private boolean done = false;
+        private IOException exception = null;
+
+        /**
+         * glslc result of the shader, with the output of the shader only
+         */
+        public Result result;
+        /**
+         * SPIR-V, or null if the compilation failed
+         */
+        public byte[] spirv;
+
+        private Request(String source, String stage, String std) {
+            this.source = source;
+            this.stage = stage;
+            this.std = std;
+        }
+    }
+
+    /**
+     * Set the max number of glslc processes running at the same time, 1 by default.
+     * Set by the project from the max-cpu-threads option when building.
+     * @param maxProcesses max number of processes, at least 1
+     */
+    public static void setMaxProcesses(int maxProcesses) {
+        synchronized (lock) {
+            GLSLCompiler.maxProcesses = Math.max(1, maxProcesses);
+        }
+    }
+
+    /**
+     * Compile shader. Called concurrently from build threads.
+     * @param source GLSL source
+     * @param stage shader stage, "vert" or "frag"
+     * @param std version and profile, e.g. "140" or "310es"
+     * @return compiled shader
+     * @throws IOException
+     */
+    public static Request compile(String source, String stage, String std) throws IOException {
+        Request request = new Request(source, stage, std);
+        List<Request> batch;
+        synchronized (lock) {
+            queue.add(request);
+            while (!request.done && (request.taken || running >= maxProcesses)) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while compiling shader", e);
+                }
+            }
+            if (request.done) {
+                return finish(request);
+            }
+            batch = takeBatch(request);
+            ++running;
+        }
+
+        try {
+            runBatch(batch);
+        } catch (IOException e) {
+            for (Request r : batch) {
+                r.exception = e;
+            }
+        } finally {
+            synchronized (lock) {
+                --running;
+                for (Request r : batch) {
+                    r.done = true;
+                }
+                lock.notifyAll();
+            }
+        }
+        return finish(request);
+    }
+
+    private static Request finish(Request request) throws IOException {
+        if (request.exception != null) {
+            throw request.exception;
+        }
+        return request;
+    }
+
+    // Take the queued requests that can be compiled in the same invocation as the request
+    private static List<Request> takeBatch(Request request) {
+        List<Request> batch = new ArrayList<Request>();
+        batch.add(request);
+        queue.remove(request);
+        Iterator<Request> it = queue.iterator();
+        while (it.hasNext() && batch.size() < MAX_BATCH_SIZE) {
+            Request r = it.next();
+            if (r.std.equals(request.std)) {
+                batch.add(r);
+                it.remove();
+            }
+        }
+        for (Request r : batch) {
+            r.taken = true;
+        }
+        return batch;
+    }
+
+    private static void runBatch(List<Request> batch) throws IOException {
+        if (batch.size() == 1) {
+            compileSingle(batch.get(0));
+            return;
+        }
+
+        File dir = Files.createTempDirectory("glslc").toFile();
+        try {
+            List<String> args = new ArrayList<String>();
+            args.add(Bob.getExe(Platform.getHostPlatform(), "glslc"));
+            args.add("-w");
+            args.add("-fauto-bind-uniforms");
+            args.add("-fauto-map-locations");
+            args.add("-std=" + batch.get(0).std);
+            args.add("-c");
+            for (int i = 0; i < batch.size(); ++i) {
+                Request r = batch.get(i);
+                String name = String.format("shader%d.glsl", i);
+                FileUtils.writeByteArrayToFile(new File(dir, name), r.source.getBytes());
+                args.add("-fshader-stage=" + r.stage);
+                args.add(name);
+            }
+            // Output files are named after the input files, in the working directory
+            Result result = Exec.execResultWithEnvironmentWorkDir(Collections.<String, String>emptyMap(), dir, args.toArray(new String[args.size()]));
+            if (result.ret != 0) {
+                for (Request r : batch) {
+                    compileSingle(r);
+                }
+                return;
+            }
+            for (int i = 0; i < batch.size(); ++i) {
+                Request r = batch.get(i);
+                r.spirv = FileUtils.readFileToByteArray(new File(dir, String.format("shader%d.spv", i)));
+                r.result = new Result(0, new byte[0]);
+            }
+        } finally {
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+
+    private static void compileSingle(Request request) throws IOException {
+        File fileIn = File.createTempFile("shader", ".glsl");
+        File fileOut = File.createTempFile("shader", ".spv");
+        try {
+            FileUtils.writeByteArrayToFile(fileIn, request.source.getBytes());
+            request.result = Exec.execResult(Bob.getExe(Platform.getHostPlatform(), "glslc"),
+                    "-w",
+                    "-fauto-bind-uniforms",
+                    "-fauto-map-locations",
+                    "-std=" + request.std,
+                    "-fshader-stage=" + request.stage,
+                    "-o", fileOut.getAbsolutePath(),
+                    fileIn.getAbsolutePath()
+                    );
+            if (request.result.ret == 0) {
+                request.spirv = FileUtils.readFileToByteArray(fileOut);
+            }
+        } finally {
+            fileIn.delete();
+            fileOut.delete();
+        }
+    }
+}
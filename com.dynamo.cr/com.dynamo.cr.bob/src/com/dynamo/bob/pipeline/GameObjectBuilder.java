@@ -41,8 +41,7 @@ import com.google.protobuf.TextFormat;
 public class GameObjectBuilder extends Builder<Void> {
 
     private PrototypeDesc.Builder loadPrototype(IResource input) throws IOException, CompileExceptionError {
-        PrototypeDesc.Builder b = PrototypeDesc.newBuilder();
-        ProtoUtil.merge(input, b);
+        PrototypeDesc.Builder b = project.getMessageCache().get(input, PrototypeDesc.getDefaultInstance()).toBuilder();
 
         List<ComponentDesc> lst = b.getComponentsList();
         List<ComponentDesc> newList = new ArrayList<GameObject.ComponentDesc>();
@@ -160,7 +159,9 @@ public class GameObjectBuilder extends Builder<Void> {
         PrototypeDesc proto = protoBuilder.build();
         proto.writeTo(out);
         out.close();
-        task.output(0).setContent(out.toByteArray());
+        byte[] content = out.toByteArray();
+        task.output(0).setContent(content);
+        project.putOutputContent(task.output(0), content);
     }
 
     static String[][] extensionMapping = new String[][] {
@@ -34,6 +34,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -48,6 +49,7 @@ import com.dynamo.bob.Project;
 import com.dynamo.bob.Task;
 import com.dynamo.bob.Task.TaskBuilder;
 import com.dynamo.bob.archive.ArchiveBuilder;
+import com.dynamo.bob.archive.ArchiveCache;
 import com.dynamo.bob.archive.EngineVersion;
 import com.dynamo.bob.archive.ManifestBuilder;
 import com.dynamo.bob.fs.IResource;
@@ -90,6 +92,7 @@ import com.dynamo.sprite.proto.Sprite.SpriteDesc;
 import com.dynamo.textureset.proto.TextureSetProto.TextureSet;
 import com.dynamo.tile.proto.Tile.TileGrid;
 import com.google.protobuf.DescriptorProtos.FieldOptions;
+import com.google.protobuf.Descriptors.Descriptor;
 import com.google.protobuf.Descriptors.FieldDescriptor;
 import com.google.protobuf.GeneratedMessage;
 import com.google.protobuf.Message;
@@ -99,6 +102,8 @@ public class GameProjectBuilder extends Builder<Void> {
 
     private static Map<String, Class<? extends GeneratedMessage>> extToMessageClass = new HashMap<String, Class<? extends GeneratedMessage>>();
     private static Set<String> leafResourceTypes = new HashSet<String>();
+    private static Map<String, Message> extToDefaultInstance = new ConcurrentHashMap<String, Message>();
+    private static Map<Descriptor, List<FieldDescriptor>> resourceFieldPlans = new ConcurrentHashMap<Descriptor, List<FieldDescriptor>>();
 
     static {
         extToMessageClass.put(".collectionc", CollectionDesc.class);
@@ -231,16 +236,38 @@ public class GameProjectBuilder extends Builder<Void> {
     private void createArchive(Collection<String> resources, RandomAccessFile archiveIndex, RandomAccessFile archiveData, ManifestBuilder manifestBuilder, List<String> excludedResources, Path resourcePackDirectory) throws IOException, CompileExceptionError {
         String root = FilenameUtils.concat(project.getRootDirectory(), project.getBuildDirectory());
         ArchiveBuilder archiveBuilder = new ArchiveBuilder(root, manifestBuilder);
+        archiveBuilder.setThreadCount(project.getMaxCpuThreads());
+        String memoryBudget = project.option("archive-memory-budget", null);
+        if (memoryBudget != null) {
+            try {
+                archiveBuilder.setMaxInFlightBytes(Long.parseLong(memoryBudget.trim()) * 1024 * 1024);
+            } catch (NumberFormatException e) {
+                throw new CompileExceptionError(null, -1, String.format("Invalid value '%s' for archive-memory-budget", memoryBudget));
+            }
+        }
         boolean doCompress = project.getProjectProperties().getBooleanValue("project", "compress_archive", true);
         HashMap<String, EnumSet<Project.OutputFlags>> outputs = project.getOutputs();
 
+        List<String> compressed = new ArrayList<String>();
+        List<String> uncompressed = new ArrayList<String>();
         for (String s : resources) {
             EnumSet<Project.OutputFlags> flags = outputs.get(s);
             boolean compress = (flags != null && flags.contains(Project.OutputFlags.UNCOMPRESSED)) ? false : doCompress;
-            archiveBuilder.add(s, compress);
+            if (compress) {
+                compressed.add(s);
+            } else {
+                uncompressed.add(s);
+            }
         }
+        archiveBuilder.addAll(compressed, true);
+        archiveBuilder.addAll(uncompressed, false);
 
+        ArchiveCache archiveCache = new ArchiveCache(new File(root, "archive_cache"));
+        archiveBuilder.setCache(archiveCache);
         archiveBuilder.write(archiveIndex, archiveData, resourcePackDirectory, excludedResources);
+        archiveCache.prune();
+        project.setStatistic("archive_cache_hits", archiveCache.getHits());
+        project.setStatistic("archive_cache_misses", archiveCache.getMisses());
         manifestBuilder.setArchiveIdentifier(archiveBuilder.getArchiveIndexHash());
         archiveIndex.close();
         archiveData.close();
@@ -253,99 +280,120 @@ public class GameProjectBuilder extends Builder<Void> {
         }
     }
 
-    private static void findResources(Project project, Message node, Collection<String> resources) throws CompileExceptionError {
-        List<FieldDescriptor> fields = node.getDescriptorForType().getFields();
-
-        for (FieldDescriptor fieldDescriptor : fields) {
-            FieldOptions options = fieldDescriptor.getOptions();
-            FieldDescriptor resourceDesc = DdfExtensions.resource.getDescriptor();
-            boolean isResource = (Boolean) options.getField(resourceDesc);
-            Object value = node.getField(fieldDescriptor);
-            if (value instanceof Message) {
-                findResources(project, (Message) value, resources);
-            } else if (value instanceof List) {
-                @SuppressWarnings("unchecked")
-                List<Object> list = (List<Object>) value;
-                for (Object v : list) {
-                    if (v instanceof Message) {
-                        findResources(project, (Message) v, resources);
-                    } else if (isResource && v instanceof String) {
-                        findResources(project, project.getResource((String) v), resources);
+    // Fields of a message type that are resources, or messages that can contain resources, in declaration order
+    private static List<FieldDescriptor> getResourceFieldPlan(Descriptor type) {
+        List<FieldDescriptor> plan = resourceFieldPlans.get(type);
+        if (plan == null) {
+            plan = new ArrayList<FieldDescriptor>();
+            for (FieldDescriptor fieldDescriptor : type.getFields()) {
+                if (fieldDescriptor.getJavaType() == FieldDescriptor.JavaType.MESSAGE) {
+                    if (canContainResources(fieldDescriptor.getMessageType(), new HashSet<Descriptor>())) {
+                        plan.add(fieldDescriptor);
                     }
+                } else if (fieldDescriptor.getJavaType() == FieldDescriptor.JavaType.STRING && isResourceField(fieldDescriptor)) {
+                    plan.add(fieldDescriptor);
                 }
-            } else if (isResource && value instanceof String) {
-                findResources(project, project.getResource((String) value), resources);
             }
+            resourceFieldPlans.put(type, plan);
         }
+        return plan;
     }
 
-    /*  Adds unique resources to list 'resources'. Each resource should once occur
-        once in the list regardless if the resource appears in several collections
-        or collectionproxies.
-    */
-    private static void findResources(Project project, IResource resource, Collection<String> resources) throws CompileExceptionError {
-        if (resource.getPath().equals("") || resources.contains(resource.output().getAbsPath())) {
-            return;
-        }
-
-        resources.add(resource.output().getAbsPath());
+    private static boolean isResourceField(FieldDescriptor fieldDescriptor) {
+        FieldOptions options = fieldDescriptor.getOptions();
+        FieldDescriptor resourceDesc = DdfExtensions.resource.getDescriptor();
+        return (Boolean) options.getField(resourceDesc);
+    }
 
-        int i = resource.getPath().lastIndexOf(".");
-        if (i == -1) {
-            return;
+    private static boolean canContainResources(Descriptor type, Set<Descriptor> visiting) {
+        if (!visiting.add(type)) {
+            // Recursive message type, assume it can
+            return true;
         }
-        String ext = resource.getPath().substring(i);
+        for (FieldDescriptor fieldDescriptor : type.getFields()) {
+            if (fieldDescriptor.getJavaType() == FieldDescriptor.JavaType.MESSAGE) {
+                if (canContainResources(fieldDescriptor.getMessageType(), visiting)) {
+                    return true;
+                }
+            } else if (fieldDescriptor.getJavaType() == FieldDescriptor.JavaType.STRING && isResourceField(fieldDescriptor)) {
+                return true;
+            }
+        }
+        visiting.remove(type);
+        return false;
+    }
 
-        if (leafResourceTypes.contains(ext)) {
-            return;
+    private static void findResourcePaths(Message node, List<String> paths) {
+        for (FieldDescriptor fieldDescriptor : getResourceFieldPlan(node.getDescriptorForType())) {
+            boolean isMessage = fieldDescriptor.getJavaType() == FieldDescriptor.JavaType.MESSAGE;
+            if (fieldDescriptor.isRepeated()) {
+                int count = node.getRepeatedFieldCount(fieldDescriptor);
+                for (int i = 0; i < count; ++i) {
+                    Object v = node.getRepeatedField(fieldDescriptor, i);
+                    if (isMessage) {
+                        findResourcePaths((Message) v, paths);
+                    } else {
+                        paths.add((String) v);
+                    }
+                }
+            } else {
+                Object value = node.getField(fieldDescriptor);
+                if (isMessage) {
+                    findResourcePaths((Message) value, paths);
+                } else {
+                    paths.add((String) value);
+                }
+            }
         }
+    }
 
-        Class<? extends GeneratedMessage> klass = extToMessageClass.get(ext);
-        if (klass != null) {
-            GeneratedMessage.Builder<?> builder;
+    private static Message getDefaultInstance(String ext) {
+        Message message = extToDefaultInstance.get(ext);
+        if (message == null) {
+            Class<? extends GeneratedMessage> klass = extToMessageClass.get(ext);
+            if (klass == null) {
+                return null;
+            }
             try {
-                Method newBuilder = klass.getDeclaredMethod("newBuilder");
-                builder = (GeneratedMessage.Builder<?>) newBuilder.invoke(null);
-                final byte[] content = resource.output().getContent();
-                if(content == null) {
-                    throw new CompileExceptionError(resource, 0, "Unable to find resource " + resource.getPath());
-                }
-                builder.mergeFrom(content);
-                Object message = builder.build();
-                findResources(project, (Message) message, resources);
-            } catch(CompileExceptionError e) {
-                throw e;
+                Method getDefaultInstance = klass.getDeclaredMethod("getDefaultInstance");
+                message = (Message) getDefaultInstance.invoke(null);
             } catch(Exception e) {
                 throw new RuntimeException(e);
             }
-        } else {
-            throw new CompileExceptionError(resource, -1, "No mapping for " + ext);
+            extToDefaultInstance.put(ext, message);
         }
+        return message;
     }
 
-    private static void buildResourceGraph(Project project, Message node, ResourceNode parentNode, Collection<String> visitedNodes) throws CompileExceptionError {
-        List<FieldDescriptor> fields = node.getDescriptorForType().getFields();
-        for (FieldDescriptor fieldDescriptor : fields) {
-            FieldOptions options = fieldDescriptor.getOptions();
-            FieldDescriptor resourceDesc = DdfExtensions.resource.getDescriptor();
-            boolean isResource = (Boolean) options.getField(resourceDesc);
-            Object value = node.getField(fieldDescriptor);
-            if (value instanceof Message) {
-                buildResourceGraph(project, (Message) value, parentNode, visitedNodes);
-            } else if (value instanceof List) {
-                @SuppressWarnings("unchecked")
-                List<Object> list = (List<Object>) value;
-                for (Object v : list) {
-                    if (v instanceof Message) {
-                        buildResourceGraph(project, (Message) v, parentNode, visitedNodes);
-                    } else if (isResource && v instanceof String) {
-                        buildResourceGraph(project, project.getResource((String) v), parentNode, visitedNodes);
-                    }
-                }
-            } else if (isResource && value instanceof String) {
-                buildResourceGraph(project, project.getResource((String) value), parentNode, visitedNodes);
+    /*  Get the paths of the resources referenced by a built resource. The output
+        is parsed once per walk, and read from memory if it was built in this build.
+    */
+    private static List<String> getResourcePaths(Project project, IResource resource, String ext, Map<String, List<String>> resourcePaths) throws CompileExceptionError {
+        String outputPath = resource.output().getAbsPath();
+        List<String> paths = resourcePaths.get(outputPath);
+        if (paths != null) {
+            return paths;
+        }
+
+        Message defaultInstance = getDefaultInstance(ext);
+        if (defaultInstance == null) {
+            throw new CompileExceptionError(resource, -1, "No mapping for " + ext);
+        }
+        try {
+            final byte[] content = project.getOutputContent(resource.output());
+            if(content == null) {
+                throw new CompileExceptionError(resource, 0, "Unable to find resource " + resource.getPath());
             }
+            Message message = defaultInstance.getParserForType().parseFrom(content);
+            paths = new ArrayList<String>();
+            findResourcePaths(message, paths);
+        } catch(CompileExceptionError e) {
+            throw e;
+        } catch(Exception e) {
+            throw new RuntimeException(e);
         }
+        resourcePaths.put(outputPath, paths);
+        return paths;
     }
 
     /*  Build a graph of resources. The graph is later used when writing archive to disk
@@ -353,8 +401,11 @@ public class GameProjectBuilder extends Builder<Void> {
         excluded with liveupdate. Since liveupdate works on collectionproxies a resource
         will appear as a single node per collectionproxy, but can still have a other nodes
         in other collections/collectionproxies.
+
+        Adds unique resources to 'resources'. Each resource should once occur once in
+        the set regardless if the resource appears in several collections or collectionproxies.
     */
-    private static void buildResourceGraph(Project project, IResource resource, ResourceNode parentNode, Collection<String> visitedNodes) throws CompileExceptionError {
+    private static void buildResourceGraph(Project project, IResource resource, ResourceNode parentNode, Collection<String> visitedNodes, Collection<String> resources, Map<String, List<String>> resourcePaths) throws CompileExceptionError {
         if (resource.getPath().equals("") || visitedNodes.contains(resource.output().getAbsPath())) {
             return;
         }
@@ -364,6 +415,7 @@ public class GameProjectBuilder extends Builder<Void> {
         }
 
         visitedNodes.add(resource.output().getAbsPath());
+        resources.add(resource.output().getAbsPath());
         ResourceNode currentNode = new ResourceNode(resource.getPath(), resource.output().getAbsPath());
         parentNode.addChild(currentNode);
 
@@ -377,26 +429,8 @@ public class GameProjectBuilder extends Builder<Void> {
             return;
         }
 
-        Class<? extends GeneratedMessage> klass = extToMessageClass.get(ext);
-        if (klass != null) {
-            GeneratedMessage.Builder<?> builder;
-            try {
-                Method newBuilder = klass.getDeclaredMethod("newBuilder");
-                builder = (GeneratedMessage.Builder<?>) newBuilder.invoke(null);
-                final byte[] content = resource.output().getContent();
-                if(content == null) {
-                    throw new CompileExceptionError(resource, 0, "Unable to find resource " + resource.getPath());
-                }
-                builder.mergeFrom(content);
-                Object message = builder.build();
-                buildResourceGraph(project, (Message) message, currentNode, visitedNodes);
-            } catch(CompileExceptionError e) {
-                throw e;
-            } catch(Exception e) {
-                throw new RuntimeException(e);
-            }
-        } else {
-            throw new CompileExceptionError(resource, -1, "No mapping for " + ext);
+        for (String path : getResourcePaths(project, resource, ext, resourcePaths)) {
+            buildResourceGraph(project, project.getResource(path), currentNode, visitedNodes, resources, resourcePaths);
         }
     }
 
@@ -412,6 +446,9 @@ public class GameProjectBuilder extends Builder<Void> {
 
         } else {
 
+            // Resources referenced by each built resource, shared by the root nodes
+            Map<String, List<String>> resourcePaths = new HashMap<String, List<String>>();
+
             // Root nodes to follow (default values from engine.cpp)
             for (String[] tuples : new String[][] { {"bootstrap", "main_collection", "/logic/main.collectionc"},
                                                     {"bootstrap", "render", "/builtins/render/default.renderc"},
@@ -422,8 +459,7 @@ public class GameProjectBuilder extends Builder<Void> {
                 String path = project.getProjectProperties().getStringValue(tuples[0], tuples[1], tuples[2]);
                 HashSet<String> visitedNodes = new HashSet<String>();
                 if (path != null) {
-                    findResources(project, project.getResource(path), resources);
-                    buildResourceGraph(project, project.getResource(path), rootNode, visitedNodes);
+                    buildResourceGraph(project, project.getResource(path), rootNode, visitedNodes, resources, resourcePaths);
                 }
             }
 
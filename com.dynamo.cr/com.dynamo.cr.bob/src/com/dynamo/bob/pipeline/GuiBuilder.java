@@ -579,7 +579,8 @@ public class GuiBuilder extends ProtoBuilder<SceneDesc.Builder> {
 
                     IResource jsonRes = builder.project.getResource(spineSceneBuilder.getSpineJson());
                     try {
-                        SpineSceneUtil rigScene = SpineSceneUtil.loadJson(new ByteArrayInputStream(jsonRes.getContent()), new UVTransformProvider() {
+                        // Only the bones are used, load with identity uv transforms
+                        SpineSceneUtil rigScene = builder.project.getSpineSceneCache().get(jsonRes, "identity", new UVTransformProvider() {
                             @Override
                             public UVTransform getUVTransform(String animId) {
                                 return new UVTransform();
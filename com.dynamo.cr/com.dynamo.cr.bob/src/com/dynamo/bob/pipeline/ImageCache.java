@@ -0,0 +1,215 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.pipeline;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import com.dynamo.bob.CompileExceptionError;
+import com.dynamo.bob.fs.IResource;
+import com.dynamo.bob.util.FutureUtil;
+
+/**
+ * Cache of images decoded from resources, e.g. the images of atlases and tile sources. The same
+ * image is often used by more than one atlas, or as both the image and the collision image of a
+ * tile source. Images are keyed by sha1 of the content, so the same image at different paths is
+ * decoded once.
+ *
+ * Images are kept as the decoder returns them, for PNG images with alpha that is a TYPE_4BYTE_ABGR
+ * image backed by a single byte[]. The total size of the cached rasters is bounded, the least
+ * recently used images are evicted first, and images are only softly referenced so the garbage
+ * collector can reclaim them when memory runs low.
+ */
+public class ImageCache {
+
+    private static class Entry {
+        final SoftReference<BufferedImage> image;
+        final long size;
+
+        Entry(BufferedImage image, long size) {
+            this.image = new SoftReference<BufferedImage>(image);
+            this.size = size;
+        }
+    }
+
+    // Access ordered, the first entry is the least recently used one
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long size = 0;
+    private long maxSize = Runtime.getRuntime().maxMemory() / 4;
+    private int threadCount = 1;
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong misses = new AtomicLong();
+
+    /**
+     * Set the max total size of the cached rasters
+     * @param maxSize size in bytes
+     */
+    public synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        evict();
+    }
+
+    /**
+     * Set the max number of threads used to decode images in getImages, 1 by default
+     * @param threadCount max number of threads, 1 to decode on the calling thread
+     */
+    public void setThreadCount(int threadCount) {
+        this.threadCount = Math.max(1, threadCount);
+    }
+
+    /**
+     * Get image decoded from a resource. The resource is decoded unless the same content is cached.
+     * @param resource image resource
+     * @return decoded image, or null if the content isn't an image format that can be decoded
+     * @throws IOException
+     * @throws CompileExceptionError if the resource does not exist
+     */
+    public BufferedImage get(IResource resource) throws IOException, CompileExceptionError {
+        byte[] content = resource.getContent();
+        if (content == null) {
+            throw new CompileExceptionError(resource, 0, String.format("Resource '%s' does not exist", resource.getPath()));
+        }
+        String key = DigestUtils.sha1Hex(content);
+        BufferedImage image = lookup(key);
+        if (image != null) {
+            hits.incrementAndGet();
+            return image;
+        }
+        misses.incrementAndGet();
+        image = decode(content);
+        if (image != null) {
+            put(key, image);
+        }
+        return image;
+    }
+
+    /**
+     * Get images decoded from resources, see get(). Images that aren't cached are decoded concurrently.
+     * @param resources image resources
+     * @return decoded images, in the same order as the resources. An image is null if the content
+     * of the resource can't be decoded.
+     * @throws IOException
+     * @throws CompileExceptionError if a resource does not exist
+     */
+    public List<BufferedImage> getImages(List<IResource> resources) throws IOException, CompileExceptionError {
+        List<BufferedImage> images = new ArrayList<BufferedImage>(resources.size());
+        int threads = Math.min(threadCount, resources.size());
+        if (threads <= 1) {
+            for (IResource resource : resources) {
+                images.add(get(resource));
+            }
+            return images;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<BufferedImage>> futures = new ArrayList<Future<BufferedImage>>(resources.size());
+            for (final IResource resource : resources) {
+                futures.add(executor.submit(new Callable<BufferedImage>() {
+                    @Override
+                    public BufferedImage call() throws IOException, CompileExceptionError {
+                        return get(resource);
+                    }
+                }));
+            }
+            for (Future<BufferedImage> future : futures) {
+                images.add(FutureUtil.get(future, IOException.class, CompileExceptionError.class));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return images;
+    }
+
+    private static BufferedImage decode(byte[] content) throws IOException {
+        // Decode from memory, ImageIO.read(InputStream) might cache the stream in a temporary file.
+        // ImageIO.read closes the stream.
+        ImageInputStream stream = new MemoryCacheImageInputStream(new ByteArrayInputStream(content));
+        return ImageIO.read(stream);
+    }
+
+    private static long rasterSize(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    private synchronized BufferedImage lookup(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        BufferedImage image = entry.image.get();
+        if (image == null) {
+            // Reclaimed by the garbage collector
+            entries.remove(key);
+            size -= entry.size;
+        }
+        return image;
+    }
+
+    private synchronized void put(String key, BufferedImage image) {
+        Entry entry = new Entry(image, rasterSize(image));
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            size -= previous.size;
+        }
+        size += entry.size;
+        evict();
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (size > maxSize && it.hasNext()) {
+            size -= it.next().getValue().size;
+            it.remove();
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+        hits.set(0);
+        misses.set(0);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+}
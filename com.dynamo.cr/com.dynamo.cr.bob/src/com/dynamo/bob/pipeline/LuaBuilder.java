@@ -18,10 +18,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -87,13 +89,76 @@ public abstract class LuaBuilder extends Builder<Void> {
         return string.getBytes();
     }
 
+    // Chunk name of a script, see constructBytecodeProcess()
+    private static String chunkName(Task<Void> task) {
+        String chunkName = task.input(0).getPath();
+        if (chunkName.length() >= 59) {
+            chunkName = chunkName.substring(chunkName.length() - 59);
+        }
+        return "=" + chunkName;
+    }
+
+    private static CompileExceptionError compileError(Task<Void> task, String cmdOutput) {
+        // first delimiter is the executable name "luajit:"
+        int execSep = cmdOutput.indexOf(':');
+        if (execSep > 0) {
+            // then comes the filename and the line like this:
+            // "file.lua:30: <error message>"
+            int lineBegin = cmdOutput.indexOf(':', execSep + 1);
+            if (lineBegin > 0) {
+                int lineEnd = cmdOutput.indexOf(':', lineBegin + 1);
+                if (lineEnd > 0) {
+                    return new CompileExceptionError(task.input(0),
+                            Integer.parseInt(cmdOutput.substring(
+                                    lineBegin + 1, lineEnd)),
+                            cmdOutput.substring(lineEnd + 2));
+                }
+            }
+        }
+        // Since parsing out the actual error failed, as a backup just
+        // spit out whatever luajit said.
+        return new CompileExceptionError(task.input(0), 1, cmdOutput);
+    }
+
+    private static Map<String, String> luajitEnv() {
+        Bob.initLua(); // unpack the lua resources
+        Map<String, String> env = new HashMap<String, String>();
+        env.put("LUA_PATH", Bob.getPath("share/luajit/") + "/?.lua");
+        return env;
+    }
+
+    /**
+     * Compile Lua source to bytecode. The source is compiled by a pool of long running luajit processes,
+     * see {@link LuaCompilerPool}, unless the option use-lua-process-per-script is set. If the pool fails,
+     * the script is compiled in a luajit process of its own.
+     */
     public byte[] constructBytecode(Task<Void> task, String luajitExe, byte[] byteString) throws IOException, CompileExceptionError {
+        boolean processPerScript = this.project.option("use-lua-process-per-script", "false").equals("true");
+        if (!processPerScript) {
+            LuaCompilerPool.Result result = null;
+            try {
+                String exe = Bob.getExe(Platform.getHostPlatform(), luajitExe);
+                result = LuaCompilerPool.get(exe, luajitEnv()).compile(chunkName(task), byteString);
+            } catch (IOException e) {
+                Logger.getLogger(LuaBuilder.class.getCanonicalName()).log(Level.WARNING, "luajit compile server failed, compiling in a separate process", e);
+            }
+            if (result != null) {
+                if (result.error != null) {
+                    throw compileError(task, result.error);
+                }
+                return result.bytecode;
+            }
+        }
+        return constructBytecodeProcess(task, luajitExe, byteString);
+    }
+
+    private byte[] constructBytecodeProcess(Task<Void> task, String luajitExe, byte[] byteString) throws IOException, CompileExceptionError {
 
         java.io.FileOutputStream fo = null;
         RandomAccessFile rdr = null;
 
         try {
-            Bob.initLua(); // unpack the lua resources
+            Map<String, String> luajitEnv = luajitEnv();
 
             File outputFile = File.createTempFile("script", ".raw");
             File inputFile = File.createTempFile("script", ".lua");
@@ -117,15 +182,11 @@ public abstract class LuaBuilder extends Builder<Void> {
             // If a script error occurs in runtime we want Lua to report the end of the filepath
             // associated with the chunk, since this is where the filename is visible.
             //
-            String chunkName = task.input(0).getPath();
-            if (chunkName.length() >= 59) {
-                chunkName = chunkName.substring(chunkName.length() - 59);
-            }
-            chunkName = "=" + chunkName;
+            String chunkName = chunkName(task);
             ProcessBuilder pb = new ProcessBuilder(new String[] { Bob.getExe(Platform.getHostPlatform(), luajitExe), "-bgf", chunkName, inputFile.getAbsolutePath(), outputFile.getAbsolutePath() }).redirectErrorStream(true);
 
-            java.util.Map<String, String> env = pb.environment();
-            env.put("LUA_PATH", Bob.getPath("share/luajit/") + "/?.lua");
+            Map<String, String> env = pb.environment();
+            env.putAll(luajitEnv);
 
             Process p = pb.start();
             InputStream is = null;
@@ -141,26 +202,8 @@ public abstract class LuaBuilder extends Builder<Void> {
 
                 String cmdOutput = new String(buf);
                 if (ret != 0) {
-                    // first delimiter is the executable name "luajit:"
-                    int execSep = cmdOutput.indexOf(':');
-                    if (execSep > 0) {
-                        // then comes the filename and the line like this:
-                        // "file.lua:30: <error message>"
-                        int lineBegin = cmdOutput.indexOf(':', execSep + 1);
-                        if (lineBegin > 0) {
-                            int lineEnd = cmdOutput.indexOf(':', lineBegin + 1);
-                            if (lineEnd > 0) {
-                                throw new CompileExceptionError(task.input(0),
-                                        Integer.parseInt(cmdOutput.substring(
-                                                lineBegin + 1, lineEnd)),
-                                        cmdOutput.substring(lineEnd + 2));
-                            }
-                        }
-                    }
-                    // Since parsing out the actual error failed, as a backup just
-                    // spit out whatever luajit said.
                     inputFile.delete();
-                    throw new CompileExceptionError(task.input(0), 1, cmdOutput);
+                    throw compileError(task, cmdOutput);
                 }
             } catch (InterruptedException e) {
                 Logger.getLogger(LuaBuilder.class.getCanonicalName()).log(Level.SEVERE, "Unexpected interruption", e);
@@ -237,7 +280,9 @@ public abstract class LuaBuilder extends Builder<Void> {
         ByteArrayOutputStream out = new ByteArrayOutputStream(4 * 1024);
         msg.writeTo(out);
         out.close();
-        task.output(0).setContent(out.toByteArray());
+        byte[] content = out.toByteArray();
+        task.output(0).setContent(content);
+        project.putOutputContent(task.output(0), content);
 
 
     }
@@ -0,0 +1,240 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.pipeline;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Pool of long running luajit processes compiling Lua source to bytecode, see
+ * luajit_compile_server.lua. A process compiles one chunk at a time and is put back
+ * in the pool when done, the number of processes follows the number of build threads
+ * compiling scripts at the same time. The processes are stopped at the end of each build,
+ * see shutdownAll, and when the VM exits.
+ *
+ * Requests and responses are framed on stdin and stdout of the process:
+ * <pre>
+ * request:  "&lt;chunk name length&gt; &lt;source length&gt;\n" &lt;chunk name&gt; &lt;source&gt;
+ * response: "&lt;status&gt; &lt;payload length&gt;\n" &lt;payload&gt;
+ * </pre>
+ * Status 0 means that the payload is the bytecode, status 1 that it is the error
+ * message in the same format as luajit -b reports errors.
+ */
+public class LuaCompilerPool {
+
+    private static final String SERVER_SCRIPT = "luajit_compile_server.lua";
+
+    private static Map<String, LuaCompilerPool> pools = new HashMap<String, LuaCompilerPool>();
+    private static File serverScript = null;
+
+    /**
+     * Result of compiling a chunk
+     */
+    public static class Result {
+        /**
+         * Bytecode, or null if the chunk failed to compile
+         */
+        public final byte[] bytecode;
+        /**
+         * Error reported by luajit, or null if the chunk compiled
+         */
+        public final String error;
+
+        public Result(byte[] bytecode, String error) {
+            this.bytecode = bytecode;
+            this.error = error;
+        }
+    }
+
+    private static class Worker {
+        private Process process;
+        private OutputStream out;
+        private InputStream in;
+
+        Worker(Process process) {
+            this.process = process;
+            this.out = new BufferedOutputStream(process.getOutputStream());
+            this.in = new BufferedInputStream(process.getInputStream());
+        }
+
+        private String readLine() throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream(32);
+            while (true) {
+                int c = in.read();
+                if (c < 0) {
+                    throw new EOFException("luajit compile server exited");
+                }
+                if (c == '\n') {
+                    return line.toString("UTF-8");
+                }
+                line.write(c);
+            }
+        }
+
+        Result compile(String chunkName, byte[] source) throws IOException {
+            byte[] name = chunkName.getBytes("UTF-8");
+            out.write(String.format("%d %d\n", name.length, source.length).getBytes("UTF-8"));
+            out.write(name);
+            out.write(source);
+            out.flush();
+
+            String[] header = readLine().split(" ");
+            if (header.length != 2) {
+                throw new IOException("Invalid response from luajit compile server");
+            }
+            int status;
+            int length;
+            try {
+                status = Integer.parseInt(header[0]);
+                length = Integer.parseInt(header[1]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid response from luajit compile server", e);
+            }
+            if (length < 0) {
+                throw new IOException("Invalid response from luajit compile server");
+            }
+            byte[] payload = new byte[length];
+            IOUtils.readFully(in, payload);
+            if (status == 0) {
+                return new Result(payload, null);
+            }
+            return new Result(null, new String(payload, "UTF-8"));
+        }
+
+        void destroy() {
+            IOUtils.closeQuietly(out);
+            IOUtils.closeQuietly(in);
+            process.destroy();
+        }
+    }
+
+    private String exe;
+    private Map<String, String> env;
+    private ConcurrentLinkedQueue<Worker> idle = new ConcurrentLinkedQueue<Worker>();
+    private List<Worker> workers = new ArrayList<Worker>();
+
+    private LuaCompilerPool(String exe, Map<String, String> env) {
+        this.exe = exe;
+        this.env = env;
+    }
+
+    /**
+     * Get the pool of an executable. The pool is created on first use.
+     * @param exe path to luajit executable
+     * @param env environment of the processes
+     * @return pool
+     */
+    public static synchronized LuaCompilerPool get(String exe, Map<String, String> env) {
+        LuaCompilerPool pool = pools.get(exe);
+        if (pool == null) {
+            pool = new LuaCompilerPool(exe, env);
+            pools.put(exe, pool);
+            final LuaCompilerPool p = pool;
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    p.shutdown();
+                }
+            }));
+        }
+        return pool;
+    }
+
+    private static synchronized File getServerScript() throws IOException {
+        if (serverScript == null) {
+            File file = File.createTempFile("luajit_compile_server", ".lua");
+            file.deleteOnExit();
+            FileUtils.copyURLToFile(LuaCompilerPool.class.getResource(SERVER_SCRIPT), file);
+            serverScript = file;
+        }
+        return serverScript;
+    }
+
+    private Worker start() throws IOException {
+        ProcessBuilder pb = new ProcessBuilder(exe, getServerScript().getAbsolutePath());
+        pb.environment().putAll(env);
+        pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+        Worker worker = new Worker(pb.start());
+        synchronized (this) {
+            workers.add(worker);
+        }
+        return worker;
+    }
+
+    /**
+     * Compile a chunk. Called concurrently from build threads.
+     * @param chunkName chunk name, as passed to luajit -f
+     * @param source Lua source
+     * @return result
+     * @throws IOException if the luajit process could not be started or failed
+     */
+    public Result compile(String chunkName, byte[] source) throws IOException {
+        Worker worker = idle.poll();
+        if (worker == null) {
+            worker = start();
+        }
+        Result result;
+        try {
+            result = worker.compile(chunkName, source);
+        } catch (IOException | RuntimeException e) {
+            // The process is in an unknown state, don't reuse it
+            synchronized (this) {
+                workers.remove(worker);
+            }
+            worker.destroy();
+            throw e;
+        }
+        idle.add(worker);
+        return result;
+    }
+
+    /**
+     * Stop the processes of all pools, e.g. at the end of a build so that a VM running many
+     * builds (the editor) doesn't keep idle processes between them. Processes are started again
+     * on next compile.
+     */
+    public static void shutdownAll() {
+        List<LuaCompilerPool> all;
+        synchronized (LuaCompilerPool.class) {
+            all = new ArrayList<LuaCompilerPool>(pools.values());
+        }
+        for (LuaCompilerPool pool : all) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Stop the processes of the pool. Processes are started again on next compile.
+     */
+    public synchronized void shutdown() {
+        for (Worker worker : workers) {
+            idle.remove(worker);
+            worker.destroy();
+        }
+        workers.clear();
+    }
+}
@@ -0,0 +1,82 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.pipeline;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.dynamo.bob.CompileExceptionError;
+import com.dynamo.bob.fs.IResource;
+import com.google.protobuf.Message;
+
+/**
+ * Cache of messages parsed from text format resources, e.g. collections that are loaded once
+ * per nesting level when merging sub collections. Messages are keyed by resource path and message
+ * type. A generated resource, e.g. an embedded game object, is written with the same content each
+ * time during a build.
+ *
+ * Messages are built partially, so required fields that are missing are reported when the message
+ * is finally built by the builder of the resource, as when the resource isn't cached.
+ *
+ * Cached messages are immutable, use toBuilder() to modify a message.
+ */
+public class MessageCache {
+
+    private ConcurrentHashMap<String, Message> messages = new ConcurrentHashMap<String, Message>();
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong misses = new AtomicLong();
+
+    /**
+     * Get message parsed from a resource. The resource is parsed on first use.
+     * @param resource text format resource
+     * @param defaultInstance default instance of the message type, e.g. CollectionDesc.getDefaultInstance()
+     * @return parsed message
+     * @throws IOException
+     * @throws CompileExceptionError if the resource could not be parsed
+     */
+    @SuppressWarnings("unchecked")
+    public <M extends Message> M get(IResource resource, M defaultInstance) throws IOException, CompileExceptionError {
+        String key = resource.getPath() + ":" + defaultInstance.getDescriptorForType().getFullName();
+        Message message = messages.get(key);
+        if (message != null) {
+            hits.incrementAndGet();
+            return (M) message;
+        }
+        misses.incrementAndGet();
+        byte[] content = resource.getContent();
+        if (content == null) {
+            throw new CompileExceptionError(resource, 0, String.format("Resource '%s' does not exist", resource.getPath()));
+        }
+        Message.Builder builder = defaultInstance.newBuilderForType();
+        ProtoUtil.merge(resource, content, builder);
+        message = builder.buildPartial();
+        // Another builder might have parsed the same resource meanwhile, both messages are equal
+        Message previous = messages.putIfAbsent(key, message);
+        return (M) (previous != null ? previous : message);
+    }
+
+    public void clear() {
+        messages.clear();
+        hits.set(0);
+        misses.set(0);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+}
@@ -211,27 +211,11 @@ public abstract class ShaderProgramBuilder extends Builder<Void> {
             es3Result.shaderVersion = Integer.parseInt(es3Result.shaderVersion) < 140 ? "140" : es3Result.shaderVersion;
         }
 
-        // compile GLSL (ES3 or Desktop 140) to SPIR-V
-        File file_in_glsl = File.createTempFile(FilenameUtils.getName(resourceOutput), ".glsl");
-        file_in_glsl.deleteOnExit();
-        FileUtils.writeByteArrayToFile(file_in_glsl, es3Result.output.getBytes());
-
-        File file_out_spv = File.createTempFile(FilenameUtils.getName(resourceOutput), ".spv");
-        file_out_spv.deleteOnExit();
-
+        // compile GLSL (ES3 or Desktop 140) to SPIR-V. Shaders compiled concurrently are batched by GLSLCompiler.
         String spirvShaderStage = (shaderType == ES2ToES3Converter.ShaderType.VERTEX_SHADER ? "vert" : "frag");
+        GLSLCompiler.Request compiled = GLSLCompiler.compile(es3Result.output, spirvShaderStage, es3Result.shaderVersion + es3Result.shaderProfile);
 
-        Result result = Exec.execResult(Bob.getExe(Platform.getHostPlatform(), "glslc"),
-                "-w",
-                "-fauto-bind-uniforms",
-                "-fauto-map-locations",
-                "-std=" + es3Result.shaderVersion + es3Result.shaderProfile,
-                "-fshader-stage=" + spirvShaderStage,
-                "-o", file_out_spv.getAbsolutePath(),
-                file_in_glsl.getAbsolutePath()
-                );
-
-        String result_string = getResultString(result);
+        String result_string = getResultString(compiled.result);
         if (soft_fail && result_string != null) {
             res.compile_warnings.add("\nCompatability issue: " + result_string);
             return res;
@@ -240,23 +224,30 @@ public abstract class ShaderProgramBuilder extends Builder<Void> {
         }
 
         // Generate reflection data
+        File file_out_spv = File.createTempFile(FilenameUtils.getName(resourceOutput), ".spv");
         File file_out_refl = File.createTempFile(FilenameUtils.getName(resourceOutput), ".json");
-        file_out_refl.deleteOnExit();
-
-        result = Exec.execResult(Bob.getExe(Platform.getHostPlatform(), "spirv-cross"),
-            file_out_spv.getAbsolutePath(),
-            "--output",file_out_refl.getAbsolutePath(),
-            "--reflect");
+        String result_json;
+        try {
+            FileUtils.writeByteArrayToFile(file_out_spv, compiled.spirv);
+            Result result = Exec.execResult(Bob.getExe(Platform.getHostPlatform(), "spirv-cross"),
+                file_out_spv.getAbsolutePath(),
+                "--output",file_out_refl.getAbsolutePath(),
+                "--reflect");
+
+            result_string = getResultString(result);
+            if (soft_fail && result_string != null) {
+                res.compile_warnings.add("\nUnable to get reflection data: " + result_string);
+                return res;
+            } else {
+                checkResult(result_string, null, resourceOutput);
+            }
 
-        result_string = getResultString(result);
-        if (soft_fail && result_string != null) {
-            res.compile_warnings.add("\nUnable to get reflection data: " + result_string);
-            return res;
-        } else {
-            checkResult(result_string, null, resourceOutput);
+            result_json = FileUtils.readFileToString(file_out_refl, StandardCharsets.UTF_8);
+        } finally {
+            file_out_spv.delete();
+            file_out_refl.delete();
         }
 
-        String result_json             = FileUtils.readFileToString(file_out_refl, StandardCharsets.UTF_8);
         SPIRVReflector reflector       = new SPIRVReflector(result_json);
         ArrayList<String> shaderIssues = new ArrayList<String>();
 
@@ -382,7 +373,7 @@ public abstract class ShaderProgramBuilder extends Builder<Void> {
         Collections.sort(resource_list, new SortBindingsComparator());
 
         res.resource_list = resource_list;
-        res.source        = FileUtils.readFileToByteArray(file_out_spv);
+        res.source        = compiled.spirv;
 
         return res;
     }
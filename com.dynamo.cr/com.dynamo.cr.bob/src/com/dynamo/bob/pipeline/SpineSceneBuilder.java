@@ -12,7 +12,6 @@
 
 package com.dynamo.bob.pipeline;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -393,7 +392,8 @@ public class SpineSceneBuilder extends Builder<Void> {
 
         Rig.RigScene.Builder b = Rig.RigScene.newBuilder();
         try {
-            SpineSceneUtil scene = SpineSceneUtil.loadJson(new ByteArrayInputStream(task.input(1).getContent()), new UVTransformProvider() {
+            // Not from the project spine scene cache, the bones are reindexed below
+            SpineSceneUtil scene = SpineSceneUtil.loadJson(task.input(1).getContent(), new UVTransformProvider() {
                 @Override
                 public UVTransform getUVTransform(String animId) {
                     return animToTransform.get(animId);
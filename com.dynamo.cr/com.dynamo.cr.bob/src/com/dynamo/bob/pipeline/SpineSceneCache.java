@@ -0,0 +1,82 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.pipeline;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import com.dynamo.bob.CompileExceptionError;
+import com.dynamo.bob.fs.IResource;
+import com.dynamo.bob.util.RigUtil.UVTransformProvider;
+import com.dynamo.bob.util.SpineSceneUtil;
+import com.dynamo.bob.util.SpineSceneUtil.LoadException;
+
+/**
+ * Cache of scenes loaded from spine json resources, e.g. the scene of a spine node that is loaded
+ * for every gui using it. Scenes are keyed by sha1 of the content and a key of the uv transforms
+ * the attachments were loaded with, so the same json at different paths is loaded once.
+ *
+ * Builders that change the scene, e.g. reindex the bones, should load their own with
+ * SpineSceneUtil.loadJson().
+ */
+public class SpineSceneCache {
+
+    private ConcurrentHashMap<String, SpineSceneUtil> scenes = new ConcurrentHashMap<String, SpineSceneUtil>();
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong misses = new AtomicLong();
+
+    /**
+     * Get scene loaded from a resource. The resource is loaded on first use.
+     * @param resource spine json resource
+     * @param uvTransformKey identifies the transforms given by uvTransformProvider, e.g. the sha1 of the texture set
+     * @param uvTransformProvider transforms of the uvs of the attachments
+     * @return loaded scene
+     * @throws IOException
+     * @throws CompileExceptionError if the resource does not exist
+     * @throws LoadException if the scene could not be loaded
+     */
+    public SpineSceneUtil get(IResource resource, String uvTransformKey, UVTransformProvider uvTransformProvider) throws IOException, CompileExceptionError, LoadException {
+        byte[] content = resource.getContent();
+        if (content == null) {
+            throw new CompileExceptionError(resource, 0, String.format("Resource '%s' does not exist", resource.getPath()));
+        }
+        String key = DigestUtils.sha1Hex(content) + ":" + uvTransformKey;
+        SpineSceneUtil scene = scenes.get(key);
+        if (scene != null) {
+            hits.incrementAndGet();
+            return scene;
+        }
+        misses.incrementAndGet();
+        scene = SpineSceneUtil.loadJson(content, uvTransformProvider);
+        // Another builder might have loaded the same scene meanwhile, both scenes are equal
+        SpineSceneUtil previous = scenes.putIfAbsent(key, scene);
+        return previous != null ? previous : scene;
+    }
+
+    public void clear() {
+        scenes.clear();
+        hits.set(0);
+        misses.set(0);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+}
@@ -18,7 +18,6 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 
-import javax.imageio.ImageIO;
 
 import org.apache.commons.io.FilenameUtils;
 
@@ -105,7 +104,7 @@ public class TileSetBuilder extends Builder<Void>  {
 
         BufferedImage image = null;
         if (imageRes.exists()) {
-            image = ImageIO.read(new ByteArrayInputStream(imageRes.getContent()));
+            image = this.project.getImageCache().get(imageRes);
         }
         if (image != null && (image.getWidth() < tileSet.getTileWidth() || image.getHeight() < tileSet.getTileHeight())) {
             throw new CompileExceptionError(task.input(0), -1, String.format(
@@ -115,7 +114,7 @@ public class TileSetBuilder extends Builder<Void>  {
 
         BufferedImage collisionImage = null;
         if (collisionRes.exists()) {
-            BufferedImage origImage = ImageIO.read(new ByteArrayInputStream(collisionRes.getContent()));
+            BufferedImage origImage = this.project.getImageCache().get(collisionRes);
             collisionImage = new BufferedImage(origImage.getWidth(), origImage.getHeight(),
                     BufferedImage.TYPE_4BYTE_ABGR);
             Graphics2D g2d = collisionImage.createGraphics();
@@ -132,7 +131,7 @@ public class TileSetBuilder extends Builder<Void>  {
         if (collisionImage != null && !collisionImage.getColorModel().hasAlpha()) {
             throw new CompileExceptionError(task.input(0), -1, "the collision image does not have an alpha channel");
         }
-        TextureSetResult result = TileSetGenerator.generate(tileSet, image, collisionImage);
+        TextureSetResult result = TileSetGenerator.generate(tileSet, image, collisionImage, project.getMaxCpuThreads());
         TextureSet.Builder textureSetBuilder = result.builder;
 
         int buildDirLen = project.getBuildDirectory().length();
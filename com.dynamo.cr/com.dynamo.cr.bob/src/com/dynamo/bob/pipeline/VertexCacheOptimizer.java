@@ -0,0 +1,192 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.pipeline;
+
+import java.util.Arrays;
+
+/**
+ * Reorders the triangles of an indexed triangle list to make better use of the post transform
+ * vertex cache of the GPU, using the algorithm described by Tom Forsyth in "Linear-Speed Vertex
+ * Cache Optimisation". Vertices get a score from their position in a simulated LRU cache and
+ * from the number of triangles still using them, and the triangle with the highest score among
+ * the triangles using cached vertices is emitted next.
+ *
+ * Only the order of the triangles changes, the corners of each triangle keep their order so the
+ * winding is preserved.
+ */
+public class VertexCacheOptimizer {
+
+    private static final int CACHE_SIZE = 32;
+    private static final float CACHE_DECAY_POWER = 1.5f;
+    private static final float LAST_TRI_SCORE = 0.75f;
+    private static final float VALENCE_BOOST_SCALE = 2.0f;
+    private static final float VALENCE_BOOST_POWER = 0.5f;
+
+    private static float vertexScore(int cachePosition, int valence) {
+        if (valence == 0) {
+            // No triangles left using the vertex
+            return -1.0f;
+        }
+        float score = 0.0f;
+        if (cachePosition >= 0) {
+            if (cachePosition < 3) {
+                // Used by the last triangle, a fixed score to not favor one of its edges
+                score = LAST_TRI_SCORE;
+            } else {
+                float scaler = 1.0f / (CACHE_SIZE - 3);
+                score = (float) Math.pow(1.0f - (cachePosition - 3) * scaler, CACHE_DECAY_POWER);
+            }
+        }
+        // Boost vertices with few triangles left, to get rid of lone vertices
+        score += VALENCE_BOOST_SCALE * (float) Math.pow(valence, -VALENCE_BOOST_POWER);
+        return score;
+    }
+
+    /**
+     * Reorder triangles
+     * @param indices triangle list indices, three per triangle
+     * @param vertexCount number of vertices referenced by the indices
+     * @return reordered indices
+     */
+    public static int[] optimize(int[] indices, int vertexCount) {
+        int triangleCount = indices.length / 3;
+        int[] result = new int[triangleCount * 3];
+        if (triangleCount == 0) {
+            return result;
+        }
+
+        // Triangles using each vertex. The first valence[v] entries of a vertex are the triangles not yet emitted.
+        int[] valence = new int[vertexCount];
+        for (int i = 0; i < triangleCount * 3; ++i) {
+            ++valence[indices[i]];
+        }
+        int[] offsets = new int[vertexCount + 1];
+        for (int v = 0; v < vertexCount; ++v) {
+            offsets[v + 1] = offsets[v] + valence[v];
+        }
+        int[] vertexTriangles = new int[triangleCount * 3];
+        int[] fill = Arrays.copyOf(offsets, vertexCount);
+        for (int i = 0; i < triangleCount * 3; ++i) {
+            vertexTriangles[fill[indices[i]]++] = i / 3;
+        }
+
+        int[] cachePosition = new int[vertexCount];
+        Arrays.fill(cachePosition, -1);
+        float[] vertexScores = new float[vertexCount];
+        for (int v = 0; v < vertexCount; ++v) {
+            vertexScores[v] = vertexScore(-1, valence[v]);
+        }
+        boolean[] emitted = new boolean[triangleCount];
+
+        int[] cache = new int[CACHE_SIZE + 3];
+        int[] newCache = new int[CACHE_SIZE + 3];
+        int cacheCount = 0;
+        int nextUnemitted = 0;
+        int bestTriangle = -1;
+
+        for (int out = 0; out < triangleCount; ++out) {
+            if (bestTriangle == -1) {
+                // Nothing in the cache to continue from, start over from the first triangle left
+                while (emitted[nextUnemitted]) {
+                    ++nextUnemitted;
+                }
+                bestTriangle = nextUnemitted;
+            }
+
+            int t = bestTriangle;
+            emitted[t] = true;
+            System.arraycopy(indices, t * 3, result, out * 3, 3);
+
+            // Remove the triangle from the triangles left of its vertices, and put the vertices first in the cache
+            int newCacheCount = 0;
+            for (int c = 0; c < 3; ++c) {
+                int v = indices[t * 3 + c];
+                int start = offsets[v];
+                int end = start + valence[v];
+                for (int k = start; k < end; ++k) {
+                    if (vertexTriangles[k] == t) {
+                        vertexTriangles[k] = vertexTriangles[end - 1];
+                        vertexTriangles[end - 1] = t;
+                        break;
+                    }
+                }
+                --valence[v];
+                newCache[newCacheCount++] = v;
+            }
+            for (int i = 0; i < cacheCount; ++i) {
+                int v = cache[i];
+                if (v != indices[t * 3] && v != indices[t * 3 + 1] && v != indices[t * 3 + 2]) {
+                    newCache[newCacheCount++] = v;
+                }
+            }
+            int[] tmp = cache;
+            cache = newCache;
+            newCache = tmp;
+            cacheCount = newCacheCount;
+
+            // Update scores of the vertices in the cache, the ones pushed out fall back to their uncached score
+            for (int i = 0; i < cacheCount; ++i) {
+                int v = cache[i];
+                cachePosition[v] = i < CACHE_SIZE ? i : -1;
+                vertexScores[v] = vertexScore(cachePosition[v], valence[v]);
+            }
+            if (cacheCount > CACHE_SIZE) {
+                cacheCount = CACHE_SIZE;
+            }
+
+            // Pick the best triangle using a cached vertex
+            bestTriangle = -1;
+            float bestScore = -1.0f;
+            for (int i = 0; i < cacheCount; ++i) {
+                int v = cache[i];
+                int start = offsets[v];
+                int end = start + valence[v];
+                for (int k = start; k < end; ++k) {
+                    int u = vertexTriangles[k];
+                    float score = vertexScores[indices[u * 3]] + vertexScores[indices[u * 3 + 1]] + vertexScores[indices[u * 3 + 2]];
+                    if (score > bestScore) {
+                        bestScore = score;
+                        bestTriangle = u;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Average cache miss ratio, the number of vertices transformed per triangle, for a FIFO cache
+     * @param indices triangle list indices
+     * @param vertexCount number of vertices referenced by the indices
+     * @param cacheSize size of the simulated cache
+     * @return average number of cache misses per triangle
+     */
+    public static float getACMR(int[] indices, int vertexCount, int cacheSize) {
+        int triangleCount = indices.length / 3;
+        if (triangleCount == 0) {
+            return 0.0f;
+        }
+        int[] timestamps = new int[vertexCount];
+        Arrays.fill(timestamps, Integer.MIN_VALUE / 2);
+        int time = cacheSize;
+        int misses = 0;
+        for (int i = 0; i < triangleCount * 3; ++i) {
+            int v = indices[i];
+            if (time - timestamps[v] > cacheSize) {
+                timestamps[v] = time++;
+                ++misses;
+            }
+        }
+        return (float) misses / triangleCount;
+    }
+}
@@ -0,0 +1,66 @@
+-- Copyright 2020 The Defold Foundation
+-- Licensed under the Defold License version 1.0 (the "License"); you may not use
+-- this file except in compliance with the License.
+--
+-- You may obtain a copy of the License, together with FAQs at
+-- https://www.defold.com/license
+--
+-- Unless required by applicable law or agreed to in writing, software distributed
+-- under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+-- CONDITIONS OF ANY KIND, either express or implied. See the License for the
+-- specific language governing permissions and limitations under the License.
+
+-- Compiles Lua chunks read from stdin to bytecode written to stdout, until stdin is closed.
+-- Used by LuaCompilerPool, see LuaCompilerPool.java for the framing of requests and responses.
+-- The bytecode is the same as written by "luajit -bgf <chunkname> <input> <output>".
+
+local stdin = io.stdin
+local stdout = io.stdout
+
+if jit.os == "Windows" then
+    -- Requests and responses are binary, stdin and stdout are opened in text mode
+    local ffi = require("ffi")
+    ffi.cdef[[int _setmode(int fd, int mode);]]
+    local O_BINARY = 0x8000
+    ffi.C._setmode(0, O_BINARY)
+    ffi.C._setmode(1, O_BINARY)
+end
+
+local function read(n)
+    if n == 0 then
+        return ""
+    end
+    local s = stdin:read(n)
+    if not s or #s ~= n then
+        os.exit(1)
+    end
+    return s
+end
+
+while true do
+    local header = stdin:read("*l")
+    if not header then
+        break
+    end
+    local name_length, source_length = header:match("^(%d+) (%d+)$")
+    if not name_length then
+        os.exit(1)
+    end
+    local name = read(tonumber(name_length))
+    local source = read(tonumber(source_length))
+    if jit.os == "Windows" then
+        -- luajit -b reads the input file in text mode
+        source = source:gsub("\r\n", "\n")
+    end
+
+    local status, payload
+    local f, err = loadstring(source, name)
+    if f then
+        status, payload = 0, string.dump(f, false)
+    else
+        -- Same format as luajit -b reports errors
+        status, payload = 1, "luajit: " .. err .. "\n"
+    end
+    stdout:write(status, " ", #payload, "\n", payload)
+    stdout:flush()
+end
@@ -13,14 +13,25 @@
 package com.dynamo.bob.textureset;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.dynamo.bob.textureset.TextureSetLayout.Layout;
 import com.dynamo.bob.textureset.TextureSetLayout.Rect;
+import com.dynamo.bob.util.FutureUtil;
 
 /**
  * MaxRectsLayoutStrategy - derived from libgdx implementation:
  * https://github.com/libgdx/libgdx/blob/master/extensions/gdx-tools/src/com/badlogic/gdx/tools/texturepacker/MaxRectsPacker.java
+ *
+ * The heuristics tried for a page size are packed concurrently, each with its own MaxRects, and
+ * the best result is picked in the same order as when packing them one after another, so the
+ * layout doesn't depend on the number of threads.
  * @author peterhodges
  *
  */
@@ -37,14 +48,26 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
         public boolean square;
     }
 
+    // Below this number of rects the heuristics are packed on the calling thread
+    private static final int PARALLEL_MIN_RECTS = 32;
+
     private Settings settings;
-    private MaxRects maxRects = new MaxRects();
     private FreeRectChoiceHeuristic[] methods = FreeRectChoiceHeuristic.values();
+    private int threadCount = 1;
+    private ExecutorService executor;
 
     public MaxRectsLayoutStrategy(Settings settings) {
         this.settings = settings;
     }
 
+    /**
+     * Set the max number of threads used to pack the heuristics of a page size, 1 by default
+     * @param threadCount max number of threads, 1 to pack on the calling thread
+     */
+    public void setThreadCount(int threadCount) {
+        this.threadCount = Math.max(1, threadCount);
+    }
+
     @Override
     public List<Layout> createLayout(List<Rect> srcRects) {
         ArrayList<RectNode> srcNodes = new ArrayList<RectNode>(srcRects.size());
@@ -56,10 +79,20 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
         }
 
         ArrayList<Page> pages = new ArrayList<Page>();
-        while (srcNodes.size() > 0) {
-            Page result = packPage(srcNodes);
-            pages.add(result);
-            srcNodes = result.remainingRects;
+        if (threadCount > 1 && srcNodes.size() >= PARALLEL_MIN_RECTS) {
+            executor = Executors.newFixedThreadPool(Math.min(threadCount, methods.length));
+        }
+        try {
+            while (srcNodes.size() > 0) {
+                Page result = packPage(srcNodes);
+                pages.add(result);
+                srcNodes = result.remainingRects;
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+                executor = null;
+            }
         }
 
         // Repackage into layouts.
@@ -158,28 +191,51 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
     /** @param fully If true, the only results that pack all rects will be considered. If false, all results are considered, not all
      *           rects may be packed.
      **/
-    private Page packAtSize(boolean fully, int width, int height, ArrayList<RectNode> inputRects) {
-        Page bestResult = null;
-        for (int i = 0, n = methods.length; i < n; i++) {
-            maxRects.init(width, height);
-            Page result;
-
-            ArrayList<RectNode> remaining = new ArrayList<RectNode>();
-            for (int ii = 0, nn = inputRects.size(); ii < nn; ii++) {
-                RectNode rect = inputRects.get(ii);
-                if (maxRects.insert(rect, methods[i]) == null) {
-                    while (ii < nn) {
-                        remaining.add(inputRects.get(ii++));
-                    }
-                }
+    private Page packAtSize(final boolean fully, final int width, final int height, final ArrayList<RectNode> inputRects) {
+        if (fully) {
+            // The rects can't fit if their total area is larger than the page
+            long area = 0;
+            for (int i = 0, nn = inputRects.size(); i < nn; i++) {
+                area += inputRects.get(i).rect.area();
             }
-            result = maxRects.getResult();
-            result.remainingRects = remaining;
+            if (area > (long)width * height) {
+                return null;
+            }
+        }
 
-            if (fully && result.remainingRects.size() > 0) {
-                continue;
+        // When all rects must be packed, all the results have the same occupancy, unless rotating a rect changes
+        // its area, and the last one is picked. A heuristic is abandoned when a later heuristic has packed all rects.
+        final boolean lastSucceededWins = fully && (!settings.rotation || settings.paddingX == settings.paddingY);
+        final AtomicInteger lastSucceeded = new AtomicInteger(-1);
+
+        Page[] results = new Page[methods.length];
+        if (executor == null) {
+            for (int i = methods.length - 1; i >= 0; i--) {
+                results[i] = packMethod(fully, width, height, inputRects, i, lastSucceededWins ? lastSucceeded : null);
+                if (lastSucceededWins && results[i] != null) {
+                    break;
+                }
+            }
+        } else {
+            List<Future<Page>> futures = new ArrayList<Future<Page>>(methods.length);
+            for (int i = 0; i < methods.length; i++) {
+                final int method = i;
+                futures.add(executor.submit(new Callable<Page>() {
+                    @Override
+                    public Page call() {
+                        return packMethod(fully, width, height, inputRects, method, lastSucceededWins ? lastSucceeded : null);
+                    }
+                }));
             }
-            if (result.outputRects.size() == 0) {
+            for (int i = 0; i < methods.length; i++) {
+                results[i] = FutureUtil.get(futures.get(i));
+            }
+        }
+
+        Page bestResult = null;
+        for (int i = 0; i < methods.length; i++) {
+            Page result = results[i];
+            if (result == null || (lastSucceededWins && i < lastSucceeded.get())) {
                 continue;
             }
             bestResult = getBest(bestResult, result);
@@ -187,6 +243,42 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
         return bestResult;
     }
 
+    // Pack the rects with one of the heuristics. Returns null if the result isn't considered, or if
+    // lastSucceeded is set and becomes higher than the heuristic index.
+    private Page packMethod(boolean fully, int width, int height, ArrayList<RectNode> inputRects, int method, AtomicInteger lastSucceeded) {
+        MaxRects maxRects = new MaxRects();
+        maxRects.init(width, height);
+
+        ArrayList<RectNode> remaining = new ArrayList<RectNode>();
+        for (int ii = 0, nn = inputRects.size(); ii < nn; ii++) {
+            if (lastSucceeded != null && lastSucceeded.get() > method) {
+                return null;
+            }
+            RectNode rect = inputRects.get(ii);
+            if (maxRects.insert(rect, methods[method]) == null) {
+                if (fully) {
+                    return null;
+                }
+                while (ii < nn) {
+                    remaining.add(inputRects.get(ii++));
+                }
+            }
+        }
+        Page result = maxRects.getResult();
+        result.remainingRects = remaining;
+
+        if (result.outputRects.size() == 0) {
+            return null;
+        }
+        if (lastSucceeded != null) {
+            int previous;
+            do {
+                previous = lastSucceeded.get();
+            } while (previous < method && !lastSucceeded.compareAndSet(previous, method));
+        }
+        return result;
+    }
+
     private Page getBest (Page result1, Page result2) {
         if (result1 == null) return result2;
         if (result2 == null) return result1;
@@ -277,6 +369,11 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
         private int binHeight;
         private final ArrayList<RectNode> usedRectangles = new ArrayList<RectNode>();
         private final ArrayList<RectNode> freeRectangles = new ArrayList<RectNode>();
+        // Used rectangles by the coordinate of each of their edges, for the contact point score
+        private final HashMap<Integer, ArrayList<Rect>> usedByLeft = new HashMap<Integer, ArrayList<Rect>>();
+        private final HashMap<Integer, ArrayList<Rect>> usedByRight = new HashMap<Integer, ArrayList<Rect>>();
+        private final HashMap<Integer, ArrayList<Rect>> usedByTop = new HashMap<Integer, ArrayList<Rect>>();
+        private final HashMap<Integer, ArrayList<Rect>> usedByBottom = new HashMap<Integer, ArrayList<Rect>>();
 
         public void init (int width, int height) {
             binWidth = width;
@@ -284,6 +381,10 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
 
             usedRectangles.clear();
             freeRectangles.clear();
+            usedByLeft.clear();
+            usedByRight.clear();
+            usedByTop.clear();
+            usedByBottom.clear();
             RectNode n = new RectNode(new Rect(null, 0, 0, 0, width, height));
             freeRectangles.add(n);
         }
@@ -302,7 +403,7 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
                 }
             }
 
-            pruneFreeList();
+            pruneFreeList(numRectanglesToProcess);
 
             RectNode bestNode = new RectNode(rect);
             bestNode.score1 = newNode.score1;
@@ -311,7 +412,7 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
             bestNode.rect.id = rect.rect.id;
             bestNode.rect.index = rect.rect.index;
 
-            usedRectangles.add(bestNode);
+            addUsed(bestNode);
             return bestNode;
         }
 
@@ -376,9 +477,27 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
                 }
             }
 
-            pruneFreeList();
+            pruneFreeList(numRectanglesToProcess);
 
+            addUsed(node);
+        }
+
+        private void addUsed (RectNode node) {
             usedRectangles.add(node);
+            Rect r = node.rect;
+            addToIndex(usedByLeft, r.x, r);
+            addToIndex(usedByRight, r.x + r.width, r);
+            addToIndex(usedByTop, r.y, r);
+            addToIndex(usedByBottom, r.y + r.height, r);
+        }
+
+        private void addToIndex (HashMap<Integer, ArrayList<Rect>> index, int coordinate, Rect rect) {
+            ArrayList<Rect> rects = index.get(coordinate);
+            if (rects == null) {
+                rects = new ArrayList<Rect>();
+                index.put(coordinate, rects);
+            }
+            rects.add(rect);
         }
 
         private RectNode scoreRect (RectNode node, FreeRectChoiceHeuristic method) {
@@ -585,14 +704,36 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
             if (x == 0 || x + width == binWidth) score += height;
             if (y == 0 || y + height == binHeight) score += width;
 
-            for (int i = 0; i < usedRectangles.size(); i++) {
-                RectNode currentNode = usedRectangles.get(i);
-                if (currentNode.rect.x == x + width || currentNode.rect.x + currentNode.rect.width == x)
-                    score += commonIntervalLength(currentNode.rect.y, currentNode.rect.y + currentNode.rect.height, y,
-                        y + height);
-                if (currentNode.rect.y == y + height || currentNode.rect.y + currentNode.rect.height == y)
-                    score += commonIntervalLength(currentNode.rect.x, currentNode.rect.x + currentNode.rect.width, x, x
-                        + width);
+            // Only the used rectangles with an edge on the line of an edge of the node can touch it
+            ArrayList<Rect> rects = usedByLeft.get(x + width);
+            if (rects != null) {
+                for (int i = 0; i < rects.size(); i++) {
+                    Rect r = rects.get(i);
+                    score += commonIntervalLength(r.y, r.y + r.height, y, y + height);
+                }
+            }
+            rects = usedByRight.get(x);
+            if (rects != null) {
+                for (int i = 0; i < rects.size(); i++) {
+                    Rect r = rects.get(i);
+                    if (r.x != x + width) // already counted
+                        score += commonIntervalLength(r.y, r.y + r.height, y, y + height);
+                }
+            }
+            rects = usedByTop.get(y + height);
+            if (rects != null) {
+                for (int i = 0; i < rects.size(); i++) {
+                    Rect r = rects.get(i);
+                    score += commonIntervalLength(r.x, r.x + r.width, x, x + width);
+                }
+            }
+            rects = usedByBottom.get(y);
+            if (rects != null) {
+                for (int i = 0; i < rects.size(); i++) {
+                    Rect r = rects.get(i);
+                    if (r.y != y + height) // already counted
+                        score += commonIntervalLength(r.x, r.x + r.width, x, x + width);
+                }
             }
             return score;
         }
@@ -669,32 +810,37 @@ public class MaxRectsLayoutStrategy implements TextureSetLayoutStrategy {
             return true;
         }
 
-        private void pruneFreeList () {
-            /*
-             * /// Would be nice to do something like this, to avoid a Theta(n^2) loop through each pair. /// But unfortunately it
-             * doesn't quite cut it, since we also want to detect containment. /// Perhaps there's another way to do this faster than
-             * Theta(n^2).
-             *
-             * if (freeRectangles.size > 0) clb::sort::QuickSort(&freeRectangles[0], freeRectangles.size, NodeSortCmp);
-             *
-             * for(int i = 0; i < freeRectangles.size-1; i++) if (freeRectangles[i].x == freeRectangles[i+1].x && freeRectangles[i].y
-             * == freeRectangles[i+1].y && freeRectangles[i].width == freeRectangles[i+1].width && freeRectangles[i].height ==
-             * freeRectangles[i+1].height) { freeRectangles.erase(freeRectangles.begin() + i); --i; }
-             */
-
-            // / Go through each pair and remove any rectangle that is redundant.
-            for (int i = 0; i < freeRectangles.size(); i++)
-                for (int j = i + 1; j < freeRectangles.size(); ++j) {
-                    if (isContainedIn(freeRectangles.get(i).rect, freeRectangles.get(j).rect)) {
-                        freeRectangles.remove(i);
-                        --i;
-                        break;
-                    }
-                    if (isContainedIn(freeRectangles.get(j).rect, freeRectangles.get(i).rect)) {
-                        freeRectangles.remove(j);
-                        --j;
+        /*
+         * Remove the free rectangles that are contained in another one. The rectangles before firstNew were
+         * pruned after the previous split and none of them is contained in another, or in the new ones since
+         * those are parts of the rectangles that were split. So only the new rectangles need to be checked,
+         * which gives the same result as going through each pair:
+         * a new rectangle is removed if it is contained in an old one, or in another new one, but of two equal
+         * new rectangles the last one is kept.
+         */
+        private void pruneFreeList (int firstNew) {
+            int count = freeRectangles.size();
+            int kept = firstNew;
+            for (int i = firstNew; i < count; i++) {
+                Rect rect = freeRectangles.get(i).rect;
+                boolean redundant = false;
+                for (int j = 0; j < firstNew && !redundant; ++j) {
+                    redundant = isContainedIn(rect, freeRectangles.get(j).rect);
+                }
+                for (int j = firstNew; j < count && !redundant; ++j) {
+                    if (j == i) continue;
+                    Rect other = freeRectangles.get(j).rect;
+                    if (isContainedIn(rect, other)) {
+                        redundant = j > i || !isContainedIn(other, rect);
                     }
                 }
+                if (!redundant) {
+                    freeRectangles.set(kept++, freeRectangles.get(i));
+                }
+            }
+            for (int i = count - 1; i >= kept; i--) {
+                freeRectangles.remove(i);
+            }
         }
 
         private boolean isContainedIn (Rect a, Rect b) {
@@ -21,6 +21,7 @@ import com.dynamo.bob.textureset.TextureSetLayout.Rect;
 
 import com.dynamo.bob.tile.ConvexHull2D;
 import com.dynamo.bob.tile.TileSetUtil;
+import com.dynamo.bob.util.FutureUtil;
 import com.dynamo.bob.util.TextureUtil;
 import com.dynamo.textureset.proto.TextureSetProto;
 import com.dynamo.textureset.proto.TextureSetProto.SpriteGeometry;
@@ -45,6 +46,10 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 // For debugging image output
@@ -230,6 +235,46 @@ public class TextureSetGenerator {
         return geometryBuilder.build();
     }
 
+    /**
+     * Build the convex hulls of a list of images, see buildConvexHull. The hulls of the images are
+     * independent of each other and are built concurrently.
+     * @param images original images (no padding or extrude borders)
+     * @param hullVertexCounts hull vertex count of each image
+     * @param threadCount max number of threads to use
+     * @return hull of each image, in the same order as the images
+     */
+    public static List<SpriteGeometry> buildConvexHulls(List<BufferedImage> images, List<Integer> hullVertexCounts, int threadCount) {
+        List<SpriteGeometry> hulls = new ArrayList<SpriteGeometry>(images.size());
+        threadCount = Math.min(threadCount, images.size());
+        if (threadCount <= 1) {
+            for (int i = 0; i < images.size(); ++i) {
+                hulls.add(buildConvexHull(images.get(i), hullVertexCounts.get(i)));
+            }
+            return hulls;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<SpriteGeometry>> futures = new ArrayList<Future<SpriteGeometry>>(images.size());
+            for (int i = 0; i < images.size(); ++i) {
+                final BufferedImage image = images.get(i);
+                final int hullVertexCount = hullVertexCounts.get(i);
+                futures.add(executor.submit(new Callable<SpriteGeometry>() {
+                    @Override
+                    public SpriteGeometry call() {
+                        return buildConvexHull(image, hullVertexCount);
+                    }
+                }));
+            }
+            for (Future<SpriteGeometry> future : futures) {
+                hulls.add(FutureUtil.get(future));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return hulls;
+    }
+
     // From the vertices and layout, generate UV coordinates
     private static SpriteGeometry.Builder createPolygonUVs(SpriteGeometry geometry, Rect rect, float width, float height, int extrudeBorders) {
         SpriteGeometry.Builder geometryBuilder = TextureSetProto.SpriteGeometry.newBuilder();
@@ -299,6 +344,17 @@ public class TextureSetGenerator {
                                                 AnimIterator iterator,
                                                int margin, int innerPadding, int extrudeBorders,
                                                boolean rotate, boolean useTileGrid, Grid gridSize) {
+        return calculateLayout(images, imageHulls, use_geometries, iterator, margin, innerPadding, extrudeBorders, rotate, useTileGrid, gridSize, 1);
+    }
+
+    /**
+     * Calculate the layout, see above, using up to threadCount threads
+     * @param threadCount max number of threads to use, e.g. the max-cpu-threads of the project
+     */
+    public static TextureSetResult calculateLayout(List<Rect> images, List<SpriteGeometry> imageHulls, int use_geometries,
+                                                AnimIterator iterator,
+                                               int margin, int innerPadding, int extrudeBorders,
+                                               boolean rotate, boolean useTileGrid, Grid gridSize, int threadCount) {
 
         int totalSizeIncrease = 2 * (innerPadding + extrudeBorders);
 
@@ -315,7 +371,7 @@ public class TextureSetGenerator {
         if (useTileGrid) {
             layout = TextureSetLayout.gridLayout(margin, resizedImages, gridSize);
         } else {
-            layout = TextureSetLayout.packedLayout(margin, resizedImages, rotate);
+            layout = TextureSetLayout.packedLayout(margin, resizedImages, rotate, threadCount);
         }
 
         layout.getRectangles().sort(Comparator.comparing(o -> o.index));
@@ -382,22 +438,29 @@ public class TextureSetGenerator {
      */
     public static TextureSetResult generate(List<BufferedImage> images, List<Integer> imageHullSizes, List<String> paths, AnimIterator iterator,
             int margin, int innerPadding, int extrudeBorders, boolean rotate, boolean useTileGrid, Grid gridSize) {
+        return generate(images, imageHullSizes, paths, iterator, margin, innerPadding, extrudeBorders, rotate, useTileGrid, gridSize, 1);
+    }
+
+    /**
+     * Generate an atlas, see above, using up to threadCount threads
+     * @param threadCount max number of threads to use, e.g. the max-cpu-threads of the project
+     */
+    public static TextureSetResult generate(List<BufferedImage> images, List<Integer> imageHullSizes, List<String> paths, AnimIterator iterator,
+            int margin, int innerPadding, int extrudeBorders, boolean rotate, boolean useTileGrid, Grid gridSize, int threadCount) {
 
         List<Rect> imageRects = rectanglesFromImages(images, paths);
 
         // if all sizes are 0, we still need to generate hull (or rect) data
         // since it will still be part of the new code path if there is another atlas with trimming enabled
-        List<SpriteGeometry> imageHulls = new ArrayList<SpriteGeometry>();
         int use_geometries = 0;
         for (int i = 0; i < images.size(); ++i) {
-            BufferedImage image = images.get(i);
             use_geometries |= imageHullSizes.get(i) > 0 ? 1 : 0;
-            imageHulls.add(buildConvexHull(image, imageHullSizes.get(i)));
         }
+        List<SpriteGeometry> imageHulls = buildConvexHulls(images, imageHullSizes, threadCount);
 
         // The layout step will expand the rect, and possibly rotate them
         TextureSetResult result = calculateLayout(imageRects, imageHulls, use_geometries, iterator,
-                                                        margin, innerPadding, extrudeBorders, rotate, useTileGrid, gridSize);
+                                                        margin, innerPadding, extrudeBorders, rotate, useTileGrid, gridSize, threadCount);
 
         for (int i = 0; i < images.size(); ++i) {
             BufferedImage image = images.get(i);
@@ -108,11 +108,18 @@ public class TextureSetLayout {
     }
 
     public static Layout packedLayout(int margin, List<Rect> rectangles, boolean rotate) {
+        return packedLayout(margin, rectangles, rotate, 1);
+    }
+
+    /**
+     * @param threadCount max number of threads packing the rectangles, see {@link MaxRectsLayoutStrategy#setThreadCount(int)}
+     */
+    public static Layout packedLayout(int margin, List<Rect> rectangles, boolean rotate, int threadCount) {
         if (rectangles.size() == 0) {
             return new Layout(1, 1, new ArrayList<TextureSetLayout.Rect>());
         }
 
-        return createMaxRectsLayout(margin, rectangles, rotate);
+        return createMaxRectsLayout(margin, rectangles, rotate, threadCount);
     }
 
     private static int getExponentNextOrMatchingPowerOfTwo(int value) {
@@ -165,6 +172,17 @@ public class TextureSetLayout {
      * @return
      */
     public static Layout createMaxRectsLayout(int margin, List<Rect> rectangles, boolean rotate) {
+        return createMaxRectsLayout(margin, rectangles, rotate, 1);
+    }
+
+    /**
+     * @param margin
+     * @param rectangles
+     * @param rotate
+     * @param threadCount max number of threads packing the rectangles
+     * @return
+     */
+    public static Layout createMaxRectsLayout(int margin, List<Rect> rectangles, boolean rotate, int threadCount) {
         // Sort by area first, then longest side
         Collections.sort(rectangles, new Comparator<Rect>() {
             @Override
@@ -204,6 +222,7 @@ public class TextureSetLayout {
         settings.square = false;
 
         MaxRectsLayoutStrategy strategy = new MaxRectsLayoutStrategy(settings);
+        strategy.setThreadCount(threadCount);
         List<Layout> layouts = strategy.createLayout(rectangles);
 
         // Repeat layout creation using alternating increase of width and height until
@@ -191,79 +191,133 @@ public class ConvexHull2D {
         }
     }
 
-    // Used when inserting each center point of a texel
-    static double supportCenter(int width, int height, int[] mask, Vector2d dir) {
-        double maxValue = -Double.MAX_VALUE;
-        Vector2d p = new Vector2d();
-        for (int y = height-1; y >= 0; --y) {
-            for (int x = 0; x < width; ++x) {
-                if (mask[x + (height - y - 1) * width] != 0) {
-                    p.x = x - (width - 1.0) / 2.0;
-                    p.y = y - (height - 1.0) / 2.0;
-                    double len = p.dot(dir);
-                    maxValue = Math.max(maxValue, len);
+    /**
+     * Get the points of the mask that can be on its convex hull, as x0, y0, x1, y1, ... in hull
+     * space (origin in the lower left). Only the leftmost and rightmost pixel of each row can be a
+     * corner of the hull, so those are collected in a single pass over the mask, and the hull is
+     * computed from them with Andrew's monotone chain.
+     * Points along the edges of the hull are kept, and the result might contain duplicates, so it is
+     * only meant to be used as a point set in place of the mask: the max (or min) of a linear function
+     * over the mask is the same as over these points.
+     * @param corners use the four corners of each pixel instead of the pixel
+     * @return hull points
+     */
+    public static int[] maskHull(int[] mask, int width, int height, boolean corners) {
+        int perPixel = corners ? 2 : 1;
+        long[] candidates = new long[height * 2 * perPixel];
+        int ncandidates = 0;
+        long stride = height + 2;
+        for (int row = 0; row < height; ++row) {
+            int offset = row * width;
+            int left = 0;
+            while (left < width && mask[offset + left] == 0) {
+                ++left;
+            }
+            if (left == width) {
+                continue;
+            }
+            int right = width - 1;
+            while (mask[offset + right] == 0) {
+                --right;
+            }
+            int y = height - row - 1;
+            // Encoded so that sorting orders the points on x, then y
+            if (corners) {
+                candidates[ncandidates++] = left * stride + y;
+                candidates[ncandidates++] = left * stride + y + 1;
+                candidates[ncandidates++] = (right + 1) * stride + y;
+                candidates[ncandidates++] = (right + 1) * stride + y + 1;
+            } else {
+                candidates[ncandidates++] = left * stride + y;
+                candidates[ncandidates++] = right * stride + y;
+            }
+        }
+        Arrays.sort(candidates, 0, ncandidates);
+
+        int n = 0;
+        int[] xs = new int[ncandidates];
+        int[] ys = new int[ncandidates];
+        for (int i = 0; i < ncandidates; ++i) {
+            if (i > 0 && candidates[i] == candidates[i - 1]) {
+                continue;
+            }
+            xs[n] = (int) (candidates[i] / stride);
+            ys[n] = (int) (candidates[i] % stride);
+            ++n;
+        }
+
+        // Lower hull from left to right, then upper hull from right to left
+        int[] hull = new int[(2 * n + 1) * 2];
+        int k = 0;
+        for (int pass = 0; pass < 2; ++pass) {
+            int chainStart = k;
+            for (int j = 0; j < n; ++j) {
+                int i = pass == 0 ? j : n - 1 - j;
+                while (k - chainStart >= 4 && cross(hull[k - 4], hull[k - 3], hull[k - 2], hull[k - 1], xs[i], ys[i]) < 0) {
+                    k -= 2;
                 }
+                hull[k++] = xs[i];
+                hull[k++] = ys[i];
             }
         }
+        return Arrays.copyOf(hull, k);
+    }
+
+    private static long cross(int x0, int y0, int x1, int y1, int x2, int y2) {
+        return (long) (x1 - x0) * (y2 - y0) - (long) (y1 - y0) * (x2 - x0);
+    }
+
+    // Used when inserting each center point of a texel
+    // The points are the pixels of maskHull(mask, width, height, false)
+    static double supportCenter(int width, int height, int[] points, Vector2d dir) {
+        double maxValue = -Double.MAX_VALUE;
+        for (int i = 0; i < points.length; i += 2) {
+            double px = points[i] - (width - 1.0) / 2.0;
+            double py = points[i + 1] - (height - 1.0) / 2.0;
+            maxValue = Math.max(maxValue, px * dir.x + py * dir.y);
+        }
         return maxValue;
     }
 
-    static double supportCorners(int width, int height, int[] mask, Vector2d dir) {
+    // The points are the pixel corners of maskHull(mask, width, height, true)
+    static double supportCorners(int width, int height, int[] points, Vector2d dir) {
         double maxValue = -Double.MAX_VALUE;
         double centerX = width / 2.0;
         double centerY = height / 2.0;
-        Vector2d p = new Vector2d();
-        for (int y = height-1; y >= 0; --y) {
-            for (int x = 0; x < width; ++x) {
-                if (mask[x + (height - y - 1) * width] != 0) {
-                    p.x = x + 0 - centerX;
-                    p.y = y + 0 - centerY;
-                    maxValue = Math.max(maxValue, p.dot(dir));
-
-                    p.x = x + 1 - centerX;
-                    p.y = y + 0 - centerY;
-                    maxValue = Math.max(maxValue, p.dot(dir));
-
-                    p.x = x + 1 - centerX;
-                    p.y = y + 1 - centerY;
-                    maxValue = Math.max(maxValue, p.dot(dir));
-
-                    p.x = x + 0 - centerX;
-                    p.y = y + 1 - centerY;
-                    maxValue = Math.max(maxValue, p.dot(dir));
-                }
-            }
+        for (int i = 0; i < points.length; i += 2) {
+            double px = points[i] - centerX;
+            double py = points[i + 1] - centerY;
+            maxValue = Math.max(maxValue, px * dir.x + py * dir.y);
         }
         return maxValue;
     }
 
-
-    static boolean validHull(Point[] points, int[] mask, int width, int height) {
+    // The hull is valid if it contains all the pixels of the mask, i.e. all the points of maskHull(mask, width, height, false)
+    static boolean validHull(Point[] points, int[] maskPoints) {
         int n = points.length;
         for (int i = 0; i < n; ++i) {
             Point p0 = points[(i+1) % n];
             Point p1 = points[i];
-            Vector2d normal = new Vector2d(-(p1.y - p0.y), p1.x - p0.x);
-            normal.normalize();
-            Vector2d p = new Vector2d();
-
-            for (int y = height-1; y >= 0; --y) {
-                for (int x = 0; x < width; ++x) {
-                    if (mask[x + (height - y - 1) * width] != 0) {
-                        p.x = p0.x - x;
-                        p.y = p0.y - y;
-                        double distance = p.dot(normal);
-                        if (distance < -0.01) // TODO: Epsilon for floats...
-                            return false;
-                    }
-                }
+            // Same as normalizing a Vector2d
+            double nx = -(p1.y - p0.y);
+            double ny = p1.x - p0.x;
+            double norm = 1.0 / Math.sqrt(nx * nx + ny * ny);
+            nx *= norm;
+            ny *= norm;
+
+            for (int j = 0; j < maskPoints.length; j += 2) {
+                double px = p0.x - maskPoints[j];
+                double py = p0.y - maskPoints[j + 1];
+                double distance = px * nx + py * ny;
+                if (distance < -0.01) // TODO: Epsilon for floats...
+                    return false;
             }
         }
 
         return true;
     }
 
-    static Point[] refine(Point[] points, int[] mask, int width, int height) {
+    static Point[] refine(Point[] points, int[] maskPoints) {
         int n = points.length;
 
         boolean wasRefined;
@@ -273,7 +327,7 @@ public class ConvexHull2D {
                 Point[] refined = new Point[n-1];
                 System.arraycopy(points, 0, refined, 0, i);
                 System.arraycopy(points, i + 1, refined, i, n - i - 1);
-                if (validHull(refined, mask, width, height)) {
+                if (validHull(refined, maskPoints)) {
                     // Successfully removed a point
                     points = refined;
                     --n;
@@ -287,32 +341,6 @@ public class ConvexHull2D {
         return points;
     }
 
-
-    static private boolean validHullF(PointF[] points, int[] mask, int width, int height) {
-        int n = points.length;
-        for (int i = 0; i < n; ++i) {
-            PointF p0 = points[(i+1) % n];
-            PointF p1 = points[i];
-            Vector2d normal = new Vector2d(-(p1.y - p0.y), p1.x - p0.x);
-            normal.normalize();
-            Vector2d p = new Vector2d();
-
-            for (int y = height-1; y >= 0; --y) {
-                for (int x = 0; x < width; ++x) {
-                    if (mask[x + (height - y - 1) * width] != 0) {
-                        p.x = p0.x - x;
-                        p.y = p0.y - y;
-                        double distance = p.dot(normal);
-                        if (distance < -0.01) // TODO: Epsilon for floats...
-                            return false;
-                    }
-                }
-            }
-        }
-
-        return true;
-    }
-
     /**
      * Get convex shape for a single image
      * @note the planes are always evenly distributed around the center at 360/nplanes increments
@@ -323,6 +351,7 @@ public class ConvexHull2D {
      * @return convex hull
      */
     public static Point[] imageConvexHull(int[] mask, int width, int height, int nplanes) {
+        int[] maskPoints = maskHull(mask, width, height, false);
         Vector2d[] points = new Vector2d[nplanes];
         Vector2d[] tangents = new Vector2d[nplanes];
 
@@ -335,7 +364,7 @@ public class ConvexHull2D {
             dir.normalize();
             tangents[i] = new Vector2d(-dir.y, dir.x);
 
-            double max = supportCenter(width, height, mask, dir);
+            double max = supportCenter(width, height, maskPoints, dir);
 
             // Create a point from the direction and distance
             dir.scale(max);
@@ -374,7 +403,7 @@ public class ConvexHull2D {
         }
 
         Point[] distinct = Arrays.copyOf(result, npoints);
-        return refine(distinct, mask, width, height);
+        return refine(distinct, maskPoints);
     }
 
     private static double areaX2(PointF p0, PointF p1, PointF p2) {
@@ -483,6 +512,7 @@ public class ConvexHull2D {
      */
     public static PointF[] imageConvexHullCorners(int[] mask, int width, int height, int targetCount) {
         final int nplanes = 16;
+        int[] maskPoints = maskHull(mask, width, height, true);
         Vector2d[] points = new Vector2d[nplanes];
         Vector2d[] tangents = new Vector2d[nplanes];
 
@@ -495,7 +525,7 @@ public class ConvexHull2D {
             dir.normalize();
             tangents[i] = new Vector2d(-dir.y, dir.x);
 
-            double max = supportCorners(width, height, mask, dir);
+            double max = supportCorners(width, height, maskPoints, dir);
 
             // Create a point from the direction and distance
             dir.scale(max);
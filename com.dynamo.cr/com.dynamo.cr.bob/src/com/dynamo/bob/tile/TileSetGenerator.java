@@ -101,6 +101,14 @@ public class TileSetGenerator {
     }
 
     public static TextureSetResult generate(TileSet tileSet, BufferedImage image, BufferedImage collisionImage) {
+        return generate(tileSet, image, collisionImage, 1);
+    }
+
+    /**
+     * Generate the texture set of a tile set
+     * @param threadCount max number of threads to use, e.g. the max-cpu-threads of the project
+     */
+    public static TextureSetResult generate(TileSet tileSet, BufferedImage image, BufferedImage collisionImage, int threadCount) {
         Rect imageRect = image != null ? new Rect(null, -1, image.getWidth(), image.getHeight()) : null;
         Rect collisionRect = collisionImage != null ? new Rect(null, -1, collisionImage.getWidth(), collisionImage.getHeight()) : null;
         TileSetUtil.Metrics metrics = TileSetUtil.calculateMetrics(imageRect, tileSet.getTileWidth(),
@@ -137,7 +145,7 @@ public class TileSetGenerator {
         Grid grid_size = new Grid(metrics.tilesPerRow, metrics.tilesPerColumn);
         TextureSetResult result = TextureSetGenerator.generate(images, imageHullSizes, names, iterator, 0,
                 tileSet.getInnerPadding(),
-                tileSet.getExtrudeBorders(), false, true, grid_size );
+                tileSet.getExtrudeBorders(), false, true, grid_size, threadCount);
 
         TextureSet.Builder builder = result.builder;
 
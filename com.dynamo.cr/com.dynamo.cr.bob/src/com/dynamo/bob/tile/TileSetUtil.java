@@ -136,32 +136,35 @@ public class TileSetUtil {
         }
         return true;
     }
-    private static int nonzeroValue(int[] mask, int width, int height, int x, int y, int kernelSize)
-    {
+    // Dilation with a square kernel is done as a horizontal pass followed by a vertical pass,
+    // counting the nonzero pixels within the kernel as it slides along each row and column
+    private static int[] dilate(int[] mask, int width, int height, int kernelSize) {
         int kernelHalfSize = kernelSize / 2;
-        for (int ky = -kernelHalfSize; ky <= kernelHalfSize; ++ky) {
-            int yy = y + ky;
-            if (yy < 0 || yy >= height)
-                continue;
-            for (int kx = -kernelHalfSize; kx <= kernelHalfSize; ++kx) {
-                int xx = x + kx;
-                if (xx < 0 || xx >= width)
-                    continue;
-                if (mask[yy * width + xx] != 0)
-                    return 1;
-            }
-        }
-        return 0;
+        int[] rows = new int[width*height];
+        dilatePass(mask, rows, height, width, width, 1, kernelHalfSize);
+        int[] tmp = new int[width*height];
+        dilatePass(rows, tmp, width, height, 1, width, kernelHalfSize);
+        return tmp;
     }
 
-    private static int[] dilate(int[] mask, int width, int height, int kernelSize) {
-        int[] tmp = new int[width*height];
-        for (int y = 0; y < height; ++y) {
-            for (int x = 0; x < width; ++x) {
-                tmp[y * width + x] = nonzeroValue(mask, width, height, x, y, kernelSize);
+    // Dilate lineCount lines of lineLength pixels. Pixel i of a line is at lineStride * line + pixelStride * i.
+    private static void dilatePass(int[] src, int[] dst, int lineCount, int lineLength, int lineStride, int pixelStride, int kernelHalfSize) {
+        for (int line = 0; line < lineCount; ++line) {
+            int offset = line * lineStride;
+            int count = 0;
+            for (int i = 0; i < Math.min(kernelHalfSize, lineLength); ++i) {
+                count += src[offset + i * pixelStride] != 0 ? 1 : 0;
+            }
+            for (int i = 0; i < lineLength; ++i) {
+                int enter = i + kernelHalfSize;
+                int leave = i - kernelHalfSize - 1;
+                if (enter < lineLength && src[offset + enter * pixelStride] != 0)
+                    ++count;
+                if (leave >= 0 && src[offset + leave * pixelStride] != 0)
+                    --count;
+                dst[offset + i * pixelStride] = count != 0 ? 1 : 0;
             }
         }
-        return tmp;
     }
 
     private static boolean isEmpty(int[] mask, int width, int height) {
@@ -0,0 +1,101 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.util;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Wait for tasks run by an executor and rethrow what the task threw, instead of the
+ * ExecutionException wrapping it.
+ *
+ * If the waiting thread is interrupted, its interrupt status is restored and a RuntimeException
+ * is thrown. A checked exception the caller doesn't declare is wrapped in a RuntimeException.
+ */
+public class FutureUtil {
+
+    /**
+     * Wait for the result of a task that only throws unchecked exceptions
+     * @param future task
+     * @return result of the task
+     */
+    public static <T> T get(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw interrupted(e);
+        } catch (ExecutionException e) {
+            throw unchecked(e.getCause());
+        }
+    }
+
+    /**
+     * Wait for the result of a task
+     * @param future task
+     * @param exceptionClass checked exception thrown by the task
+     * @return result of the task
+     * @throws E if the task threw it
+     */
+    public static <T, E extends Exception> T get(Future<T> future, Class<E> exceptionClass) throws E {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw interrupted(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (exceptionClass.isInstance(cause)) {
+                throw exceptionClass.cast(cause);
+            }
+            throw unchecked(cause);
+        }
+    }
+
+    /**
+     * Wait for the result of a task
+     * @param future task
+     * @param exceptionClass1 checked exception thrown by the task
+     * @param exceptionClass2 other checked exception thrown by the task
+     * @return result of the task
+     * @throws E1 if the task threw it
+     * @throws E2 if the task threw it
+     */
+    public static <T, E1 extends Exception, E2 extends Exception> T get(Future<T> future, Class<E1> exceptionClass1, Class<E2> exceptionClass2) throws E1, E2 {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw interrupted(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (exceptionClass1.isInstance(cause)) {
+                throw exceptionClass1.cast(cause);
+            } else if (exceptionClass2.isInstance(cause)) {
+                throw exceptionClass2.cast(cause);
+            }
+            throw unchecked(cause);
+        }
+    }
+
+    private static RuntimeException interrupted(InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return new RuntimeException("Interrupted while waiting for a task", e);
+    }
+
+    private static RuntimeException unchecked(Throwable cause) {
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new RuntimeException(cause);
+    }
+}
@@ -0,0 +1,171 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package com.dynamo.bob.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Library cache shared by the projects on a machine, e.g. by the CI jobs of a build agent.
+ *
+ * Library zips are stored by the sha1 of their content, so a library used by many projects is
+ * stored once. For each library URL the cache records the ETag and the sha1 of the zip last
+ * downloaded from it. A project that doesn't have a library yet sends the ETag of the cache in
+ * its request, and copies the zip from the cache if the server answers that it hasn't changed.
+ *
+ * Files are written to a temporary name and moved in place, so bob processes can use the same
+ * cache at the same time without locking it.
+ */
+public class LibraryCache {
+
+    private static final String ZIPS_DIR = "zips";
+    private static final String URLS_DIR = "urls";
+
+    private final File folder;
+
+    /**
+     * @param folder folder of the cache, created when the first library is added
+     */
+    public LibraryCache(File folder) {
+        this.folder = folder;
+    }
+
+    public File getFolder() {
+        return folder;
+    }
+
+    private File getEntryFile(URL url) {
+        return new File(new File(folder, URLS_DIR), FilenameUtils.getBaseName(LibraryUtil.libUrlToFilename(url)));
+    }
+
+    private File getZipFile(String sha1) {
+        return new File(new File(folder, ZIPS_DIR), sha1 + ".zip");
+    }
+
+    // The entry of a URL, or null if there is none or its zip is missing
+    private Properties readEntry(URL url) throws IOException {
+        File file = getEntryFile(url);
+        if (!file.isFile()) {
+            return null;
+        }
+        Properties entry = new Properties();
+        InputStream input = new FileInputStream(file);
+        try {
+            entry.load(input);
+        } finally {
+            IOUtils.closeQuietly(input);
+        }
+        String sha1 = entry.getProperty("sha1");
+        if (entry.getProperty("etag") == null || sha1 == null || !getZipFile(sha1).isFile()) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Get the ETag of the cached zip of a library
+     * @param url library URL
+     * @return the ETag, or null if no zip of the library is cached
+     * @throws IOException
+     */
+    public String getETag(URL url) throws IOException {
+        Properties entry = readEntry(url);
+        return entry != null ? entry.getProperty("etag") : null;
+    }
+
+    /**
+     * Copy the cached zip of a library
+     * @param url library URL
+     * @param eTag ETag the cached zip must have
+     * @param file file to copy to
+     * @return true if the zip was copied, false if no zip with the ETag is cached
+     * @throws IOException
+     */
+    public boolean copy(URL url, String eTag, File file) throws IOException {
+        Properties entry = readEntry(url);
+        if (entry == null || !entry.getProperty("etag").equals(eTag)) {
+            return false;
+        }
+        File tmp = createTempFile(file);
+        try {
+            Files.copy(getZipFile(entry.getProperty("sha1")).toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmp.delete();
+        }
+        return true;
+    }
+
+    /**
+     * Add a downloaded zip of a library, replacing the previous zip of the URL
+     * @param url library URL
+     * @param eTag ETag of the zip
+     * @param zip the zip
+     * @throws IOException
+     */
+    public void put(URL url, String eTag, File zip) throws IOException {
+        String sha1;
+        InputStream input = new FileInputStream(zip);
+        try {
+            sha1 = DigestUtils.sha1Hex(input);
+        } finally {
+            IOUtils.closeQuietly(input);
+        }
+
+        // Zips are stored by content and never change once moved in place
+        File zipFile = getZipFile(sha1);
+        if (!zipFile.isFile()) {
+            File tmp = createTempFile(zipFile);
+            try {
+                Files.copy(zip.toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                Files.move(tmp.toPath(), zipFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                tmp.delete();
+            }
+        }
+
+        Properties entry = new Properties();
+        entry.setProperty("etag", eTag);
+        entry.setProperty("sha1", sha1);
+        File entryFile = getEntryFile(url);
+        File tmp = createTempFile(entryFile);
+        try {
+            OutputStream output = new FileOutputStream(tmp);
+            try {
+                entry.store(output, url.getHost() + url.getPath());
+            } finally {
+                IOUtils.closeQuietly(output);
+            }
+            Files.move(tmp.toPath(), entryFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    private static File createTempFile(File file) throws IOException {
+        file.getParentFile().mkdirs();
+        return File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+    }
+}
@@ -15,8 +15,10 @@ package com.dynamo.bob.util;
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.security.MessageDigest;
@@ -24,8 +26,11 @@ import java.security.NoSuchAlgorithmException;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -38,6 +43,11 @@ import com.dynamo.bob.LibraryException;
 
 public class LibraryUtil {
 
+    /**
+     * Name of the file in the library folder of a project with the ETags of the library files
+     */
+    public static final String ETAGS_FILENAME = ".etags";
+
     /** Convert the supplied URL into the corresponding filename on disk.
      *
      * @param url Url of the library
@@ -75,6 +85,53 @@ public class LibraryUtil {
         return files;
     }
 
+    /** Read the ETags of the library files of a project, see writeETags.
+     *
+     * @param libDir library folder of the project
+     * @return map of library filename to ETag, empty if the ETags were never written
+     * @throws IOException
+     */
+    public static Map<String, String> readETags(File libDir) throws IOException {
+        Map<String, String> eTags = new HashMap<String, String>();
+        File file = new File(libDir, ETAGS_FILENAME);
+        if (file.isFile()) {
+            Properties properties = new Properties();
+            InputStream input = new FileInputStream(file);
+            try {
+                properties.load(input);
+            } finally {
+                IOUtils.closeQuietly(input);
+            }
+            for (String filename : properties.stringPropertyNames()) {
+                eTags.put(filename, properties.getProperty(filename));
+            }
+        }
+        return eTags;
+    }
+
+    /** Write the ETags of the library files of a project. The ETags are sent in the If-None-Match header
+     * when the libraries are resolved again, so the library files don't have to be opened to read the
+     * version from the zip comment. ETags of files that don't exist are dropped.
+     *
+     * @param libDir library folder of the project
+     * @param eTags map of library filename to ETag
+     * @throws IOException
+     */
+    public static void writeETags(File libDir, Map<String, String> eTags) throws IOException {
+        Properties properties = new Properties();
+        for (Map.Entry<String, String> entry : eTags.entrySet()) {
+            if (new File(libDir, entry.getKey()).isFile()) {
+                properties.setProperty(entry.getKey(), entry.getValue());
+            }
+        }
+        OutputStream output = new FileOutputStream(new File(libDir, ETAGS_FILENAME));
+        try {
+            properties.store(output, null);
+        } finally {
+            IOUtils.closeQuietly(output);
+        }
+    }
+
     /** Find base directory path inside a zip archive from where all include dirs should be based.
     * Effectively searches for the first game.project since all include dirs are relative to this.
     *
@@ -206,6 +206,15 @@ public class ReportGenerator {
             }
             generator.writeEndObject();
 
+            // Build statistics, such as cache hits and misses
+            generator.writeFieldName("statistics");
+            generator.writeStartObject();
+            for (Map.Entry<String, Long> entry : project.getStatistics().entrySet()) {
+                generator.writeFieldName(entry.getKey());
+                generator.writeNumber(entry.getValue());
+            }
+            generator.writeEndObject();
+
             // Resources
             generator.writeFieldName("resources");
             generator.writeStartArray();
@@ -768,4 +768,194 @@ public class RigUtil {
         // Create duplicate of last keyframe
         propertyBuilder.duplicateLast();
     }
+
+    private static int getComponentCount(AnimationTrack.Property property) {
+        return property == AnimationTrack.Property.ROTATION ? 4 : 3;
+    }
+
+    // Same value as toComposite of PositionBuilder, QuatRotationBuilder and ScaleBuilder
+    private static void toComposite(AnimationTrack.Property property, float[] v, double[] out, int offset) {
+        switch (property) {
+        case ROTATION:
+            double x = v[0], y = v[1], z = v[2], w = v[3];
+            double mag = 1.0 / Math.sqrt(x * x + y * y + z * z + w * w);
+            out[offset + 0] = x * mag;
+            out[offset + 1] = y * mag;
+            out[offset + 2] = z * mag;
+            out[offset + 3] = w * mag;
+            break;
+        case POSITION:
+            out[offset + 0] = v[0];
+            out[offset + 1] = v[1];
+            out[offset + 2] = v.length == 3 ? v[2] : 0.0;
+            break;
+        default:
+            out[offset + 0] = v[0];
+            out[offset + 1] = v[1];
+            out[offset + 2] = v[2];
+            break;
+        }
+    }
+
+    // Same value as interpolate of PositionBuilder, QuatRotationBuilder and ScaleBuilder, i.e. Tuple3d.interpolate and Quat4d.interpolate
+    private static void interpolate(AnimationTrack.Property property, double t, double[] a, int ia, double[] b, int ib, double[] out, int offset) {
+        if (property != AnimationTrack.Property.ROTATION) {
+            for (int c = 0; c < 3; ++c) {
+                out[offset + c] = (1.0 - t) * a[ia + c] + t * b[ib + c];
+            }
+            return;
+        }
+        double dot = b[ib + 0] * a[ia + 0] + b[ib + 1] * a[ia + 1] + b[ib + 2] * a[ia + 2] + b[ib + 3] * a[ia + 3];
+        double sign = 1.0;
+        if (dot < 0.0) {
+            sign = -1.0;
+            dot = -dot;
+        }
+        double s1, s2;
+        if ((1.0 - dot) > 1.0e-12) {
+            double om = Math.acos(dot);
+            double sinom = Math.sin(om);
+            s1 = Math.sin((1.0 - t) * om) / sinom;
+            s2 = Math.sin(t * om) / sinom;
+        } else {
+            s1 = 1.0 - t;
+            s2 = t;
+        }
+        for (int c = 0; c < 4; ++c) {
+            out[offset + c] = s1 * (sign * a[ia + c]) + s2 * b[ib + c];
+        }
+    }
+
+    /**
+     * Sample a position, rotation or scale track into a float buffer. Gives the same samples as
+     * sampleTrack with a PositionBuilder, QuatRotationBuilder or ScaleBuilder, without creating any
+     * objects per sample.
+     *
+     * Unlike sampleTrack the last sample isn't duplicated, see reduceSamples, and any number of
+     * samples can be taken, also past the duration of the animation.
+     * @param track track to sample, rotations have 4 components per sample, positions and scale 3
+     * @param defaultValue value before the first key
+     * @param startTime time of the first sample
+     * @param sampleCount number of samples, sampleTrack takes ceil(duration * sampleRate) + 1
+     * @param sampleRate samples per second
+     * @param spf seconds per sample
+     * @param interpolate whether to interpolate between the keys, or step
+     * @return the samples, or null if the track has no keys
+     */
+    public static float[] sampleTrack(AnimationTrack track, float[] defaultValue, double startTime, int sampleCount, double sampleRate, double spf, boolean interpolate) {
+        if (track.keys.isEmpty()) {
+            return null;
+        }
+
+        int components = getComponentCount(track.property);
+        int keyCount = track.keys.size();
+        double[] keyValues = new double[keyCount * components];
+        for (int k = 0; k < keyCount; ++k) {
+            toComposite(track.property, track.keys.get(k).value, keyValues, k * components);
+        }
+        double[] defaultComposite = new double[components];
+        toComposite(track.property, defaultValue, defaultComposite, 0);
+        double[] value = new double[components];
+
+        float[] samples = new float[sampleCount * components];
+        double halfSample = spf / 2.0;
+        int keyIndex = 0;
+        AnimationKey key = null;
+        AnimationKey next = track.keys.get(keyIndex);
+        int startI = (int)(startTime*sampleRate);
+        for (int i = 0; i < sampleCount; ++i) {
+            double cursor = (startI + i) * spf;
+            // Skip passed keys, see sampleTrack
+            while ((next != null && next.t <= cursor) || (key == null && Math.abs(next.t - cursor) < EPSILON)) {
+                key = next;
+                ++keyIndex;
+                if (keyIndex < keyCount) {
+                    next = track.keys.get(keyIndex);
+                } else {
+                    next = null;
+                }
+            }
+            double[] source = keyValues;
+            int sourceOffset;
+            if (key != null) {
+                if (next != null) {
+                    if (key.stepped || !interpolate) {
+                        double keyChangePoint = next.t - halfSample;
+                        sourceOffset = (cursor > keyChangePoint ? keyIndex : keyIndex - 1) * components;
+                    } else {
+                        double t = (cursor - key.t) / (next.t - key.t);
+                        if (key.curve != null && key.curve.interpolation == CurveIntepolation.BEZIER) {
+                            t = evalCurve(key.curve, t);
+                        }
+                        interpolate(track.property, t, keyValues, (keyIndex - 1) * components, keyValues, keyIndex * components, value, 0);
+                        source = value;
+                        sourceOffset = 0;
+                    }
+                } else {
+                    // Last key reached, use its value for remaining samples
+                    sourceOffset = (keyCount - 1) * components;
+                }
+            } else {
+                // No valid key yet, use default value
+                source = defaultComposite;
+                sourceOffset = 0;
+            }
+            for (int c = 0; c < components; ++c) {
+                samples[i * components + c] = (float)source[sourceOffset + c];
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Get the max error of the samples of a track if only every factor:th sample is kept, and the
+     * samples in between are interpolated from them like the runtime does, i.e. linearly for
+     * positions and scale, and spherically for rotations.
+     * @param property property of the track, see sampleTrack
+     * @param samples samples of the track, at least (sampleCount - 1) rounded up to a multiple of factor, plus one
+     * @param sampleCount number of samples the animation has at the full sample rate
+     * @param factor keep every factor:th sample
+     * @return max difference of any component of any sample
+     */
+    public static double getReductionError(AnimationTrack.Property property, float[] samples, int sampleCount, int factor) {
+        int components = getComponentCount(property);
+        double[] values = new double[components * 3];
+        double maxError = 0.0;
+        for (int i = 0; i < sampleCount; ++i) {
+            int j = i / factor;
+            int rest = i - j * factor;
+            if (rest == 0) {
+                continue;
+            }
+            for (int c = 0; c < components; ++c) {
+                values[c] = samples[j * factor * components + c];
+                values[components + c] = samples[(j + 1) * factor * components + c];
+            }
+            interpolate(property, rest / (double)factor, values, 0, values, components, values, components * 2);
+            for (int c = 0; c < components; ++c) {
+                maxError = Math.max(maxError, Math.abs(values[components * 2 + c] - samples[i * components + c]));
+            }
+        }
+        return maxError;
+    }
+
+    /**
+     * Keep every factor:th sample of a track, and duplicate the last one like sampleTrack does so
+     * the runtime can interpolate up to the end of the animation. The animation must be played at
+     * the sample rate divided by the factor.
+     * @param samples samples of the track, see getReductionError
+     * @param components number of components per sample
+     * @param sampleCount number of samples the animation has at the full sample rate
+     * @param factor keep every factor:th sample, 1 to keep all
+     * @return the remaining samples
+     */
+    public static float[] reduceSamples(float[] samples, int components, int sampleCount, int factor) {
+        int reducedCount = (sampleCount - 1 + factor - 1) / factor + 1;
+        float[] reduced = new float[(reducedCount + 1) * components];
+        for (int j = 0; j < reducedCount; ++j) {
+            System.arraycopy(samples, j * factor * components, reduced, j * components, components);
+        }
+        System.arraycopy(reduced, (reducedCount - 1) * components, reduced, reducedCount * components, components);
+        return reduced;
+    }
 }
@@ -14,24 +14,29 @@ package com.dynamo.bob.util;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
 
 import javax.vecmath.Point2d;
 import javax.vecmath.Point3d;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.ArrayUtils;
 import org.codehaus.jackson.JsonNode;
 import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
 import org.codehaus.jackson.map.JsonMappingException;
 import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.node.ObjectNode;
 
 import com.dynamo.bob.textureset.TextureSetGenerator.UVTransform;
 import com.dynamo.bob.util.RigUtil.Bone;
@@ -70,6 +75,12 @@ public class SpineSceneUtil {
 
     public static int slotSignalUnchanged = 0x10CCED;
 
+    // Thread safe once configured, shared to not create one per load
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    // Sections of the json needed before the animations can be loaded
+    private static final Set<String> SCENE_SECTIONS = new HashSet<String>(Arrays.asList("bones", "ik", "slots", "skins", "events", "skeleton"));
+
     public String spineVersion = null;
     public String[] spineVersionParts = null;
     public boolean localBoneScaling = true;
@@ -655,6 +666,53 @@ public class SpineSceneUtil {
         }
     }
 
+    // Load the sections of the scene as trees, and the animations one at a time as the parser reaches
+    // them. Returns false if a section the animations depend on isn't before the animations.
+    private static boolean loadStreaming(SpineSceneUtil scene, byte[] content, UVTransformProvider uvTransformProvider) throws IOException, LoadException {
+        JsonParser parser = mapper.getJsonFactory().createJsonParser(content);
+        try {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return false;
+            }
+            ObjectNode node = mapper.createObjectNode();
+            boolean animationsLoaded = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                parser.nextToken();
+                if (SCENE_SECTIONS.contains(name) || (animationsLoaded && name.equals("animations"))) {
+                    if (animationsLoaded) {
+                        return false;
+                    }
+                    node.put(name, parser.<JsonNode>readValueAsTree());
+                } else if (name.equals("animations")) {
+                    if (!node.has("bones") || !node.has("slots") || !node.has("skins")) {
+                        return false;
+                    }
+                    animationsLoaded = true;
+                    if (loadScene(scene, node, uvTransformProvider) && parser.getCurrentToken() == JsonToken.START_OBJECT) {
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            Animation animation = new Animation();
+                            animation.name = parser.getCurrentName();
+                            parser.nextToken();
+                            scene.loadAnimation(parser.<JsonNode>readValueAsTree(), animation);
+                            scene.animations.put(animation.name, animation);
+                        }
+                    } else {
+                        parser.skipChildren();
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (!animationsLoaded) {
+                loadScene(scene, node, uvTransformProvider);
+            }
+            return true;
+        } finally {
+            parser.close();
+        }
+    }
+
     private static long getIteratorSize(Iterator<?> iterator) {
         long size = 0;
         while (iterator.hasNext()) {
@@ -822,133 +880,161 @@ public class SpineSceneUtil {
         return defaultNode;
     }
 
-    public static SpineSceneUtil loadJson(InputStream is, UVTransformProvider uvTransformProvider) throws LoadException {
-        SpineSceneUtil scene = new SpineSceneUtil();
-        ObjectMapper m = new ObjectMapper();
-        try {
-            JsonNode node = m.readValue(new InputStreamReader(is, "UTF-8"), JsonNode.class);
-            Iterator<JsonNode> boneIt = node.get("bones").getElements();
-            while (boneIt.hasNext()) {
-                JsonNode boneNode = boneIt.next();
-                scene.loadBone(boneNode);
-            }
-            JsonNode ikNode = node.get("ik");
-            if (ikNode != null) {
-                Iterator<JsonNode> ikIt = ikNode.getElements();
-                while (ikIt.hasNext()) {
-                    scene.loadIK(ikIt.next());
-                }
+    // Load everything but the animations from the sections of the scene. Returns false if the scene
+    // has no skins or slots, in which case the animations aren't loaded either.
+    private static boolean loadScene(SpineSceneUtil scene, JsonNode node, UVTransformProvider uvTransformProvider) throws LoadException {
+        Iterator<JsonNode> boneIt = node.get("bones").getElements();
+        while (boneIt.hasNext()) {
+            JsonNode boneNode = boneIt.next();
+            scene.loadBone(boneNode);
+        }
+        JsonNode ikNode = node.get("ik");
+        if (ikNode != null) {
+            Iterator<JsonNode> ikIt = ikNode.getElements();
+            while (ikIt.hasNext()) {
+                scene.loadIK(ikIt.next());
             }
-            if (!node.has("slots")) {
-                return scene;
+        }
+        if (!node.has("slots")) {
+            return false;
+        }
+        Iterator<JsonNode> slotIt = node.get("slots").getElements();
+        int slotIndex = 0;
+        int slotCount = 0;
+        while (slotIt.hasNext()) {
+            JsonNode slotNode = slotIt.next();
+            String attachment = JsonUtil.get(slotNode, "attachment", (String)null);
+            String boneName = slotNode.get("bone").asText();
+            String slotName = JsonUtil.get(slotNode, "name", (String)null);
+            Bone bone = scene.getBone(boneName);
+            if (bone == null) {
+                throw new LoadException(String.format("The bone '%s' of attachment '%s' does not exist.", boneName, attachment));
             }
-            Iterator<JsonNode> slotIt = node.get("slots").getElements();
-            int slotIndex = 0;
-            int slotCount = 0;
-            while (slotIt.hasNext()) {
-                JsonNode slotNode = slotIt.next();
-                String attachment = JsonUtil.get(slotNode, "attachment", (String)null);
-                String boneName = slotNode.get("bone").asText();
-                String slotName = JsonUtil.get(slotNode, "name", (String)null);
-                Bone bone = scene.getBone(boneName);
-                if (bone == null) {
-                    throw new LoadException(String.format("The bone '%s' of attachment '%s' does not exist.", boneName, attachment));
-                }
 
-                BaseSlot slot = new BaseSlot(slotName, slotIndex, bone, attachment);
-                JsonUtil.hexToRGBA(JsonUtil.get(slotNode,  "color",  "ffffffff"), slot.color);
-                scene.baseSlots.add(slot);
-                scene.baseSlotsLut.put(slotName, slot);
+            BaseSlot slot = new BaseSlot(slotName, slotIndex, bone, attachment);
+            JsonUtil.hexToRGBA(JsonUtil.get(slotNode,  "color",  "ffffffff"), slot.color);
+            scene.baseSlots.add(slot);
+            scene.baseSlotsLut.put(slotName, slot);
 
-                ++slotIndex;
-                ++slotCount;
-            }
-            scene.slotCount = slotCount;
-
-            // Gather all available attachment points in all slots.
-            // We do this by looping over all the different skins and their slots.
-            getAllAttachments(node.get("skins"), scene);
-
-            if (node.has("events")) {
-                Iterator<Map.Entry<String, JsonNode>> eventIt = node.get("events").getFields();
-                while (eventIt.hasNext()) {
-                    Map.Entry<String, JsonNode> eventEntry = eventIt.next();
-                    Event event = new Event();
-                    event.name = eventEntry.getKey();
-                    JsonNode eventNode = eventEntry.getValue();
-                    event.stringPayload = JsonUtil.get(eventNode, "string", "");
-                    event.intPayload = JsonUtil.get(eventNode, "int", 0);
-                    event.floatPayload = JsonUtil.get(eventNode, "float", 0.0f);
-                    scene.events.put(event.name, event);
-                }
-            }
-            if (!node.has("skins")) {
-                return scene;
+            ++slotIndex;
+            ++slotCount;
+        }
+        scene.slotCount = slotCount;
+
+        // Gather all available attachment points in all slots.
+        // We do this by looping over all the different skins and their slots.
+        getAllAttachments(node.get("skins"), scene);
+
+        if (node.has("events")) {
+            Iterator<Map.Entry<String, JsonNode>> eventIt = node.get("events").getFields();
+            while (eventIt.hasNext()) {
+                Map.Entry<String, JsonNode> eventEntry = eventIt.next();
+                Event event = new Event();
+                event.name = eventEntry.getKey();
+                JsonNode eventNode = eventEntry.getValue();
+                event.stringPayload = JsonUtil.get(eventNode, "string", "");
+                event.intPayload = JsonUtil.get(eventNode, "int", 0);
+                event.floatPayload = JsonUtil.get(eventNode, "float", 0.0f);
+                scene.events.put(event.name, event);
             }
+        }
+        if (!node.has("skins")) {
+            return false;
+        }
 
-            JsonNode skeleton = node.get("skeleton");
-            scene.spineVersion = (skeleton != null) ? JsonUtil.get(skeleton, "spine", (String) null) : null;
+        JsonNode skeleton = node.get("skeleton");
+        scene.spineVersion = (skeleton != null) ? JsonUtil.get(skeleton, "spine", (String) null) : null;
 
-            // If Spine version is 3 and above it uses a different scaling model than 2.x.
-            if (scene.spineVersion != null) {
-                scene.spineVersionParts = scene.spineVersion.split("\\.");
-                if (scene.spineVersionParts != null && Integer.parseInt(scene.spineVersionParts[0]) >= 3) {
-                    scene.localBoneScaling = false;
-                }
+        // If Spine version is 3 and above it uses a different scaling model than 2.x.
+        if (scene.spineVersion != null) {
+            scene.spineVersionParts = scene.spineVersion.split("\\.");
+            if (scene.spineVersionParts != null && Integer.parseInt(scene.spineVersionParts[0]) >= 3) {
+                scene.localBoneScaling = false;
             }
+        }
 
-            // Load default skin first since other skins will be based on this.
-            JsonNode defaultSkinNode = findDefaultSkin(scene.spineVersionParts, node.get("skins"));
-            if (defaultSkinNode == null) {
-                throw new LoadException("No default skin found!");
-            }
-            scene.defaultSkin = loadSkin(scene, "default", defaultSkinNode, uvTransformProvider);
-
-            // Since Spine 3.8 the skins node will be an array of dict, instead of
-            // a dict with skin name as a key, and skin content as value.
-            if (scene.spineVersionParts != null &&
-                Integer.parseInt(scene.spineVersionParts[0]) >= 3 &&
-                Integer.parseInt(scene.spineVersionParts[1]) >= 8) {
-
-                Iterator<JsonNode> skinIt = node.get("skins").getElements();
-                while (skinIt.hasNext()) {
-                    JsonNode skinNode = skinIt.next();
-                    String skinName = JsonUtil.get(skinNode, "name", "");
-                    JsonNode attachments = skinNode.get("attachments");
-
-                    if (!skinName.equals("default"))
-                    {
-                        List<SkinSlot> skin = loadSkin(scene, skinName, attachments, uvTransformProvider);
-                        scene.skins.put(skinName, skin);
-                    }
+        // Load default skin first since other skins will be based on this.
+        JsonNode defaultSkinNode = findDefaultSkin(scene.spineVersionParts, node.get("skins"));
+        if (defaultSkinNode == null) {
+            throw new LoadException("No default skin found!");
+        }
+        scene.defaultSkin = loadSkin(scene, "default", defaultSkinNode, uvTransformProvider);
+
+        // Since Spine 3.8 the skins node will be an array of dict, instead of
+        // a dict with skin name as a key, and skin content as value.
+        if (scene.spineVersionParts != null &&
+            Integer.parseInt(scene.spineVersionParts[0]) >= 3 &&
+            Integer.parseInt(scene.spineVersionParts[1]) >= 8) {
+
+            Iterator<JsonNode> skinIt = node.get("skins").getElements();
+            while (skinIt.hasNext()) {
+                JsonNode skinNode = skinIt.next();
+                String skinName = JsonUtil.get(skinNode, "name", "");
+                JsonNode attachments = skinNode.get("attachments");
+
+                if (!skinName.equals("default"))
+                {
+                    List<SkinSlot> skin = loadSkin(scene, skinName, attachments, uvTransformProvider);
+                    scene.skins.put(skinName, skin);
                 }
-            } else {
-                // Spine version below 3.8
-                Iterator<Map.Entry<String, JsonNode>> skinIt = node.get("skins").getFields();
-                while (skinIt.hasNext()) {
-                    Map.Entry<String, JsonNode> entry = skinIt.next();
-                    String skinName = entry.getKey();
-                    JsonNode skinNode = entry.getValue();
-                    if (!skinName.equals("default"))
-                    {
-                        List<SkinSlot> skin = loadSkin(scene, skinName, skinNode, uvTransformProvider);
-                        scene.skins.put(skinName, skin);
-                    }
+            }
+        } else {
+            // Spine version below 3.8
+            Iterator<Map.Entry<String, JsonNode>> skinIt = node.get("skins").getFields();
+            while (skinIt.hasNext()) {
+                Map.Entry<String, JsonNode> entry = skinIt.next();
+                String skinName = entry.getKey();
+                JsonNode skinNode = entry.getValue();
+                if (!skinName.equals("default"))
+                {
+                    List<SkinSlot> skin = loadSkin(scene, skinName, skinNode, uvTransformProvider);
+                    scene.skins.put(skinName, skin);
                 }
             }
+        }
 
-            if (!node.has("animations")) {
-                return scene;
-            }
-            scene.loadAnimations(node.get("animations"));
+        return true;
+    }
+
+    /**
+     * Load scene from spine json
+     * @param is spine json
+     * @param uvTransformProvider transforms of the uvs of the attachments
+     * @return loaded scene
+     * @throws LoadException
+     */
+    public static SpineSceneUtil loadJson(InputStream is, UVTransformProvider uvTransformProvider) throws LoadException {
+        try {
+            return loadJson(IOUtils.toByteArray(is), uvTransformProvider);
+        } catch (IOException e) {
+            throw new LoadException(e.getMessage());
+        }
+    }
 
+    /**
+     * Load scene from spine json. The animations are read one at a time from the parser instead of
+     * reading the whole json into a tree first, since they make up most of large exports.
+     * @param content spine json
+     * @param uvTransformProvider transforms of the uvs of the attachments
+     * @return loaded scene
+     * @throws LoadException
+     */
+    public static SpineSceneUtil loadJson(byte[] content, UVTransformProvider uvTransformProvider) throws LoadException {
+        try {
+            SpineSceneUtil scene = new SpineSceneUtil();
+            if (!loadStreaming(scene, content, uvTransformProvider)) {
+                // The animations depend on a section that comes after them, load the whole tree
+                scene = new SpineSceneUtil();
+                JsonNode node = mapper.readTree(content);
+                if (loadScene(scene, node, uvTransformProvider) && node.has("animations")) {
+                    scene.loadAnimations(node.get("animations"));
+                }
+            }
             return scene;
         } catch (JsonParseException e) {
             throw new LoadException(e.getMessage());
         } catch (JsonMappingException e) {
             throw new LoadException(e.getMessage());
-        } catch (UnsupportedEncodingException e) {
-            throw new LoadException(e.getMessage());
         } catch (IOException e) {
             throw new LoadException(e.getMessage());
         }
@@ -15,7 +15,11 @@ package com.dynamo.bob.util;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.WritableRaster;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import com.dynamo.graphics.proto.Graphics.PathSettings;
@@ -120,6 +124,9 @@ public class TextureUtil {
             int type = getImageType(src);
 
             BufferedImage tgt = new BufferedImage(newWidth, newHeight, type);
+            if (extrudeBordersBytes(src, tgt, extrudeBorders)) {
+                return tgt;
+            }
             int numComponents = src.getColorModel().getNumComponents();
             int[] srcPixels = new int[origWidth * origHeight * numComponents];
             src.getRaster().getPixels(0, 0, origWidth, origHeight, srcPixels);
@@ -142,6 +149,54 @@ public class TextureUtil {
         }
     }
 
+    // Get the pixels of an image stored as interleaved bytes, e.g. TYPE_4BYTE_ABGR, or null if it's stored any other way
+    private static byte[] getInterleavedBytes(BufferedImage image, int numComponents) {
+        WritableRaster raster = image.getRaster();
+        if (raster.getParent() != null || !(raster.getDataBuffer() instanceof DataBufferByte)
+                || !(raster.getSampleModel() instanceof PixelInterleavedSampleModel)) {
+            return null;
+        }
+        PixelInterleavedSampleModel sampleModel = (PixelInterleavedSampleModel) raster.getSampleModel();
+        if (sampleModel.getPixelStride() != numComponents || sampleModel.getScanlineStride() != image.getWidth() * numComponents
+                || raster.getDataBuffer().getNumBanks() != 1 || raster.getDataBuffer().getOffset() != 0) {
+            return null;
+        }
+        return ((DataBufferByte) raster.getDataBuffer()).getData();
+    }
+
+    // Extrude the borders by copying the bytes of the pixels, when both images are stored as interleaved
+    // bytes in the same way
+    private static boolean extrudeBordersBytes(BufferedImage src, BufferedImage tgt, int extrudeBorders) {
+        int numComponents = src.getColorModel().getNumComponents();
+        if (src.getType() != tgt.getType() || tgt.getColorModel().getNumComponents() != numComponents) {
+            return false;
+        }
+        byte[] srcBytes = getInterleavedBytes(src, numComponents);
+        byte[] tgtBytes = getInterleavedBytes(tgt, numComponents);
+        if (srcBytes == null || tgtBytes == null
+                || !Arrays.equals(((PixelInterleavedSampleModel) src.getSampleModel()).getBandOffsets(),
+                                  ((PixelInterleavedSampleModel) tgt.getSampleModel()).getBandOffsets())) {
+            return false;
+        }
+
+        int origWidth = src.getWidth();
+        int origHeight = src.getHeight();
+        int newWidth = tgt.getWidth();
+        int srcStride = origWidth * numComponents;
+        int tgtStride = newWidth * numComponents;
+        for (int y = 0; y < tgt.getHeight(); ++y) {
+            int sy = Math.min(Math.max(y - extrudeBorders, 0), origHeight-1);
+            int srcRow = sy * srcStride;
+            int tgtRow = y * tgtStride;
+            for (int x = 0; x < extrudeBorders; ++x) {
+                System.arraycopy(srcBytes, srcRow, tgtBytes, tgtRow + x * numComponents, numComponents);
+                System.arraycopy(srcBytes, srcRow + srcStride - numComponents, tgtBytes, tgtRow + (extrudeBorders + origWidth + x) * numComponents, numComponents);
+            }
+            System.arraycopy(srcBytes, srcRow, tgtBytes, tgtRow + extrudeBorders * numComponents, srcStride);
+        }
+        return true;
+    }
+
     public static BufferedImage depalettiseImage(BufferedImage src) {
         BufferedImage result = null;
         if (BufferedImage.TYPE_BYTE_INDEXED == src.getType() || BufferedImage.TYPE_BYTE_BINARY == src.getType() || src.getColorModel().getNumColorComponents() < 3 || src.getColorModel().getComponentSize(0) > 8) {
@@ -0,0 +1,294 @@
+// Copyright 2020 The Defold Foundation
+// Licensed under the Defold License version 1.0 (the "License"); you may not use
+// this file except in compliance with the License.
+//
+// You may obtain a copy of the License, together with FAQs at
+// https://www.defold.com/license
+//
+// Unless required by applicable law or agreed to in writing, software distributed
+// under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+// CONDITIONS OF ANY KIND, either express or implied. See the License for the
+// specific language governing permissions and limitations under the License.
+
+package org.jagatoo.loaders.models.collada.stax;
+
+import java.util.Arrays;
+
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Parses whitespace separated numbers, e.g. the content of float_array and p elements, straight
+ * from the text of the StAX parser into a primitive array, without building a string of the
+ * whole element first. The text may be appended in any number of chunks, a number split between
+ * two chunks is joined.
+ *
+ * Numbers are separated by the same characters as StringTokenizer splits on by default, and
+ * give the same values as Float.parseFloat and Integer.parseInt. Plain decimal numbers are
+ * parsed without creating a string, anything else is passed to Float.parseFloat or
+ * Integer.parseInt.
+ */
+public abstract class NumberArrayScanner {
+
+    private char[] pending = new char[32];
+    private int pendingLength = 0;
+
+    protected int size = 0;
+
+    private static boolean isSeparator(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+    /**
+     * Parse the text of the current CHARACTERS event of the parser
+     * @param parser StAX parser
+     */
+    public void append(XMLStreamReader parser) {
+        append(parser.getTextCharacters(), parser.getTextStart(), parser.getTextLength());
+    }
+
+    public void append(String text) {
+        char[] chars = text.toCharArray();
+        append(chars, 0, chars.length);
+    }
+
+    public void append(char[] chars, int start, int length) {
+        int end = start + length;
+        int i = start;
+        if (pendingLength > 0) {
+            // Continue the number split at the end of the previous chunk
+            while (i < end && !isSeparator(chars[i])) {
+                appendPending(chars[i++]);
+            }
+            if (i == end) {
+                return;
+            }
+            parse(pending, 0, pendingLength);
+            pendingLength = 0;
+        }
+        while (i < end) {
+            if (isSeparator(chars[i])) {
+                ++i;
+                continue;
+            }
+            int numberStart = i;
+            while (i < end && !isSeparator(chars[i])) {
+                ++i;
+            }
+            if (i == end) {
+                // The number might continue in the next chunk
+                for (int j = numberStart; j < end; ++j) {
+                    appendPending(chars[j]);
+                }
+                return;
+            }
+            parse(chars, numberStart, i - numberStart);
+        }
+    }
+
+    private void appendPending(char c) {
+        if (pendingLength == pending.length) {
+            pending = Arrays.copyOf(pending, pending.length * 2);
+        }
+        pending[pendingLength++] = c;
+    }
+
+    /**
+     * Parse the number at the end of the text, if any. Called after the last chunk.
+     */
+    protected void finish() {
+        if (pendingLength > 0) {
+            parse(pending, 0, pendingLength);
+            pendingLength = 0;
+        }
+    }
+
+    protected static int grow(int capacity) {
+        return Math.max(16, capacity + (capacity >> 1));
+    }
+
+    protected abstract void parse(char[] chars, int start, int length);
+
+    /**
+     * Scanner of float values. Values that Float.parseFloat can't parse, e.g. "-1.#IND00" written
+     * by some Collada exporters (such the default one in Maya), are read as zero.
+     */
+    public static class Floats extends NumberArrayScanner {
+
+        // Exact powers of ten as doubles
+        private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+        };
+
+        private float[] values;
+
+        /**
+         * @param capacity expected number of values, e.g. the count attribute of the element, or -1 if unknown
+         */
+        public Floats(int capacity) {
+            values = new float[Math.max(0, capacity)];
+        }
+
+        @Override
+        protected void parse(char[] chars, int start, int length) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, grow(size));
+            }
+            values[size++] = parseFloat(chars, start, length);
+        }
+
+        /**
+         * Get the values parsed
+         * @return array of exactly the number of values in the text
+         */
+        public float[] toArray() {
+            finish();
+            return size == values.length ? values : Arrays.copyOf(values, size);
+        }
+
+        static float parseFloat(char[] chars, int start, int length) {
+            float value = parseDecimal(chars, start, length);
+            if (!Float.isNaN(value)) {
+                return value;
+            }
+            try {
+                return Float.parseFloat(new String(chars, start, length));
+            } catch (NumberFormatException e) {
+                // Defold-fix:
+                // Some Collada exporters (such the default one in Maya) sometimes output "-1.#IND00" as float entries.
+                // We need to catch the format exception and simply "parse" it as a zero.
+                // In the future we might want to log a build (and Editor 2) warning here, issue; DEF-2917
+                return 0.0f;
+            }
+        }
+
+        // Parse [+-]digits[.digits][(e|E)[+-]digits], returns NaN if the number isn't in that form or
+        // can't be rounded exactly this way, in which case it is left to Float.parseFloat.
+        private static float parseDecimal(char[] chars, int start, int length) {
+            int i = start;
+            int end = start + length;
+            boolean negative = false;
+            if (chars[i] == '-' || chars[i] == '+') {
+                negative = chars[i] == '-';
+                ++i;
+            }
+            long mantissa = 0;
+            int significantDigits = 0;
+            int digits = 0;
+            int exponent = 0;
+            for (; i < end && chars[i] >= '0' && chars[i] <= '9'; ++i, ++digits) {
+                if (mantissa != 0 || chars[i] != '0') {
+                    mantissa = mantissa * 10 + (chars[i] - '0');
+                    ++significantDigits;
+                }
+            }
+            if (i < end && chars[i] == '.') {
+                ++i;
+                for (; i < end && chars[i] >= '0' && chars[i] <= '9'; ++i, ++digits) {
+                    if (mantissa != 0 || chars[i] != '0') {
+                        mantissa = mantissa * 10 + (chars[i] - '0');
+                        ++significantDigits;
+                    }
+                    --exponent;
+                }
+            }
+            if (digits == 0 || significantDigits > 15) {
+                // 15 digits always fit in the 53 bits of a double mantissa
+                return Float.NaN;
+            }
+            if (i < end && (chars[i] == 'e' || chars[i] == 'E')) {
+                ++i;
+                boolean negativeExponent = false;
+                if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+                    negativeExponent = chars[i] == '-';
+                    ++i;
+                }
+                int exponentDigits = 0;
+                int explicitExponent = 0;
+                for (; i < end && chars[i] >= '0' && chars[i] <= '9'; ++i, ++exponentDigits) {
+                    explicitExponent = explicitExponent * 10 + (chars[i] - '0');
+                }
+                if (exponentDigits == 0 || exponentDigits > 4) {
+                    return Float.NaN;
+                }
+                exponent += negativeExponent ? -explicitExponent : explicitExponent;
+            }
+            if (i != end) {
+                return Float.NaN;
+            }
+            if (mantissa == 0) {
+                return negative ? -0.0f : 0.0f;
+            }
+            if (exponent < -22 || exponent > 22) {
+                return Float.NaN;
+            }
+            // Both the mantissa and the power of ten are exact, so the double is correctly rounded
+            double d = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+            if (d < Float.MIN_NORMAL || d > Float.MAX_VALUE) {
+                return Float.NaN;
+            }
+            // Rounding the double to a float gives the correctly rounded float, unless the double is
+            // exactly half way between two floats, in which case the decimal might not be
+            if ((Double.doubleToRawLongBits(d) & 0x1fffffffL) == 0x10000000L) {
+                return Float.NaN;
+            }
+            float f = (float) d;
+            return negative ? -f : f;
+        }
+    }
+
+    /**
+     * Scanner of int values. Values that Integer.parseInt can't parse throw NumberFormatException.
+     */
+    public static class Ints extends NumberArrayScanner {
+
+        private int[] values;
+
+        /**
+         * @param capacity expected number of values, e.g. the count attribute of the element, or -1 if unknown
+         */
+        public Ints(int capacity) {
+            values = new int[Math.max(0, capacity)];
+        }
+
+        @Override
+        protected void parse(char[] chars, int start, int length) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, grow(size));
+            }
+            values[size++] = parseInt(chars, start, length);
+        }
+
+        /**
+         * Get the values parsed
+         * @return array of exactly the number of values in the text
+         */
+        public int[] toArray() {
+            finish();
+            return size == values.length ? values : Arrays.copyOf(values, size);
+        }
+
+        static int parseInt(char[] chars, int start, int length) {
+            int i = start;
+            int end = start + length;
+            boolean negative = false;
+            if (chars[i] == '-' || chars[i] == '+') {
+                negative = chars[i] == '-';
+                ++i;
+            }
+            // Up to 9 digits never overflow
+            if (i == end || end - i > 9) {
+                return Integer.parseInt(new String(chars, start, length));
+            }
+            int value = 0;
+            for (; i < end; ++i) {
+                char c = chars[i];
+                if (c < '0' || c > '9') {
+                    return Integer.parseInt(new String(chars, start, length));
+                }
+                value = value * 10 + (c - '0');
+            }
+            return negative ? -value : value;
+        }
+    }
+}
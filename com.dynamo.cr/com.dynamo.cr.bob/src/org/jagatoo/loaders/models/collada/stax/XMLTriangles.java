@@ -30,7 +30,6 @@
 package org.jagatoo.loaders.models.collada.stax;
 
 import java.util.ArrayList;
-import java.util.List;
 
 import javax.xml.namespace.QName;
 import javax.xml.stream.Location;
@@ -98,8 +97,8 @@ public class XMLTriangles
         // DYNAMO: Buffering fix
         boolean parsing_triangles = false;
         boolean parsing_vcount = false;
-        StringBuffer triangles_buffer = new StringBuffer();
-        StringBuffer vcount_buffer = new StringBuffer();
+        NumberArrayScanner.Ints triangles_scanner = new NumberArrayScanner.Ints(-1);
+        NumberArrayScanner.Ints vcount_scanner = new NumberArrayScanner.Ints(count);
         for ( int event = parser.next(); event != XMLStreamConstants.END_DOCUMENT; event = parser.next() )
         {
             switch ( event )
@@ -118,6 +117,14 @@ public class XMLTriangles
                     {
                         //triangles_buffer.append(StAXHelper.parseText( parser ));
                         parsing_triangles = true;
+                        if ( triangles_scanner.size == 0 )
+                        {
+                            // A triangle has 3 vertices with one index per input offset, for polylists it's the least number of indices
+                            int stride = 0;
+                            for ( XMLInput input : inputs )
+                                stride = Math.max( stride, input.offset + 1 );
+                            triangles_scanner = new NumberArrayScanner.Ints( count * 3 * stride );
+                        }
                     }
                     else if ( parser.getLocalName().equals( "vcount" ) )
                     {
@@ -134,9 +141,9 @@ public class XMLTriangles
                 case XMLStreamConstants.CHARACTERS:
                 {
                     if (parsing_triangles)
-                        triangles_buffer.append(parser.getText());
+                        triangles_scanner.append(parser);
                     else if (parsing_vcount)
-                        vcount_buffer.append(parser.getText());
+                        vcount_scanner.append(parser);
                     break;
                 }
 
@@ -144,43 +151,38 @@ public class XMLTriangles
                 {
                     if ( parser.getLocalName().equals( "triangles" ) )
                     {
-                        p = XMLIntArray.toArray(triangles_buffer.toString());
+                        p = triangles_scanner.toArray();
                         return;
                     }
                     else if ( parser.getLocalName().equals( "polylist" ) )
                     {
-                        p = XMLIntArray.toArray(triangles_buffer.toString());
-                        int[] vcount = XMLIntArray.toArray(vcount_buffer.toString());
+                        p = triangles_scanner.toArray();
+                        int[] vcount = vcount_scanner.toArray();
                         int totalVertexCount = 0;
+                        int triangleCount = 0;
                         for (int vc : vcount) {
                             totalVertexCount += vc;
+                            triangleCount += Math.max(0, vc - 2);
                         }
                         int elementsPerVertex = p.length / totalVertexCount;
 
-                        List<Integer> trianglesP = new ArrayList<Integer>(1024);
-
+                        // Triangulate each polygon as a fan
+                        int[] pPrim = new int[triangleCount * 3 * elementsPerVertex];
+                        int n = 0;
                         int base = 0;
                         for (int vc : vcount) {
                             for (int j = 0; j < vc - 2; ++j) {
-                                for (int i = 0; i < elementsPerVertex; ++i) {
-                                    trianglesP.add(p[base + 0 * elementsPerVertex + i]);
-                                }
-                                for (int i = 0; i < elementsPerVertex; ++i) {
-                                    trianglesP.add(p[base + (j + 1) * elementsPerVertex + i]);
-                                }
-                                for (int i = 0; i < elementsPerVertex; ++i) {
-                                    trianglesP.add(p[base + (j + 2) * elementsPerVertex + i]);
-                                }
+                                System.arraycopy(p, base, pPrim, n, elementsPerVertex);
+                                n += elementsPerVertex;
+                                System.arraycopy(p, base + (j + 1) * elementsPerVertex, pPrim, n, elementsPerVertex);
+                                n += elementsPerVertex;
+                                System.arraycopy(p, base + (j + 2) * elementsPerVertex, pPrim, n, elementsPerVertex);
+                                n += elementsPerVertex;
                             }
                             base += vc * elementsPerVertex;
                         }
 
-                        int[] pPrim = new int[trianglesP.size()];
-                        for (int i = 0; i < pPrim.length; i++) {
-                            pPrim[i] = trianglesP.get(i);
-                        }
-
-                        count = pPrim.length / (3 * elementsPerVertex);
+                        count = triangleCount;
 
                         p = pPrim;
                         return;